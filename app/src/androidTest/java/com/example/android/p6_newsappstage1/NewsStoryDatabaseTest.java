@@ -0,0 +1,74 @@
+package com.example.android.p6_newsappstage1;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the full-text search of {@link NewsStoryDatabase}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsStoryDatabaseTest {
+
+    private static final String URL = "https://www.theguardian.com/test/";
+
+    @Test
+    public void search_matchesWordPrefixesAndRanksTitlesFirst() {
+        NewsStoryDatabase database = NewsStoryDatabase.getInstance(
+                InstrumentationRegistry.getTargetContext());
+        database.save(Arrays.asList(
+                new NewsStory("Markets rally", "Climate", 1000L, URL + "1", "Reporter"),
+                new NewsStory("Climate talks resume", "Environment", 2000L, URL + "2", "Reporter"),
+                new NewsStory("Climate deal signed", "Environment", 3000L, URL + "3", "Reporter")));
+
+        List<NewsStory> newsStories = database.search("clim", 10);
+
+        assertTrue(newsStories.size() >= 3);
+        // Both title matches come before the section match, the newest of them first
+        assertEquals(URL + "3", newsStories.get(0).getUrl());
+        assertEquals(URL + "2", newsStories.get(1).getUrl());
+    }
+
+    @Test
+    public void save_replacesStoredCopy() {
+        NewsStoryDatabase database = NewsStoryDatabase.getInstance(
+                InstrumentationRegistry.getTargetContext());
+        database.save(Arrays.asList(
+                new NewsStory("Old headline zyxwv", "Section", 1000L, URL + "4", "Reporter")));
+        database.save(Arrays.asList(
+                new NewsStory("New headline zyxwv", "Section", 1000L, URL + "4", "Reporter")));
+
+        List<NewsStory> newsStories = database.search("zyxwv", 10);
+
+        assertEquals(1, newsStories.size());
+        assertEquals("New headline zyxwv", newsStories.get(0).getTitle());
+    }
+
+    @Test
+    public void queryLatest_readsBackEveryField() {
+        NewsStoryDatabase database = NewsStoryDatabase.getInstance(
+                InstrumentationRegistry.getTargetContext());
+        NewsStory newsStory = new NewsStory("Latest headline", "Section", Long.MAX_VALUE,
+                URL + "5", "Reporter", "https://media.guim.co.uk/5/500.jpg");
+        database.save(Arrays.asList(newsStory));
+
+        List<NewsStory> newsStories = database.queryLatest("newest", 1);
+
+        // Thumbnail included, which equality compares as well
+        assertEquals(Arrays.asList(newsStory), newsStories);
+    }
+
+    @Test
+    public void toMatchExpression_dropsQuerySyntax() {
+        assertEquals("brexit* vote*", NewsStoryDatabase.toMatchExpression(" Brexit \"vote\" -"));
+        assertEquals("or*", NewsStoryDatabase.toMatchExpression("OR"));
+        assertEquals("", NewsStoryDatabase.toMatchExpression("  *  "));
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.p6_newsappstage1;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the updates {@link DiffUtil} finds with a {@link NewsStoryDiffCallback}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsStoryDiffCallbackTest {
+
+    private static final String URL = "https://www.theguardian.com/test/";
+
+    @Test
+    public void unchangedList_hasNoUpdates() {
+        List<NewsStory> newsStories = stories(1, 2, 3);
+
+        assertEquals(Collections.<String>emptyList(), updates(newsStories, stories(1, 2, 3)));
+    }
+
+    @Test
+    public void newStoriesOnTop_areOnlyInserted() {
+        assertEquals(Collections.singletonList("insert 0+2"),
+                updates(stories(3, 4, 5), stories(1, 2, 3, 4, 5)));
+    }
+
+    @Test
+    public void droppedPage_isOnlyRemoved() {
+        assertEquals(Collections.singletonList("remove 0+2"),
+                updates(stories(1, 2, 3, 4, 5), stories(3, 4, 5)));
+    }
+
+    @Test
+    public void correctedStory_isChangedInPlace() {
+        List<NewsStory> corrected = stories(1, 2, 3);
+        corrected.set(1, new NewsStory("Corrected title", "Section", 2000L, URL + 2, "Reporter"));
+
+        assertEquals(Collections.singletonList("change 1+1"),
+                updates(stories(1, 2, 3), corrected));
+    }
+
+    @Test
+    public void reorderedStory_isMoved() {
+        assertEquals(Collections.singletonList("move 2->0"),
+                updates(stories(1, 2, 3), stories(3, 1, 2)));
+    }
+
+    @Test
+    public void storiesInStore_areComparedByUrl() {
+        NewsStoryStore oldStore = new NewsStoryStore(3);
+        oldStore.addAll(stories(1, 2, 3));
+        NewsStoryStore newStore = new NewsStoryStore(4);
+        newStore.addAll(stories(0, 1, 2, 3));
+
+        assertEquals(Collections.singletonList("insert 0+1"), updates(oldStore, newStore));
+    }
+
+    private static List<NewsStory> stories(int... numbers) {
+        List<NewsStory> newsStories = new ArrayList<>();
+        for (int number : numbers) {
+            newsStories.add(new NewsStory("Story " + number, "Section", number * 1000L,
+                    URL + number, "Reporter"));
+        }
+        return newsStories;
+    }
+
+    /**
+     * Return the updates that turn the old list into the new one, as readable strings.
+     */
+    private static List<String> updates(List<NewsStory> oldNewsStories,
+                                        List<NewsStory> newNewsStories) {
+        final List<String> updates = new ArrayList<>();
+        DiffUtil.calculateDiff(new NewsStoryDiffCallback(oldNewsStories, newNewsStories))
+                .dispatchUpdatesTo(new ListUpdateCallback() {
+                    @Override
+                    public void onInserted(int position, int count) {
+                        updates.add("insert " + position + "+" + count);
+                    }
+
+                    @Override
+                    public void onRemoved(int position, int count) {
+                        updates.add("remove " + position + "+" + count);
+                    }
+
+                    @Override
+                    public void onMoved(int fromPosition, int toPosition) {
+                        updates.add("move " + fromPosition + "->" + toPosition);
+                    }
+
+                    @Override
+                    public void onChanged(int position, int count, Object payload) {
+                        updates.add("change " + position + "+" + count);
+                    }
+                });
+        return updates;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.p6_newsappstage1;
+
+import android.content.res.AssetManager;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test comparing the streaming parser in {@link QueryUtils} with the previous
+ * read-everything-then-build-a-JSONObject path, using a recorded Guardian search response. Their
+ * speed is compared by ParseBenchmark, which doesn't depend on the device it runs on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryUtilsStreamingTest {
+
+    private static final String LOG_TAG = QueryUtilsStreamingTest.class.getSimpleName();
+
+    private static final String FIXTURE = "guardian_search_200.json";
+    private static final int RUNS = 15;
+
+    private byte[] mResponse;
+
+    @Before
+    public void readFixture() throws IOException {
+        AssetManager assets = InstrumentationRegistry.getContext().getAssets();
+        InputStream in = assets.open(FIXTURE);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            mResponse = out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void streamingParser_readsEveryResult() throws IOException {
+        List<NewsStory> newsStories = QueryUtils.extractFeatureFromStream(
+                new ByteArrayInputStream(mResponse));
+
+        assertEquals(200, newsStories.size());
+        for (NewsStory newsStory : newsStories) {
+            assertNotNull(newsStory.getTitle());
+            assertNotNull(newsStory.getSectionName());
+            assertTrue(newsStory.getPublicationTime() != PublicationDates.UNKNOWN);
+            assertTrue(newsStory.getUrl().startsWith("https://www.theguardian.com/"));
+            assertFalse(newsStory.getContributorName().isEmpty());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void streamingParser_throwsOnTruncatedResponse() throws IOException {
+        byte[] truncated = Arrays.copyOf(mResponse, mResponse.length / 2);
+
+        QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(truncated));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void streamingParser_readsSameStoriesAsDomParser_allocatingLess() throws Exception {
+        long streamingBytes = 0;
+        long domBytes = 0;
+        List<NewsStory> streamed = null;
+        List<NewsStory> built = null;
+
+        // Load the classes of both paths before counting
+        QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mResponse));
+        extractFeatureFromDom(new ByteArrayInputStream(mResponse));
+
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < RUNS; i++) {
+                Debug.resetThreadAllocSize();
+                streamed = QueryUtils.extractFeatureFromStream(
+                        new ByteArrayInputStream(mResponse));
+                streamingBytes += Debug.getThreadAllocSize();
+
+                Debug.resetThreadAllocSize();
+                built = extractFeatureFromDom(new ByteArrayInputStream(mResponse));
+                domBytes += Debug.getThreadAllocSize();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        Log.i(LOG_TAG, "streaming: " + streamingBytes / RUNS + " bytes/parse; dom: "
+                + domBytes / RUNS + " bytes/parse");
+
+        assertEquals(built, streamed);
+        if (domBytes > 0) {
+            // Allocation counting is not supported on every runtime, only compare when it is
+            assertTrue("streaming parse should allocate less", streamingBytes < domBytes);
+        }
+    }
+
+    /**
+     * The previous parsing path: read the whole body into a String, build a {@link JSONObject}
+     * tree from it, then create the {@link NewsStory}s.
+     */
+    private static List<NewsStory> extractFeatureFromDom(InputStream inputStream)
+            throws IOException, JSONException {
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+
+        List<NewsStory> newsStories = new ArrayList<>();
+        JSONArray resultsArray = new JSONObject(output.toString())
+                .getJSONObject("response").getJSONArray("results");
+        for (int i = 0; i < resultsArray.length(); i++) {
+            JSONObject resultObj = resultsArray.getJSONObject(i);
+            newsStories.add(new NewsStory(resultObj.getString("webTitle"),
+                    resultObj.getString("sectionName"),
+                    PublicationDates.parse(resultObj.getString("webPublicationDate")),
+                    resultObj.getString("webUrl"),
+                    resultObj.getJSONArray("tags").getJSONObject(0).getString("webTitle")));
+        }
+        return newsStories;
+    }
+}
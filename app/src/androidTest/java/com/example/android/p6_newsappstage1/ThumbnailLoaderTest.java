@@ -0,0 +1,79 @@
+package com.example.android.p6_newsappstage1;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the downsampled decoding and bitmap reuse of {@link ThumbnailLoader}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailLoaderTest {
+
+    @Test
+    public void calculateInSampleSize_keepsAtLeastRequestedSize() {
+        assertEquals(1, ThumbnailLoader.calculateInSampleSize(100, 100, 64, 64));
+        assertEquals(2, ThumbnailLoader.calculateInSampleSize(500, 300, 128, 128));
+        assertEquals(4, ThumbnailLoader.calculateInSampleSize(1000, 600, 128, 128));
+        assertEquals(1, ThumbnailLoader.calculateInSampleSize(1000, 600, 0, 0));
+    }
+
+    @Test
+    public void decodeSampled_downsamplesToRowSize() {
+        Bitmap bitmap = ThumbnailLoader.decodeSampled(jpeg(1000, 600), 128, 128,
+                new BitmapPool(0));
+
+        assertNotNull(bitmap);
+        assertEquals(250, bitmap.getWidth());
+        assertEquals(150, bitmap.getHeight());
+    }
+
+    @Test
+    public void decodeSampled_reusesPooledBitmap() {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        Bitmap first = ThumbnailLoader.decodeSampled(jpeg(200, 200), 200, 200, pool);
+        pool.put(first);
+
+        Bitmap second = ThumbnailLoader.decodeSampled(jpeg(200, 200), 200, 200, pool);
+
+        assertSame(first, second);
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void decodeSampled_returnsNullForGarbage() {
+        assertNull(ThumbnailLoader.decodeSampled(new byte[]{1, 2, 3}, 64, 64, new BitmapPool(0)));
+    }
+
+    @Test
+    public void bitmapPool_dropsOldestBeyondBudget() {
+        Bitmap first = Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565);
+        Bitmap second = Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565);
+        BitmapPool pool = new BitmapPool(BitmapPool.byteCountOf(first));
+
+        pool.put(first);
+        pool.put(second);
+
+        assertEquals(BitmapPool.byteCountOf(second), pool.size());
+        assertSame(second, pool.get(100, 100, Bitmap.Config.RGB_565, 1));
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            pool.put(second);
+            assertNull(pool.get(50, 50, Bitmap.Config.RGB_565, 2));
+        }
+    }
+
+    private static byte[] jpeg(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(0xff336699);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 80, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.p6_newsappstage1;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Shows the text of a story that was prefetched into the {@link ArticleBodyStore}, so it can be
+ * read without a network connection. A story that isn't stored is opened on the web instead.
+ */
+public class ArticleActivity extends AppCompatActivity {
+
+    private static final String EXTRA_URL = "url";
+    private static final String EXTRA_TITLE = "title";
+
+    private TextView mBodyView;
+
+    /**
+     * Return an intent showing the stored body of the given story, or the story on the web if
+     * its body isn't stored.
+     */
+    public static Intent newIntent(Context context, NewsStory newsStory) {
+        return new Intent(context, ArticleActivity.class)
+                .putExtra(EXTRA_URL, newsStory.getUrl())
+                .putExtra(EXTRA_TITLE, newsStory.getTitle());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.article_activity);
+
+        TextView titleView = findViewById(R.id.article_title);
+        titleView.setText(getIntent().getStringExtra(EXTRA_TITLE));
+        mBodyView = findViewById(R.id.article_body);
+
+        // The body is decompressed from disk, which is kept off the main thread
+        final String url = getIntent().getStringExtra(EXTRA_URL);
+        final File filesDir = getFilesDir();
+        Executor executor = PriorityExecutor.getInstance().forLane(PriorityExecutor.LANE_VISIBLE);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String body = QueryUtils.getArticleBodyStore(filesDir).get(url);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        if (body == null) {
+                            startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+                            finish();
+                        } else {
+                            mBodyView.setText(body);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A size-capped store of the text of articles on disk, keyed by the URL of their story, so they
+ * can be read offline.
+ *
+ * Every body is stored gzip-compressed together with the "lastModified" date the API gave it,
+ * which tells whether the stored body is still current without fetching it again. The least
+ * recently stored or read bodies are evicted once the bodies take up more than the budget.
+ *
+ * The index is read lazily on first use, so creating the store on the main thread touches no disk.
+ */
+public class ArticleBodyStore {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Directory holding one file per body */
+    private final File mDirectory;
+
+    /** Maximum number of bytes the bodies may take up on disk */
+    private final long mMaxSize;
+
+    /** Entries keyed by URL, in access order: the least recently used entry comes first */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private boolean mLoaded;
+    private long mSize;
+
+    /**
+     * Create a new {@link ArticleBodyStore}.
+     *
+     * @param directory is where the bodies are kept, it is created when needed
+     * @param maxSize is the number of bytes after which least recently used bodies are evicted
+     */
+    public ArticleBodyStore(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return the "lastModified" date the stored body of the given story was fetched with, or null
+     * if none is stored. This doesn't count as a use of the body.
+     */
+    public synchronized String getLastModified(String url) {
+        ensureLoaded();
+        // Looking the entry up by iterating leaves the access order alone
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            if (entry.getKey().equals(url)) {
+                return entry.getValue().mLastModified;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the stored body of the given story, or null if there is none or it can't be read.
+     */
+    public String get(String url) {
+        Entry entry;
+        synchronized (this) {
+            ensureLoaded();
+            entry = mEntries.get(url);
+            if (entry == null) {
+                return null;
+            }
+            // Record the access on disk too, so the LRU order survives a restart
+            //noinspection ResultOfMethodCallIgnored
+            entry.getFile().setLastModified(System.currentTimeMillis());
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry.getFile())));
+            in.readUTF();
+            in.readUTF();
+            return new String(readFully(new GZIPInputStream(in)), UTF_8);
+        } catch (IOException e) {
+            remove(url);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the given body of the given story, replacing any body stored for it, then evict the
+     * least recently used bodies until the store fits within its budget again.
+     *
+     * @param lastModified is the "lastModified" date of the body, which tells later whether it
+     *                     changed
+     * @return true if the body was stored
+     */
+    public boolean put(String url, String lastModified, String body) {
+        synchronized (this) {
+            // Loading the index clears temporary files, so it must not run while this one is written
+            ensureLoaded();
+        }
+
+        String fileName = fileNameFor(url);
+        File tempFile = null;
+        DataOutputStream out = null;
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            mDirectory.mkdirs();
+            tempFile = File.createTempFile(fileName, TEMP_SUFFIX, mDirectory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeUTF(url);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(body.getBytes(UTF_8));
+            gzip.close();
+            out = null;
+
+            File file = new File(mDirectory, fileName + BODY_SUFFIX);
+            synchronized (this) {
+                if (!tempFile.renameTo(file)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    tempFile.delete();
+                    return false;
+                }
+                Entry previous = mEntries.put(url,
+                        new Entry(fileName, emptyToNull(lastModified), file.length()));
+                if (previous != null) {
+                    mSize -= previous.mSize;
+                }
+                mSize += file.length();
+                trimToSize();
+                return mEntries.containsKey(url);
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            if (tempFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Remove the body of the given story, if any.
+     */
+    public synchronized void remove(String url) {
+        ensureLoaded();
+        Entry entry = mEntries.remove(url);
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+
+    /** Return true if a body of the given story is stored. */
+    public synchronized boolean contains(String url) {
+        ensureLoaded();
+        return mEntries.containsKey(url);
+    }
+
+    /** Return the number of bytes currently taken up by the bodies. */
+    public synchronized long size() {
+        ensureLoaded();
+        return mSize;
+    }
+
+    /** Return the number of bytes the bodies may take up. */
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Read the index from disk the first time the store is used. Entries are ordered by the time
+     * they were last used, and leftovers of interrupted writes are deleted.
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            //noinspection ResultOfMethodCallIgnored
+            mDirectory.mkdirs();
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(BODY_SUFFIX) && readEntry(file)) {
+                continue;
+            }
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        trimToSize();
+    }
+
+    /**
+     * Read the header of a stored body into the index, returning false if it is unreadable.
+     */
+    private boolean readEntry(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            String url = in.readUTF();
+            String lastModified = in.readUTF();
+            String fileName = file.getName();
+            mEntries.put(url, new Entry(fileName.substring(0,
+                    fileName.length() - BODY_SUFFIX.length()), emptyToNull(lastModified),
+                    file.length()));
+            mSize += file.length();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Evict the least recently used bodies until the store fits within its budget.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            delete(eldest);
+        }
+    }
+
+    private void delete(Entry entry) {
+        mSize -= entry.mSize;
+        //noinspection ResultOfMethodCallIgnored
+        entry.getFile().delete();
+    }
+
+    /**
+     * Return the file name used for the given URL: the hex MD5 digest of it.
+     */
+    private static String fileNameFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.getBytes(UTF_8));
+            StringBuilder fileName = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                fileName.append(Character.forDigit((b >> 4) & 0xf, 16));
+                fileName.append(Character.forDigit(b & 0xf, 16));
+            }
+            return fileName.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing more can be done about it
+            }
+        }
+    }
+
+    /**
+     * A stored body: the file it is in and the date it was last modified on the server.
+     */
+    private final class Entry {
+        final String mFileName;
+        final String mLastModified;
+        final long mSize;
+
+        Entry(String fileName, String lastModified, long size) {
+            mFileName = fileName;
+            mLastModified = lastModified;
+            mSize = size;
+        }
+
+        File getFile() {
+            return new File(mDirectory, mFileName + BODY_SUFFIX);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.android.p6_newsappstage1;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches the text of the top stories of a feed ahead of time and keeps it in an
+ * {@link ArticleBodyStore}, so the articles can be read offline.
+ *
+ * The bodies of several stories are fetched with one search request for their ids. Stories whose
+ * body is stored already are first checked with a request for their "lastModified" dates only,
+ * and their bodies are fetched again only if they changed. Bodies are stored from the last story
+ * to the first, so when they don't all fit in the budget it is the top stories that stay. The
+ * requests are made in the background through a {@link RequestScheduler}.
+ */
+public class ArticlePrefetcher {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Start of the URL of every story on the Guardian's website, followed by its id */
+    private static final String WEB_URL_PREFIX = "https://www.theguardian.com/";
+
+    private static final String RESPONSE = "response";
+    private static final String RESULTS = "results";
+    private static final String WEB_URL = "webUrl";
+    private static final String FIELDS = "fields";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String BODY_TEXT = "bodyText";
+
+    private final HttpTransport mTransport;
+    private final RequestScheduler mScheduler;
+    private final PipelineMetrics.QueryMetrics mMetrics;
+    private final ArticleBodyStore mStore;
+    private final String mSearchUrl;
+
+    /**
+     * Create a new {@link ArticlePrefetcher}.
+     *
+     * @param metrics counts how the scheduler held the requests back
+     * @param searchUrl is the URL of the search endpoint with the API key, such as
+     *                  "http://content.guardianapis.com/search?api-key=test"
+     */
+    public ArticlePrefetcher(HttpTransport transport, RequestScheduler scheduler,
+                             PipelineMetrics.QueryMetrics metrics, ArticleBodyStore store,
+                             String searchUrl) {
+        mTransport = transport;
+        mScheduler = scheduler;
+        mMetrics = metrics;
+        mStore = store;
+        mSearchUrl = searchUrl;
+    }
+
+    /**
+     * Make sure the current bodies of the first given number of stories are stored, fetching
+     * only those that are missing or changed.
+     *
+     * @return the number of bodies fetched, or -1 if a request failed or was cancelled
+     */
+    public int prefetch(List<NewsStory> newsStories, int count, CancellableRequest cancellation) {
+        // Stories are fetched by their id, which only stories of the Guardian's website have
+        Map<String, String> storedIds = new LinkedHashMap<>();
+        Map<String, String> missingIds = new LinkedHashMap<>();
+        for (int i = 0; i < newsStories.size() && storedIds.size() + missingIds.size() < count;
+             i++) {
+            String url = newsStories.get(i).getUrl();
+            if (url == null || !url.startsWith(WEB_URL_PREFIX)) {
+                continue;
+            }
+            String id = url.substring(WEB_URL_PREFIX.length());
+            if (mStore.contains(url)) {
+                storedIds.put(id, url);
+            } else {
+                missingIds.put(id, url);
+            }
+        }
+
+        try {
+            // Fetch a stored body again only if it changed on the server
+            List<String> ids = new ArrayList<>(missingIds.keySet());
+            if (!storedIds.isEmpty()) {
+                for (Article article : search(storedIds.keySet(), LAST_MODIFIED, cancellation)) {
+                    String lastModified = mStore.getLastModified(article.mUrl);
+                    if (article.mLastModified == null
+                            || !article.mLastModified.equals(lastModified)) {
+                        ids.add(article.mUrl.substring(WEB_URL_PREFIX.length()));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+
+            List<Article> articles =
+                    search(ids, LAST_MODIFIED + "," + BODY_TEXT, cancellation);
+            for (int i = articles.size() - 1; i >= 0; i--) {
+                Article article = articles.get(i);
+                if (article.mBodyText != null) {
+                    mStore.put(article.mUrl, article.mLastModified, article.mBodyText);
+                }
+            }
+            return articles.size();
+        } catch (IOException e) {
+            // Cancelled or failed, whatever was stored so far stays
+            return -1;
+        }
+    }
+
+    /**
+     * Return the articles with the given ids, with the given fields, in the order of the ids.
+     */
+    private List<Article> search(Iterable<String> ids, String fields,
+                                 CancellableRequest cancellation) throws IOException {
+        StringBuilder idList = new StringBuilder();
+        int idCount = 0;
+        for (String id : ids) {
+            if (idCount++ > 0) {
+                idList.append(',');
+            }
+            idList.append(id);
+        }
+        URL url = new URL(mSearchUrl + (mSearchUrl.contains("?") ? "&" : "?")
+                + "ids=" + encode(idList.toString())
+                + "&page-size=" + idCount
+                + "&show-fields=" + encode(fields));
+
+        mScheduler.acquire(RequestScheduler.PRIORITY_BACKGROUND, cancellation, mMetrics);
+        HttpTransport.Call call = mTransport.newCall(url);
+        try {
+            cancellation.setConnection(call.getConnection());
+            int responseCode = call.execute();
+            mScheduler.onResponse(responseCode, call.getConnection().getHeaderField("Retry-After"),
+                    mMetrics);
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpTransport.StatusException(responseCode);
+            }
+            List<Article> articles = readArticles(cancellation.wrap(call.getBody()));
+            cancellation.throwIfCancelled();
+
+            // The search returns the newest first, put them back in the order of the feed
+            Map<String, Article> byUrl = new LinkedHashMap<>();
+            for (Article article : articles) {
+                byUrl.put(article.mUrl, article);
+            }
+            List<Article> ordered = new ArrayList<>(articles.size());
+            for (String id : ids) {
+                Article article = byUrl.get(WEB_URL_PREFIX + id);
+                if (article != null) {
+                    ordered.add(article);
+                }
+            }
+            return ordered;
+        } finally {
+            call.close();
+        }
+    }
+
+    /**
+     * Read the articles of the "response.results" array of a search response.
+     */
+    private static List<Article> readArticles(InputStream in) throws IOException {
+        List<Article> articles = new ArrayList<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!RESPONSE.equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (RESULTS.equals(reader.nextName())
+                            && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Article article = readArticle(reader);
+                            if (article.mUrl != null) {
+                                articles.add(article);
+                            }
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens this way
+            throw new IOException("Unexpected search response", e);
+        }
+        return articles;
+    }
+
+    private static Article readArticle(JsonReader reader) throws IOException {
+        Article article = new Article();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (WEB_URL.equals(name)) {
+                article.mUrl = reader.nextString();
+            } else if (FIELDS.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (reader.peek() != JsonToken.STRING) {
+                        reader.skipValue();
+                    } else if (LAST_MODIFIED.equals(field)) {
+                        article.mLastModified = reader.nextString();
+                    } else if (BODY_TEXT.equals(field)) {
+                        article.mBodyText = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return article;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The fields of an article a search returned.
+     */
+    private static class Article {
+        String mUrl;
+        String mLastModified;
+        String mBodyText;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.p6_newsappstage1;
+
+/**
+ * Estimates the bandwidth of the network from the transfer rates of the responses downloaded,
+ * and sorts it into a connection class the requests can be shaped by.
+ *
+ * The estimate is a moving average of the rates, so a single slow or fast response doesn't
+ * change it much. Responses too small to measure a rate by, whose transfer time is mostly the
+ * round trip, are not counted. The class only changes once the estimate is well past the
+ * bandwidth between two classes, so it doesn't flip back and forth on a link close to it.
+ *
+ * Until a response has been counted, the class is the one guessed from the type of the network,
+ * and it is guessed again whenever the device switches networks.
+ */
+public class BandwidthEstimator {
+
+    /** Nothing is known of the network yet */
+    public static final int CLASS_UNKNOWN = 0;
+
+    /** Below about 150 kbit/s, such as 2G or a weak signal */
+    public static final int CLASS_POOR = 1;
+
+    /** Between about 150 and 550 kbit/s, such as 3G */
+    public static final int CLASS_MODERATE = 2;
+
+    /** Above about 550 kbit/s, such as 4G or Wi-Fi */
+    public static final int CLASS_GOOD = 3;
+
+    /** Bandwidths in bytes per second between the classes */
+    private static final double POOR_BANDWIDTH = 150 * 1000 / 8;
+    private static final double GOOD_BANDWIDTH = 550 * 1000 / 8;
+
+    /** Share by which the estimate has to be past a bandwidth between classes to change class */
+    private static final double HYSTERESIS = 0.2;
+
+    /** Weight of the latest rate in the moving average */
+    private static final double DECAY = 0.3;
+
+    private final int mMinSampleBytes;
+
+    private String mNetwork;
+    private int mGuessedClass = CLASS_UNKNOWN;
+    private int mConnectionClass = CLASS_UNKNOWN;
+    /** Moving average of the rates in bytes per second, or 0 until a rate is counted */
+    private double mBandwidth;
+
+    /**
+     * Create a new {@link BandwidthEstimator}.
+     *
+     * @param minSampleBytes is the number of bytes below which a response isn't counted
+     */
+    public BandwidthEstimator(int minSampleBytes) {
+        mMinSampleBytes = minSampleBytes;
+    }
+
+    /**
+     * Tell the estimator which network the device is on, such as "MOBILE/EDGE", and the class
+     * guessed from it. When the network changed, the rates counted on the previous one are
+     * forgotten and the guess is used until a response is counted.
+     */
+    public synchronized void setNetwork(String network, int guessedClass) {
+        if (!network.equals(mNetwork)) {
+            mNetwork = network;
+            mBandwidth = 0;
+            mConnectionClass = guessedClass;
+        }
+        mGuessedClass = guessedClass;
+    }
+
+    /**
+     * Count a response of the given number of bytes, received in the given time in nanoseconds.
+     */
+    public synchronized void addSample(long bytes, long nanos) {
+        if (bytes < mMinSampleBytes || nanos <= 0) {
+            return;
+        }
+        double rate = bytes * 1e9 / nanos;
+        mBandwidth = mBandwidth == 0 ? rate : mBandwidth + DECAY * (rate - mBandwidth);
+        mConnectionClass = classOf(mBandwidth, mConnectionClass);
+    }
+
+    /**
+     * Return the class of the connection, one of {@link #CLASS_UNKNOWN}, {@link #CLASS_POOR},
+     * {@link #CLASS_MODERATE} or {@link #CLASS_GOOD}.
+     */
+    public synchronized int getConnectionClass() {
+        return mBandwidth == 0 ? mGuessedClass : mConnectionClass;
+    }
+
+    /** Return the estimated bandwidth in bytes per second, or 0 if nothing was counted yet. */
+    public synchronized long getBandwidth() {
+        return (long) mBandwidth;
+    }
+
+    /**
+     * Return the class of the given bandwidth, staying in the given current class unless the
+     * bandwidth is well out of it.
+     */
+    private static int classOf(double bandwidth, int currentClass) {
+        double poor = POOR_BANDWIDTH;
+        double good = GOOD_BANDWIDTH;
+        // Widen the current class, the bandwidth has to get well past it to leave it
+        if (currentClass == CLASS_POOR) {
+            poor *= 1 + HYSTERESIS;
+        } else if (currentClass == CLASS_MODERATE) {
+            poor *= 1 - HYSTERESIS;
+            good *= 1 + HYSTERESIS;
+        } else if (currentClass == CLASS_GOOD) {
+            good *= 1 - HYSTERESIS;
+        }
+        if (bandwidth < poor) {
+            return CLASS_POOR;
+        }
+        return bandwidth < good ? CLASS_MODERATE : CLASS_GOOD;
+    }
+}
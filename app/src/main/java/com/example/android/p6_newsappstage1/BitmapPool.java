@@ -0,0 +1,113 @@
+package com.example.android.p6_newsappstage1;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bitmaps that are no longer shown, kept so the next image can be decoded into one of them
+ * instead of a new allocation, which spares the garbage collector the pauses that make a
+ * scrolling list stutter.
+ *
+ * From KitKat on, any bitmap at least as large as the image can be reused. Before that the
+ * decoder only reuses a bitmap of exactly the same size, decoded without downsampling. The pool
+ * keeps at most a given number of bytes of bitmaps, dropping the oldest first.
+ */
+public class BitmapPool {
+
+    private final long mMaxSize;
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private long mSize;
+
+    /**
+     * Create a new, empty {@link BitmapPool}.
+     *
+     * @param maxSize is the number of bytes of bitmaps the pool keeps at most
+     */
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Keep the given bitmap to be reused. It must no longer be shown anywhere.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || byteCountOf(bitmap) > mMaxSize) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mSize += byteCountOf(bitmap);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Remove and return a bitmap that an image of the given size and config can be decoded into,
+     * or null if there is none.
+     *
+     * @param sampleSize is the factor the image is downsampled by when it is decoded
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config, int sampleSize) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && sampleSize != 1) {
+            return null;
+        }
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (canReuse(bitmap, width, height, config)) {
+                iterator.remove();
+                mSize -= byteCountOf(bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /** Return the number of bytes of bitmaps in the pool. */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * Drop the oldest bitmaps until the pool holds at most the given number of bytes.
+     */
+    public synchronized void trimToSize(long maxSize) {
+        while (mSize > maxSize && !mBitmaps.isEmpty()) {
+            mSize -= byteCountOf(mBitmaps.removeFirst());
+        }
+    }
+
+    private static boolean canReuse(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return allocationByteCountOf(bitmap) >= (long) width * height * bytesPerPixel(config);
+        }
+        return bitmap.getWidth() == width && bitmap.getHeight() == height
+                && bitmap.getConfig() == config;
+    }
+
+    /** Return the number of bytes the given bitmap takes up. */
+    static int byteCountOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return allocationByteCountOf(bitmap);
+        }
+        return bitmap.getByteCount();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int allocationByteCountOf(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Fetches only the stories of a query published since it was last synced.
+ *
+ * The publication time of the newest story seen so far is kept per query as its high-water mark,
+ * together with the URLs of the stories seen at that time, as several stories often share a
+ * second. A sync asks the server for the stories from that time on, oldest first, skips the ones
+ * it has seen, and moves the mark along as it reads, so an unchanged feed costs a single short
+ * response. Reading oldest first means the mark never passes a story the sync hasn't read: a sync
+ * that gives up after {@link #MAX_PAGES} or on a failed page leaves the mark at the last story it
+ * got, and the next one carries on from there.
+ *
+ * A query synced for the first time has no mark to carry on from, it reads the newest stories of
+ * the last {@link #INITIAL_WINDOW} instead, newest first, and sets the mark to the newest of them.
+ */
+public class DeltaSync {
+
+    /** How far back the first sync of a query goes, in milliseconds */
+    static final long INITIAL_WINDOW = 24 * 60 * 60 * 1000;
+
+    /** Number of pages a sync reads at most, newer stories are left to the next sync */
+    static final int MAX_PAGES = 5;
+
+    /**
+     * Keeps the high-water mark of every query.
+     */
+    public interface Watermarks {
+        /**
+         * Return the publication time of the newest story seen for the query with the given key,
+         * or {@link PublicationDates#UNKNOWN} if it has never been synced.
+         */
+        long get(String key);
+
+        /**
+         * Return the URLs of the stories seen at the time {@link #get(String)} returns for the
+         * query with the given key, empty if none are known.
+         */
+        Set<String> getUrls(String key);
+
+        /**
+         * Keep the publication time of the newest story seen for the query with the given key,
+         * and the URLs of the stories seen at that time.
+         */
+        void put(String key, long publicationTime, Set<String> urls);
+    }
+
+    private final MultiQueryFetcher.Source mSource;
+    private final Watermarks mWatermarks;
+    private final int mPageSize;
+
+    /**
+     * Create a new {@link DeltaSync}.
+     *
+     * @param source fetches a page of a query
+     * @param watermarks keeps the high-water mark of every query
+     * @param pageSize is the number of stories the query URLs ask for per page
+     */
+    public DeltaSync(MultiQueryFetcher.Source source, Watermarks watermarks, int pageSize) {
+        mSource = source;
+        mWatermarks = watermarks;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Fetch the stories of a query published after its high-water mark, and move the mark to the
+     * newest of them.
+     *
+     * @param key identifies the query, see {@link QueryResultCache#keyFor(String, String)}
+     * @param newestFirstUrl is the query asking for the newest stories first, without a page or
+     *                       from-date, used by the first sync
+     * @param oldestFirstUrl is the same query asking for the oldest stories first
+     * @param cancellation cancels the sync
+     * @return the new stories, or null if the first page could not be fetched
+     */
+    public List<NewsStory> sync(String key, String newestFirstUrl, String oldestFirstUrl,
+                                CancellableRequest cancellation) {
+        long watermark = mWatermarks.get(key);
+        boolean firstSync = watermark == PublicationDates.UNKNOWN;
+        String url = firstSync ? newestFirstUrl : oldestFirstUrl;
+        long fromTime = firstSync ? currentTimeMillis() - INITIAL_WINDOW : watermark;
+        String fromUrl = url + (url.indexOf('?') < 0 ? '?' : '&')
+                + "from-date=" + PublicationDates.toApiDate(fromTime);
+
+        Set<String> seenUrls = firstSync
+                ? Collections.<String>emptySet()
+                : mWatermarks.getUrls(key);
+        List<NewsStory> newStories = new ArrayList<>();
+        long newWatermark = watermark;
+        Set<String> newUrls = new HashSet<>(seenUrls);
+        for (int page = 1; page <= MAX_PAGES; page++) {
+            List<NewsStory> newsStories = mSource.fetch(
+                    String.format(Locale.US, "%s&page=%d", fromUrl, page), cancellation);
+            if (newsStories == null) {
+                if (page == 1) {
+                    return null;
+                }
+                // Keep what was read, the next sync carries on from the last story read
+                break;
+            }
+
+            for (NewsStory newsStory : newsStories) {
+                long publicationTime = newsStory.getPublicationTime();
+                if (publicationTime == PublicationDates.UNKNOWN) {
+                    continue;
+                }
+                if (!firstSync && (publicationTime < watermark
+                        || publicationTime == watermark && seenUrls.contains(newsStory.getUrl()))) {
+                    // "from-date" includes the stories seen at the time of the mark
+                    continue;
+                }
+                newStories.add(newsStory);
+                if (newWatermark == PublicationDates.UNKNOWN || publicationTime > newWatermark) {
+                    newWatermark = publicationTime;
+                    newUrls.clear();
+                }
+                if (publicationTime == newWatermark) {
+                    newUrls.add(newsStory.getUrl());
+                }
+            }
+            if (newsStories.size() < mPageSize) {
+                break;
+            }
+        }
+
+        if (!newStories.isEmpty()) {
+            mWatermarks.put(key, newWatermark, newUrls);
+        }
+        return newStories;
+    }
+
+    /** Return the current time in milliseconds, used to start the first sync of a query. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
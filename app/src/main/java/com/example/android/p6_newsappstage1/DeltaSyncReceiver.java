@@ -0,0 +1,230 @@
+package com.example.android.p6_newsappstage1;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Syncs the followed topics in the background, so the app opens on fresh stories.
+ *
+ * An alarm wakes this receiver up every half hour or so, give or take a random jitter. If the
+ * {@link SyncPolicy} allows it, it fetches the stories published since the last sync with
+ * {@link DeltaSync} and stores them in the {@link NewsStoryDatabase}, which the activity shows
+ * first when it is opened. The alarm doesn't wake the device, the sync happens the next time it
+ * is awake anyway.
+ */
+public class DeltaSyncReceiver extends BroadcastReceiver {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = DeltaSyncReceiver.class.getSimpleName();
+
+    private static final long SYNC_INTERVAL = AlarmManager.INTERVAL_HALF_HOUR;
+    private static final double SYNC_JITTER = 0.25;
+    private static final int SYNC_PAGE_SIZE = 50;
+
+    /** Timeouts of every request, short enough for a few of them to fit in the deadline */
+    private static final int SYNC_TIMEOUT = 4000;  /* milliseconds */
+
+    /** Time the sync may take before it is cancelled, a receiver has to finish in ten seconds */
+    private static final long SYNC_DEADLINE = 8000;  /* milliseconds */
+
+    private static final String PREFS_NAME = "delta_sync";
+    private static final String KEY_LAST_SYNC = "last_sync";
+    private static final String KEY_WATERMARK_PREFIX = "watermark:";
+    private static final String KEY_WATERMARK_URLS_PREFIX = "watermark_urls:";
+
+    private static final SyncPolicy sPolicy =
+            new SyncPolicy(SYNC_INTERVAL, SYNC_JITTER, new Random());
+
+    /**
+     * Schedule the sync, unless it already is. Once scheduled, every sync schedules the next one.
+     */
+    public static void scheduleIfNeeded(Context context) {
+        Intent intent = new Intent(context, DeltaSyncReceiver.class);
+        if (PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_NO_CREATE) == null) {
+            schedule(context);
+        }
+    }
+
+    private static void schedule(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null) {
+            return;
+        }
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
+                new Intent(context, DeltaSyncReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + sPolicy.nextDelay(), pendingIntent);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final Context appContext = context.getApplicationContext();
+        final PendingResult result = goAsync();
+        // The sync runs behind everything the user is waiting for
+        Executor executor =
+                PriorityExecutor.getInstance().forLane(PriorityExecutor.LANE_BACKGROUND);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sync(appContext);
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Problem syncing the news stories", e);
+                    } finally {
+                        schedule(appContext);
+                        result.finish();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Skipped a sync, too much background work is waiting", e);
+            schedule(appContext);
+            result.finish();
+        }
+    }
+
+    /**
+     * This is on a background thread
+     */
+    private static void sync(Context context) {
+        final SharedPreferences syncPrefs =
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long sinceLastSync = syncPrefs.contains(KEY_LAST_SYNC)
+                ? System.currentTimeMillis() - syncPrefs.getLong(KEY_LAST_SYNC, 0)
+                : Long.MAX_VALUE;
+        if (!sPolicy.shouldSync(getDeviceState(context), sinceLastSync)) {
+            return;
+        }
+
+        DeltaSync deltaSync = new DeltaSync(new MultiQueryFetcher.Source() {
+            @Override
+            public List<NewsStory> fetch(String url, CancellableRequest cancellation) {
+                return QueryUtils.fetchNewsStoryData(url, cancellation, SYNC_TIMEOUT,
+                        SYNC_TIMEOUT);
+            }
+        }, new DeltaSync.Watermarks() {
+            @Override
+            public long get(String key) {
+                return syncPrefs.getLong(KEY_WATERMARK_PREFIX + key, PublicationDates.UNKNOWN);
+            }
+
+            @Override
+            public Set<String> getUrls(String key) {
+                return syncPrefs.getStringSet(KEY_WATERMARK_URLS_PREFIX + key,
+                        Collections.<String>emptySet());
+            }
+
+            @Override
+            public void put(String key, long publicationTime, Set<String> urls) {
+                syncPrefs.edit()
+                        .putLong(KEY_WATERMARK_PREFIX + key, publicationTime)
+                        .putStringSet(KEY_WATERMARK_URLS_PREFIX + key, urls)
+                        .apply();
+            }
+        }, SYNC_PAGE_SIZE);
+
+        // Give up whatever is left to do when the deadline passes
+        final CancellableRequest cancellation = new CancellableRequest();
+        Runnable cancel = new Runnable() {
+            @Override
+            public void run() {
+                cancellation.cancel();
+            }
+        };
+        Handler handler = new Handler(Looper.getMainLooper());
+        handler.postDelayed(cancel, SYNC_DEADLINE);
+
+        String filterBy = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.settings_filter_by_key), "");
+        List<String> topics = MultiQueryFetcher.splitTopics(filterBy);
+        if (topics.isEmpty()) {
+            topics = Collections.singletonList("");
+        }
+
+        String orderBy = context.getString(R.string.settings_order_by_newest_value);
+        String oldestFirst = context.getString(R.string.settings_order_by_oldest_value);
+        List<NewsStory> newStories = new ArrayList<>();
+        try {
+            for (String topic : topics) {
+                String newestFirstUrl = QueryUtils.buildSearchUri(topic, orderBy, SYNC_PAGE_SIZE)
+                        .build().toString();
+                String oldestFirstUrl = QueryUtils.buildSearchUri(topic, oldestFirst,
+                        SYNC_PAGE_SIZE).build().toString();
+                List<NewsStory> newsStories = deltaSync.sync(QueryResultCache.keyFor(topic,
+                        orderBy), newestFirstUrl, oldestFirstUrl, cancellation);
+                if (cancellation.isCancelled()) {
+                    break;
+                }
+                if (newsStories != null) {
+                    newStories.addAll(newsStories);
+                }
+            }
+        } finally {
+            handler.removeCallbacks(cancel);
+        }
+
+        if (!newStories.isEmpty()) {
+            NewsStoryDatabase.getInstance(context).save(newStories);
+        }
+        syncPrefs.edit().putLong(KEY_LAST_SYNC, System.currentTimeMillis()).apply();
+        Log.d(LOG_TAG, "Synced " + newStories.size() + " new stories of " + topics.size()
+                + " topic(s)");
+    }
+
+    /**
+     * Return the state of the network and the battery.
+     */
+    static SyncPolicy.DeviceState getDeviceState(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm == null ? null : cm.getActiveNetworkInfo();
+        boolean connected = networkInfo != null && networkInfo.isConnected();
+        boolean metered;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = cm != null && cm.isActiveNetworkMetered();
+        } else {
+            metered = networkInfo == null
+                    || networkInfo.getType() != ConnectivityManager.TYPE_WIFI;
+        }
+
+        // The battery state is a sticky broadcast, so it can be read without a receiver
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = false;
+        int batteryLevel = 100;
+        if (battery != null) {
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryLevel = level * 100 / scale;
+            }
+        }
+        return new SyncPolicy.DeviceState(connected, metered, charging, batteryLevel);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.p6_newsappstage1;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands values posted from any thread to the main thread at most once a frame, keeping only the
+ * latest value posted since the last frame, so a producer that is faster than the screen doesn't
+ * flood the main thread with work whose result would never be seen.
+ *
+ * The values are delivered on the next frame of the {@link Choreographer}, or before Jelly Bean,
+ * which has none, a frame interval after the first value was posted.
+ */
+public class FrameCoalescer<T> {
+
+    /** Frame interval used before Jelly Bean, in milliseconds */
+    private static final long FRAME_INTERVAL = 16;
+
+    /**
+     * Receives the values on the main thread.
+     */
+    public interface Consumer<T> {
+        void accept(T value);
+    }
+
+    private final Consumer<T> mConsumer;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The latest value posted and not yet delivered, or null if there is none */
+    private final AtomicReference<T> mPending = new AtomicReference<>();
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            T value = mPending.getAndSet(null);
+            if (value != null) {
+                mConsumer.accept(value);
+            }
+        }
+    };
+
+    /**
+     * Create a new {@link FrameCoalescer} object.
+     *
+     * @param consumer receives the values on the main thread
+     */
+    public FrameCoalescer(Consumer<T> consumer) {
+        mConsumer = consumer;
+    }
+
+    /**
+     * Deliver the given value on the next frame, in place of any value posted since the last
+     * one. Can be called from any thread.
+     */
+    public void post(T value) {
+        // Only the first value of a frame schedules the delivery, the others replace it
+        if (mPending.getAndSet(value) != null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // The Choreographer of the main thread can only be reached from the main thread
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    postFrameCallback();
+                }
+            });
+        } else {
+            mMainHandler.postDelayed(mDeliver, FRAME_INTERVAL);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                mDeliver.run();
+            }
+        });
+    }
+
+    /**
+     * Drop the value waiting for the next frame, if there is one. A delivery already running on
+     * the main thread is not stopped.
+     */
+    public void cancel() {
+        mPending.set(null);
+    }
+}
@@ -0,0 +1,488 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-capped cache of HTTP response bodies on disk, keyed by the request URL.
+ *
+ * Every body is stored together with its "ETag" and "Last-Modified" validators so the next request
+ * for the same URL can be made conditional. When the server answers 304 Not Modified the cached
+ * body is reused, and so is the list of {@link NewsStory}s already parsed from it while that list
+ * is still in memory. The least recently used entries are evicted once the cap is exceeded.
+ *
+ * The index is read lazily on first use, so creating the cache on the main thread touches no disk.
+ */
+public class HttpResponseDiskCache {
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /** Directory holding one body file and one metadata file per entry */
+    private final File mDirectory;
+
+    /** Maximum number of bytes the entries may take up on disk */
+    private final long mMaxSize;
+
+    /** Entries keyed by URL, in access order: the least recently used entry comes first */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private boolean mLoaded;
+    private long mSize;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Create a new {@link HttpResponseDiskCache}.
+     *
+     * @param directory is where the cached responses are kept, it is created when needed
+     * @param maxSize is the number of bytes after which least recently used entries are evicted
+     */
+    public HttpResponseDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return the cached entry for the given URL, or null if there is none.
+     */
+    public synchronized Entry get(String url) {
+        ensureLoaded();
+        Entry entry = mEntries.get(url);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+
+        // Record the access on disk too, so the LRU order survives a restart
+        //noinspection ResultOfMethodCallIgnored
+        entry.getMetaFile().setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Start storing the body of the given successful response for the given URL. The returned
+     * {@link Editor} wraps the response stream: everything read through it is also written to disk,
+     * and {@link Editor#commit()} makes the entry visible once the body has been read completely.
+     */
+    public Editor edit(String url, HttpURLConnection urlConnection, InputStream body) {
+        synchronized (this) {
+            // Loading the index clears temporary files, so it must not run while this one is written
+            ensureLoaded();
+        }
+        return new Editor(url, urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getHeaderField(HEADER_LAST_MODIFIED), body);
+    }
+
+    /**
+     * Remove the entry for the given URL, if any.
+     */
+    public synchronized void remove(String url) {
+        ensureLoaded();
+        Entry entry = mEntries.remove(url);
+        if (entry != null) {
+            deleteFiles(entry);
+        }
+    }
+
+    /** Return the number of bytes currently taken up by the entries. */
+    public synchronized long size() {
+        ensureLoaded();
+        return mSize;
+    }
+
+    /** Return how many times {@link #get(String)} found an entry. */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Return how many times {@link #get(String)} found nothing. */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Read the index from disk the first time the cache is used. Entries are ordered by the time
+     * they were last accessed, and leftovers of interrupted writes are deleted.
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            //noinspection ResultOfMethodCallIgnored
+            mDirectory.mkdirs();
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else if (name.endsWith(META_SUFFIX)) {
+                String fileName = name.substring(0, name.length() - META_SUFFIX.length());
+                Entry entry = readEntry(fileName);
+                if (entry == null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(mDirectory, fileName + BODY_SUFFIX).delete();
+                } else {
+                    mEntries.put(entry.mUrl, entry);
+                    mSize += entry.mSize;
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Read the metadata file of an entry, returning null if it is unreadable or its body is missing.
+     */
+    private Entry readEntry(String fileName) {
+        File metaFile = new File(mDirectory, fileName + META_SUFFIX);
+        File bodyFile = new File(mDirectory, fileName + BODY_SUFFIX);
+        if (!bodyFile.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(metaFile));
+            String url = in.readUTF();
+            String eTag = in.readUTF();
+            String lastModified = in.readUTF();
+            return new Entry(url, fileName, emptyToNull(eTag), emptyToNull(lastModified),
+                    bodyFile.length() + metaFile.length());
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Add a fully written entry to the index, replacing any previous entry for the same URL.
+     */
+    private synchronized void addEntry(Entry entry) {
+        ensureLoaded();
+        Entry previous = mEntries.put(entry.mUrl, entry);
+        if (previous != null) {
+            mSize -= previous.mSize;
+        }
+        mSize += entry.mSize;
+        trimToSize();
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits within its maximum size.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            deleteFiles(eldest);
+        }
+    }
+
+    private void deleteFiles(Entry entry) {
+        mSize -= entry.mSize;
+        //noinspection ResultOfMethodCallIgnored
+        entry.getBodyFile().delete();
+        //noinspection ResultOfMethodCallIgnored
+        entry.getMetaFile().delete();
+    }
+
+    /**
+     * Return the file name used for the given URL: the hex MD5 digest of it.
+     */
+    private static String fileNameFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder fileName = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                fileName.append(Character.forDigit((b >> 4) & 0xf, 16));
+                fileName.append(Character.forDigit(b & 0xf, 16));
+            }
+            return fileName.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing more can be done about it
+            }
+        }
+    }
+
+    /**
+     * A cached response: where its body is stored and the validators it was served with.
+     */
+    public final class Entry {
+        private final String mUrl;
+        private final String mFileName;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mSize;
+
+        /** Stories parsed from the body, kept for as long as memory allows */
+        private volatile SoftReference<List<NewsStory>> mNewsStories;
+
+        private Entry(String url, String fileName, String eTag, String lastModified, long size) {
+            mUrl = url;
+            mFileName = fileName;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mSize = size;
+        }
+
+        /** Return the URL whose response this is. */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /** Return the "ETag" the response was served with, or null. */
+        public String getETag() {
+            return mETag;
+        }
+
+        /** Return the "Last-Modified" date the response was served with, or null. */
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * Make the given request conditional on the cached body still being current.
+         * This has to be called before the connection is made.
+         */
+        public void addConditionalHeaders(HttpURLConnection urlConnection) {
+            if (mETag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, mETag);
+            }
+            if (mLastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, mLastModified);
+            }
+        }
+
+        /** Open the cached body for reading. */
+        public InputStream openBody() throws IOException {
+            return new FileInputStream(getBodyFile());
+        }
+
+        /** Return the stories parsed from this body, or null if they are no longer in memory. */
+        public List<NewsStory> getNewsStories() {
+            SoftReference<List<NewsStory>> newsStories = mNewsStories;
+            return newsStories == null ? null : newsStories.get();
+        }
+
+        /** Remember the stories parsed from this body, so a 304 doesn't need to parse it again. */
+        public void setNewsStories(List<NewsStory> newsStories) {
+            mNewsStories = new SoftReference<>(newsStories);
+        }
+
+        private File getBodyFile() {
+            return new File(mDirectory, mFileName + BODY_SUFFIX);
+        }
+
+        private File getMetaFile() {
+            return new File(mDirectory, mFileName + META_SUFFIX);
+        }
+    }
+
+    /**
+     * An {@link InputStream} that copies the response body to a temporary file as it is read.
+     * Closing it without calling {@link #commit()} throws the partial copy away.
+     */
+    public final class Editor extends FilterInputStream {
+        private final String mUrl;
+        private final String mFileName;
+        private final String mETag;
+        private final String mLastModified;
+        private File mTempFile;
+
+        /** Where the body is copied to, or null once copying has failed or finished */
+        private OutputStream mOut;
+
+        private Editor(String url, String eTag, String lastModified, InputStream body) {
+            super(body);
+            mUrl = url;
+            mFileName = fileNameFor(url);
+            mETag = eTag;
+            mLastModified = lastModified;
+            try {
+                //noinspection ResultOfMethodCallIgnored
+                mDirectory.mkdirs();
+                // Each editor gets its own temporary file, two loads of one URL may overlap
+                mTempFile = File.createTempFile(mFileName, TEMP_SUFFIX, mDirectory);
+                mOut = new FileOutputStream(mTempFile);
+            } catch (IOException e) {
+                // The response can still be read, it just won't be cached
+                abort();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && mOut != null) {
+                try {
+                    mOut.write(b);
+                } catch (IOException e) {
+                    abort();
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && mOut != null) {
+                try {
+                    mOut.write(buffer, offset, read);
+                } catch (IOException e) {
+                    abort();
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes must still reach the copy, so read them instead
+            byte[] buffer = new byte[8192];
+            long skipped = 0;
+            while (skipped < count) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Read whatever is left of the body, then add it to the cache.
+         *
+         * @return the new entry, or null if the body could not be stored
+         */
+        public Entry commit() throws IOException {
+            byte[] buffer = new byte[8192];
+            //noinspection StatementWithEmptyBody
+            while (read(buffer, 0, buffer.length) != -1) {
+            }
+            if (mOut == null) {
+                return null;
+            }
+
+            DataOutputStream meta = null;
+            try {
+                mOut.close();
+                mOut = null;
+
+                File metaTempFile = File.createTempFile(mFileName, TEMP_SUFFIX, mDirectory);
+                meta = new DataOutputStream(new FileOutputStream(metaTempFile));
+                meta.writeUTF(mUrl);
+                meta.writeUTF(nullToEmpty(mETag));
+                meta.writeUTF(nullToEmpty(mLastModified));
+                meta.close();
+                meta = null;
+
+                File bodyFile = new File(mDirectory, mFileName + BODY_SUFFIX);
+                File metaFile = new File(mDirectory, mFileName + META_SUFFIX);
+                synchronized (HttpResponseDiskCache.this) {
+                    if (!mTempFile.renameTo(bodyFile) || !metaTempFile.renameTo(metaFile)) {
+                        //noinspection ResultOfMethodCallIgnored
+                        metaTempFile.delete();
+                        abort();
+                        return null;
+                    }
+
+                    mTempFile = null;
+                    Entry entry = new Entry(mUrl, mFileName, mETag, mLastModified,
+                            bodyFile.length() + metaFile.length());
+                    addEntry(entry);
+                    return entry;
+                }
+            } catch (IOException e) {
+                closeQuietly(meta);
+                abort();
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            abort();
+            super.close();
+        }
+
+        private void abort() {
+            closeQuietly(mOut);
+            mOut = null;
+            if (mTempFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                mTempFile.delete();
+                mTempFile = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.p6_newsappstage1;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Loads a list of news stories from the local {@link NewsStoryDatabase} by using an AsyncTask,
+ * so a query can be answered before, or without, the network. The query itself is run in the
+ * lane of the page on screen of the {@link PriorityExecutor}.
+ */
+public class LocalNewsStoryLoader extends AsyncTaskLoader<List<NewsStory>> {
+
+    /** Words to look for, or an empty String for the latest stories */
+    private String mFilterBy;
+
+    /** Order of the latest stories, "newest" or "oldest" */
+    private String mOrderBy;
+
+    /** Maximum number of stories to load */
+    private int mLimit;
+
+    /**
+     * Constructs a new {@link LocalNewsStoryLoader}.
+     *
+     * @param context of the activity
+     * @param filterBy are the words to look for, or an empty String for the latest stories
+     * @param orderBy is the order of the latest stories
+     * @param limit is the maximum number of stories to load
+     */
+    public LocalNewsStoryLoader(Context context, String filterBy, String orderBy, int limit) {
+        super(context);
+        mFilterBy = filterBy;
+        mOrderBy = orderBy;
+        mLimit = limit;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        forceLoad();
+    }
+
+    /**
+     * This is on a background thread
+     */
+    @Override
+    public List<NewsStory> loadInBackground() {
+        long start = System.nanoTime();
+        final NewsStoryDatabase database = NewsStoryDatabase.getInstance(getContext());
+        List<NewsStory> newsStories = PriorityExecutor.getInstance().invoke(
+                PriorityExecutor.LANE_VISIBLE, new PriorityExecutor.Task<List<NewsStory>>() {
+                    @Override
+                    public List<NewsStory> run(CancellableRequest cancellation) {
+                        return query(database);
+                    }
+                }, new CancellableRequest());
+        if (newsStories == null) {
+            // Too much is waiting to be shown, the network answers the query instead
+            return Collections.emptyList();
+        }
+
+        PipelineMetrics.QueryMetrics metrics =
+                PipelineMetrics.getInstance().forQuery(PipelineMetrics.QUERY_LOCAL);
+        metrics.recordNanos(PipelineMetrics.STAGE_LOAD, System.nanoTime() - start);
+        metrics.increment(PipelineMetrics.COUNTER_REQUESTS);
+        metrics.add(PipelineMetrics.COUNTER_STORIES, newsStories.size());
+        return newsStories;
+    }
+
+    /**
+     * Return the stories of the database matching this loader's query.
+     */
+    private List<NewsStory> query(NewsStoryDatabase database) {
+        List<String> topics = MultiQueryFetcher.splitTopics(mFilterBy);
+        if (topics.isEmpty()) {
+            return database.queryLatest(mOrderBy, mLimit);
+        }
+        if (topics.size() == 1) {
+            return database.search(topics.get(0), mLimit);
+        }
+
+        // Several topics are followed, so show their best matches as one timeline,
+        // like the server results they stand in for
+        final boolean newestFirst = !"oldest".equals(mOrderBy);
+        Comparator<NewsStory> byPublicationTime = new Comparator<NewsStory>() {
+            @Override
+            public int compare(NewsStory first, NewsStory second) {
+                long firstTime = first.getPublicationTime();
+                long secondTime = second.getPublicationTime();
+                int byTime = firstTime < secondTime ? -1 : (firstTime > secondTime ? 1 : 0);
+                return newestFirst ? -byTime : byTime;
+            }
+        };
+        List<List<NewsStory>> matches = new ArrayList<>(topics.size());
+        for (String topic : topics) {
+            List<NewsStory> newsStories = new ArrayList<>(database.search(topic, mLimit));
+            Collections.sort(newsStories, byPublicationTime);
+            matches.add(newsStories);
+        }
+        List<NewsStory> merged = MultiQueryFetcher.merge(matches, newestFirst);
+        return merged.size() > mLimit ? merged.subList(0, mLimit) : merged;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.p6_newsappstage1;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Debug screen showing the {@link PipelineMetrics}: a table per query type of how long each stage
+ * of loading the stories took, and how the requests turned out. The metrics can be shared as
+ * JSON, with every histogram bucket, to be analysed offline.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    /** Percentiles shown of every stage */
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private TextView mMetricsView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_activity);
+        mMetricsView = findViewById(R.id.metrics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_refresh_metrics) {
+            showMetrics();
+            return true;
+        }
+        if (id == R.id.action_share_metrics) {
+            Intent shareIntent = new Intent(Intent.ACTION_SEND);
+            shareIntent.setType("application/json");
+            shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_title));
+            shareIntent.putExtra(Intent.EXTRA_TEXT, PipelineMetrics.getInstance().toJson());
+            startActivity(Intent.createChooser(shareIntent,
+                    getString(R.string.metrics_share_menu_item)));
+            return true;
+        }
+        if (id == R.id.action_reset_metrics) {
+            PipelineMetrics.getInstance().reset();
+            showMetrics();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showMetrics() {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        List<String> queryTypes = metrics.getQueryTypes();
+        LatencyHistogram bind = metrics.getBindHistogram();
+        if (queryTypes.isEmpty() && bind.getCount() == 0) {
+            mMetricsView.setText(R.string.metrics_empty);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (String queryType : queryTypes) {
+            PipelineMetrics.QueryMetrics queryMetrics = metrics.forQuery(queryType);
+            text.append(queryType).append('\n');
+            for (int counter = 0; counter < PipelineMetrics.COUNTER_COUNT; counter++) {
+                text.append(String.format(Locale.US, "  %-15s%10d%n",
+                        PipelineMetrics.getCounterName(counter), queryMetrics.getCount(counter)));
+            }
+            appendHeader(text);
+            for (int stage = 0; stage < PipelineMetrics.STAGE_COUNT; stage++) {
+                appendRow(text, PipelineMetrics.getStageName(stage), queryMetrics.getStage(stage));
+            }
+            text.append('\n');
+        }
+        text.append("list\n");
+        appendHeader(text);
+        appendRow(text, "bind", bind);
+        mMetricsView.setText(text);
+    }
+
+    private static void appendHeader(StringBuilder text) {
+        text.append(String.format(Locale.US, "  %-12s%7s", "stage", "count"));
+        for (double percentile : PERCENTILES) {
+            text.append(String.format(Locale.US, "%9s", "p" + (int) percentile));
+        }
+        text.append(String.format(Locale.US, "%9s%n", "max"));
+    }
+
+    private static void appendRow(StringBuilder text, String name, LatencyHistogram histogram) {
+        text.append(String.format(Locale.US, "  %-12s%7d", name, histogram.getCount()));
+        for (double percentile : PERCENTILES) {
+            text.append(String.format(Locale.US, "%9s",
+                    formatMicros(histogram.getValueAtPercentile(percentile))));
+        }
+        text.append(String.format(Locale.US, "%9s%n", formatMicros(histogram.getMax())));
+    }
+
+    /**
+     * Return the given time in microseconds in the unit that suits it best.
+     */
+    static String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "us";
+        }
+        if (micros < 1000 * 1000) {
+            return String.format(Locale.US, "%.1fms", micros / 1000.0);
+        }
+        return String.format(Locale.US, "%.2fs", micros / (1000.0 * 1000));
+    }
+}
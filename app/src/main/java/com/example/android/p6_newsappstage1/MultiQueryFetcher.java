@@ -0,0 +1,334 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several queries at once and merges their results into a single timeline.
+ *
+ * Every query is fetched on the given executor, so the whole takes about as long as the slowest
+ * query rather than all of them one after the other. Each result is already sorted by publication
+ * time, so they are combined with a k-way merge, and a story returned by more than one query only
+ * appears once. A merged timeline is handed to the {@link Listener} every time another query
+ * returns, so the first stories can be shown before the slowest query is done.
+ *
+ * A merged timeline is paged by a {@link PageCursor} rather than by the pages of the queries: page
+ * N of every topic is not what follows page N - 1 of the merged timeline once one topic has more
+ * stories than the others. The next page is merged from the stories of every query past the last
+ * one shown, and only as far as every query that may have more stories has returned.
+ */
+public class MultiQueryFetcher {
+
+    /**
+     * Fetches the stories of a single query.
+     */
+    public interface Source {
+        /**
+         * Return the stories of the query at the given URL, sorted by publication time, or null
+         * if they could not be fetched.
+         */
+        List<NewsStory> fetch(String url, CancellableRequest cancellation);
+    }
+
+    /**
+     * Receives the merged timeline of the queries that have returned so far.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread running {@link #fetch} when another query has returned.
+         */
+        void onPartialResult(List<NewsStory> newsStories, int queriesDone, int queryCount);
+    }
+
+    /**
+     * Where a page of a merged timeline ends: the publication time of its last story, and the URLs
+     * of the stories published at that time it showed, since more may have been published then.
+     */
+    public static final class PageCursor {
+        private final long mPublicationTime;
+        private final Set<String> mUrls;
+
+        private PageCursor(long publicationTime, Set<String> urls) {
+            mPublicationTime = publicationTime;
+            mUrls = urls;
+        }
+
+        /**
+         * Return the cursor past the given page of a merged timeline, which started past the given
+         * cursor, or null for the first page.
+         */
+        public static PageCursor after(List<NewsStory> page, PageCursor start) {
+            if (page.isEmpty()) {
+                return start;
+            }
+            long publicationTime = page.get(page.size() - 1).getPublicationTime();
+            Set<String> urls = new HashSet<>();
+            if (start != null && start.mPublicationTime == publicationTime) {
+                // The whole page was published at the time the previous one ended
+                urls.addAll(start.mUrls);
+            }
+            for (int i = page.size() - 1; i >= 0; i--) {
+                NewsStory newsStory = page.get(i);
+                if (newsStory.getPublicationTime() != publicationTime) {
+                    break;
+                }
+                urls.add(newsStory.getUrl());
+            }
+            return new PageCursor(publicationTime, urls);
+        }
+
+        /** Return the publication time of the last story shown. */
+        public long getPublicationTime() {
+            return mPublicationTime;
+        }
+
+        /**
+         * Return the number of stories shown that were published at the time of the last one.
+         * A query that asks for the stories up to that time gets them again, so it asks for that
+         * many more.
+         */
+        public int getUrlCount() {
+            return mUrls.size();
+        }
+
+        /** Return true if the given story is past this cursor, in the given order. */
+        boolean isPast(NewsStory newsStory, long publicationTime, boolean newestFirst) {
+            int order = compareTimes(publicationTime, mPublicationTime, newestFirst);
+            return order > 0 || (order == 0 && !mUrls.contains(newsStory.getUrl()));
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final Source mSource;
+
+    /**
+     * Create a new {@link MultiQueryFetcher}.
+     *
+     * @param executor runs the queries, its number of threads bounds how many run at once
+     * @param source fetches each query
+     */
+    public MultiQueryFetcher(ExecutorService executor, Source source) {
+        mExecutor = executor;
+        mSource = source;
+    }
+
+    /**
+     * Fetch the given queries at once and return their merged stories, or null if none of them
+     * could be fetched or the fetch was cancelled.
+     *
+     * @param urls are the queries, each sorted the same way
+     * @param newestFirst is true if the results are sorted newest first, false if oldest first
+     * @param cancellation cancels every query still running
+     * @param listener receives the merged stories whenever a query returns, may be null
+     */
+    public List<NewsStory> fetch(List<String> urls, boolean newestFirst,
+                                 CancellableRequest cancellation, Listener listener) {
+        return fetch(urls, newestFirst, null, Integer.MAX_VALUE, cancellation, listener);
+    }
+
+    /**
+     * Fetch the given queries at once and return a page of their merged stories, see
+     * {@link #fetch(List, boolean, CancellableRequest, Listener)}.
+     *
+     * @param after is where the previous page ended, or null for the first page
+     * @param pageSize is the number of stories of the page. Every query asks for that many
+     *                 stories past the cursor, plus {@link PageCursor#getUrlCount()} of them
+     */
+    public List<NewsStory> fetch(List<String> urls, boolean newestFirst, PageCursor after,
+                                 int pageSize, CancellableRequest cancellation,
+                                 Listener listener) {
+        CompletionService<List<NewsStory>> completionService =
+                new ExecutorCompletionService<>(mExecutor);
+        List<Future<List<NewsStory>>> futures = new ArrayList<>(urls.size());
+        List<CancellableRequest> requests = new ArrayList<>(urls.size());
+        for (final String url : urls) {
+            final CancellableRequest request = cancellation.newChild();
+            requests.add(request);
+            futures.add(completionService.submit(new Callable<List<NewsStory>>() {
+                @Override
+                public List<NewsStory> call() {
+                    return mSource.fetch(url, request);
+                }
+            }));
+        }
+
+        List<List<NewsStory>> results = new ArrayList<>(urls.size());
+        List<NewsStory> merged = null;
+        try {
+            for (int done = 1; done <= urls.size(); done++) {
+                List<NewsStory> result = completionService.take().get();
+                if (cancellation.isCancelled()) {
+                    return null;
+                }
+                if (result == null) {
+                    continue;
+                }
+                results.add(result);
+                merged = merge(results, newestFirst, after, pageSize);
+                if (listener != null && done < urls.size()) {
+                    listener.onPartialResult(merged, done, urls.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            cancellation.cancel();
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // A source failed in a way it should have reported as null, give up the others
+            cancellation.cancel();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<List<NewsStory>> future : futures) {
+                future.cancel(false);
+            }
+            for (CancellableRequest request : requests) {
+                cancellation.removeChild(request);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Return the topics of a filter, which are separated by commas, trimmed. A filter without a
+     * comma is a single topic, an empty one has none.
+     */
+    public static List<String> splitTopics(String filterBy) {
+        List<String> topics = new ArrayList<>();
+        for (String topic : filterBy.split(",")) {
+            topic = topic.trim();
+            if (!topic.isEmpty() && !topics.contains(topic)) {
+                topics.add(topic);
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * Merge lists of stories that are each sorted by publication time into one sorted list,
+     * keeping only the first occurrence of every URL.
+     *
+     * @param newestFirst is true if the lists are sorted newest first, false if oldest first
+     */
+    static List<NewsStory> merge(List<List<NewsStory>> sources, boolean newestFirst) {
+        return merge(sources, newestFirst, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Merge a page of the given lists of stories, see {@link #merge(List, boolean)}, keeping only
+     * the stories past the given cursor, at most the given number of them.
+     *
+     * A list as long as a query asks for may go on past its last story. Once such a list has run
+     * out, the page ends, as the next story of its query could come before any of the others.
+     *
+     * @param after is where the previous page ended, or null for the first page
+     * @param pageSize is the number of stories of the page, see
+     *                 {@link #fetch(List, boolean, PageCursor, int, CancellableRequest, Listener)}
+     */
+    static List<NewsStory> merge(List<List<NewsStory>> sources, boolean newestFirst,
+                                 PageCursor after, int pageSize) {
+        int fullSize = after == null ? pageSize : pageSize + after.getUrlCount();
+        int size = 0;
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(Math.max(sources.size(), 1));
+        for (int i = 0; i < sources.size(); i++) {
+            List<NewsStory> source = sources.get(i);
+            size += source.size();
+            if (!source.isEmpty()) {
+                cursors.add(new Cursor(source, i, newestFirst));
+            }
+        }
+
+        NewsStoryStore merged = new NewsStoryStore(Math.min(size, pageSize));
+        Set<String> urls = new HashSet<>();
+        while (!cursors.isEmpty() && merged.size() < pageSize) {
+            Cursor cursor = cursors.poll();
+            NewsStory newsStory = cursor.mSource.get(cursor.mIndex);
+            if ((after == null || after.isPast(newsStory, cursor.mPublicationTime, newestFirst))
+                    && urls.add(newsStory.getUrl())) {
+                merged.add(newsStory);
+            }
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            } else if (cursor.mSource.size() >= fullSize) {
+                // Its query may have more stories, which would have to come next
+                break;
+            }
+        }
+        merged.trimToSize();
+        return merged;
+    }
+
+    /**
+     * Compare two publication times in the given order: negative if the first one comes first.
+     * Stories with an unknown publication time come last either way.
+     */
+    static int compareTimes(long publicationTime, long otherPublicationTime,
+                            boolean newestFirst) {
+        if (publicationTime == otherPublicationTime) {
+            return 0;
+        }
+        if (publicationTime == PublicationDates.UNKNOWN) {
+            return 1;
+        }
+        if (otherPublicationTime == PublicationDates.UNKNOWN) {
+            return -1;
+        }
+        boolean first = newestFirst
+                ? publicationTime > otherPublicationTime
+                : publicationTime < otherPublicationTime;
+        return first ? -1 : 1;
+    }
+
+    /**
+     * Position in one of the lists being merged, ordered by the publication time of the story
+     * it points at, then by list so stories published at the same time keep a stable order.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        final List<NewsStory> mSource;
+        final boolean mNewestFirst;
+        final int mOrder;
+        int mIndex;
+        long mPublicationTime;
+
+        Cursor(List<NewsStory> source, int order, boolean newestFirst) {
+            mSource = source;
+            mOrder = order;
+            mNewestFirst = newestFirst;
+            mPublicationTime = publicationTime(source, 0);
+        }
+
+        boolean advance() {
+            mIndex++;
+            if (mIndex == mSource.size()) {
+                return false;
+            }
+            mPublicationTime = publicationTime(mSource, mIndex);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int order = compareTimes(mPublicationTime, other.mPublicationTime, mNewestFirst);
+            if (order != 0) {
+                return order;
+            }
+            return mOrder < other.mOrder ? -1 : (mOrder > other.mOrder ? 1 : 0);
+        }
+
+        /** Return the publication time of a story, without decoding it if it is in a store. */
+        private static long publicationTime(List<NewsStory> source, int index) {
+            if (source instanceof NewsStoryStore) {
+                return ((NewsStoryStore) source).getPublicationTime(index);
+            }
+            return source.get(index).getPublicationTime();
+        }
+    }
+}
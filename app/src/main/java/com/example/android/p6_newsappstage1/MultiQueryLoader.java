@@ -0,0 +1,90 @@
+package com.example.android.p6_newsappstage1;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
+
+/**
+ * Loads the stories of several queries at once, for users following more than one topic, and
+ * merges them into a single timeline.
+ *
+ * The merged stories of the queries that have returned so far are delivered as soon as each one
+ * returns, then the full page once they all have. A page of the timeline starts where the
+ * previous one ended, see {@link MultiQueryFetcher.PageCursor}.
+ */
+public class MultiQueryLoader extends NewsStoryLoader {
+
+    private static final MultiQueryFetcher.Source sSource = new MultiQueryFetcher.Source() {
+        @Override
+        public List<NewsStory> fetch(String url, CancellableRequest cancellation) {
+            return QueryUtils.fetchNewsStoryData(url, cancellation);
+        }
+    };
+
+    /** Query URLs */
+    private final List<String> mUrls;
+
+    /** True if the queries ask for the newest stories first */
+    private final boolean mNewestFirst;
+
+    /** Where the previous page ended, or null for the first page */
+    private final MultiQueryFetcher.PageCursor mAfter;
+
+    /** Number of stories of a page */
+    private final int mPageSize;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Constructs a new {@link MultiQueryLoader}.
+     *
+     * @param context of the activity
+     * @param urls to load data from, at least one, each asking for the stories past the cursor
+     * @param page is the number of the page of the merged timeline
+     * @param newestFirst is true if the URLs ask for the newest stories first
+     * @param after is where the previous page ended, or null for the first page
+     * @param pageSize is the number of stories of a page, see
+     *                 {@link MultiQueryFetcher#fetch(List, boolean,
+     *                 MultiQueryFetcher.PageCursor, int, CancellableRequest,
+     *                 MultiQueryFetcher.Listener)}
+     * @param visible is true if the page is on screen, so its queries are the most urgent
+     */
+    public MultiQueryLoader(Context context, List<String> urls, int page, boolean newestFirst,
+                            MultiQueryFetcher.PageCursor after, int pageSize, boolean visible) {
+        super(context, urls.get(0), page, visible);
+        mUrls = urls;
+        mNewestFirst = newestFirst;
+        mAfter = after;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * This is on a background thread, which waits for the queries run in the lane of this
+     * loader of the {@link PriorityExecutor}, each on a worker of its own.
+     */
+    @Override
+    protected List<NewsStory> fetch(final CancellableRequest request) {
+        MultiQueryFetcher fetcher = new MultiQueryFetcher(
+                PriorityExecutor.getInstance().forLane(getLane()), sSource);
+        MultiQueryFetcher.Listener listener = new MultiQueryFetcher.Listener() {
+            @Override
+            public void onPartialResult(final List<NewsStory> newsStories, int queriesDone,
+                                        int queryCount) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverPartialResult(newsStories, request);
+                    }
+                });
+            }
+        };
+        return fetcher.fetch(mUrls, mNewestFirst, mAfter, mPageSize, request, listener);
+    }
+
+    @Override
+    protected String getQueryType() {
+        return PipelineMetrics.QUERY_MULTI_TOPIC;
+    }
+}
@@ -9,23 +9,37 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
+import android.telephony.TelephonyManager;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class NewsStoryActivity extends AppCompatActivity
         implements LoaderManager.LoaderCallbacks<List<NewsStory>>,
         SharedPreferences.OnSharedPreferenceChangeListener{
 
-    //public static final String LOG_TAG = NewsStoryActivity.class.getName();
+    public static final String LOG_TAG = NewsStoryActivity.class.getName();
 
     /**
      * Constant value for the news story loader ID. We can choose any integer.
@@ -33,47 +47,187 @@ public class NewsStoryActivity extends AppCompatActivity
      */
     private static final int NEWS_STORY_LOADER_ID = 1;
 
+    /** Loader ID for the pages after (or before) the first one, fetched while the user scrolls */
+    private static final int NEWS_STORY_PAGE_LOADER_ID = 2;
+
+    /** Loader ID for the stories found in the local database */
+    private static final int LOCAL_NEWS_STORY_LOADER_ID = 3;
+
+    /** Key of the page number in the loader arguments */
+    private static final String ARG_PAGE = "page";
+
+    /** Number of news stories requested per page */
+    private static final int PAGE_SIZE = 20;
+
+    /**
+     * Number of stories per page on a poor connection, so the first screen arrives quickly, and
+     * on a good one, so fewer requests are made as the user scrolls
+     */
+    private static final int POOR_PAGE_SIZE = 10;
+    private static final int GOOD_PAGE_SIZE = 30;
+
+    /** Maximum number of pages kept in memory, pages furthest off-screen are dropped first */
+    private static final int MAX_PAGES = 5;
+
+    /**
+     * Number of list items left before the end (or start) of the loaded pages at which the next
+     * (or previous) page is fetched, so it is there before the user gets to it.
+     */
+    private static final int PREFETCH_DISTANCE = 10;
+
+    /**
+     * Time in milliseconds to wait after a query setting changes before running the query, so a
+     * quick series of changes results in a single request
+     */
+    private static final long QUERY_CHANGE_DELAY = 300;
+
+    /** Time in milliseconds a query result is shown from memory while it is refreshed */
+    private static final long QUERY_RESULT_TIME_TO_LIVE = 10 * 60 * 1000;
+
+    /** Estimated number of bytes the query results kept in memory may take up */
+    private static final long QUERY_RESULT_CACHE_SIZE = 512 * 1024;
+
+    /**
+     * First pages of recent queries, kept for the lifetime of the process so switching back to a
+     * filter or order used a minute ago shows its stories straight away.
+     */
+    private static final QueryResultCache sQueryResultCache =
+            new QueryResultCache(QUERY_RESULT_TIME_TO_LIVE, QUERY_RESULT_CACHE_SIZE);
+
     /** Adapter for the list of news stories*/
     private NewsStoryAdapter mAdapter;
 
     /** TextView that is displayed when the list is empty */
     private TextView mEmptyStateTextView;
 
+    /** RecyclerView showing the news stories */
+    private RecyclerView mNewsStoryListView;
+
+    /** Layout manager of the list, which knows which rows are on screen */
+    private LinearLayoutManager mLayoutManager;
+
+    /** Pages of news stories currently held in memory */
+    private final NewsStoryPages mPages = new NewsStoryPages(PAGE_SIZE, MAX_PAGES);
+
+    /** Where the pages of a merged timeline of several topics start, by page number */
+    private final Map<Integer, MultiQueryFetcher.PageCursor> mPageCursors = new HashMap<>();
+
+    /**
+     * True if the stories of the current query are requested with the URLs of their thumbnails,
+     * false if those are fetched once the stories are shown, on a poor connection
+     */
+    private boolean mWithThumbnails = true;
+
+    /** Cancels the fetches of the thumbnails of the current query once it is replaced */
+    private CancellableRequest mThumbnailRequests = new CancellableRequest();
+
+    /** Number of the page being fetched by the page loader, or 0 if none is */
+    private int mLoadingPage;
+
+    /** True if there was no network connection when the activity was created */
+    private boolean mOffline;
+
+    /** Stories of the current query found in the local database, or null until they are */
+    private List<NewsStory> mLocalNewsStories;
+
+    /** True while the list shows stories from the local database rather than from the server */
+    private boolean mShowingLocalResults;
+
+    /** True while the list shows the first stories of a response whose rest is still read */
+    private boolean mShowingPartialResult;
+
+    /** The load whose first stories are about to be shown, or null if there is none */
+    private NewsStoryLoader mFirstStoryLoad;
+
+    /** Start time of the latest load whose first stories were shown */
+    private long mFirstStoryLoadStartNanos;
+
+    /** Name of the file the last feed shown is saved to, in the app's files directory */
+    private static final String SNAPSHOT_FILE = "feed.snapshot";
+
+    /**
+     * Thread the snapshot of the feed is written on, and the loaded stories indexed on, one task
+     * at a time in the order they were handed over
+     */
+    private static final ExecutorService sFeedExecutor = Executors.newSingleThreadExecutor();
+
+    /** Number of top stories whose bodies are kept for offline reading */
+    private static final int PREFETCH_ARTICLE_COUNT = 10;
+
+    /** Maximum number of matches shown while the user types a search */
+    private static final int SEARCH_RESULT_LIMIT = PAGE_SIZE * MAX_PAGES;
+
+    /** Number of matches among the loaded stories below which the server is searched too */
+    private static final int MIN_LOCAL_MATCHES = 5;
+
+    /**
+     * Index of the stories loaded so far, which the search box filters as the user types. Pages
+     * are added to it on the {@link #sFeedExecutor} as they arrive.
+     */
+    private final NewsStoryIndex mIndex = new NewsStoryIndex();
+
+    /** Text in the search box, trimmed, or an empty String when the user isn't searching */
+    private String mSearchQuery = "";
+
+    /** Text the server is searched for in place of the filter setting, or null if it isn't */
+    private String mServerSearch;
+
+    /** Handler the restart of the query is posted to when its settings change */
+    private final Handler mHandler = new Handler();
+
+    /** Restarts the query with the current settings */
+    private final Runnable mRestartQuery = new Runnable() {
+        @Override
+        public void run() {
+            // The stories of the previous filter shouldn't match searches of the new one
+            clearIndex();
+            restartQuery();
+        }
+    };
+
+    /** Searches the server for the text in the search box */
+    private final Runnable mSearchServer = new Runnable() {
+        @Override
+        public void run() {
+            mServerSearch = mSearchQuery;
+            restartQuery();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.news_story_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView newsStoryListView = findViewById(R.id.list);
+        // Keep fetched responses on disk, so an unchanged feed isn't downloaded again
+        QueryUtils.installResponseCache(getCacheDir());
 
-        mEmptyStateTextView = findViewById(R.id.empty_view);
-        newsStoryListView.setEmptyView(mEmptyStateTextView);
+        // Keep the followed topics synced in the background, so the stories stored locally are
+        // fresh the next time the app is opened
+        DeltaSyncReceiver.scheduleIfNeeded(this);
 
-        // Create a new {@link ArrayAdapter} of news stories
-        mAdapter = new NewsStoryAdapter(this, new ArrayList<NewsStory>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        newsStoryListView.setAdapter(mAdapter);
+        // Find a reference to the {@link RecyclerView} in the layout
+        mNewsStoryListView = findViewById(R.id.list);
+        mLayoutManager = new LinearLayoutManager(this);
+        mNewsStoryListView.setLayoutManager(mLayoutManager);
 
-        // Obtain a reference to the SharedPreferences file for this app
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        // And register to be notified of preference changes
-        // So we know when the user has adjusted the query settings
-        prefs.registerOnSharedPreferenceChangeListener(this);
+        mEmptyStateTextView = findViewById(R.id.empty_view);
 
-        newsStoryListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Create a new {@link NewsStoryAdapter} of news stories, which opens the story clicked on
+        mAdapter = new NewsStoryAdapter(this, new NewsStoryAdapter.OnNewsStoryClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // Find the current news story that was clicked on
-                NewsStory currentNewsStory = mAdapter.getItem(position);
+            public void onNewsStoryClick(NewsStory currentNewsStory) {
+                // Without a network, show the body prefetched for offline reading, if any. The
+                // article activity looks it up off the main thread and opens the web page if
+                // there is none.
+                if (!DeltaSyncReceiver.getDeviceState(NewsStoryActivity.this).mConnected) {
+                    startActivity(ArticleActivity.newIntent(NewsStoryActivity.this,
+                            currentNewsStory));
+                    return;
+                }
 
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
-                Uri newsStoryUri = null;
-                if (currentNewsStory != null) {
-                    newsStoryUri = Uri.parse(currentNewsStory.getUrl());
-                }
+                Uri newsStoryUri = Uri.parse(currentNewsStory.getUrl());
 
                 // Create a new intent to view the news story URI
                 Intent websiteIntent = new Intent(Intent.ACTION_VIEW, newsStoryUri);
@@ -83,6 +237,30 @@ public class NewsStoryActivity extends AppCompatActivity
             }
         });
 
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        mNewsStoryListView.setAdapter(mAdapter);
+
+        // Fetch the neighbouring page in the background before the user scrolls to it
+        mNewsStoryListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int firstVisibleItem = mLayoutManager.findFirstVisibleItemPosition();
+                if (firstVisibleItem == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                int visibleItemCount =
+                        mLayoutManager.findLastVisibleItemPosition() - firstVisibleItem + 1;
+                prefetchPage(firstVisibleItem, visibleItemCount, mAdapter.getItemCount());
+            }
+        });
+
+        // Obtain a reference to the SharedPreferences file for this app
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        // And register to be notified of preference changes
+        // So we know when the user has adjusted the query settings
+        prefs.registerOnSharedPreferenceChangeListener(this);
+
         // Get a reference to the ConnectivityManager to check state of network connectivity
         ConnectivityManager cm =
                 (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -95,6 +273,8 @@ public class NewsStoryActivity extends AppCompatActivity
 
         // If there is a network connection, fetch data
         if (networkInfo != null && networkInfo.isConnectedOrConnecting()){
+            // Shape the requests by how fast the network is
+            shapeRequests();
 
             // Get a reference to the LoaderManager, in order to interact with loaders.
             LoaderManager loaderManager = getLoaderManager();
@@ -103,14 +283,17 @@ public class NewsStoryActivity extends AppCompatActivity
             // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
             // because this activity implements the LoaderCallbacks interface).
             //Log.i(LOG_TAG, getString(R.string.newsStory_initLoader_log_message));
+            // Show what is cached, saved at the last run or stored locally first, while the
+            // loader fetches the feed.
+            if (!showCachedResult() && !showSnapshot()) {
+                loaderManager.initLoader(LOCAL_NEWS_STORY_LOADER_ID, null, this);
+            }
             loaderManager.initLoader(NEWS_STORY_LOADER_ID, null, this);
         } else {
-            // Otherwise, display error. First, hide loading indicator so error message will be visible
-            View loadingSpinner = findViewById(R.id.loading_spinner);
-            loadingSpinner.setVisibility(View.GONE);
-
-            // Update empty state with "no connection" error message
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
+            // Otherwise, show the stories stored locally. The "no connection" error message
+            // is displayed if there are none.
+            mOffline = true;
+            getLoaderManager().initLoader(LOCAL_NEWS_STORY_LOADER_ID, null, this);
         }
     }
 
@@ -118,55 +301,563 @@ public class NewsStoryActivity extends AppCompatActivity
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
         if (key.equals(getString(R.string.settings_filter_by_key)) ||
                 key.equals(getString(R.string.settings_order_by_key))){
-            // Clear the ListView as a new query will be kicked off
-            mAdapter.clear();
+            // Wait for the settings to stop changing, then run the query once
+            mHandler.removeCallbacks(mRestartQuery);
+            mHandler.postDelayed(mRestartQuery, QUERY_CHANGE_DELAY);
+        }
+    }
+
+    /**
+     * Show the results of the query with the current settings. Restarting the loaders cancels
+     * their requests for the previous query, disconnecting them.
+     */
+    private void restartQuery() {
+        // Forget the pages of the previous query and stop fetching more of them
+        shapeRequests();
+        mLoadingPage = 0;
+        mLocalNewsStories = null;
+        mShowingLocalResults = false;
+        mShowingPartialResult = false;
+        getLoaderManager().destroyLoader(NEWS_STORY_PAGE_LOADER_ID);
 
-            // Hide the empty state text view as the loading indicator will be displayed
-            mEmptyStateTextView.setVisibility(View.GONE);
+        // Show the stories of the new query straight away if it was run recently,
+        // the loader then refreshes them in the background. Otherwise look for them
+        // in the local database while they are fetched.
+        if (!showCachedResult()) {
+            getLoaderManager().restartLoader(LOCAL_NEWS_STORY_LOADER_ID, null, this);
 
-            // Show the loading indicator while new data is being fetched
-            View loadingSpinner = findViewById(R.id.loading_spinner);
-            loadingSpinner.setVisibility(View.VISIBLE);
+            if (!mSearchQuery.isEmpty()) {
+                // Keep showing the loaded stories that match while the server is searched
+                showPages(true);
+            } else {
+                // Clear the list as a new query will be kicked off
+                mAdapter.submitList(Collections.<NewsStory>emptyList(), null);
+
+                // Hide the empty state text view as the loading indicator will be displayed
+                mEmptyStateTextView.setVisibility(View.GONE);
+
+                // Show the loading indicator while new data is being fetched
+                View loadingSpinner = findViewById(R.id.loading_spinner);
+                loadingSpinner.setVisibility(View.VISIBLE);
+            }
+        }
 
-            // Restart the loader as the query settings have been updated
+        // Restart the loader as the query settings have been updated
+        if (!mOffline) {
             getLoaderManager().restartLoader(NEWS_STORY_LOADER_ID, null, this);
         }
     }
 
+    /**
+     * Drop the pages of the previous query, and shape the requests of the next one by the class
+     * of the connection: on a poor one, fewer stories per page and no thumbnails, which are
+     * fetched once the stories are shown, so the first screen arrives quickly; on a good one,
+     * more stories per page. The class is estimated from the responses of the previous requests,
+     * or guessed from the type of the network until there are any.
+     */
+    private void shapeRequests() {
+        BandwidthEstimator estimator = QueryUtils.getBandwidthEstimator();
+        ConnectivityManager cm =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm == null ? null : cm.getActiveNetworkInfo();
+        if (networkInfo != null) {
+            estimator.setNetwork(networkInfo.getTypeName() + "/" + networkInfo.getSubtypeName(),
+                    guessConnectionClass(networkInfo));
+        }
+
+        int connectionClass = estimator.getConnectionClass();
+        int pageSize = PAGE_SIZE;
+        if (connectionClass == BandwidthEstimator.CLASS_POOR) {
+            pageSize = POOR_PAGE_SIZE;
+        } else if (connectionClass == BandwidthEstimator.CLASS_GOOD) {
+            pageSize = GOOD_PAGE_SIZE;
+        }
+        mPages.clear(pageSize);
+        mPageCursors.clear();
+        mWithThumbnails = connectionClass != BandwidthEstimator.CLASS_POOR;
+        mThumbnailRequests.cancel();
+        mThumbnailRequests = new CancellableRequest();
+        Log.d(LOG_TAG, "Connection class " + connectionClass + " at "
+                + estimator.getBandwidth() + " B/s: " + pageSize + " stories per page"
+                + (mWithThumbnails ? "" : ", thumbnails later"));
+    }
+
+    /**
+     * Return the class of the connection of the given network before any response was timed on
+     * it: poor on a 2G mobile network, unknown otherwise.
+     */
+    private static int guessConnectionClass(NetworkInfo networkInfo) {
+        if (networkInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+            return BandwidthEstimator.CLASS_UNKNOWN;
+        }
+        switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return BandwidthEstimator.CLASS_POOR;
+            default:
+                return BandwidthEstimator.CLASS_UNKNOWN;
+        }
+    }
+
+    /**
+     * Fetch the URLs of the thumbnails of the given page of stories, loaded without them, in the
+     * prefetch lane of the {@link PriorityExecutor}, and show them if the page is still in memory
+     * unchanged. A fetch still waiting when the query is replaced is dropped.
+     */
+    private void fetchThumbnails(final int page, final List<NewsStory> newsStories) {
+        if (mWithThumbnails || newsStories.isEmpty()) {
+            return;
+        }
+        final CancellableRequest cancellation = mThumbnailRequests;
+        final CancellableRequest request = cancellation.newChild();
+        final String queryKey = getQueryKey();
+        PriorityExecutor.Task<Void> task = new PriorityExecutor.Task<Void>() {
+            @Override
+            public Void run(CancellableRequest request) {
+                final List<NewsStory> withThumbnails;
+                try {
+                    withThumbnails = QueryUtils.fetchThumbnails(newsStories, request);
+                } finally {
+                    // The request of the query lives on, and would keep that of every page
+                    cancellation.removeChild(request);
+                }
+                if (withThumbnails == null) {
+                    return null;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The query was replaced, or the page refreshed or dropped since
+                        if (cancellation.isCancelled() || mPages.getPage(page) != newsStories) {
+                            return;
+                        }
+                        putPage(page, withThumbnails);
+                        if (page == 1) {
+                            sQueryResultCache.put(queryKey, withThumbnails);
+                            if (mServerSearch == null) {
+                                saveSnapshot(withThumbnails);
+                            }
+                        }
+                        showPages(false);
+                    }
+                });
+                return null;
+            }
+        };
+        try {
+            PriorityExecutor.getInstance().submit(PriorityExecutor.LANE_PREFETCH, task, request);
+        } catch (RejectedExecutionException e) {
+            cancellation.removeChild(request);
+            Log.w(LOG_TAG, "Skipped fetching the thumbnails of page " + page, e);
+        }
+    }
+
+    /**
+     * Show the cached first page of the current query, if there is one, from the top.
+     *
+     * @return true if a cached result is shown
+     */
+    private boolean showCachedResult() {
+        List<NewsStory> cachedNewsStories = sQueryResultCache.get(getQueryKey());
+        if (cachedNewsStories == null) {
+            return false;
+        }
+
+        mPages.clear();
+        putPage(1, cachedNewsStories);
+        showPages(true);
+
+        View loadingSpinner = findViewById(R.id.loading_spinner);
+        loadingSpinner.setVisibility(View.GONE);
+        return true;
+    }
+
+    /**
+     * Show the feed saved when the app last ran, if it was of the current query, from the top.
+     * The snapshot is mapped into memory and read on the main thread, which takes a few
+     * milliseconds, so the list is there on the first frame instead of a spinner.
+     *
+     * @return true if a snapshot is shown
+     */
+    private boolean showSnapshot() {
+        long start = System.nanoTime();
+        NewsStorySnapshot snapshot =
+                NewsStorySnapshot.read(new File(getFilesDir(), SNAPSHOT_FILE));
+        if (snapshot == null || !snapshot.getQueryKey().equals(getQueryKey())
+                || snapshot.getNewsStories().isEmpty()) {
+            return false;
+        }
+
+        mPages.clear();
+        putPage(1, snapshot.getNewsStories());
+        showPages(true);
+
+        View loadingSpinner = findViewById(R.id.loading_spinner);
+        loadingSpinner.setVisibility(View.GONE);
+        Log.d(LOG_TAG, "Snapshot of " + snapshot.getNewsStories().size() + " stories read in "
+                + (System.nanoTime() - start) / 1000 + " us");
+        return true;
+    }
+
+    /**
+     * Save the given first page of the current query in the background, to be shown on the next
+     * cold start while the feed is fetched.
+     */
+    private void saveSnapshot(final List<NewsStory> newsStories) {
+        final File file = new File(getFilesDir(), SNAPSHOT_FILE);
+        final String queryKey = getQueryKey();
+        sFeedExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    NewsStorySnapshot.write(file, queryKey, System.currentTimeMillis(),
+                            newsStories);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem saving the snapshot of the feed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetch the bodies of the top given stories in the prefetch lane of the
+     * {@link PriorityExecutor} for offline reading, if the network is unmetered and the battery
+     * isn't low.
+     */
+    private void prefetchArticleBodies(final List<NewsStory> newsStories) {
+        if (!SyncPolicy.shouldPrefetch(DeltaSyncReceiver.getDeviceState(this))) {
+            return;
+        }
+        final File filesDir = getFilesDir();
+        PriorityExecutor.Task<Void> task = new PriorityExecutor.Task<Void>() {
+            @Override
+            public Void run(CancellableRequest request) {
+                int fetched = QueryUtils.prefetchArticleBodies(filesDir, newsStories,
+                        PREFETCH_ARTICLE_COUNT, request);
+                if (fetched < 0) {
+                    Log.e(LOG_TAG, "Problem prefetching the article bodies");
+                }
+                return null;
+            }
+        };
+        try {
+            PriorityExecutor.getInstance().submit(PriorityExecutor.LANE_PREFETCH, task,
+                    new CancellableRequest());
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Skipped prefetching the article bodies", e);
+        }
+    }
+
+    /**
+     * Return the key of the current query in the query result cache.
+     */
+    private String getQueryKey() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return QueryResultCache.keyFor(getFilterBy(),
+                sharedPrefs.getString(getString(R.string.settings_order_by_key),
+                        getString(R.string.settings_order_by_default)));
+    }
+
+    /**
+     * Return the words the server is asked for: the text searched for, if the server is
+     * searched, or else the filter setting.
+     */
+    private String getFilterBy() {
+        if (mServerSearch != null) {
+            return mServerSearch;
+        }
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return sharedPrefs.getString(getString(R.string.settings_filter_by_key), "");
+    }
+
+    /**
+     * Start fetching the next page when the user gets close to the end of the pages in memory,
+     * or the previous page when they get close to the start of them.
+     */
+    private void prefetchPage(int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (mLoadingPage != 0 || mPages.isEmpty() || mShowingLocalResults
+                || isFilteringLocally()) {
+            return;
+        }
+
+        int page = 0;
+        if (mPages.hasNext()
+                && firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_DISTANCE) {
+            page = mPages.getLastPage() + 1;
+        } else if (mPages.hasPrevious() && firstVisibleItem <= PREFETCH_DISTANCE) {
+            page = mPages.getFirstPage() - 1;
+        }
+
+        if (page != 0) {
+            mLoadingPage = page;
+            Bundle args = new Bundle();
+            args.putInt(ARG_PAGE, page);
+            getLoaderManager().restartLoader(NEWS_STORY_PAGE_LOADER_ID, args, this);
+        }
+    }
+
+    /**
+     * Show the pages in memory. Only the rows of the stories that were added, removed, moved or
+     * changed are updated, so the rows the user is looking at stay in place, even when a page is
+     * added or dropped in front of them.
+     *
+     * @param scrollToTop is true to show the list from its first story
+     */
+    private void showPages(final boolean scrollToTop) {
+        List<NewsStory> newsStories = mPages.getNewsStories();
+        if (!mSearchQuery.isEmpty()) {
+            newsStories = searchLoadedStories(newsStories);
+        }
+        mAdapter.submitList(newsStories, new Runnable() {
+            @Override
+            public void run() {
+                if (scrollToTop) {
+                    mNewsStoryListView.scrollToPosition(0);
+                }
+                updateEmptyView();
+                if (mFirstStoryLoad != null && mAdapter.getItemCount() > 0) {
+                    recordFirstStory(mFirstStoryLoad);
+                    mFirstStoryLoad = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Keep the given page of stories in memory, and add its stories to the search index in the
+     * background.
+     */
+    private void putPage(int page, List<NewsStory> newsStories) {
+        mPages.put(page, newsStories);
+        indexNewsStories(newsStories);
+    }
+
+    /**
+     * Add the given stories to the search index on the {@link #sFeedExecutor}, and filter the
+     * list again once they are if the user is searching. Stories indexed already are skipped by
+     * the index, so only those new to it are tokenized.
+     */
+    private void indexNewsStories(final List<NewsStory> newsStories) {
+        if (newsStories.isEmpty()) {
+            return;
+        }
+        sFeedExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.addAll(newsStories);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mSearchQuery.isEmpty()) {
+                            showPages(false);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Remove every story from the search index, after the stories waiting to be added to it.
+     */
+    private void clearIndex() {
+        sFeedExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.clear();
+            }
+        });
+    }
+
+    /**
+     * Return the stories loaded so far that match the text in the search box, after the given
+     * stories of the pages in memory if the server was searched for that text.
+     */
+    private List<NewsStory> searchLoadedStories(List<NewsStory> pageNewsStories) {
+        long start = System.nanoTime();
+        List<NewsStory> matches = mIndex.search(mSearchQuery, SEARCH_RESULT_LIMIT);
+        Log.d(LOG_TAG, matches.size() + " of " + mIndex.size() + " stories matched in "
+                + (System.nanoTime() - start) / 1000 + " us");
+        if (isFilteringLocally()) {
+            return matches;
+        }
+        return mergeByUrl(pageNewsStories, matches);
+    }
+
+    /**
+     * Return true if the list shows the loaded stories that match the text in the search box,
+     * while the pages in memory aren't of a search of the server for that text.
+     */
+    private boolean isFilteringLocally() {
+        return !mSearchQuery.isEmpty() && !mSearchQuery.equals(mServerSearch);
+    }
+
+    /**
+     * Filter the loaded stories by the given text of the search box straight away, and search
+     * the server for it too once the user stops typing if few of them match. Without text, the
+     * query of the filter setting is shown again.
+     */
+    private void onSearchQueryChange(String query) {
+        if (query.trim().equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query.trim();
+        mHandler.removeCallbacks(mSearchServer);
+        if (mSearchQuery.isEmpty() && mServerSearch != null) {
+            mServerSearch = null;
+            restartQuery();
+            return;
+        }
+        showPages(true);
+
+        if (!mOffline && isFilteringLocally()
+                && mIndex.search(mSearchQuery, MIN_LOCAL_MATCHES).size() < MIN_LOCAL_MATCHES) {
+            mHandler.postDelayed(mSearchServer, QUERY_CHANGE_DELAY);
+        }
+    }
+
+    /**
+     * Time how long the given load took to show its first stories, once they are on screen,
+     * unless its first stories have been shown already.
+     */
+    private void timeFirstStory(NewsStoryLoader loader) {
+        long startNanos = loader.getLoadStartNanos();
+        if (startNanos != mFirstStoryLoadStartNanos) {
+            mFirstStoryLoadStartNanos = startNanos;
+            mFirstStoryLoad = loader;
+        }
+    }
+
+    /**
+     * Count the time from the start of the given load until now, when its first stories are
+     * shown, next to its total load time.
+     */
+    private void recordFirstStory(NewsStoryLoader loader) {
+        long nanos = System.nanoTime() - loader.getLoadStartNanos();
+        PipelineMetrics.getInstance().forQuery(loader.getQueryType())
+                .recordNanos(PipelineMetrics.STAGE_FIRST_STORY, nanos);
+        Log.d(LOG_TAG, "First stories shown after " + nanos / 1000000 + " ms");
+    }
+
+    /**
+     * Show the empty state text view if, and only if, the list is empty.
+     */
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
     @Override
     public Loader<List<NewsStory>> onCreateLoader(int i, Bundle bundle) {
         //Log.i(LOG_TAG, getString(R.string.onCreateLoader_log_message));
 
+        int page = bundle == null ? 1 : bundle.getInt(ARG_PAGE, 1);
+
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
-        String filterBy = sharedPrefs.getString(
-                getString(R.string.settings_filter_by_key),
-                "");
+        String filterBy = getFilterBy();
 
         String orderBy = sharedPrefs.getString(
                 getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default)
         );
 
+        if (i == LOCAL_NEWS_STORY_LOADER_ID) {
+            // Offline, the local stories are all there is to scroll through
+            int limit = mOffline ? PAGE_SIZE * MAX_PAGES : PAGE_SIZE;
+            return new LocalNewsStoryLoader(this, filterBy, orderBy, limit);
+        }
+
+        // Several topics separated by commas are followed with one query each, run at once
+        List<String> topics = MultiQueryFetcher.splitTopics(filterBy);
+        if (topics.size() > 1) {
+            boolean newestFirst =
+                    !getString(R.string.settings_order_by_oldest_value).equals(orderBy);
+            MultiQueryFetcher.PageCursor after = getPageCursor(page);
+            List<String> urls = new ArrayList<>(topics.size());
+            for (String topic : topics) {
+                urls.add(buildTopicQueryUrl(topic, orderBy, newestFirst, after));
+            }
+            return new MultiQueryLoader(this, urls, page, newestFirst, after,
+                    mPages.getPageSize(), i == NEWS_STORY_LOADER_ID);
+        }
+
         // Create a new loader for the given URL
-        // Build URI reference for for news stories from The Guardian data set
-        // http://content.guardianapis.com/search?show-tags=contributor&api-key=test
-        final Uri.Builder uriBuilder = new Uri.Builder();
-        uriBuilder.scheme("http")
-                .authority("content.guardianapis.com")
-                .appendPath("search")
-                .appendQueryParameter("show-tags", "contributor")
-                .appendQueryParameter("order-by", orderBy)
-                .appendQueryParameter("api-key", "test");
-        if(!filterBy.isEmpty())
-            uriBuilder.appendQueryParameter("q", filterBy);
+        // The first page is shown as its stories arrive, the next ones are loaded off screen
+        return new NewsStoryLoader(this, buildQueryUrl(filterBy, orderBy, page), page,
+                i == NEWS_STORY_LOADER_ID);
+    }
+
+    /**
+     * Return the URL of a page of the stories matching the given filter, in the given order,
+     * shaped like every request of the current query.
+     */
+    private String buildQueryUrl(String filterBy, String orderBy, int page) {
+        return QueryUtils.buildSearchUri(filterBy, orderBy, mPages.getPageSize(), mWithThumbnails)
+                .appendQueryParameter("page", String.valueOf(page))
+                .build().toString();
+    }
+
+    /**
+     * Return the URL of the stories of one of the topics of a merged timeline past the given
+     * cursor, or from the first one if it is null, in the given order.
+     */
+    private String buildTopicQueryUrl(String topic, String orderBy, boolean newestFirst,
+                                      MultiQueryFetcher.PageCursor after) {
+        if (after == null) {
+            return buildQueryUrl(topic, orderBy, 1);
+        }
+        // The API's dates include the time itself, so the stories shown at it come back too
+        Uri.Builder builder = QueryUtils.buildSearchUri(topic, orderBy,
+                mPages.getPageSize() + after.getUrlCount(), mWithThumbnails);
+        if (after.getPublicationTime() != PublicationDates.UNKNOWN) {
+            builder.appendQueryParameter(newestFirst ? "to-date" : "from-date",
+                    PublicationDates.toApiDate(after.getPublicationTime()));
+        }
+        return builder.build().toString();
+    }
 
-        return new NewsStoryLoader(this, uriBuilder.build().toString());
+    /**
+     * Return where the given page of a merged timeline starts, or null for the first page. It is
+     * worked out from the page before it while that page is in memory, and kept for when the
+     * user scrolls back to the page after the one before it was dropped.
+     */
+    private MultiQueryFetcher.PageCursor getPageCursor(int page) {
+        if (page == 1) {
+            return null;
+        }
+        List<NewsStory> previous = mPages.getPage(page - 1);
+        if (previous != null) {
+            mPageCursors.put(page,
+                    MultiQueryFetcher.PageCursor.after(previous, mPageCursors.get(page - 1)));
+        }
+        return mPageCursors.get(page);
     }
 
     @Override
     public void onLoadFinished(Loader<List<NewsStory>> loader, List<NewsStory> newsStories) {
         //Log.i(LOG_TAG, getString(R.string.onLoadFinished_log_message));
 
+        if (loader.getId() == LOCAL_NEWS_STORY_LOADER_ID) {
+            showLocalResult(newsStories);
+            return;
+        }
+
+        NewsStoryLoader newsStoryLoader = (NewsStoryLoader) loader;
+        int page = newsStoryLoader.getPage();
+        if (loader.getId() == NEWS_STORY_PAGE_LOADER_ID) {
+            mLoadingPage = 0;
+            // A page that failed to load is fetched again on the next scroll; one that
+            // belongs to a query that has been replaced is simply ignored
+            if (newsStories != null && !mPages.isEmpty()) {
+                putPage(page, newsStories);
+                showPages(false);
+                fetchThumbnails(page, newsStories);
+            }
+            return;
+        }
+
         // Hide loading indicator because the data has been loaded
         View loadingSpinner = findViewById(R.id.loading_spinner);
         loadingSpinner.setVisibility(View.GONE);
@@ -174,26 +865,181 @@ public class NewsStoryActivity extends AppCompatActivity
         // Set empty state text to display "No news stories found."
         mEmptyStateTextView.setText(R.string.no_news_stories);
 
-       // Clear the adapter of previous news story data
-        mAdapter.clear();
+        // The first stories of a response are shown while the rest are read, unless there are
+        // cached or local stories on screen, which a few stories would only replace
+        boolean partial = newsStoryLoader.isPartialResult(newsStories);
+        if (partial && !mPages.isEmpty() && !mShowingPartialResult) {
+            return;
+        }
+        mShowingPartialResult = partial;
+
+        if (newsStories != null) {
+            // Add the local matches the server didn't return, if it has no more pages of
+            // results. A partial result is neither merged nor cached, the rest is on its way.
+            if (!partial) {
+                if (mLocalNewsStories != null && newsStories.size() < mPages.getPageSize()) {
+                    newsStories = mergeByUrl(newsStories, mLocalNewsStories);
+                }
+                sQueryResultCache.put(getQueryKey(), newsStories);
+                // The results of a search aren't the feed to show on the next start
+                if (!newsStories.isEmpty() && mServerSearch == null) {
+                    saveSnapshot(newsStories);
+                    prefetchArticleBodies(newsStories);
+                }
+            }
+            mShowingLocalResults = false;
+        } else if (!mPages.isEmpty()) {
+            // The refresh failed, so keep showing the cached or local stories
+            return;
+        }
 
-        // If there is a valid list of {@link NewsStory}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
+        // If the refresh brought nothing new, leave the list exactly as it is
+        List<NewsStory> shownNewsStories = mPages.getPage(page);
+        if (newsStories != null && newsStories.equals(shownNewsStories)) {
+            return;
+        }
+
+        // Swap the refreshed first page in, keeping the pages already fetched after it
+        if (shownNewsStories != null && !newsStories.isEmpty()) {
+            putPage(page, newsStories);
+            timeFirstStory(newsStoryLoader);
+            showPages(false);
+            if (!partial) {
+                fetchThumbnails(page, newsStories);
+            }
+            return;
+        }
+
+        // Start a new set of pages from the first one. If there is a valid list of
+        // {@link NewsStory}s, then they are added to the adapter's data set.
+        // This will trigger the RecyclerView to update the rows that changed.
+        mPages.clear();
         if (newsStories != null && !newsStories.isEmpty()) {
-            mAdapter.addAll(newsStories);
+            putPage(page, newsStories);
+            timeFirstStory(newsStoryLoader);
+            if (!partial) {
+                fetchThumbnails(page, newsStories);
+            }
         }
+        showPages(false);
+    }
+
+    /**
+     * Show the stories of the current query found in the local database, unless the server has
+     * already answered it.
+     */
+    private void showLocalResult(List<NewsStory> newsStories) {
+        mLocalNewsStories = newsStories;
+        if (!mPages.isEmpty() && !mShowingLocalResults) {
+            return;
+        }
+
+        if (newsStories != null && !newsStories.isEmpty()) {
+            mShowingLocalResults = true;
+            mPages.clear();
+            putPage(1, newsStories);
+            showPages(true);
+        }
+
+        if (mOffline) {
+            // Nothing more is coming, so hide loading indicator and show the "no connection"
+            // error message if there is nothing to show
+            View loadingSpinner = findViewById(R.id.loading_spinner);
+            loadingSpinner.setVisibility(View.GONE);
+            mEmptyStateTextView.setText(R.string.no_internet_connection);
+        } else if (newsStories != null && !newsStories.isEmpty()) {
+            View loadingSpinner = findViewById(R.id.loading_spinner);
+            loadingSpinner.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Return the stories from the server followed by the local stories it didn't return.
+     */
+    private static List<NewsStory> mergeByUrl(List<NewsStory> serverNewsStories,
+                                              List<NewsStory> localNewsStories) {
+        NewsStoryStore merged = new NewsStoryStore(
+                serverNewsStories.size() + localNewsStories.size());
+        Set<String> urls = new HashSet<>();
+        for (NewsStory newsStory : serverNewsStories) {
+            urls.add(newsStory.getUrl());
+            merged.add(newsStory);
+        }
+        for (NewsStory newsStory : localNewsStories) {
+            if (urls.add(newsStory.getUrl())) {
+                merged.add(newsStory);
+            }
+        }
+        merged.trimToSize();
+        return merged;
     }
 
     @Override
     public void onLoaderReset(Loader<List<NewsStory>> loader) {
         //Log.i(LOG_TAG, getString(R.string.onLoaderReset_log_message));
         // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        if (loader.getId() == NEWS_STORY_LOADER_ID) {
+            mPages.clear();
+            mAdapter.submitList(Collections.<NewsStory>emptyList(), null);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mRestartQuery);
+        mHandler.removeCallbacks(mSearchServer);
+        mThumbnailRequests.cancel();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Give up cached query results when the system is running low on memory, all of them
+        // once this process is among the next to be killed
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            sQueryResultCache.trimToSize(0);
+            // Only the stories of the pages in memory are kept in the index
+            clearIndex();
+            indexNewsStories(mPages.getNewsStories());
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            sQueryResultCache.trimToSize(sQueryResultCache.maxSize() / 2);
+        }
+        ThumbnailLoader.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        sQueryResultCache.trimToSize(0);
+        clearIndex();
+        indexNewsStories(mPages.getNewsStories());
+        ThumbnailLoader.getInstance(this).trimMemory(TRIM_MEMORY_COMPLETE);
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+
+        // Filter the list as the user types. Collapsing the search box clears its text, which
+        // shows the query of the filter setting again.
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                onSearchQueryChange(query);
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                onSearchQueryChange(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -205,6 +1051,10 @@ public class NewsStoryActivity extends AppCompatActivity
             startActivity(settingsIntent);
             return true;
         }
+        if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 }
\ No newline at end of file
@@ -1,100 +1,204 @@
 package com.example.android.p6_newsappstage1;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link NewsStoryAdapter} is a {@link RecyclerView.Adapter} that provides the layout for each
+ * list item based on a data source, which is a list of {@link NewsStory} objects.
+ *
+ * A new list is compared with the one shown on a background thread, and only the rows of the
+ * stories that were added, removed, moved or changed are updated, so a refresh costs time in
+ * proportion to what changed and the rows the user is reading stay where they are.
+ *
+ * The thumbnail of a story is loaded by the {@link ThumbnailLoader} when its row is bound, and
+ * the request is cancelled when the row is recycled.
+ */
+public class NewsStoryAdapter extends RecyclerView.Adapter<NewsStoryAdapter.ViewHolder> {
 
-public class NewsStoryAdapter extends ArrayAdapter<NewsStory> {
-
-    private class ViewHolder {
-        public TextView titleView, sectionNameView, contributorNameView, dateView;
+    /**
+     * Called when a news story is clicked.
+     */
+    public interface OnNewsStoryClickListener {
+        void onNewsStoryClick(NewsStory newsStory);
     }
 
-    // Date formats used to build the date strings.
-    private static SimpleDateFormat inputDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-    //input.setTimeZone(TimeZone.getTimeZone("UTC"));
-    private static SimpleDateFormat outputDateFormat = new SimpleDateFormat("yyyy-MM-dd  HH:mm", Locale.US);
+    /** Thread the lists are compared on, shared by all adapters, one diff at a time */
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final OnNewsStoryClickListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThumbnailLoader mThumbnails;
+
+    /** Width and height of a thumbnail in pixels, which it is downsampled to */
+    private final int mThumbnailSize;
+
+    /**
+     * The {@link NewsStory}s to be displayed. The list is not copied, so a compact
+     * {@link NewsStoryStore} only decodes the stories whose rows are bound.
+     */
+    private List<NewsStory> mNewsStories = Collections.emptyList();
+
+    /** Number of lists submitted so far, a diff is only applied if no list was submitted since */
+    private int mGeneration;
 
     /**
      * Create a new {@link NewsStoryAdapter} object.
      *
      * @param context is the current context (i.e. Activity) that the adapter is being created in.
-     * @param newsStories is the list of {@link NewsStory}s to be displayed.
-     *
+     * @param listener is called when a news story is clicked.
      */
-    public NewsStoryAdapter(Context context, List<NewsStory> newsStories) {
-        super(context, 0, newsStories);
+    public NewsStoryAdapter(Context context, OnNewsStoryClickListener listener) {
+        mContext = context;
+        mListener = listener;
+        mThumbnails = ThumbnailLoader.getInstance(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
     }
 
     /**
-     * {@link NewsStoryAdapter} is an {@link ArrayAdapter} that can provide the layout for each list item
-     * based on a data source, which is a list of {@link NewsStory} objects.
+     * Display the given list of {@link NewsStory}s instead of the current one. Neither list may
+     * change afterwards, as they are compared on a background thread.
+     *
+     * @param onCommitted is run on the main thread once the list is displayed, unless another
+     *                    list was submitted in the meantime, may be null
      */
+    public void submitList(final List<NewsStory> newsStories, final Runnable onCommitted) {
+        final int generation = ++mGeneration;
+        final List<NewsStory> oldNewsStories = mNewsStories;
+        if (newsStories == oldNewsStories) {
+            runCommitted(onCommitted);
+            return;
+        }
+
+        // There is nothing to compare if either list is empty
+        if (oldNewsStories.isEmpty() || newsStories.isEmpty()) {
+            mNewsStories = newsStories;
+            if (!oldNewsStories.isEmpty()) {
+                notifyItemRangeRemoved(0, oldNewsStories.size());
+            }
+            if (!newsStories.isEmpty()) {
+                notifyItemRangeInserted(0, newsStories.size());
+            }
+            runCommitted(onCommitted);
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new NewsStoryDiffCallback(oldNewsStories, newsStories));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list replaced this one while it was being compared
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mNewsStories = newsStories;
+                        result.dispatchUpdatesTo(NewsStoryAdapter.this);
+                        runCommitted(onCommitted);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void runCommitted(Runnable onCommitted) {
+        if (onCommitted != null) {
+            onCommitted.run();
+        }
+    }
+
+    /** Return the list of {@link NewsStory}s displayed. */
+    public List<NewsStory> getNewsStories() {
+        return mNewsStories;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mNewsStories.size();
+    }
+
     @NonNull
     @Override
-    public View getView(int position, View convertView, @NonNull ViewGroup parent) {
-
-        ViewHolder holder;
-
-        // Check if an existing list item view (called convertView) that is being reused,
-        // otherwise inflate a new list item
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.news_story_list_item, parent, false);
-
-            //This is the first time the function is called for this item.
-            //Create and save the view holder as the "tag".
-            holder = new ViewHolder();
-            holder.titleView = listItemView.findViewById(R.id.title);
-            holder.sectionNameView = listItemView.findViewById(R.id.section_name);
-            holder.contributorNameView = listItemView.findViewById(R.id.contributor);
-            holder.dateView = listItemView.findViewById(R.id.date);
-
-            listItemView.setTag(holder);
-        } else {
-            //Get the already saved tag object.
-            holder = (ViewHolder)listItemView.getTag();
-        }
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(mContext).inflate(
+                R.layout.news_story_list_item, parent, false);
+        return new ViewHolder(listItemView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        long start = System.nanoTime();
 
         // Get the {@link NewsStory} object located at this position in the list
-        NewsStory currentNewsStory = getItem(position);
-
-        // Get the title
-        if (currentNewsStory != null) {
-            // Display the title of the current news story in that TextView
-            holder.titleView.setText(currentNewsStory.getTitle());
-            //Display the section name of the current news story in that TextView
-            holder.sectionNameView.setText(currentNewsStory.getSectionName());
-            //Display the contributor name of the current news story in that TextView
-            holder.contributorNameView.setText(currentNewsStory.getContributorName());
-
-            //Parse the String which holds the date and time (original "2018-04-15T08:35:35Z" to
-            //"2018-04-15" and "08:35:35", and from "08:35:35" to "08:35")
-            String originalDate = currentNewsStory.getWebPublicationDate();
-            try {
-                Date d = inputDateFormat.parse(originalDate);
-                String formattedDateTime = outputDateFormat.format(d);
-
-                // Display the date of the current news story in that TextView
-                holder.dateView.setText(formattedDateTime);
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
+        NewsStory currentNewsStory = mNewsStories.get(position);
+
+        // Display the title of the current news story in that TextView
+        holder.titleView.setText(currentNewsStory.getTitle());
+        //Display the section name of the current news story in that TextView
+        holder.sectionNameView.setText(currentNewsStory.getSectionName());
+        //Display the contributor name of the current news story in that TextView
+        holder.contributorNameView.setText(currentNewsStory.getContributorName());
+
+        // Display the date of the current news story in that TextView. It was parsed when the
+        // story was read, and formatting it is a cache lookup for any minute shown before.
+        holder.dateView.setText(PublicationDates.format(currentNewsStory.getPublicationTime()));
+
+        // Show the thumbnail of the current news story once it is loaded, if it has one
+        String thumbnailUrl = currentNewsStory.getThumbnailUrl();
+        holder.thumbnailView.setVisibility(thumbnailUrl == null ? View.GONE : View.VISIBLE);
+        mThumbnails.load(holder.thumbnailView, thumbnailUrl, mThumbnailSize, mThumbnailSize);
+
+        PipelineMetrics.getInstance().getBindHistogram().recordNanos(System.nanoTime() - start);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        // The row is off screen, so its thumbnail is no longer wanted
+        mThumbnails.cancel(holder.thumbnailView);
+    }
+
+    /**
+     * Holds the views of a list item, found once when it is inflated.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView titleView, sectionNameView, contributorNameView, dateView;
+        final ImageView thumbnailView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            titleView = itemView.findViewById(R.id.title);
+            sectionNameView = itemView.findViewById(R.id.section_name);
+            contributorNameView = itemView.findViewById(R.id.contributor);
+            dateView = itemView.findViewById(R.id.date);
+            thumbnailView = itemView.findViewById(R.id.thumbnail);
+            itemView.setOnClickListener(this);
         }
 
-        // Return the whole news story list item layout (containing 3 TextViews and a View)
-        // so that it can be shown in the ListView.
-        return listItemView;
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            // The story may have been removed since the click was queued
+            if (position != RecyclerView.NO_POSITION && mListener != null) {
+                mListener.onNewsStoryClick(mNewsStories.get(position));
+            }
+        }
     }
 }
@@ -0,0 +1,317 @@
+package com.example.android.p6_newsappstage1;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local SQLite store of every fetched {@link NewsStory}, with a full-text index over the title,
+ * section and contributor name.
+ *
+ * It answers filter queries without the network, ranked by where the words match, and keeps the
+ * feed readable offline. Stories are written on a dedicated thread, a page per transaction, so
+ * storing them never holds up the loader that fetched them.
+ */
+public class NewsStoryDatabase extends SQLiteOpenHelper {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = NewsStoryDatabase.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "news_stories.db";
+    private static final int DATABASE_VERSION = 2;
+
+    /** Number of stories kept, the ones published longest ago are deleted beyond it */
+    private static final int MAX_STORIES = 2000;
+
+    private static final String TABLE_STORIES = "stories";
+    private static final String TABLE_STORIES_FTS = "stories_fts";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_SECTION = "section";
+    private static final String COLUMN_CONTRIBUTOR = "contributor";
+    private static final String COLUMN_PUBLICATION_TIME = "publication_time";
+    private static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+
+    /**
+     * Weight of a match in each indexed column, in the order of the full-text table: a word in the
+     * title counts most, then the contributor, then the section.
+     */
+    private static final double[] COLUMN_WEIGHTS = {3.0, 1.0, 2.0};
+
+    private static final String STORY_COLUMNS = "s." + COLUMN_TITLE + ", s." + COLUMN_SECTION
+            + ", s." + COLUMN_PUBLICATION_TIME + ", s." + COLUMN_URL + ", s." + COLUMN_CONTRIBUTOR
+            + ", s." + COLUMN_THUMBNAIL_URL;
+
+    private static NewsStoryDatabase sInstance;
+
+    /** Single thread all writes happen on, in the order they were asked for */
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Return the database of the app, creating the helper the first time.
+     */
+    public static synchronized NewsStoryDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NewsStoryDatabase(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NewsStoryDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_STORIES + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_URL + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_SECTION + " TEXT, "
+                + COLUMN_CONTRIBUTOR + " TEXT, "
+                + COLUMN_PUBLICATION_TIME + " INTEGER NOT NULL, "
+                + COLUMN_THUMBNAIL_URL + " TEXT)");
+        db.execSQL("CREATE INDEX " + TABLE_STORIES + "_" + COLUMN_PUBLICATION_TIME + " ON "
+                + TABLE_STORIES + " (" + COLUMN_PUBLICATION_TIME + ")");
+        // The docid of every row of the index is the _id of its story
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_STORIES_FTS + " USING fts4("
+                + COLUMN_TITLE + ", " + COLUMN_SECTION + ", " + COLUMN_CONTRIBUTOR + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The stories are only a copy of what the server has, so start again
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_STORIES_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_STORIES);
+        onCreate(db);
+    }
+
+    /**
+     * Store the given stories in the background, replacing the stored copies of any of them.
+     */
+    public void saveAsync(final List<NewsStory> newsStories) {
+        if (newsStories == null || newsStories.isEmpty()) {
+            return;
+        }
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save(newsStories);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Problem storing the news stories", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Store the given stories in one transaction, then delete the oldest ones beyond the maximum.
+     */
+    void save(List<NewsStory> newsStories) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insertStory = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_STORIES
+                + " (" + COLUMN_URL + ", " + COLUMN_PUBLICATION_TIME + ") VALUES (?, 0)");
+        SQLiteStatement updateStory = db.compileStatement("UPDATE " + TABLE_STORIES + " SET "
+                + COLUMN_TITLE + " = ?, " + COLUMN_SECTION + " = ?, " + COLUMN_CONTRIBUTOR + " = ?, "
+                + COLUMN_PUBLICATION_TIME + " = ?, " + COLUMN_THUMBNAIL_URL + " = ? WHERE "
+                + COLUMN_URL + " = ?");
+        SQLiteStatement selectId = db.compileStatement("SELECT " + COLUMN_ID + " FROM "
+                + TABLE_STORIES + " WHERE " + COLUMN_URL + " = ?");
+        SQLiteStatement deleteIndexed = db.compileStatement("DELETE FROM " + TABLE_STORIES_FTS
+                + " WHERE docid = ?");
+        SQLiteStatement insertIndexed = db.compileStatement("INSERT INTO " + TABLE_STORIES_FTS
+                + " (docid, " + COLUMN_TITLE + ", " + COLUMN_SECTION + ", " + COLUMN_CONTRIBUTOR
+                + ") VALUES (?, ?, ?, ?)");
+
+        db.beginTransaction();
+        try {
+            for (NewsStory newsStory : newsStories) {
+                String url = newsStory.getUrl();
+                if (url == null) {
+                    continue;
+                }
+
+                insertStory.bindString(1, url);
+                insertStory.executeInsert();
+
+                bindStringOrNull(updateStory, 1, newsStory.getTitle());
+                bindStringOrNull(updateStory, 2, newsStory.getSectionName());
+                bindStringOrNull(updateStory, 3, newsStory.getContributorName());
+                updateStory.bindLong(4, newsStory.getPublicationTime());
+                bindStringOrNull(updateStory, 5, newsStory.getThumbnailUrl());
+                updateStory.bindString(6, url);
+                updateStory.execute();
+
+                selectId.bindString(1, url);
+                long id = selectId.simpleQueryForLong();
+
+                deleteIndexed.bindLong(1, id);
+                deleteIndexed.execute();
+                insertIndexed.bindLong(1, id);
+                bindStringOrNull(insertIndexed, 2, newsStory.getTitle());
+                bindStringOrNull(insertIndexed, 3, newsStory.getSectionName());
+                bindStringOrNull(insertIndexed, 4, newsStory.getContributorName());
+                insertIndexed.executeInsert();
+            }
+
+            // Keep only the most recently published stories
+            String oldest = "SELECT " + COLUMN_ID + " FROM " + TABLE_STORIES + " ORDER BY "
+                    + COLUMN_PUBLICATION_TIME + " DESC LIMIT -1 OFFSET " + MAX_STORIES;
+            db.execSQL("DELETE FROM " + TABLE_STORIES_FTS + " WHERE docid IN (" + oldest + ")");
+            db.execSQL("DELETE FROM " + TABLE_STORIES + " WHERE " + COLUMN_ID + " IN ("
+                    + oldest + ")");
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertStory.close();
+            updateStory.close();
+            selectId.close();
+            deleteIndexed.close();
+            insertIndexed.close();
+        }
+    }
+
+    /**
+     * Return the most recent stored stories, in the given order ("newest" or "oldest").
+     */
+    public List<NewsStory> queryLatest(String orderBy, int limit) {
+        String direction = "oldest".equals(orderBy) ? "ASC" : "DESC";
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + STORY_COLUMNS + " FROM "
+                + TABLE_STORIES + " s ORDER BY s." + COLUMN_PUBLICATION_TIME + " " + direction
+                + " LIMIT " + limit, null);
+        try {
+            NewsStoryStore newsStories = new NewsStoryStore(cursor.getCount());
+            while (cursor.moveToNext()) {
+                newsStories.add(readNewsStory(cursor));
+            }
+            return newsStories;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the stored stories matching every word of the given filter, as a word or the start of
+     * one, best match first. Stories that match equally well are ordered by publication time.
+     */
+    public List<NewsStory> search(String filterBy, int limit) {
+        String match = toMatchExpression(filterBy);
+        if (match.isEmpty()) {
+            return queryLatest(null, limit);
+        }
+
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + STORY_COLUMNS
+                + ", matchinfo(" + TABLE_STORIES_FTS + ", 'pcx') FROM " + TABLE_STORIES_FTS
+                + " JOIN " + TABLE_STORIES + " s ON s." + COLUMN_ID + " = " + TABLE_STORIES_FTS
+                + ".docid WHERE " + TABLE_STORIES_FTS + " MATCH ?", new String[]{match});
+        List<RankedStory> rankedStories = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                rankedStories.add(new RankedStory(readNewsStory(cursor), rank(cursor.getBlob(6))));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(rankedStories, new Comparator<RankedStory>() {
+            @Override
+            public int compare(RankedStory first, RankedStory second) {
+                int byRank = Double.compare(second.mRank, first.mRank);
+                if (byRank != 0) {
+                    return byRank;
+                }
+                long firstTime = first.mNewsStory.getPublicationTime();
+                long secondTime = second.mNewsStory.getPublicationTime();
+                return firstTime > secondTime ? -1 : (firstTime < secondTime ? 1 : 0);
+            }
+        });
+
+        NewsStoryStore newsStories = new NewsStoryStore(Math.min(limit, rankedStories.size()));
+        for (int i = 0; i < rankedStories.size() && i < limit; i++) {
+            newsStories.add(rankedStories.get(i).mNewsStory);
+        }
+        return newsStories;
+    }
+
+    /**
+     * Turn the filter typed by the user into a full-text query: every word has to match, either
+     * as a whole or as the start of a longer word. Anything but letters and digits is dropped, so
+     * the filter can never be read as query syntax.
+     */
+    static String toMatchExpression(String filterBy) {
+        StringBuilder match = new StringBuilder();
+        for (String word : filterBy.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    /**
+     * Score a match from its "pcx" matchinfo: for every word and column, the share of all hits of
+     * that word in that column that are in this story, weighted by the column.
+     */
+    private static double rank(byte[] matchInfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        double rank = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < COLUMN_WEIGHTS.length; column++) {
+                int offset = 4 * (2 + 3 * (phrase * columns + column));
+                int hitsInRow = buffer.getInt(offset);
+                int hitsInAllRows = buffer.getInt(offset + 4);
+                if (hitsInRow > 0) {
+                    rank += COLUMN_WEIGHTS[column] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return rank;
+    }
+
+    private static NewsStory readNewsStory(Cursor cursor) {
+        return new NewsStory(cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+                cursor.getString(3), cursor.getString(4), cursor.getString(5));
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * A story found by a search and how well it matches.
+     */
+    private static class RankedStory {
+        final NewsStory mNewsStory;
+        final double mRank;
+
+        RankedStory(NewsStory newsStory, double rank) {
+            mNewsStory = newsStory;
+            mRank = rank;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.p6_newsappstage1;
+
+import android.support.v7.util.DiffUtil;
+
+import java.util.List;
+
+/**
+ * Compares two lists of {@link NewsStory}s for {@link DiffUtil}, telling stories apart by their
+ * URL, so a refreshed list only updates the rows of the stories that were added, removed, moved
+ * or changed.
+ *
+ * The URLs are read once when the callback is created, rather than every time DiffUtil compares
+ * two stories, as a compact {@link NewsStoryStore} decodes a story every time it is read. Create
+ * it on the thread the diff is computed on.
+ */
+class NewsStoryDiffCallback extends DiffUtil.Callback {
+
+    private final List<NewsStory> mOldNewsStories;
+    private final List<NewsStory> mNewNewsStories;
+    private final String[] mOldUrls;
+    private final String[] mNewUrls;
+
+    /**
+     * Create a new {@link NewsStoryDiffCallback}. Neither list may change while it is used.
+     */
+    NewsStoryDiffCallback(List<NewsStory> oldNewsStories, List<NewsStory> newNewsStories) {
+        mOldNewsStories = oldNewsStories;
+        mNewNewsStories = newNewsStories;
+        mOldUrls = urlsOf(oldNewsStories);
+        mNewUrls = urlsOf(newNewsStories);
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mOldUrls.length;
+    }
+
+    @Override
+    public int getNewListSize() {
+        return mNewUrls.length;
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        String oldUrl = mOldUrls[oldItemPosition];
+        return oldUrl != null && oldUrl.equals(mNewUrls[newItemPosition]);
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        // Only asked of the same story, whose title or section may have been corrected
+        return mOldNewsStories.get(oldItemPosition)
+                .equals(mNewNewsStories.get(newItemPosition));
+    }
+
+    private static String[] urlsOf(List<NewsStory> newsStories) {
+        String[] urls = new String[newsStories.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = newsStories.get(i).getUrl();
+        }
+        return urls;
+    }
+}
@@ -8,6 +8,13 @@ import java.util.List;
 /**
  * Loads a list of news stories by using an AsyncTask to perform the
  * network request to the given URL.
+ *
+ * The request itself is run on the app's {@link PriorityExecutor}, in the lane of the page on
+ * screen for a progressive loader, or else in the lane of prefetching, so loading the next pages
+ * never holds up the page the user is looking at. The AsyncTask only waits for it.
+ *
+ * A progressive loader also delivers the stories parsed so far while the response is still
+ * arriving, at most once a frame, so the first stories can be shown before the rest are read.
  */
 public class NewsStoryLoader extends AsyncTaskLoader<List<NewsStory>> {
     /** Tag for log messages */
@@ -16,17 +23,79 @@ public class NewsStoryLoader extends AsyncTaskLoader<List<NewsStory>> {
     /** Query URL */
     private String mUrl;
 
+    /** Number of the result page the query URL asks for */
+    private int mPage;
+
+    /** True if the stories parsed so far are delivered before the whole response is read */
+    private final boolean mProgressive;
+
+    /** The request being made in the background, or null if there is none */
+    private volatile CancellableRequest mRequest;
+
+    /** Time the latest load started, as measured with {@link System#nanoTime()} */
+    private volatile long mLoadStartNanos;
+
+    /**
+     * The latest partial result delivered, kept to tell it apart when the loader manager delivers
+     * it again, such as to an activity recreated after a configuration change
+     */
+    private List<NewsStory> mPartialResult;
+
     /**
      * Constructs a new {@link NewsStoryLoader}.
      *
      * @param context of the activity
      * @param url to load data from
+     * @param page is the number of the result page the URL asks for
      */
-     public NewsStoryLoader(Context context, String url) {
-         super(context);
-         mUrl = url;
+     public NewsStoryLoader(Context context, String url, int page) {
+         this(context, url, page, false);
      }
 
+    /**
+     * Constructs a new {@link NewsStoryLoader}.
+     *
+     * @param context of the activity
+     * @param url to load data from
+     * @param page is the number of the result page the URL asks for
+     * @param progressive is true to deliver the stories parsed so far while the response is
+     *                    still arriving, before the whole list
+     */
+    public NewsStoryLoader(Context context, String url, int page, boolean progressive) {
+        super(context);
+        mUrl = url;
+        mPage = page;
+        mProgressive = progressive;
+    }
+
+    /**
+     * Return the lane of the {@link PriorityExecutor} the requests of this loader are made in.
+     */
+    protected int getLane() {
+        return mProgressive ? PriorityExecutor.LANE_VISIBLE : PriorityExecutor.LANE_PREFETCH;
+    }
+
+    /** Return the number of the result page this loader loads. */
+    public int getPage() {
+        return mPage;
+    }
+
+    /**
+     * Return the time the latest load started, as measured with {@link System#nanoTime()}, to
+     * time how long its stories take to be shown.
+     */
+    public long getLoadStartNanos() {
+        return mLoadStartNanos;
+    }
+
+    /**
+     * Return true if the given result delivered by this loader is a partial one, which the rest
+     * of the stories were to follow, rather than the whole list. This is on the main thread.
+     */
+    public boolean isPartialResult(List<NewsStory> newsStories) {
+        return newsStories != null && newsStories == mPartialResult;
+    }
+
      @Override
      protected void onStartLoading(){
          //Log.i(LOG_TAG, "TEST: onStartLoading() called");
@@ -43,7 +112,126 @@ public class NewsStoryLoader extends AsyncTaskLoader<List<NewsStory>> {
             return null;
         }
 
+        CancellableRequest request = new CancellableRequest();
+        mRequest = request;
+        if (isLoadInBackgroundCanceled()) {
+            // Cancelled before the request could be seen by cancelLoadInBackground()
+            request.cancel();
+        }
+
         // Perform the network request, parse the response, and extract a list of newsStories.
-        return QueryUtils.fetchNewsStoryData(mUrl);
+        long start = System.nanoTime();
+        mLoadStartNanos = start;
+        List<NewsStory> newsStories;
+        try {
+            newsStories = fetch(request);
+        } finally {
+            mRequest = null;
+        }
+        if (request.isCancelled()) {
+            return null;
+        }
+        if (newsStories != null) {
+            PipelineMetrics.getInstance().forQuery(getQueryType())
+                    .recordNanos(PipelineMetrics.STAGE_LOAD, System.nanoTime() - start);
+        }
+
+        // Keep a copy for offline use and local search, written on the database's own thread
+        NewsStoryDatabase.getInstance(getContext()).saveAsync(newsStories);
+        return newsStories;
+    }
+
+    /**
+     * Fetch the stories of this loader in its lane of the {@link PriorityExecutor}, waiting for
+     * them on its background thread. The request is cancelled when the load is.
+     */
+    protected List<NewsStory> fetch(CancellableRequest request) {
+        return PriorityExecutor.getInstance().invoke(getLane(),
+                new PriorityExecutor.Task<List<NewsStory>>() {
+                    @Override
+                    public List<NewsStory> run(CancellableRequest cancellation) {
+                        return fetchNow(cancellation);
+                    }
+                }, request);
+    }
+
+    /**
+     * Fetch the stories of this loader. This is on a worker of the {@link PriorityExecutor}.
+     */
+    private List<NewsStory> fetchNow(final CancellableRequest request) {
+        if (!mProgressive) {
+            return QueryUtils.fetchNewsStoryData(mUrl, request);
+        }
+
+        final FrameCoalescer<List<NewsStory>> batches = new FrameCoalescer<>(
+                new FrameCoalescer.Consumer<List<NewsStory>>() {
+                    @Override
+                    public void accept(List<NewsStory> newsStories) {
+                        deliverPartialResult(newsStories, request);
+                    }
+                });
+        try {
+            return QueryUtils.fetchNewsStoryData(mUrl, request,
+                    new NewsStoryParser.BatchListener() {
+                        @Override
+                        public void onBatch(List<NewsStory> newsStories) {
+                            batches.post(newsStories);
+                        }
+                    });
+        } finally {
+            // The whole list is delivered next, a batch arriving after it would hide stories
+            batches.cancel();
+        }
+    }
+
+    /**
+     * Deliver the given stories of the given request, which the rest will follow, on the main
+     * thread.
+     */
+    protected void deliverPartialResult(List<NewsStory> newsStories, CancellableRequest request) {
+        // Results are only delivered to a started loader, and not after the load has been
+        // cancelled, which a newer load of the loader does
+        if (isStarted() && !isAbandoned() && !request.isCancelled()) {
+            mPartialResult = newsStories;
+            super.deliverResult(newsStories);
+        }
+    }
+
+    /**
+     * Deliver the whole list of stories, which may be the same list as the last partial result
+     * if the queries after it failed. This is on the main thread.
+     */
+    @Override
+    public void deliverResult(List<NewsStory> newsStories) {
+        mPartialResult = null;
+        super.deliverResult(newsStories);
+    }
+
+    /**
+     * Return the type of query this loader makes, which its load time is counted under in the
+     * {@link PipelineMetrics}.
+     */
+    protected String getQueryType() {
+        return PipelineMetrics.queryTypeOf(mUrl);
+    }
+
+    /**
+     * Disconnect the request being made, so a load that is no longer wanted stops downloading
+     * and parsing straight away rather than when the response has been read.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        CancellableRequest request = mRequest;
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        // A destroyed loader's result is never delivered, so don't let it finish downloading
+        cancelLoad();
+        mPartialResult = null;
     }
 }
@@ -0,0 +1,219 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A {@link NewsStoryPages} object holds a bounded window of consecutive result pages of a query.
+ *
+ * Pages can be added at either end of the window. Once it holds more than its maximum number of
+ * pages, the page at the opposite end, which is the one furthest away from where the user is
+ * reading, is dropped so memory use stays flat however long the feed gets.
+ */
+public class NewsStoryPages {
+
+    /** Number of stories requested per page, which may change from one query to the next */
+    private int mPageSize;
+
+    /** Maximum number of pages kept in the window */
+    private final int mMaxPages;
+
+    /** Pages in the window, in page order */
+    private final ArrayDeque<Page> mPages = new ArrayDeque<>();
+
+    /** True once a page came back shorter than the page size, so there is no page after it */
+    private boolean mReachedEnd;
+
+    /**
+     * Create a new, empty {@link NewsStoryPages} object.
+     *
+     * @param pageSize is the number of stories requested per page
+     * @param maxPages is the maximum number of pages kept at once
+     */
+    public NewsStoryPages(int pageSize, int maxPages) {
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+    }
+
+    /** Return the number of stories requested per page. */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /** Drop every page, ready for a new query. */
+    public void clear() {
+        mPages.clear();
+        mReachedEnd = false;
+    }
+
+    /** Drop every page, ready for a new query requesting the given number of stories per page. */
+    public void clear(int pageSize) {
+        clear();
+        mPageSize = pageSize;
+    }
+
+    /** Return true if the window holds no pages. */
+    public boolean isEmpty() {
+        return mPages.isEmpty();
+    }
+
+    /** Return the number of the first page in the window, or 0 if it is empty. */
+    public int getFirstPage() {
+        return mPages.isEmpty() ? 0 : mPages.getFirst().mNumber;
+    }
+
+    /** Return the number of the last page in the window, or 0 if it is empty. */
+    public int getLastPage() {
+        return mPages.isEmpty() ? 0 : mPages.getLast().mNumber;
+    }
+
+    /** Return true if there is a page before the first one in the window. */
+    public boolean hasPrevious() {
+        return getFirstPage() > 1;
+    }
+
+    /** Return true if there may be a page after the last one in the window. */
+    public boolean hasNext() {
+        return !mPages.isEmpty() && !mReachedEnd;
+    }
+
+    /**
+     * Put a loaded page into the window. Pages that are not adjacent to the window are ignored,
+     * and a page already in the window is replaced.
+     *
+     * @param number is the 1-based number of the page
+     * @param newsStories are the stories of that page
+     * @return the change in the number of stories in front of the previously first story, which is
+     *         negative when a page was dropped from the front and positive when one was added there
+     */
+    public int put(int number, List<NewsStory> newsStories) {
+        if (newsStories == null) {
+            newsStories = new ArrayList<>();
+        }
+        Page page = new Page(number, newsStories);
+
+        if (!mPages.isEmpty() && number >= getFirstPage() && number <= getLastPage()) {
+            return replace(page);
+        }
+
+        int shift = 0;
+        if (mPages.isEmpty()) {
+            mPages.add(page);
+        } else if (number == getLastPage() + 1) {
+            mPages.addLast(page);
+            if (mPages.size() > mMaxPages) {
+                shift = -mPages.removeFirst().size();
+            }
+        } else if (number == getFirstPage() - 1) {
+            mPages.addFirst(page);
+            if (mPages.size() > mMaxPages) {
+                mPages.removeLast();
+                // The dropped page will be loaded again, so the end of the results is not known
+                mReachedEnd = false;
+            }
+            return page.size();
+        } else {
+            return 0;
+        }
+
+        if (newsStories.size() < mPageSize) {
+            mReachedEnd = true;
+        }
+        return shift;
+    }
+
+    /**
+     * Return the stories of the page with the given number, or null if it is not in the window.
+     */
+    public List<NewsStory> getPage(int number) {
+        for (Page page : mPages) {
+            if (page.mNumber == number) {
+                return page.mNewsStories;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return all stories in the window, in page order. The returned list is a read-only view of
+     * the pages as they are now, so no story is read from its page until it is needed.
+     */
+    public List<NewsStory> getNewsStories() {
+        return new PagesList(new ArrayList<>(mPages));
+    }
+
+    /**
+     * Swap the page with the same number for the given one. Stories in front of it keep their
+     * position, so this never shifts what the user is looking at.
+     */
+    private int replace(Page page) {
+        List<Page> pages = new ArrayList<>(mPages);
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).mNumber == page.mNumber) {
+                pages.set(i, page);
+            }
+        }
+        mPages.clear();
+        mPages.addAll(pages);
+        if (page.mNumber == getLastPage()) {
+            mReachedEnd = page.size() < mPageSize;
+        }
+        return 0;
+    }
+
+    /**
+     * A read-only list of the stories of consecutive pages.
+     */
+    private static class PagesList extends AbstractList<NewsStory> implements RandomAccess {
+        private final List<Page> mPageList;
+        private final int mSize;
+
+        PagesList(List<Page> pages) {
+            mPageList = pages;
+            int size = 0;
+            for (Page page : pages) {
+                size += page.size();
+            }
+            mSize = size;
+        }
+
+        @Override
+        public NewsStory get(int index) {
+            int indexInPage = index;
+            if (index >= 0) {
+                for (Page page : mPageList) {
+                    if (indexInPage < page.size()) {
+                        return page.mNewsStories.get(indexInPage);
+                    }
+                    indexInPage -= page.size();
+                }
+            }
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+
+    /**
+     * One page of results.
+     */
+    private static class Page {
+        final int mNumber;
+        final List<NewsStory> mNewsStories;
+
+        Page(int number, List<NewsStory> newsStories) {
+            mNumber = number;
+            mNewsStories = newsStories;
+        }
+
+        int size() {
+            return mNewsStories.size();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An in-memory cache of parsed query results, keyed by the normalized query.
+ *
+ * Results are kept for a limited time, and the least recently used ones are evicted once their
+ * estimated size exceeds the memory budget. A cached result is meant to be shown straight away
+ * while the same query is refreshed in the background.
+ */
+public class QueryResultCache {
+
+    /** Rough number of bytes taken by a {@link NewsStory} and its fields besides their characters */
+    private static final int NEWS_STORY_OVERHEAD = 4 * 40 + 40;
+
+    /** Time in milliseconds after which an entry is no longer returned */
+    private final long mTimeToLive;
+
+    /** Estimated number of bytes the cached results may take up */
+    private final long mMaxSize;
+
+    /** Entries in access order, the least recently used one first */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mSize;
+
+    /**
+     * Create a new {@link QueryResultCache}.
+     *
+     * @param timeToLive is the time in milliseconds a result is kept for
+     * @param maxSize is the estimated number of bytes the cached results may take up
+     */
+    public QueryResultCache(long timeToLive, long maxSize) {
+        mTimeToLive = timeToLive;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return the key for a query: the filter, trimmed and lower-cased as the server ignores case,
+     * and the order.
+     */
+    public static String keyFor(String filterBy, String orderBy) {
+        return filterBy.trim().toLowerCase(Locale.ROOT) + '\n' + orderBy;
+    }
+
+    /**
+     * Return the cached result of the query with the given key, or null if there is none or it
+     * has expired.
+     */
+    public synchronized List<NewsStory> get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (currentTimeMillis() - entry.mCreated > mTimeToLive) {
+            remove(key);
+            return null;
+        }
+        return entry.mNewsStories;
+    }
+
+    /**
+     * Cache the result of the query with the given key, replacing any previous one.
+     */
+    public synchronized void put(String key, List<NewsStory> newsStories) {
+        Entry entry = new Entry(newsStories, currentTimeMillis());
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mSize -= previous.mSize;
+        }
+        mSize += entry.mSize;
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Remove the result of the query with the given key, if any.
+     */
+    public synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mSize -= entry.mSize;
+        }
+    }
+
+    /**
+     * Evict the least recently used results until the rest fit in the given number of bytes.
+     */
+    public synchronized void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            mSize -= iterator.next().getValue().mSize;
+            iterator.remove();
+        }
+    }
+
+    /** Return the memory budget of the cache in bytes. */
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /** Return the estimated number of bytes taken up by the cached results. */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /** Return the current time in milliseconds, used to expire entries. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Return a rough estimate of the number of bytes taken up by the given stories.
+     */
+    static long estimateSize(List<NewsStory> newsStories) {
+        if (newsStories instanceof NewsStoryStore) {
+            return ((NewsStoryStore) newsStories).estimateRetainedSize();
+        }
+
+        long size = 0;
+        for (NewsStory newsStory : newsStories) {
+            size += NEWS_STORY_OVERHEAD + 2 * (length(newsStory.getTitle())
+                    + length(newsStory.getSectionName())
+                    + length(newsStory.getUrl())
+                    + length(newsStory.getContributorName()));
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * A cached query result and the time it was fetched.
+     */
+    private static class Entry {
+        final List<NewsStory> mNewsStories;
+        final long mCreated;
+        final long mSize;
+
+        Entry(List<NewsStory> newsStories, long created) {
+            mNewsStories = newsStories;
+            mCreated = created;
+            mSize = estimateSize(newsStories);
+        }
+    }
+}
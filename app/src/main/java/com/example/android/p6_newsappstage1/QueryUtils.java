@@ -1,22 +1,18 @@
 package com.example.android.p6_newsappstage1;
 
-import android.text.TextUtils;
+import android.net.Uri;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Helper methods related to requesting and receiving news story data from The Guardian site.
@@ -25,15 +21,73 @@ public final class QueryUtils {
     /** Tag for the log messages */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
-    private static final String RESPONSE = "response";
-    private static final String RESULTS = "results";
-    private static final String WEB_TITLE = "webTitle";
-    private static final String SECTION_NAME = "sectionName";
-    private static final String WEB_PUBLICATION_DATE = "webPublicationDate";
-    private static final String WEB_URL = "webUrl";
-    private static final int READ_TIMEOUT = 10000;  /* milliseconds */
-    private static final int CONNECT_TIMEOUT = 15000;  /* milliseconds */
-    private static final String GET_REQUEST_METHOD = "GET";
+    private static final int DEFAULT_READ_TIMEOUT = 10000;  /* milliseconds */
+    // A connection that takes longer than this is tried again rather than waited for
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;  /* milliseconds */
+    private static final int STORE_CAPACITY = 20;  /* stories, the default page size */
+    private static final String RESPONSE_CACHE_DIRECTORY = "responses";
+    private static final long RESPONSE_CACHE_SIZE = 4 * 1024 * 1024;  /* bytes */
+    private static final String ARTICLE_BODY_DIRECTORY = "articles";
+    private static final long ARTICLE_BODY_BUDGET = 2 * 1024 * 1024;  /* bytes, compressed */
+    private static final String ARTICLE_SEARCH_URL =
+            "http://content.guardianapis.com/search?api-key=test";
+
+    /** Attempts at a request, and the waits before the second and later ones */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BASE_DELAY = 500;  /* milliseconds */
+    private static final long RETRY_MAX_DELAY = 4000;  /* milliseconds */
+
+    /** Failures in a row after which requests fail straight away, and for how long */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_DURATION = 30000;  /* milliseconds */
+
+    /**
+     * Percentile of the time a request takes after which a second one is sent alongside it, once
+     * enough requests have been timed to know it, but never sooner than the minimum delay
+     */
+    private static final double HEDGE_PERCENTILE = 95;
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    private static final long HEDGE_MIN_DELAY = 100;  /* milliseconds */
+
+    /**
+     * Requests to the API per second, at most and after it answered 429 Too Many Requests, how
+     * many may be made at once, and how long after the user's last request background requests
+     * are let through
+     */
+    private static final double MAX_REQUEST_RATE = 5;
+    private static final double MIN_REQUEST_RATE = 0.5;
+    private static final int REQUEST_BURST = 5;
+    private static final long IDLE_DELAY = 2000;  /* milliseconds */
+
+    /** Bytes of a response below which its transfer rate is mostly latency */
+    private static final int MIN_BANDWIDTH_SAMPLE = 2048;
+
+    /** Start of the URL of every story on the Guardian's website, followed by its id */
+    private static final String WEB_URL_PREFIX = "https://www.theguardian.com/";
+
+    /** Transport of every request, reusing kept-alive connections */
+    private static final HttpTransport sTransport =
+            new HttpTransport(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+
+    /** Retries, hedges and stops the requests to the Guardian API while it is slow or failing */
+    private static final ResilientCaller sCaller = new ResilientCaller(
+            new RetryPolicy(MAX_ATTEMPTS, RETRY_BASE_DELAY, RETRY_MAX_DELAY, new Random()),
+            new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_DURATION),
+            PriorityExecutor.getInstance());
+
+    /** Keeps the requests of every part of the app to the API within its quota */
+    private static final RequestScheduler sScheduler = new RequestScheduler(
+            MAX_REQUEST_RATE, MIN_REQUEST_RATE, REQUEST_BURST, IDLE_DELAY);
+
+    /** Estimates the bandwidth from the responses of the API, shaping the requests */
+    private static final BandwidthEstimator sBandwidthEstimator =
+            new BandwidthEstimator(MIN_BANDWIDTH_SAMPLE);
+
+    /** On-disk cache of responses, or null until {@link #installResponseCache(File)} is called */
+    private static HttpResponseDiskCache sResponseCache;
+
+    /** Bodies of the top stories kept for offline reading, or null until first needed */
+    private static ArticleBodyStore sArticleBodyStore;
 
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
@@ -43,10 +97,184 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /**
+     * Keep responses in a directory below the given cache directory, so requests for a URL that
+     * was fetched before are made conditional and an unchanged feed isn't downloaded again.
+     */
+    public static synchronized void installResponseCache(File cacheDir) {
+        if (sResponseCache == null) {
+            sResponseCache = new HttpResponseDiskCache(
+                    new File(cacheDir, RESPONSE_CACHE_DIRECTORY), RESPONSE_CACHE_SIZE);
+        }
+    }
+
+    /**
+     * Return the store of the article bodies prefetched for offline reading, kept in a directory
+     * below the given files directory.
+     */
+    public static synchronized ArticleBodyStore getArticleBodyStore(File filesDir) {
+        if (sArticleBodyStore == null) {
+            sArticleBodyStore = new ArticleBodyStore(
+                    new File(filesDir, ARTICLE_BODY_DIRECTORY), ARTICLE_BODY_BUDGET);
+        }
+        return sArticleBodyStore;
+    }
+
+    /**
+     * Fetch the bodies of the first given number of stories that aren't stored yet or changed
+     * since, for offline reading. This is on a background thread.
+     *
+     * @return the number of bodies fetched, or -1 if the request failed
+     */
+    public static int prefetchArticleBodies(File filesDir, List<NewsStory> newsStories,
+                                            int count, CancellableRequest cancellation) {
+        ArticlePrefetcher prefetcher = new ArticlePrefetcher(sTransport, sScheduler,
+                PipelineMetrics.getInstance().forQuery(PipelineMetrics.QUERY_ARTICLES),
+                getArticleBodyStore(filesDir), ARTICLE_SEARCH_URL);
+        return prefetcher.prefetch(newsStories, count, cancellation);
+    }
+
+    /**
+     * Return the estimator of the bandwidth, fed with the transfer rates of the responses of the
+     * Guardian API, whose connection class the requests can be shaped by.
+     */
+    public static BandwidthEstimator getBandwidthEstimator() {
+        return sBandwidthEstimator;
+    }
+
+    /**
+     * Return a builder of the search URL for the stories matching the given filter, in the given
+     * order, the given number per page. The page itself is left to the caller.
+     */
+    public static Uri.Builder buildSearchUri(String filterBy, String orderBy, int pageSize) {
+        return buildSearchUri(filterBy, orderBy, pageSize, true);
+    }
+
+    /**
+     * Return a builder of the search URL for the stories matching the given filter, in the given
+     * order, the given number per page, with the URLs of their thumbnails or without, which
+     * makes the response smaller. The page itself is left to the caller.
+     */
+    public static Uri.Builder buildSearchUri(String filterBy, String orderBy, int pageSize,
+                                             boolean withThumbnails) {
+        // Build URI reference for for news stories from The Guardian data set
+        // http://content.guardianapis.com/search?show-tags=contributor&show-fields=thumbnail&api-key=test
+        final Uri.Builder uriBuilder = new Uri.Builder();
+        uriBuilder.scheme("http")
+                .authority("content.guardianapis.com")
+                .appendPath("search")
+                .appendQueryParameter("show-tags", "contributor");
+        if (withThumbnails) {
+            uriBuilder.appendQueryParameter("show-fields", "thumbnail");
+        }
+        uriBuilder.appendQueryParameter("order-by", orderBy)
+                .appendQueryParameter("page-size", String.valueOf(pageSize))
+                .appendQueryParameter("api-key", "test");
+        if(!filterBy.isEmpty())
+            uriBuilder.appendQueryParameter("q", filterBy);
+        return uriBuilder;
+    }
+
+    /**
+     * Return the given stories, loaded without the URLs of their thumbnails, with those URLs,
+     * fetched with one search request for their ids, or null if the request failed or was
+     * cancelled. The request waits for the app to be idle. This is on a background thread.
+     */
+    public static List<NewsStory> fetchThumbnails(List<NewsStory> newsStories,
+                                                  CancellableRequest cancellation) {
+        // Stories are fetched by their id, which only stories of the Guardian's website have
+        StringBuilder ids = new StringBuilder();
+        int idCount = 0;
+        for (NewsStory newsStory : newsStories) {
+            String url = newsStory.getUrl();
+            if (url != null && url.startsWith(WEB_URL_PREFIX)) {
+                if (idCount++ > 0) {
+                    ids.append(',');
+                }
+                ids.append(url.substring(WEB_URL_PREFIX.length()));
+            }
+        }
+        if (idCount == 0) {
+            return newsStories;
+        }
+
+        String requestUrl = new Uri.Builder().scheme("http")
+                .authority("content.guardianapis.com")
+                .appendPath("search")
+                .appendQueryParameter("ids", ids.toString())
+                .appendQueryParameter("show-tags", "contributor")
+                .appendQueryParameter("show-fields", "thumbnail")
+                .appendQueryParameter("page-size", String.valueOf(idCount))
+                .appendQueryParameter("api-key", "test")
+                .build().toString();
+        List<NewsStory> withThumbnails = fetchNewsStoryData(requestUrl, cancellation);
+        if (withThumbnails == null) {
+            return null;
+        }
+
+        // The search returns the newest first, put them back in the order of the given stories
+        Map<String, NewsStory> byUrl = new HashMap<>();
+        for (NewsStory newsStory : withThumbnails) {
+            byUrl.put(newsStory.getUrl(), newsStory);
+        }
+        NewsStoryStore merged = new NewsStoryStore(newsStories.size());
+        for (NewsStory newsStory : newsStories) {
+            NewsStory withThumbnail = byUrl.get(newsStory.getUrl());
+            merged.add(withThumbnail == null ? newsStory : withThumbnail);
+        }
+        return merged;
+    }
+
     /**
      * Query the Guardian data set and return a list of {@link NewsStory} objects.
      */
     public static List<NewsStory> fetchNewsStoryData(String requestUrl) {
+        return fetchNewsStoryData(requestUrl, new CancellableRequest());
+    }
+
+    /**
+     * Query the Guardian data set and return a list of {@link NewsStory} objects, or null if the
+     * request failed or was cancelled through the given {@link CancellableRequest}.
+     */
+    public static List<NewsStory> fetchNewsStoryData(String requestUrl,
+                                                     CancellableRequest cancellation) {
+        return fetchNewsStoryData(requestUrl, cancellation,
+                DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Query the Guardian data set and return a list of {@link NewsStory} objects, or null if the
+     * request failed or was cancelled, handing the stories parsed so far to the given listener
+     * while the response is still arriving.
+     */
+    public static List<NewsStory> fetchNewsStoryData(String requestUrl,
+                                                     CancellableRequest cancellation,
+                                                     NewsStoryParser.BatchListener listener) {
+        return fetchNewsStoryData(requestUrl, cancellation,
+                DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, listener);
+    }
+
+    /**
+     * Query the Guardian data set with the given connect and read timeouts in milliseconds, and
+     * return a list of {@link NewsStory} objects, or null if the request failed or was cancelled.
+     */
+    public static List<NewsStory> fetchNewsStoryData(String requestUrl,
+                                                     CancellableRequest cancellation,
+                                                     int connectTimeout, int readTimeout) {
+        return fetchNewsStoryData(requestUrl, cancellation, connectTimeout, readTimeout, null);
+    }
+
+    /**
+     * Query the Guardian data set with the given connect and read timeouts in milliseconds, and
+     * return a list of {@link NewsStory} objects, or null if the request failed or was cancelled.
+     *
+     * @param listener receives the stories parsed so far while a response is downloaded, may be
+     *                 null. A response served from the cache is returned whole.
+     */
+    public static List<NewsStory> fetchNewsStoryData(String requestUrl,
+                                                     CancellableRequest cancellation,
+                                                     int connectTimeout, int readTimeout,
+                                                     NewsStoryParser.BatchListener listener) {
         //Log.i(LOG_TAG, "TEST: fetchNewsStoryData() called");
 
         //Create a delay in fetching the data, so the spinner can be tested, and
@@ -60,17 +288,18 @@ public final class QueryUtils {
         // Create URL object
         URL url = createUrl(requestUrl);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the JSON response as it arrives,
+        // returning the list of {@link NewsStory}s
+        List<NewsStory> newsStories = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            newsStories = makeHttpRequest(url, cancellation, connectTimeout, readTimeout,
+                    listener);
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+            if (!cancellation.isCancelled()) {
+                Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+            }
         }
-
-        // Extract relevant fields from the JSON response and create a list of {@link NewsStory}s
-        //return the list of {@link NewsStory}s
-        return extractFeatureFromJson(jsonResponse);
+        return newsStories;
     }
 
     /**
@@ -87,125 +316,305 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and return the list of {@link NewsStory}s parsed
+     * straight from the response stream, or null if the URL is invalid.
+     *
+     * The request goes through the {@link RequestScheduler}: a request for a URL that is being
+     * fetched already shares that response, and the background sync waits for the app to be
+     * idle. The listener only receives the batches of a request that is made, not shared.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
+    private static List<NewsStory> makeHttpRequest(final URL url,
+                                                   CancellableRequest cancellation,
+                                                   final int connectTimeout,
+                                                   final int readTimeout,
+                                                   final NewsStoryParser.BatchListener listener)
+            throws IOException {
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return null;
         }
 
-        HttpURLConnection urlConnection = null;
+        final String queryType = PipelineMetrics.queryTypeOf(url.getQuery());
+        final PipelineMetrics.QueryMetrics metrics =
+                PipelineMetrics.getInstance().forQuery(queryType);
+        final int priority = isBackground(queryType)
+                ? RequestScheduler.PRIORITY_BACKGROUND : RequestScheduler.PRIORITY_USER;
+        return sScheduler.execute(url.toString(), priority,
+                new RequestScheduler.Request<List<NewsStory>>() {
+                    @Override
+                    public List<NewsStory> run(CancellableRequest request) throws IOException {
+                        return callApi(url, request, connectTimeout, readTimeout, listener,
+                                queryType, priority, metrics);
+                    }
+                }, cancellation, metrics);
+    }
+
+    /**
+     * Make an HTTP request to the given URL and return the list of {@link NewsStory}s parsed
+     * straight from the response stream. Every attempt waits for the request budget first.
+     *
+     * A request that fails is tried again, and a request that takes longer than most gets a second
+     * one sent alongside it, see {@link ResilientCaller}. While the API keeps failing, or when
+     * every attempt failed, the response cached for the URL is returned instead, if there is one.
+     */
+    private static List<NewsStory> callApi(final URL url, CancellableRequest cancellation,
+                                           final int connectTimeout, final int readTimeout,
+                                           NewsStoryParser.BatchListener listener,
+                                           String queryType, final int priority,
+                                           final PipelineMetrics.QueryMetrics metrics)
+            throws IOException {
+        final HttpResponseDiskCache responseCache = sResponseCache;
+        final HttpResponseDiskCache.Entry cachedResponse =
+                responseCache == null ? null : responseCache.get(url.toString());
+
+        final AttemptBatches batches = listener == null ? null : new AttemptBatches(listener);
+        try {
+            return sCaller.call(new ResilientCaller.Attempt<List<NewsStory>>() {
+                @Override
+                public List<NewsStory> run(CancellableRequest attempt) throws IOException {
+                    sScheduler.acquire(priority, attempt, metrics);
+                    return makeAttempt(url, attempt, connectTimeout, readTimeout,
+                            responseCache, cachedResponse, metrics,
+                            batches == null ? null : batches.forAttempt(attempt));
+                }
+            }, cancellation, hedgeDelayOf(queryType, metrics), metrics);
+        } catch (IOException e) {
+            if (cancellation.isCancelled() || cachedResponse == null) {
+                throw e;
+            }
+            // Show what the API answered last time rather than nothing
+            Log.w(LOG_TAG, "Serving the cached response of " + url + " after: " + e);
+            metrics.increment(PipelineMetrics.COUNTER_SERVED_STALE);
+            return readCachedResponse(cachedResponse, cancellation);
+        }
+    }
+
+    /**
+     * Return true if nobody is waiting for the requests of the given type: the background sync,
+     * and the thumbnails of stories that are shown already.
+     */
+    private static boolean isBackground(String queryType) {
+        return PipelineMetrics.QUERY_SYNC.equals(queryType)
+                || PipelineMetrics.QUERY_THUMBNAILS.equals(queryType);
+    }
+
+    /**
+     * Return the time in milliseconds after which a request of the given type gets a second one
+     * sent alongside it, or 0 if it shouldn't. Background requests are never hedged, nobody is
+     * waiting for them.
+     */
+    private static long hedgeDelayOf(String queryType, PipelineMetrics.QueryMetrics metrics) {
+        LatencyHistogram requests = metrics.getStage(PipelineMetrics.STAGE_REQUEST);
+        if (isBackground(queryType)
+                || requests.getCount() < HEDGE_MIN_SAMPLES) {
+            return 0;
+        }
+        return Math.max(HEDGE_MIN_DELAY,
+                requests.getValueAtPercentile(HEDGE_PERCENTILE) / 1000);
+    }
+
+    /**
+     * Make a single attempt at an HTTP request to the given URL and return the list of
+     * {@link NewsStory}s parsed straight from the response stream.
+     *
+     * When the response cache holds a previous response for the URL, the request is made
+     * conditional, and a 304 Not Modified answer is served from the cache without downloading
+     * the body again.
+     *
+     * Cancelling the request disconnects it and stops the parser; a partly read response is
+     * neither returned nor cached. Otherwise the connection is kept alive for the next request.
+     *
+     * @throws HttpTransport.StatusException if the server answered with an error response code
+     */
+    private static List<NewsStory> makeAttempt(URL url, CancellableRequest cancellation,
+                                               int connectTimeout, int readTimeout,
+                                               HttpResponseDiskCache responseCache,
+                                               HttpResponseDiskCache.Entry cachedResponse,
+                                               PipelineMetrics.QueryMetrics metrics,
+                                               NewsStoryParser.BatchListener listener)
+            throws IOException {
+        List<NewsStory> newsStories = null;
+        metrics.increment(PipelineMetrics.COUNTER_REQUESTS);
+
+        HttpTransport.Call call = sTransport.newCall(url, connectTimeout, readTimeout);
+        HttpURLConnection urlConnection = call.getConnection();
         InputStream inputStream = null;
+        int responseCode = -1;
+        long parseNanos = -1;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(READ_TIMEOUT);
-            urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
-            urlConnection.setRequestMethod(GET_REQUEST_METHOD);
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            cancellation.setConnection(urlConnection);
+            if (cachedResponse != null) {
+                cachedResponse.addConditionalHeaders(urlConnection);
+            }
+
+            responseCode = call.execute();
+            sScheduler.onResponse(responseCode, urlConnection.getHeaderField("Retry-After"),
+                    metrics);
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedResponse != null) {
+                // The cached body is still current, so there is nothing to download
+                metrics.increment(PipelineMetrics.COUNTER_NOT_MODIFIED);
+                long parseStart = System.nanoTime();
+                newsStories = readCachedResponse(cachedResponse, cancellation);
+                parseNanos = System.nanoTime() - parseStart;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // If the request was successful (response code 200),
+                // then read the decompressed body and parse the response as it arrives.
+                inputStream = cancellation.wrap(call.getBody());
+                long parseStart = System.nanoTime();
+                if (responseCache == null) {
+                    newsStories = extractFeatureFromStream(inputStream, listener);
+                    cancellation.throwIfCancelled();
+                } else {
+                    // Store the body as it is parsed
+                    HttpResponseDiskCache.Editor editor =
+                            responseCache.edit(url.toString(), urlConnection, inputStream);
+                    inputStream = editor;
+                    newsStories = extractFeatureFromStream(editor, listener);
+                    cancellation.throwIfCancelled();
+                    HttpResponseDiskCache.Entry entry = editor.commit();
+                    if (entry != null) {
+                        entry.setNewsStories(newsStories);
+                    }
+                }
+                // The parser waits for the body as it arrives, which is counted as download
+                parseNanos = System.nanoTime() - parseStart - call.getTimings().getReadNanos();
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                throw new HttpTransport.StatusException(responseCode);
             }
+            Log.d(LOG_TAG, "GET " + url + " " + responseCode + ": " + call.getTimings());
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the news story JSON results.", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            // The connection was closed on purpose if the attempt was cancelled, the result is no
+            // longer wanted
+            if (!cancellation.isCancelled()) {
+                Log.e(LOG_TAG, "Problem retrieving the news story JSON results.", e);
             }
+            newsStories = null;
+            throw e;
+        } finally {
+            // Read what is left of the response and hand the connection back for reuse,
+            // rather than disconnecting it
+            call.close();
             if (inputStream != null) {
                 // Closing the input stream could throw an IOException, which is why
                 // the makeHttpRequest(URL url) method signature specifies than an IOException
                 // could be thrown.
                 inputStream.close();
             }
+            recordRequest(metrics, call.getTimings(), responseCode, parseNanos, newsStories,
+                    cancellation.isCancelled());
         }
-        return jsonResponse;
+        return newsStories;
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Count a finished request in the given metrics. Only requests that completed have their
+     * stages timed, the times of a failed or cancelled request would only be a part of them.
+     *
+     * @param responseCode is the response code, or -1 if there was no response
+     * @param parseNanos is the time spent parsing, or -1 if there was nothing parsed
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
+    private static void recordRequest(PipelineMetrics.QueryMetrics metrics,
+                                      HttpTransport.Timings timings, int responseCode,
+                                      long parseNanos, List<NewsStory> newsStories,
+                                      boolean cancelled) {
+        metrics.add(PipelineMetrics.COUNTER_BYTES_RECEIVED, timings.getBytesReceived());
+        if (cancelled) {
+            metrics.increment(PipelineMetrics.COUNTER_CANCELLED);
+            return;
+        }
+        if (responseCode == -1 || newsStories == null) {
+            metrics.increment(PipelineMetrics.COUNTER_FAILED);
+            return;
+        }
+        metrics.add(PipelineMetrics.COUNTER_STORIES, newsStories.size());
+        metrics.recordNanos(PipelineMetrics.STAGE_CONNECT, timings.getConnectNanos());
+        metrics.recordNanos(PipelineMetrics.STAGE_FIRST_BYTE, timings.getWaitNanos());
+        metrics.recordNanos(PipelineMetrics.STAGE_REQUEST, timings.getConnectNanos()
+                + timings.getWaitNanos() + timings.getTransferNanos());
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            metrics.recordNanos(PipelineMetrics.STAGE_DOWNLOAD, timings.getReadNanos());
+            // The wall time from the headers to the end of the body. The time blocked reading
+            // alone would leave out the bytes that arrived while the parser was busy, and read
+            // as a faster network than there is.
+            sBandwidthEstimator.addSample(timings.getBytesReceived(), timings.getTransferNanos());
+        }
+        if (parseNanos >= 0) {
+            metrics.recordNanos(PipelineMetrics.STAGE_PARSE, parseNanos);
         }
-        return output.toString();
     }
 
     /**
-     * Return a list of {@link NewsStory} objects that has been built up from
-     * parsing the given JSON response.
+     * Return the {@link NewsStory}s of a cached response, parsing its body only if the stories
+     * parsed from it earlier are no longer in memory.
      */
-    private static List<NewsStory> extractFeatureFromJson(String newsStoryJSON) {
-
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(newsStoryJSON)) {
-            return null;
+    private static List<NewsStory> readCachedResponse(HttpResponseDiskCache.Entry cachedResponse,
+                                                      CancellableRequest cancellation)
+            throws IOException {
+        List<NewsStory> newsStories = cachedResponse.getNewsStories();
+        if (newsStories != null) {
+            return newsStories;
         }
 
-        // Create an empty ArrayList that we can start adding newsStories to
-        List<NewsStory> newsStories = new ArrayList<>();
-
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        InputStream body = cachedResponse.openBody();
         try {
+            newsStories = extractFeatureFromStream(cancellation.wrap(body));
+        } finally {
+            body.close();
+        }
+        cancellation.throwIfCancelled();
+        cachedResponse.setNewsStories(newsStories);
+        return newsStories;
+    }
 
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(newsStoryJSON);
-
-            //Extract the JSONArray associated with the key "response" which represents a list
-            //of JSONObject
-            JSONObject newsStoryArray = baseJsonResponse.getJSONObject(RESPONSE);
-            //Extract the JSONArray associated with the key "result" which represents a list
-            //of JSONArray
-            JSONArray resultsArray = newsStoryArray.getJSONArray(RESULTS);
-
-            //For each news story in the newsStoryArray, create a {@link NewsStory} object
-            for(int i = 0; i < resultsArray.length(); i++){
-                JSONObject resultObj = resultsArray.getJSONObject(i);
-
-                String title = resultObj.getString(WEB_TITLE);
-                String sectionName = resultObj.getString(SECTION_NAME);
-                String webPublicationDate = resultObj.getString(WEB_PUBLICATION_DATE);
-                // Extract the value for the key called "webUrl"
-                String url = resultObj.getString(WEB_URL);
+    /**
+     * Return a list of {@link NewsStory} objects parsed from the JSON response in the given
+     * {@link InputStream}, see {@link NewsStoryParser#parse(InputStream, int)}.
+     */
+    static List<NewsStory> extractFeatureFromStream(InputStream inputStream) throws IOException {
+        return extractFeatureFromStream(inputStream, null);
+    }
 
-                JSONArray tagsArray = resultObj.getJSONArray("tags");
-                JSONObject firstTagObj = tagsArray.getJSONObject(0);
+    /**
+     * Return a list of {@link NewsStory} objects parsed from the JSON response in the given
+     * {@link InputStream}, handing the stories parsed so far to the given listener, see
+     * {@link NewsStoryParser#parse(InputStream, int, NewsStoryParser.BatchListener)}.
+     */
+    static List<NewsStory> extractFeatureFromStream(InputStream inputStream,
+                                                    NewsStoryParser.BatchListener listener)
+            throws IOException {
+        return NewsStoryParser.parse(inputStream, STORE_CAPACITY, listener);
+    }
 
-                String contributorName = firstTagObj.getString(WEB_TITLE);
+    /**
+     * Hands the batches of stories of only one of the attempts at a request to a listener: the
+     * first to parse any. A hedged request has two attempts reading the same feed at once, whose
+     * batches would otherwise be shown in turns.
+     */
+    private static class AttemptBatches {
+        private final NewsStoryParser.BatchListener mListener;
 
-                // Create a new {@link NewsStory} object with the title, sectionName, webPublicationDate,
-                // and url from the JSON response.
-                NewsStory newsStory = new NewsStory(title, sectionName, webPublicationDate, url, contributorName);
-                newsStories.add(newsStory);
-            }
+        /** The attempt whose batches are handed on, or null until one has parsed any */
+        private CancellableRequest mAttempt;
 
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the news story JSON results", e);
+        AttemptBatches(NewsStoryParser.BatchListener listener) {
+            mListener = listener;
         }
 
-        // Return the list of newsStories
-        return newsStories;
+        /** Return the listener of the batches of the given attempt. */
+        NewsStoryParser.BatchListener forAttempt(final CancellableRequest attempt) {
+            return new NewsStoryParser.BatchListener() {
+                @Override
+                public void onBatch(List<NewsStory> newsStories) {
+                    synchronized (AttemptBatches.this) {
+                        if (mAttempt == null) {
+                            mAttempt = attempt;
+                        } else if (mAttempt != attempt) {
+                            return;
+                        }
+                    }
+                    mListener.onBatch(newsStories);
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,102 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.Random;
+
+/**
+ * Decides when the background sync runs, from the state of the battery and the network.
+ *
+ * Syncs are spread out by a random jitter, so devices that opened the app at the same time don't
+ * all hit the server at the same time afterwards. On a metered network the interval is stretched,
+ * and on a low battery the sync waits for the charger.
+ */
+public class SyncPolicy {
+
+    /** Battery level in percent below which the sync only runs while charging */
+    static final int LOW_BATTERY_LEVEL = 15;
+
+    /** Factor the interval is stretched by on a metered network */
+    static final int METERED_INTERVAL_FACTOR = 3;
+
+    private final long mInterval;
+    private final double mJitter;
+    private final Random mRandom;
+
+    /**
+     * Create a new {@link SyncPolicy}.
+     *
+     * @param interval is the time in milliseconds between syncs
+     * @param jitter is the largest fraction of the interval a sync is moved earlier or later by
+     * @param random draws the jitter
+     */
+    public SyncPolicy(long interval, double jitter, Random random) {
+        mInterval = interval;
+        mJitter = jitter;
+        mRandom = random;
+    }
+
+    /**
+     * Return the time in milliseconds until the next sync: the interval, moved earlier or later
+     * by a random part of it.
+     */
+    public long nextDelay() {
+        double offset = (mRandom.nextDouble() * 2 - 1) * mJitter;
+        return Math.max(0, Math.round(mInterval * (1 + offset)));
+    }
+
+    /**
+     * Return true if a sync should run now.
+     *
+     * @param state is the current state of the device
+     * @param sinceLastSync is the time in milliseconds since the last sync, or
+     *                      {@link Long#MAX_VALUE} if there hasn't been one
+     */
+    public boolean shouldSync(DeviceState state, long sinceLastSync) {
+        if (!state.mConnected) {
+            return false;
+        }
+        if (state.mBatteryLevel < LOW_BATTERY_LEVEL && !state.mCharging) {
+            return false;
+        }
+
+        // A sync is due a little before the interval is up, as the jitter may bring it forward
+        long interval = state.mMetered && !state.mCharging
+                ? mInterval * METERED_INTERVAL_FACTOR
+                : mInterval;
+        return sinceLastSync >= Math.round(interval * (1 - mJitter));
+    }
+
+    /**
+     * Return true if the bodies of the top stories may be prefetched now: only on a network that
+     * isn't paid for by the byte, and not on a low battery unless charging.
+     */
+    public static boolean shouldPrefetch(DeviceState state) {
+        return state.mConnected && !state.mMetered
+                && (state.mBatteryLevel >= LOW_BATTERY_LEVEL || state.mCharging);
+    }
+
+    /**
+     * What the sync needs to know about the device.
+     */
+    public static class DeviceState {
+        final boolean mConnected;
+        final boolean mMetered;
+        final boolean mCharging;
+        final int mBatteryLevel;
+
+        /**
+         * Create a new {@link DeviceState}.
+         *
+         * @param connected is true if there is a network connection
+         * @param metered is true if the connection is paid for by the byte, like mobile data
+         * @param charging is true if the device is plugged in
+         * @param batteryLevel is the battery level in percent
+         */
+        public DeviceState(boolean connected, boolean metered, boolean charging,
+                           int batteryLevel) {
+            mConnected = connected;
+            mMetered = metered;
+            mCharging = charging;
+            mBatteryLevel = batteryLevel;
+        }
+    }
+}
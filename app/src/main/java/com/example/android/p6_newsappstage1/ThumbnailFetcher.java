@@ -0,0 +1,95 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches the bytes of thumbnail images, from a disk cache when they were fetched before.
+ *
+ * Thumbnail URLs name a version of an image that never changes, so a cached image is used as it
+ * is, without asking the server whether it is still current. Images fetched from the network are
+ * written to the cache as they are read.
+ */
+public class ThumbnailFetcher {
+
+    /** Size of the buffer an image is read with, most thumbnails fit in a few of them */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final HttpTransport mTransport;
+    private final HttpResponseDiskCache mDiskCache;
+
+    /**
+     * Create a new {@link ThumbnailFetcher}.
+     *
+     * @param transport makes the requests
+     * @param diskCache keeps the images fetched, may be null to always fetch them
+     */
+    public ThumbnailFetcher(HttpTransport transport, HttpResponseDiskCache diskCache) {
+        mTransport = transport;
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * Return the bytes of the image at the given URL, or null if it couldn't be fetched or the
+     * request was cancelled through the given {@link CancellableRequest}.
+     */
+    public byte[] fetch(String url, CancellableRequest cancellation) {
+        try {
+            if (mDiskCache != null) {
+                HttpResponseDiskCache.Entry cached = mDiskCache.get(url);
+                if (cached != null) {
+                    InputStream body = cached.openBody();
+                    try {
+                        return readFully(cancellation.wrap(body));
+                    } finally {
+                        body.close();
+                    }
+                }
+            }
+            return download(url, cancellation);
+        } catch (IOException e) {
+            // A cancelled request fails with an IOException too, neither has an image to show
+            return null;
+        }
+    }
+
+    private byte[] download(String url, CancellableRequest cancellation) throws IOException {
+        HttpTransport.Call call = mTransport.newCall(new URL(url));
+        try {
+            cancellation.setConnection(call.getConnection());
+            if (call.execute() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            InputStream body = cancellation.wrap(call.getBody());
+            if (mDiskCache == null) {
+                return readFully(body);
+            }
+
+            // Store the image as it is read, and only keep it once it has been read completely
+            HttpResponseDiskCache.Editor editor = mDiskCache.edit(url, call.getConnection(), body);
+            try {
+                byte[] image = readFully(editor);
+                cancellation.throwIfCancelled();
+                editor.commit();
+                return image;
+            } finally {
+                editor.close();
+            }
+        } finally {
+            call.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,342 @@
+package com.example.android.p6_newsappstage1;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Shows the thumbnails of the news stories in the rows of the list.
+ *
+ * A thumbnail is looked up in a memory cache of decoded bitmaps first, then fetched in the
+ * prefetch lane of the {@link PriorityExecutor}, from the disk cache when it was fetched before,
+ * and decoded in its decode lane, downsampled to the size of the row so a large image never
+ * takes more memory than the few pixels it is shown with. The memory cache is limited in bytes
+ * rather than in images, and bitmaps it evicts are decoded into again once no row shows them.
+ *
+ * When a row is recycled or bound to another story, the request for its previous thumbnail is
+ * cancelled: a download is disconnected, a decode that hasn't started is dropped, and a result
+ * that arrives anyway is cached but not shown.
+ *
+ * All of its methods are called on the main thread.
+ */
+public class ThumbnailLoader {
+
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT = 15000;  /* milliseconds */
+    private static final int READ_TIMEOUT = 10000;  /* milliseconds */
+
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+    private static final long DISK_CACHE_SIZE = 16 * 1024 * 1024;  /* bytes */
+
+    /** Share of the memory class of the app the decoded thumbnails may take up */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /** Share of the memory cache's size kept of bitmaps to decode into */
+    private static final int BITMAP_POOL_FRACTION = 4;
+
+    /** Thumbnails have no transparency, so they are decoded at two bytes per pixel */
+    private static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565;
+
+    private static ThumbnailLoader sInstance;
+
+    private final ThumbnailFetcher mFetcher;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final BitmapPool mBitmapPool;
+    private final PriorityExecutor mExecutor = PriorityExecutor.getInstance();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The request of every view waiting for its thumbnail */
+    private final Map<ImageView, Request> mRequests = new WeakHashMap<>();
+
+    /** The bitmap every view shows */
+    private final Map<ImageView, Bitmap> mShown = new WeakHashMap<>();
+
+    /** Number of views showing each bitmap, bitmaps shown nowhere are left out */
+    private final Map<Bitmap, Integer> mShowCounts = new IdentityHashMap<>();
+
+    /** Bitmaps evicted from the memory cache while shown, pooled once they no longer are */
+    private final Set<Bitmap> mEvictedShown =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    /**
+     * Return the thumbnail loader of the app, creating it the first time.
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager =
+                    (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClass = activityManager == null ? 16 : activityManager.getMemoryClass();
+            long memoryCacheSize = memoryClass * 1024L * 1024 / MEMORY_CACHE_FRACTION;
+            HttpResponseDiskCache diskCache = new HttpResponseDiskCache(
+                    new File(appContext.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE);
+            sInstance = new ThumbnailLoader(
+                    new ThumbnailFetcher(new HttpTransport(CONNECT_TIMEOUT, READ_TIMEOUT),
+                            diskCache),
+                    (int) memoryCacheSize, memoryCacheSize / BITMAP_POOL_FRACTION);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Create a new {@link ThumbnailLoader}, the app uses the one of
+     * {@link #getInstance(Context)}.
+     *
+     * @param memoryCacheSize is the number of bytes of decoded thumbnails kept in memory
+     * @param bitmapPoolSize is the number of bytes of bitmaps kept to decode into
+     */
+    ThumbnailLoader(ThumbnailFetcher fetcher, int memoryCacheSize, long bitmapPoolSize) {
+        mFetcher = fetcher;
+        mBitmapPool = new BitmapPool(bitmapPoolSize);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return BitmapPool.byteCountOf(bitmap);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldBitmap,
+                                        Bitmap newBitmap) {
+                if (oldBitmap == newBitmap) {
+                    return;
+                }
+                if (mShowCounts.containsKey(oldBitmap)) {
+                    mEvictedShown.add(oldBitmap);
+                } else {
+                    mBitmapPool.put(oldBitmap);
+                }
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail at the given URL in the given view, downsampled to about the given size
+     * in pixels, instead of whatever it showed. The view is left empty until the thumbnail is
+     * there, and stays empty if there is none or it can't be loaded.
+     *
+     * @param url is the URL of the thumbnail, may be null
+     */
+    public void load(ImageView view, String url, int width, int height) {
+        cancel(view);
+        if (url == null) {
+            return;
+        }
+
+        String key = url + '@' + width + 'x' + height;
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            show(view, cached);
+            return;
+        }
+
+        final Request request = new Request(view, url, key, width, height);
+        try {
+            // Thumbnails wait on the network, so they leave a worker for the page on screen
+            mExecutor.submit(PriorityExecutor.LANE_PREFETCH, new PriorityExecutor.Task<Void>() {
+                @Override
+                public Void run(CancellableRequest cancellation) {
+                    fetch(request);
+                    return null;
+                }
+            }, request.mCancellation);
+        } catch (RejectedExecutionException e) {
+            // Too many fetches are waiting, the view gets it again once bound
+            Log.w(LOG_TAG, "Dropped the fetch of the thumbnail " + url);
+            return;
+        }
+        mRequests.put(view, request);
+    }
+
+    /**
+     * Cancel the request for the thumbnail of the given view, if there is one, and stop showing
+     * its thumbnail, so the bitmap can be reused. Called when its row is recycled.
+     */
+    public void cancel(ImageView view) {
+        Request request = mRequests.remove(view);
+        if (request != null) {
+            request.cancel();
+        }
+        release(view);
+    }
+
+    /**
+     * Give up decoded thumbnails when the system is running low on memory, see
+     * {@link ComponentCallbacks2}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mMemoryCache.evictAll();
+            mBitmapPool.trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+            mBitmapPool.trimToSize(0);
+        }
+    }
+
+    /**
+     * This is on a worker of the prefetch lane
+     */
+    private void fetch(final Request request) {
+        final byte[] image = mFetcher.fetch(request.mUrl, request.mCancellation);
+        if (image == null || request.mCancellation.isCancelled()) {
+            return;
+        }
+        try {
+            mExecutor.submit(PriorityExecutor.LANE_DECODE, new PriorityExecutor.Task<Void>() {
+                @Override
+                public Void run(CancellableRequest cancellation) {
+                    decode(request, image);
+                    return null;
+                }
+            }, request.mCancellation);
+        } catch (RejectedExecutionException e) {
+            // Too many decodes are waiting, the view gets it again from the disk cache once bound
+            Log.w(LOG_TAG, "Dropped the decode of the thumbnail " + request.mUrl);
+        }
+    }
+
+    /**
+     * This is on a worker of the decode lane
+     */
+    private void decode(final Request request, byte[] image) {
+        if (request.mCancellation.isCancelled()) {
+            return;
+        }
+        final Bitmap bitmap = decodeSampled(image, request.mWidth, request.mHeight, mBitmapPool);
+        if (bitmap == null) {
+            Log.e(LOG_TAG, "Problem decoding the thumbnail " + request.mUrl);
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ImageView view = request.mView.get();
+                if (view != null && mRequests.get(view) == request) {
+                    mRequests.remove(view);
+                    show(view, bitmap);
+                }
+                // Another row may show the same thumbnail, so it is cached even when cancelled.
+                // It is shown first, so it isn't pooled if the cache has no room for it.
+                mMemoryCache.put(request.mKey, bitmap);
+            }
+        });
+    }
+
+    private void show(ImageView view, Bitmap bitmap) {
+        release(view);
+        mShown.put(view, bitmap);
+        Integer count = mShowCounts.get(bitmap);
+        mShowCounts.put(bitmap, count == null ? 1 : count + 1);
+        view.setImageBitmap(bitmap);
+    }
+
+    private void release(ImageView view) {
+        view.setImageDrawable(null);
+        Bitmap bitmap = mShown.remove(view);
+        if (bitmap == null) {
+            return;
+        }
+        Integer count = mShowCounts.get(bitmap);
+        if (count != null && count > 1) {
+            mShowCounts.put(bitmap, count - 1);
+            return;
+        }
+        mShowCounts.remove(bitmap);
+        if (mEvictedShown.remove(bitmap)) {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Return the given image decoded downsampled to at least the given size, into a bitmap of
+     * the given pool when one fits, or null if it can't be decoded.
+     */
+    static Bitmap decodeSampled(byte[] image, int width, int height, BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = CONFIG;
+        options.inMutable = true;
+        options.inBitmap = pool.get(divideRoundingUp(options.outWidth, sampleSize),
+                divideRoundingUp(options.outHeight, sampleSize), CONFIG, sampleSize);
+        try {
+            return BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        } catch (IllegalArgumentException e) {
+            // The bitmap couldn't be reused after all, decode into a new one
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        }
+    }
+
+    /**
+     * Return the largest power of two that the given image size can be divided by and still be
+     * at least the given size in both directions, which is the factor the decoder samples by.
+     */
+    static int calculateInSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0) {
+            return sampleSize;
+        }
+        while (imageWidth / (sampleSize * 2) >= width
+                && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * A request for the thumbnail of a view, on its way through the prefetch and decode lanes.
+     * Cancelling it drops the fetch or decode still waiting in its lane.
+     */
+    private static class Request {
+        /** The view, which the map of requests must not keep from being collected */
+        final WeakReference<ImageView> mView;
+        final String mUrl;
+        final String mKey;
+        final int mWidth;
+        final int mHeight;
+        final CancellableRequest mCancellation = new CancellableRequest();
+
+        Request(ImageView view, String url, String key, int width, int height) {
+            mView = new WeakReference<>(view);
+            mUrl = url;
+            mKey = key;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        void cancel() {
+            // Drops the work if it hasn't started, a running download is disconnected
+            mCancellation.cancel();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ArticleBodyStore}.
+ */
+public class ArticleBodyStoreTest {
+
+    private static final String URL = "https://www.theguardian.com/world/1";
+    private static final String OTHER_URL = "https://www.theguardian.com/world/2";
+    private static final String LAST_MODIFIED = "2018-04-15T12:00:00Z";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void put_thenGet_returnsBody() throws IOException {
+        ArticleBodyStore store = new ArticleBodyStore(mTemporaryFolder.newFolder(), 1024 * 1024);
+        String body = "Ünïcödé text of the article. " + repeat("More text. ", 100);
+
+        assertTrue(store.put(URL, LAST_MODIFIED, body));
+
+        assertEquals(body, store.get(URL));
+        assertEquals(LAST_MODIFIED, store.getLastModified(URL));
+        assertNull(store.get(OTHER_URL));
+        assertNull(store.getLastModified(OTHER_URL));
+    }
+
+    @Test
+    public void bodies_areStoredCompressed() throws IOException {
+        ArticleBodyStore store = new ArticleBodyStore(mTemporaryFolder.newFolder(), 1024 * 1024);
+        String body = repeat("The same sentence over and over again. ", 1000);
+
+        store.put(URL, LAST_MODIFIED, body);
+
+        assertTrue(store.size() < body.length() / 10);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedBeyondBudget() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        ArticleBodyStore measure = new ArticleBodyStore(mTemporaryFolder.newFolder(), 1024 * 1024);
+        measure.put(URL, LAST_MODIFIED, "First body");
+        ArticleBodyStore store = new ArticleBodyStore(directory, measure.size() * 2 + 10);
+
+        store.put(URL, LAST_MODIFIED, "First body");
+        store.put(OTHER_URL, LAST_MODIFIED, "Other body");
+        // Reading the first body makes the other one the least recently used
+        store.get(URL);
+        store.put("https://www.theguardian.com/world/3", LAST_MODIFIED, "Third body");
+
+        assertTrue(store.contains(URL));
+        assertFalse(store.contains(OTHER_URL));
+        assertTrue(store.size() <= store.maxSize());
+    }
+
+    @Test
+    public void put_replacesBodyAndDate() throws IOException {
+        ArticleBodyStore store = new ArticleBodyStore(mTemporaryFolder.newFolder(), 1024 * 1024);
+
+        store.put(URL, LAST_MODIFIED, "Old body");
+        long size = store.size();
+        store.put(URL, "2018-04-16T08:00:00Z", "New body");
+
+        assertEquals("New body", store.get(URL));
+        assertEquals("2018-04-16T08:00:00Z", store.getLastModified(URL));
+        assertEquals(size, store.size());
+    }
+
+    @Test
+    public void bodies_surviveRestart() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        new ArticleBodyStore(directory, 1024 * 1024).put(URL, null, "Body");
+
+        ArticleBodyStore store = new ArticleBodyStore(directory, 1024 * 1024);
+
+        assertEquals("Body", store.get(URL));
+        assertNull(store.getLastModified(URL));
+    }
+
+    @Test
+    public void remove_deletesBody() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        ArticleBodyStore store = new ArticleBodyStore(directory, 1024 * 1024);
+        store.put(URL, LAST_MODIFIED, "Body");
+
+        store.remove(URL);
+
+        assertFalse(store.contains(URL));
+        assertEquals(0, store.size());
+        assertEquals(0, directory.list().length);
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+}
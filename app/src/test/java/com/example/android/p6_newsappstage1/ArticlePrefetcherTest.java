@@ -0,0 +1,206 @@
+package com.example.android.p6_newsappstage1;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ArticlePrefetcher}, run against a stub search server.
+ */
+public class ArticlePrefetcherTest {
+
+    private static final String WEB_URL = "https://www.theguardian.com/";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+
+    /** Last modified date of every article the server knows, by id */
+    private final Map<String, String> mLastModified = new HashMap<>();
+
+    /** The "show-fields" parameter of every request made */
+    private final List<String> mRequestedFields = new ArrayList<>();
+
+    /** The "ids" parameter of every request made */
+    private final List<String> mRequestedIds = new ArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        for (int i = 1; i <= 5; i++) {
+            mLastModified.put("world/" + i, "2018-04-15T12:00:00Z");
+        }
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                String fields = query.get("show-fields");
+                String ids = query.get("ids");
+                synchronized (ArticlePrefetcherTest.this) {
+                    mRequestedFields.add(fields);
+                    mRequestedIds.add(ids);
+                }
+                byte[] body = searchResponse(Arrays.asList(ids.split(",")),
+                        fields.contains("bodyText")).getBytes("UTF-8");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void prefetch_storesBodiesOfTopStories() throws IOException {
+        ArticleBodyStore store = newStore(1024 * 1024);
+
+        int fetched = newPrefetcher(store).prefetch(newsStories(), 3, new CancellableRequest());
+
+        assertEquals(3, fetched);
+        assertEquals("Body of world/1 at 2018-04-15T12:00:00Z", store.get(WEB_URL + "world/1"));
+        assertTrue(store.contains(WEB_URL + "world/3"));
+        assertFalse(store.contains(WEB_URL + "world/4"));
+        assertFalse(store.contains("http://example.com/other"));
+        assertEquals(Arrays.asList("world/1,world/2,world/3"), requestedIds());
+    }
+
+    @Test
+    public void prefetch_fetchesOnlyChangedBodiesAgain() throws IOException {
+        ArticleBodyStore store = newStore(1024 * 1024);
+        ArticlePrefetcher prefetcher = newPrefetcher(store);
+        prefetcher.prefetch(newsStories(), 3, new CancellableRequest());
+
+        mLastModified.put("world/2", "2018-04-16T08:00:00Z");
+        int fetched = prefetcher.prefetch(newsStories(), 3, new CancellableRequest());
+
+        assertEquals(1, fetched);
+        assertEquals("Body of world/2 at 2018-04-16T08:00:00Z", store.get(WEB_URL + "world/2"));
+        assertEquals("lastModified", requestedFields().get(1));
+        assertEquals("world/2", requestedIds().get(2));
+    }
+
+    @Test
+    public void prefetch_withNothingChanged_fetchesNoBodies() throws IOException {
+        ArticlePrefetcher prefetcher = newPrefetcher(newStore(1024 * 1024));
+        prefetcher.prefetch(newsStories(), 3, new CancellableRequest());
+
+        assertEquals(0, prefetcher.prefetch(newsStories(), 3, new CancellableRequest()));
+        assertEquals(2, requestedIds().size());
+    }
+
+    @Test
+    public void prefetch_keepsTopStoriesWithinBudget() throws IOException {
+        ArticleBodyStore measure = newStore(1024 * 1024);
+        measure.put(WEB_URL + "world/1", "2018-04-15T12:00:00Z",
+                "Body of world/1 at 2018-04-15T12:00:00Z");
+        ArticleBodyStore store = newStore(measure.size() * 2 + 10);
+
+        newPrefetcher(store).prefetch(newsStories(), 5, new CancellableRequest());
+
+        assertTrue(store.contains(WEB_URL + "world/1"));
+        assertTrue(store.contains(WEB_URL + "world/2"));
+        assertFalse(store.contains(WEB_URL + "world/3"));
+    }
+
+    @Test
+    public void prefetch_returnsMinusOneWhenServerIsDown() throws IOException {
+        ArticleBodyStore store = newStore(1024 * 1024);
+        ArticlePrefetcher prefetcher = newPrefetcher(store);
+        mServer.stop(0);
+
+        assertEquals(-1, prefetcher.prefetch(newsStories(), 3, new CancellableRequest()));
+        assertEquals(0, store.size());
+    }
+
+    private ArticleBodyStore newStore(long maxSize) throws IOException {
+        return new ArticleBodyStore(mTemporaryFolder.newFolder(), maxSize);
+    }
+
+    private ArticlePrefetcher newPrefetcher(ArticleBodyStore store) {
+        return new ArticlePrefetcher(new HttpTransport(1000, 1000),
+                new RequestScheduler(100, 1, 10, 0),
+                new PipelineMetrics().forQuery(PipelineMetrics.QUERY_ARTICLES), store,
+                "http://127.0.0.1:" + mServer.getAddress().getPort() + "/search?api-key=test");
+    }
+
+    private static List<NewsStory> newsStories() {
+        List<NewsStory> newsStories = new ArrayList<>();
+        newsStories.add(new NewsStory("Elsewhere", "Other", PublicationDates.UNKNOWN,
+                "http://example.com/other", ""));
+        for (int i = 1; i <= 5; i++) {
+            newsStories.add(new NewsStory("Story " + i, "World news", PublicationDates.UNKNOWN,
+                    WEB_URL + "world/" + i, ""));
+        }
+        return newsStories;
+    }
+
+    /**
+     * Return a search response with the given articles, newest first as the API returns them.
+     */
+    private synchronized String searchResponse(List<String> ids, boolean withBody)
+            throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginObject().name("response").beginObject().name("results").beginArray();
+        for (int i = ids.size() - 1; i >= 0; i--) {
+            String id = ids.get(i);
+            String lastModified = mLastModified.get(id);
+            writer.beginObject()
+                    .name("id").value(id)
+                    .name("webUrl").value(WEB_URL + id)
+                    .name("fields").beginObject()
+                    .name("lastModified").value(lastModified);
+            if (withBody) {
+                writer.name("bodyText").value("Body of " + id + " at " + lastModified);
+            }
+            writer.endObject().endObject();
+        }
+        writer.endArray().endObject().endObject();
+        writer.close();
+        return json.toString();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            parameters.put(parameter.substring(0, equals),
+                    URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+
+    private synchronized List<String> requestedIds() {
+        return new ArrayList<>(mRequestedIds);
+    }
+
+    private synchronized List<String> requestedFields() {
+        return new ArrayList<>(mRequestedFields);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BandwidthEstimator}.
+ */
+public class BandwidthEstimatorTest {
+
+    private static final int MIN_SAMPLE_BYTES = 2048;
+
+    /** Nanoseconds in a second */
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void classifiesTransferRates() {
+        assertEquals(BandwidthEstimator.CLASS_POOR, classAfter(10 * 1000));
+        assertEquals(BandwidthEstimator.CLASS_MODERATE, classAfter(40 * 1000));
+        assertEquals(BandwidthEstimator.CLASS_GOOD, classAfter(500 * 1000));
+    }
+
+    @Test
+    public void ignoresSmallResponses() {
+        BandwidthEstimator estimator = new BandwidthEstimator(MIN_SAMPLE_BYTES);
+
+        estimator.addSample(MIN_SAMPLE_BYTES - 1, SECOND);
+
+        assertEquals(BandwidthEstimator.CLASS_UNKNOWN, estimator.getConnectionClass());
+        assertEquals(0, estimator.getBandwidth());
+    }
+
+    @Test
+    public void singleFastResponse_doesNotLeavePoorClass() {
+        BandwidthEstimator estimator = new BandwidthEstimator(MIN_SAMPLE_BYTES);
+        for (int i = 0; i < 5; i++) {
+            estimator.addSample(10 * 1000, SECOND);
+        }
+
+        estimator.addSample(40 * 1000, SECOND);
+        assertEquals(BandwidthEstimator.CLASS_POOR, estimator.getConnectionClass());
+
+        for (int i = 0; i < 5; i++) {
+            estimator.addSample(40 * 1000, SECOND);
+        }
+        assertEquals(BandwidthEstimator.CLASS_MODERATE, estimator.getConnectionClass());
+    }
+
+    @Test
+    public void guessesClassOfNewNetwork_untilResponseCounted() {
+        BandwidthEstimator estimator = new BandwidthEstimator(MIN_SAMPLE_BYTES);
+        estimator.setNetwork("WIFI/", BandwidthEstimator.CLASS_UNKNOWN);
+        estimator.addSample(500 * 1000, SECOND);
+
+        estimator.setNetwork("MOBILE/EDGE", BandwidthEstimator.CLASS_POOR);
+        assertEquals(BandwidthEstimator.CLASS_POOR, estimator.getConnectionClass());
+        assertEquals(0, estimator.getBandwidth());
+
+        // The same network again keeps what was counted on it
+        estimator.addSample(40 * 1000, SECOND);
+        estimator.addSample(40 * 1000, SECOND);
+        estimator.setNetwork("MOBILE/EDGE", BandwidthEstimator.CLASS_POOR);
+        assertEquals(BandwidthEstimator.CLASS_MODERATE, estimator.getConnectionClass());
+    }
+
+    private static int classAfter(long bytesPerSecond) {
+        BandwidthEstimator estimator = new BandwidthEstimator(MIN_SAMPLE_BYTES);
+        estimator.addSample(bytesPerSecond, SECOND);
+        return estimator.getConnectionClass();
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.android.p6_newsappstage1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DeltaSync}, with a fake clock and a stub server that honours
+ * "order-by", "from-date", "page" and "page-size" the way the Guardian API does. The stub answers with a
+ * story per line instead of JSON, which would need the Android parser.
+ */
+public class DeltaSyncTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long HOUR = 60 * 60 * 1000;
+
+    /** Current time of the fake clock, 2018-04-15T12:00:00Z */
+    private static final long NOW = 1523793600000L;
+
+    private static final int PAGE_SIZE = 3;
+    private static final String KEY = QueryResultCache.keyFor("", "newest");
+
+    private HttpServer mServer;
+
+    /** Stories the server has, newest first */
+    private final List<NewsStory> mServerStories = new ArrayList<>();
+
+    /** Query parameters of every request the server received */
+    private final List<Map<String, String>> mRequests = new ArrayList<>();
+
+    private final Map<String, Long> mWatermarks = new HashMap<>();
+    private final Map<String, Set<String>> mWatermarkUrls = new HashMap<>();
+
+    private DeltaSync mDeltaSync;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                synchronized (mRequests) {
+                    mRequests.add(query);
+                }
+                byte[] body = searchPage(query).getBytes(UTF_8);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                exchange.close();
+            }
+        });
+        mServer.start();
+
+        DeltaSync.Watermarks watermarks = new DeltaSync.Watermarks() {
+            @Override
+            public long get(String key) {
+                Long watermark = mWatermarks.get(key);
+                return watermark == null ? PublicationDates.UNKNOWN : watermark;
+            }
+
+            @Override
+            public Set<String> getUrls(String key) {
+                Set<String> urls = mWatermarkUrls.get(key);
+                return urls == null ? Collections.<String>emptySet() : urls;
+            }
+
+            @Override
+            public void put(String key, long publicationTime, Set<String> urls) {
+                mWatermarks.put(key, publicationTime);
+                mWatermarkUrls.put(key, urls);
+            }
+        };
+        mDeltaSync = new DeltaSync(new StubSource(), watermarks, PAGE_SIZE) {
+            @Override
+            protected long currentTimeMillis() {
+                return NOW;
+            }
+        };
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void firstSync_onlyGoesBackInitialWindow() {
+        addServerStory("old", NOW - 2 * DeltaSync.INITIAL_WINDOW);
+        addServerStory("recent", NOW - 2 * HOUR);
+        addServerStory("newest", NOW - HOUR);
+
+        List<NewsStory> newStories = sync();
+
+        assertEquals(Collections.singletonList(apiDate(NOW - DeltaSync.INITIAL_WINDOW)),
+                requestedFromDates());
+        assertEquals(listOf("newest", "recent"), titles(newStories));
+        assertEquals(NOW - HOUR, (long) mWatermarks.get(KEY));
+    }
+
+    @Test
+    public void nextSync_onlyFetchesNewerStories() {
+        addServerStory("seen", NOW - 2 * HOUR);
+        sync();
+        addServerStory("new", NOW - HOUR);
+        mRequests.clear();
+
+        List<NewsStory> newStories = sync();
+
+        assertEquals(Collections.singletonList(apiDate(NOW - 2 * HOUR)), requestedFromDates());
+        assertEquals(listOf("new"), titles(newStories));
+        assertEquals(NOW - HOUR, (long) mWatermarks.get(KEY));
+    }
+
+    @Test
+    public void unchangedFeed_costsOneRequest() {
+        addServerStory("seen", NOW - 2 * HOUR);
+        sync();
+        mRequests.clear();
+
+        List<NewsStory> newStories = sync();
+
+        assertTrue(newStories.isEmpty());
+        assertEquals(1, mRequests.size());
+        assertEquals(NOW - 2 * HOUR, (long) mWatermarks.get(KEY));
+    }
+
+    @Test
+    public void manyNewStories_areReadPageByPage() {
+        addServerStory("seen", NOW - 10 * HOUR);
+        sync();
+        for (int i = 7; i >= 1; i--) {
+            addServerStory("new " + i, NOW - i * HOUR);
+        }
+        mRequests.clear();
+
+        List<NewsStory> newStories = sync();
+
+        assertEquals(7, newStories.size());
+        assertEquals(3, mRequests.size());
+        assertEquals(NOW - HOUR, (long) mWatermarks.get(KEY));
+    }
+
+    @Test
+    public void storyPublishedInSameSecondAsWatermark_isNotSkipped() {
+        addServerStory("seen", NOW - HOUR);
+        sync();
+        addServerStory("same second", NOW - HOUR);
+
+        List<NewsStory> newStories = sync();
+
+        assertEquals(listOf("same second"), titles(newStories));
+        assertEquals(NOW - HOUR, (long) mWatermarks.get(KEY));
+        assertEquals(2, mWatermarkUrls.get(KEY).size());
+        assertTrue(sync().isEmpty());
+    }
+
+    @Test
+    public void syncStoppedAtMaxPages_isCarriedOnByNextSync() {
+        addServerStory("seen", NOW - 20 * HOUR);
+        sync();
+        int newCount = DeltaSync.MAX_PAGES * PAGE_SIZE + 1;
+        for (int i = newCount; i >= 1; i--) {
+            addServerStory("new " + i, NOW - i * HOUR);
+        }
+
+        List<NewsStory> newStories = sync();
+
+        // The oldest new stories are read first, after the story seen at the mark
+        assertEquals(DeltaSync.MAX_PAGES * PAGE_SIZE - 1, newStories.size());
+        assertEquals("new " + newCount, newStories.get(0).getTitle());
+        assertEquals(NOW - 3 * HOUR, (long) mWatermarks.get(KEY));
+        assertEquals(listOf("new 2", "new 1"), titles(sync()));
+        assertEquals(NOW - HOUR, (long) mWatermarks.get(KEY));
+    }
+
+    @Test
+    public void failedSync_keepsWatermark() {
+        addServerStory("seen", NOW - 2 * HOUR);
+        sync();
+        mServer.stop(0);
+
+        assertNull(sync());
+        assertEquals(NOW - 2 * HOUR, (long) mWatermarks.get(KEY));
+    }
+
+    private List<NewsStory> sync() {
+        return mDeltaSync.sync(KEY, url("newest"), url("oldest"), new CancellableRequest());
+    }
+
+    private String url(String orderBy) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/search?order-by=" + orderBy + "&page-size=" + PAGE_SIZE;
+    }
+
+    private void addServerStory(String title, long publicationTime) {
+        synchronized (mServerStories) {
+            mServerStories.add(new NewsStory(title, "Section", publicationTime,
+                    "https://www.theguardian.com/" + title.replace(' ', '-'), "Contributor"));
+            Collections.sort(mServerStories, new Comparator<NewsStory>() {
+                @Override
+                public int compare(NewsStory first, NewsStory second) {
+                    return Long.compare(second.getPublicationTime(), first.getPublicationTime());
+                }
+            });
+        }
+    }
+
+    /**
+     * Return the stories of the requested page published from the requested date on, in the
+     * requested order, a line of publication time, URL and title each.
+     */
+    private String searchPage(Map<String, String> query) {
+        long from = Long.MIN_VALUE;
+        if (query.containsKey("from-date")) {
+            from = parseApiDate(query.get("from-date"));
+        }
+        int page = Integer.parseInt(query.get("page"));
+        int pageSize = Integer.parseInt(query.get("page-size"));
+
+        List<NewsStory> matching = new ArrayList<>();
+        synchronized (mServerStories) {
+            for (NewsStory newsStory : mServerStories) {
+                if (newsStory.getPublicationTime() >= from) {
+                    matching.add(newsStory);
+                }
+            }
+        }
+        if ("oldest".equals(query.get("order-by"))) {
+            Collections.reverse(matching);
+        }
+        StringBuilder body = new StringBuilder();
+        for (int i = (page - 1) * pageSize; i < matching.size() && i < page * pageSize; i++) {
+            NewsStory newsStory = matching.get(i);
+            body.append(newsStory.getPublicationTime()).append('\t').append(newsStory.getUrl())
+                    .append('\t').append(newsStory.getTitle()).append('\n');
+        }
+        return body.toString();
+    }
+
+    private List<String> requestedFromDates() {
+        List<String> fromDates = new ArrayList<>();
+        synchronized (mRequests) {
+            for (Map<String, String> query : mRequests) {
+                fromDates.add(query.get("from-date"));
+            }
+        }
+        return fromDates;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            query.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+        }
+        return query;
+    }
+
+    private static String apiDate(long time) {
+        return PublicationDates.toApiDate(time);
+    }
+
+    private static long parseApiDate(String date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(date).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(date, e);
+        }
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    private static List<String> titles(List<NewsStory> newsStories) {
+        List<String> titles = new ArrayList<>();
+        for (NewsStory newsStory : newsStories) {
+            titles.add(newsStory.getTitle());
+        }
+        return titles;
+    }
+
+    /**
+     * Fetches a page from the stub server through the app's {@link HttpTransport}.
+     */
+    private static class StubSource implements MultiQueryFetcher.Source {
+        private final HttpTransport mTransport = new HttpTransport(1000, 1000);
+
+        @Override
+        public List<NewsStory> fetch(String url, CancellableRequest cancellation) {
+            HttpTransport.Call call = null;
+            try {
+                call = mTransport.newCall(new URL(url));
+                cancellation.setConnection(call.getConnection());
+                if (call.execute() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+                List<NewsStory> newsStories = new ArrayList<>();
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(call.getBody(), UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    newsStories.add(new NewsStory(fields[2], "Section",
+                            Long.parseLong(fields[0]), fields[1], "Contributor"));
+                }
+                return newsStories;
+            } catch (IOException e) {
+                return null;
+            } finally {
+                if (call != null) {
+                    call.close();
+                }
+            }
+        }
+    }
+}
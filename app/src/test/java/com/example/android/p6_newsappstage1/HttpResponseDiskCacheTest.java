@@ -0,0 +1,218 @@
+package com.example.android.p6_newsappstage1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HttpResponseDiskCache}, run against a stub HTTP server that honours
+ * "If-None-Match" the way the Guardian API does.
+ */
+public class HttpResponseDiskCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BODY = "{\"response\":{\"results\":[]}}";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private int mRequestCount;
+    private int mNotModifiedCount;
+    private String mETag = "\"v1\"";
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (HttpResponseDiskCacheTest.this) {
+                    mRequestCount++;
+                }
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                if (mETag.equals(ifNoneMatch)) {
+                    synchronized (HttpResponseDiskCacheTest.this) {
+                        mNotModifiedCount++;
+                    }
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                } else {
+                    byte[] body = (BODY + exchange.getRequestURI()).getBytes(UTF_8);
+                    exchange.getResponseHeaders().set("ETag", mETag);
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void miss_storesBody() throws IOException {
+        HttpResponseDiskCache cache = newCache(1024 * 1024);
+
+        String body = fetch(cache, "/search?page=1");
+
+        assertEquals(BODY + "/search?page=1", body);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, mNotModifiedCount);
+        assertNotNull(cache.get(url("/search?page=1")));
+    }
+
+    @Test
+    public void notModified_reusesCachedBodyAndStories() throws IOException {
+        HttpResponseDiskCache cache = newCache(1024 * 1024);
+        fetch(cache, "/search");
+        List<NewsStory> newsStories = Collections.emptyList();
+        cache.get(url("/search")).setNewsStories(newsStories);
+
+        String body = fetch(cache, "/search");
+
+        assertEquals(BODY + "/search", body);
+        assertEquals(2, mRequestCount);
+        assertEquals(1, mNotModifiedCount);
+        assertSame(newsStories, cache.get(url("/search")).getNewsStories());
+    }
+
+    @Test
+    public void changedResource_replacesBody() throws IOException {
+        HttpResponseDiskCache cache = newCache(1024 * 1024);
+        fetch(cache, "/search");
+        long size = cache.size();
+
+        mETag = "\"v2\"";
+        fetch(cache, "/search");
+
+        assertEquals(0, mNotModifiedCount);
+        assertEquals("\"v2\"", cache.get(url("/search")).getETag());
+        assertEquals(size, cache.size());
+    }
+
+    @Test
+    public void hit_survivesNewCacheInstance() throws IOException {
+        fetch(newCache(1024 * 1024), "/search");
+
+        HttpResponseDiskCache reopened = newCache(1024 * 1024);
+        String body = fetch(reopened, "/search");
+
+        assertEquals(BODY + "/search", body);
+        assertEquals(1, reopened.getHitCount());
+        assertEquals(1, mNotModifiedCount);
+    }
+
+    @Test
+    public void overSize_evictsLeastRecentlyUsed() throws IOException {
+        HttpResponseDiskCache cache = newCache(1024 * 1024);
+        fetch(cache, "/a");
+        long entrySize = cache.size();
+        cache = newCache(entrySize * 2 + entrySize / 2);
+
+        fetch(cache, "/a");
+        fetch(cache, "/b");
+        // Use "/a" again so "/b" becomes the least recently used entry
+        fetch(cache, "/a");
+        fetch(cache, "/c");
+
+        assertNotNull(cache.get(url("/a")));
+        assertNull(cache.get(url("/b")));
+        assertNotNull(cache.get(url("/c")));
+        assertTrue(cache.size() <= entrySize * 2 + entrySize / 2);
+    }
+
+    @Test
+    public void abandonedEditor_leavesNoEntry() throws IOException {
+        HttpResponseDiskCache cache = newCache(1024 * 1024);
+        HttpURLConnection urlConnection = open("/search");
+
+        HttpResponseDiskCache.Editor editor = cache.edit(
+                url("/search"), urlConnection, urlConnection.getInputStream());
+        assertTrue(editor.read() != -1);
+        editor.close();
+
+        assertNull(cache.get(url("/search")));
+        assertEquals(0, cache.size());
+    }
+
+    private HttpResponseDiskCache newCache(long maxSize) {
+        return new HttpResponseDiskCache(mTemporaryFolder.getRoot(), maxSize);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url(path)).openConnection();
+        urlConnection.setUseCaches(false);
+        return urlConnection;
+    }
+
+    /**
+     * Fetch the given path the same way {@link QueryUtils} does, returning the body.
+     */
+    private String fetch(HttpResponseDiskCache cache, String path) throws IOException {
+        HttpResponseDiskCache.Entry cached = cache.get(url(path));
+        HttpURLConnection urlConnection = open(path);
+        if (cached != null) {
+            cached.addConditionalHeaders(urlConnection);
+        }
+        try {
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                assertNotNull(cached);
+                return readFully(cached.openBody());
+            }
+            assertEquals(HttpURLConnection.HTTP_OK, urlConnection.getResponseCode());
+            HttpResponseDiskCache.Editor editor =
+                    cache.edit(url(path), urlConnection, urlConnection.getInputStream());
+            // Leave most of the body for commit(), like the parser leaving trailing bytes unread
+            assertTrue(editor.read() != -1);
+            HttpResponseDiskCache.Entry entry = editor.commit();
+            editor.close();
+            assertNotNull(entry);
+            return readFully(entry.openBody());
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link MultiQueryFetcher}, with queries that take a set time to return.
+ */
+public class MultiQueryFetcherTest {
+
+    private static final String URL = "https://www.theguardian.com/";
+
+    private ExecutorService mExecutor;
+
+    /** Stories and delay in milliseconds of each query */
+    private final Map<String, List<NewsStory>> mResults = new HashMap<>();
+    private final Map<String, Long> mDelays = new HashMap<>();
+
+    private final MultiQueryFetcher.Source mSource = new MultiQueryFetcher.Source() {
+        @Override
+        public List<NewsStory> fetch(String url, CancellableRequest cancellation) {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mDelays.get(url));
+            while (System.nanoTime() < end) {
+                if (cancellation.isCancelled()) {
+                    return null;
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return mResults.get(url);
+        }
+    };
+
+    @Before
+    public void createExecutor() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutDownExecutor() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void merge_interleavesByTimeAndDropsDuplicates() {
+        List<NewsStory> politics = Arrays.asList(story("a", 50), story("b", 30), story("c", 10));
+        List<NewsStory> football = Arrays.asList(story("d", 40), story("b", 30), story("e", 20),
+                story("f", PublicationDates.UNKNOWN));
+
+        List<NewsStory> merged = MultiQueryFetcher.merge(Arrays.asList(politics, football), true);
+
+        assertEquals(Arrays.asList("a", "d", "b", "e", "c", "f"), titles(merged));
+    }
+
+    @Test
+    public void merge_oldestFirst() {
+        List<NewsStory> politics = Arrays.asList(story("a", 10), story("b", 30));
+        List<NewsStory> football = Arrays.asList(story("c", 20), story("d", 40));
+
+        List<NewsStory> merged = MultiQueryFetcher.merge(Arrays.asList(politics, football), false);
+
+        assertEquals(Arrays.asList("a", "c", "b", "d"), titles(merged));
+    }
+
+    @Test
+    public void mergedPages_continueWhereThePreviousOneEnded() {
+        // Politics is much busier than football, and three stories share a time across pages
+        List<NewsStory> politics = Arrays.asList(story("a", 100), story("b", 99), story("c", 98),
+                story("d", 97), story("e", 97), story("f", 96), story("g", 95), story("h", 94));
+        List<NewsStory> football = Arrays.asList(story("i", 97), story("j", 50), story("k", 40));
+
+        List<String> shown = new ArrayList<>();
+        MultiQueryFetcher.PageCursor after = null;
+        List<NewsStory> page;
+        do {
+            page = MultiQueryFetcher.merge(Arrays.asList(apiPage(politics, after, 3),
+                    apiPage(football, after, 3)), true, after, 3);
+            shown.addAll(titles(page));
+            after = MultiQueryFetcher.PageCursor.after(page, after);
+        } while (page.size() == 3);
+
+        assertEquals(titles(MultiQueryFetcher.merge(Arrays.asList(politics, football), true)),
+                shown);
+    }
+
+    @Test
+    public void mergedPage_endsWhereAFullQueryRunsOut() {
+        // The politics query may have more stories older than its last one
+        List<NewsStory> politics = Arrays.asList(story("a", 100), story("b", 20));
+        List<NewsStory> football = Arrays.asList(story("c", 50), story("d", 10));
+
+        List<NewsStory> page = MultiQueryFetcher.merge(Arrays.asList(politics, football), true,
+                null, 2);
+
+        assertEquals(Arrays.asList("a", "c"), titles(page));
+    }
+
+    @Test
+    public void fetch_takesAboutAsLongAsSlowestQuery() {
+        addQuery("fast", 100, story("a", 30));
+        addQuery("medium", 200, story("b", 20));
+        addQuery("slow", 300, story("c", 10));
+        final List<Long> partialMillis = new ArrayList<>();
+        final List<List<String>> partialTitles = new ArrayList<>();
+        final long start = System.nanoTime();
+
+        List<NewsStory> merged = new MultiQueryFetcher(mExecutor, mSource).fetch(
+                Arrays.asList("slow", "medium", "fast"), true, new CancellableRequest(),
+                new MultiQueryFetcher.Listener() {
+                    @Override
+                    public void onPartialResult(List<NewsStory> newsStories, int queriesDone,
+                                                int queryCount) {
+                        partialMillis.add(elapsedMillis(start));
+                        partialTitles.add(titles(newsStories));
+                    }
+                });
+        long totalMillis = elapsedMillis(start);
+
+        assertEquals(Arrays.asList("a", "b", "c"), titles(merged));
+        assertTrue("took " + totalMillis + " ms, the queries add up to 600 ms",
+                totalMillis < 450);
+        assertEquals(Arrays.asList(Collections.singletonList("a"), Arrays.asList("a", "b")),
+                partialTitles);
+        assertTrue("first stories after " + partialMillis.get(0) + " ms",
+                partialMillis.get(0) < 200);
+    }
+
+    @Test
+    public void fetch_skipsFailedQueries() {
+        addQuery("working", 10, story("a", 30));
+        mDelays.put("failing", 10L);
+
+        List<NewsStory> merged = new MultiQueryFetcher(mExecutor, mSource).fetch(
+                Arrays.asList("working", "failing"), true, new CancellableRequest(), null);
+
+        assertEquals(Collections.singletonList("a"), titles(merged));
+    }
+
+    @Test
+    public void cancel_stopsEveryQuery() throws InterruptedException {
+        addQuery("first", 5000, story("a", 30));
+        addQuery("second", 5000, story("b", 20));
+        final CancellableRequest cancellation = new CancellableRequest();
+        final AtomicReference<List<NewsStory>> result =
+                new AtomicReference<List<NewsStory>>(Collections.<NewsStory>emptyList());
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                result.set(new MultiQueryFetcher(mExecutor, mSource).fetch(
+                        Arrays.asList("first", "second"), true, cancellation, null));
+            }
+        };
+        thread.start();
+        Thread.sleep(50);
+
+        cancellation.cancel();
+        thread.join(200);
+
+        assertFalse(thread.isAlive());
+        assertNull(result.get());
+    }
+
+    @Test
+    public void splitTopics_trimsAndDropsEmptyAndRepeatedTopics() {
+        assertEquals(Arrays.asList("politics", "world cup"),
+                MultiQueryFetcher.splitTopics(" politics,, world cup ,politics"));
+        assertEquals(Collections.<String>emptyList(), MultiQueryFetcher.splitTopics(" "));
+    }
+
+    private void addQuery(String url, long delay, NewsStory... newsStories) {
+        mResults.put(url, Arrays.asList(newsStories));
+        mDelays.put(url, delay);
+    }
+
+    /**
+     * Return what the API answers a query of the given topic asking for the given number of
+     * stories past the cursor: the newest ones published up to its time, which it includes.
+     */
+    private static List<NewsStory> apiPage(List<NewsStory> topic,
+                                           MultiQueryFetcher.PageCursor after, int pageSize) {
+        int count = after == null ? pageSize : pageSize + after.getUrlCount();
+        List<NewsStory> newsStories = new ArrayList<>();
+        for (NewsStory newsStory : topic) {
+            if (newsStories.size() < count && (after == null
+                    || newsStory.getPublicationTime() <= after.getPublicationTime())) {
+                newsStories.add(newsStory);
+            }
+        }
+        return newsStories;
+    }
+
+    private static NewsStory story(String title, long publicationTime) {
+        return new NewsStory(title, "Section", publicationTime, URL + title, "Contributor");
+    }
+
+    private static List<String> titles(List<NewsStory> newsStories) {
+        List<String> titles = new ArrayList<>();
+        for (NewsStory newsStory : newsStories) {
+            titles.add(newsStory.getTitle());
+        }
+        return titles;
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
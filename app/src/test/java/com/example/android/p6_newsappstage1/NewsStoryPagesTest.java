@@ -0,0 +1,88 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link NewsStoryPages}.
+ */
+public class NewsStoryPagesTest {
+
+    private static final int PAGE_SIZE = 3;
+
+    @Test
+    public void appendingBeyondMaximum_dropsFirstPage() {
+        NewsStoryPages pages = new NewsStoryPages(PAGE_SIZE, 2);
+
+        assertEquals(0, pages.put(1, page(1, PAGE_SIZE)));
+        assertEquals(0, pages.put(2, page(2, PAGE_SIZE)));
+        assertEquals(-PAGE_SIZE, pages.put(3, page(3, PAGE_SIZE)));
+
+        assertEquals(2, pages.getFirstPage());
+        assertEquals(3, pages.getLastPage());
+        assertEquals(2 * PAGE_SIZE, pages.getNewsStories().size());
+        assertEquals("2-0", pages.getNewsStories().get(0).getTitle());
+        assertTrue(pages.hasPrevious());
+    }
+
+    @Test
+    public void prependingBeyondMaximum_dropsLastPage() {
+        NewsStoryPages pages = new NewsStoryPages(PAGE_SIZE, 2);
+        pages.put(1, page(1, PAGE_SIZE));
+        pages.put(2, page(2, PAGE_SIZE));
+        pages.put(3, page(3, PAGE_SIZE));
+
+        assertEquals(PAGE_SIZE, pages.put(1, page(1, PAGE_SIZE)));
+
+        assertEquals(1, pages.getFirstPage());
+        assertEquals(2, pages.getLastPage());
+        assertFalse(pages.hasPrevious());
+        assertTrue(pages.hasNext());
+    }
+
+    @Test
+    public void shortPage_endsResults() {
+        NewsStoryPages pages = new NewsStoryPages(PAGE_SIZE, 2);
+        pages.put(1, page(1, PAGE_SIZE));
+
+        pages.put(2, page(2, 1));
+
+        assertFalse(pages.hasNext());
+    }
+
+    @Test
+    public void pageNotNextToWindow_isIgnored() {
+        NewsStoryPages pages = new NewsStoryPages(PAGE_SIZE, 2);
+        pages.put(1, page(1, PAGE_SIZE));
+
+        assertEquals(0, pages.put(3, page(3, PAGE_SIZE)));
+
+        assertEquals(1, pages.getLastPage());
+        assertEquals(PAGE_SIZE, pages.getNewsStories().size());
+    }
+
+    @Test
+    public void clearWithPageSize_endsResultsByNewPageSize() {
+        NewsStoryPages pages = new NewsStoryPages(PAGE_SIZE, 2);
+        pages.put(1, page(1, PAGE_SIZE));
+
+        pages.clear(PAGE_SIZE + 1);
+        pages.put(1, page(1, PAGE_SIZE));
+
+        assertEquals(PAGE_SIZE + 1, pages.getPageSize());
+        assertFalse(pages.hasNext());
+    }
+
+    private static List<NewsStory> page(int number, int size) {
+        List<NewsStory> newsStories = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            newsStories.add(new NewsStory(number + "-" + i, "Section", 1523781335000L,
+                    "https://www.theguardian.com/" + number + "/" + i, "Contributor"));
+        }
+        return newsStories;
+    }
+}
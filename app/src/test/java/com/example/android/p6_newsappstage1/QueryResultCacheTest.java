@@ -0,0 +1,74 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link QueryResultCache}.
+ */
+public class QueryResultCacheTest {
+
+    private static final List<NewsStory> NEWS_STORIES = Collections.singletonList(new NewsStory(
+            "Title", "Politics", 1523781335000L, "https://www.theguardian.com/a", "Name"));
+
+    private long mNow;
+
+    @Test
+    public void keyFor_ignoresCaseAndSurroundingSpaces() {
+        assertEquals(QueryResultCache.keyFor("Brexit", "newest"),
+                QueryResultCache.keyFor(" brexit ", "newest"));
+        assertNotEquals(QueryResultCache.keyFor("brexit", "newest"),
+                QueryResultCache.keyFor("brexit", "oldest"));
+    }
+
+    @Test
+    public void get_returnsResultUntilItExpires() {
+        QueryResultCache cache = newCache(1000, 1024 * 1024);
+        cache.put("key", NEWS_STORIES);
+
+        mNow += 1000;
+        assertSame(NEWS_STORIES, cache.get("key"));
+
+        mNow += 1;
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedOverBudget() {
+        long entrySize = QueryResultCache.estimateSize(NEWS_STORIES);
+        QueryResultCache cache = newCache(1000, entrySize * 2);
+        cache.put("a", NEWS_STORIES);
+        cache.put("b", NEWS_STORIES);
+        cache.get("a");
+
+        cache.put("c", NEWS_STORIES);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void trimToSize_releasesEntries() {
+        QueryResultCache cache = newCache(1000, 1024 * 1024);
+        cache.put("a", NEWS_STORIES);
+
+        cache.trimToSize(0);
+
+        assertNull(cache.get("a"));
+    }
+
+    private QueryResultCache newCache(long timeToLive, long maxSize) {
+        return new QueryResultCache(timeToLive, maxSize) {
+            @Override
+            protected long currentTimeMillis() {
+                return mNow;
+            }
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SyncPolicy}.
+ */
+public class SyncPolicyTest {
+
+    private static final long INTERVAL = 30 * 60 * 1000;
+    private static final double JITTER = 0.25;
+
+    private static final SyncPolicy.DeviceState WIFI =
+            new SyncPolicy.DeviceState(true, false, false, 80);
+    private static final SyncPolicy.DeviceState MOBILE =
+            new SyncPolicy.DeviceState(true, true, false, 80);
+
+    @Test
+    public void nextDelay_staysWithinJitter() {
+        SyncPolicy policy = new SyncPolicy(INTERVAL, JITTER, new Random(42));
+        long shortest = Long.MAX_VALUE;
+        long longest = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.nextDelay();
+            shortest = Math.min(shortest, delay);
+            longest = Math.max(longest, delay);
+        }
+
+        assertTrue(shortest >= INTERVAL * 3 / 4);
+        assertTrue(longest <= INTERVAL * 5 / 4);
+        // The delays are spread out, not all the same
+        assertTrue(longest - shortest > INTERVAL / 4);
+    }
+
+    @Test
+    public void nextDelay_followsRandom() {
+        assertEquals(INTERVAL * 3 / 4, policy(0.0).nextDelay());
+        assertEquals(INTERVAL, policy(0.5).nextDelay());
+        assertEquals(INTERVAL * 5 / 4, policy(1.0).nextDelay());
+    }
+
+    @Test
+    public void shouldSync_waitsForIntervalLessJitter() {
+        SyncPolicy policy = policy(0.5);
+
+        assertTrue(policy.shouldSync(WIFI, Long.MAX_VALUE));
+        assertTrue(policy.shouldSync(WIFI, INTERVAL * 3 / 4));
+        assertFalse(policy.shouldSync(WIFI, INTERVAL / 2));
+    }
+
+    @Test
+    public void shouldSync_stretchesIntervalOnMeteredNetwork() {
+        SyncPolicy policy = policy(0.5);
+        SyncPolicy.DeviceState mobileCharging = new SyncPolicy.DeviceState(true, true, true, 80);
+
+        assertFalse(policy.shouldSync(MOBILE, INTERVAL));
+        assertTrue(policy.shouldSync(MOBILE, INTERVAL * SyncPolicy.METERED_INTERVAL_FACTOR));
+        assertTrue(policy.shouldSync(mobileCharging, INTERVAL));
+    }
+
+    @Test
+    public void shouldSync_needsNetworkAndBattery() {
+        SyncPolicy policy = policy(0.5);
+        SyncPolicy.DeviceState offline = new SyncPolicy.DeviceState(false, false, true, 80);
+        SyncPolicy.DeviceState lowBattery = new SyncPolicy.DeviceState(true, false, false, 10);
+        SyncPolicy.DeviceState lowBatteryCharging =
+                new SyncPolicy.DeviceState(true, false, true, 10);
+
+        assertFalse(policy.shouldSync(offline, Long.MAX_VALUE));
+        assertFalse(policy.shouldSync(lowBattery, Long.MAX_VALUE));
+        assertTrue(policy.shouldSync(lowBatteryCharging, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldPrefetch_onlyOnUnmeteredNetwork() {
+        SyncPolicy.DeviceState offline = new SyncPolicy.DeviceState(false, false, true, 80);
+        SyncPolicy.DeviceState lowBattery = new SyncPolicy.DeviceState(true, false, false, 10);
+        SyncPolicy.DeviceState lowBatteryCharging =
+                new SyncPolicy.DeviceState(true, false, true, 10);
+
+        assertTrue(SyncPolicy.shouldPrefetch(WIFI));
+        assertFalse(SyncPolicy.shouldPrefetch(MOBILE));
+        assertFalse(SyncPolicy.shouldPrefetch(offline));
+        assertFalse(SyncPolicy.shouldPrefetch(lowBattery));
+        assertTrue(SyncPolicy.shouldPrefetch(lowBatteryCharging));
+    }
+
+    /** Return a policy whose random draws always return the given value. */
+    private static SyncPolicy policy(final double random) {
+        return new SyncPolicy(INTERVAL, JITTER, new Random() {
+            @Override
+            public double nextDouble() {
+                return random;
+            }
+        });
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.p6_newsappstage1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ThumbnailFetcher}, run against a stub image server.
+ */
+public class ThumbnailFetcherTest {
+
+    /** Size of the stub image, large enough to take several reads */
+    private static final int IMAGE_SIZE = 40 * 1024;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private int mRequestCount;
+    private final byte[] mImage = new byte[IMAGE_SIZE];
+
+    /** Released to let the slow image finish, which it waits for half way */
+    private final CountDownLatch mSlowImageGate = new CountDownLatch(1);
+
+    @Before
+    public void startServer() throws IOException {
+        for (int i = 0; i < mImage.length; i++) {
+            mImage[i] = (byte) (i * 31);
+        }
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (ThumbnailFetcherTest.this) {
+                    mRequestCount++;
+                }
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/missing")) {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, mImage.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(mImage, 0, mImage.length / 2);
+                    out.flush();
+                    if (path.startsWith("/slow")) {
+                        mSlowImageGate.await(5, TimeUnit.SECONDS);
+                    }
+                    out.write(mImage, mImage.length / 2, mImage.length - mImage.length / 2);
+                    out.close();
+                } catch (IOException | InterruptedException e) {
+                    // The client went away
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mSlowImageGate.countDown();
+        mServer.stop(0);
+    }
+
+    @Test
+    public void fetch_downloadsImageOnce() throws IOException {
+        ThumbnailFetcher fetcher = newFetcher();
+
+        byte[] first = fetcher.fetch(url("/image.jpg"), new CancellableRequest());
+        byte[] second = fetcher.fetch(url("/image.jpg"), new CancellableRequest());
+
+        assertArrayEquals(mImage, first);
+        assertArrayEquals(mImage, second);
+        assertEquals(1, requestCount());
+    }
+
+    @Test
+    public void fetch_withoutDiskCache_downloadsEveryTime() {
+        ThumbnailFetcher fetcher = new ThumbnailFetcher(new HttpTransport(1000, 1000), null);
+
+        assertArrayEquals(mImage, fetcher.fetch(url("/image.jpg"), new CancellableRequest()));
+        assertArrayEquals(mImage, fetcher.fetch(url("/image.jpg"), new CancellableRequest()));
+        assertEquals(2, requestCount());
+    }
+
+    @Test
+    public void fetch_returnsNullForErrorResponse() throws IOException {
+        assertNull(newFetcher().fetch(url("/missing.jpg"), new CancellableRequest()));
+    }
+
+    @Test
+    public void cancelledFetch_returnsNullAndCachesNothing() throws Exception {
+        final ThumbnailFetcher fetcher = newFetcher();
+        final CancellableRequest cancellation = new CancellableRequest();
+        final byte[][] result = {mImage};
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = fetcher.fetch(url("/slow.jpg"), cancellation);
+            }
+        });
+        thread.start();
+
+        // Wait for the request to be made, then give up on it half way through the image
+        while (requestCount() == 0) {
+            Thread.sleep(5);
+        }
+        cancellation.cancel();
+        thread.join(5000);
+        mSlowImageGate.countDown();
+
+        assertNull(result[0]);
+        byte[] again = fetcher.fetch(url("/slow.jpg"), new CancellableRequest());
+        assertTrue(Arrays.equals(mImage, again));
+        assertEquals(2, requestCount());
+    }
+
+    private ThumbnailFetcher newFetcher() throws IOException {
+        return new ThumbnailFetcher(new HttpTransport(1000, 1000),
+                new HttpResponseDiskCache(mTemporaryFolder.newFolder(), 1024 * 1024));
+    }
+
+    private synchronized int requestCount() {
+        return mRequestCount;
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+}
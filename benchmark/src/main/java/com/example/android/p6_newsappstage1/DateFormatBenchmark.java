@@ -0,0 +1,86 @@
+package com.example.android.p6_newsappstage1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the date handling of {@code NewsStoryAdapter.getView} for every row of a list, as when
+ * the list is first shown or scrolled through once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateFormatBenchmark {
+
+    /** Number of rows bound */
+    @Param({"10", "50", "200"})
+    public int results;
+
+    private long[] mPublicationTimes;
+    private String[] mWebPublicationDates;
+
+    // The date formats the adapter used before PublicationDates, one parse and format per row
+    private SimpleDateFormat mInputDateFormat;
+    private SimpleDateFormat mOutputDateFormat;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<NewsStory> newsStories = Payloads.loadStories(results);
+        mPublicationTimes = new long[results];
+        mWebPublicationDates = new String[results];
+        for (int i = 0; i < results; i++) {
+            mPublicationTimes[i] = newsStories.get(i).getPublicationTime();
+            mWebPublicationDates[i] = PublicationDates.toApiDate(mPublicationTimes[i]);
+        }
+        mInputDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        mInputDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        mOutputDateFormat = new SimpleDateFormat("yyyy-MM-dd  HH:mm", Locale.US);
+    }
+
+    /** What the adapter does now: format the time parsed with the response, cached per minute. */
+    @Benchmark
+    public void bindFormatted(Blackhole blackhole) {
+        for (long publicationTime : mPublicationTimes) {
+            blackhole.consume(PublicationDates.format(publicationTime));
+        }
+    }
+
+    /** What the adapter did before: parse the date String and format it on every bind. */
+    @Benchmark
+    public void bindParsedAndFormatted(Blackhole blackhole) throws ParseException {
+        for (String webPublicationDate : mWebPublicationDates) {
+            Date date = mInputDateFormat.parse(webPublicationDate);
+            blackhole.consume(mOutputDateFormat.format(date));
+        }
+    }
+
+    /** Parsing the dates of a response, which {@link NewsStoryParser} does once per story. */
+    @Benchmark
+    public void parseDates(Blackhole blackhole) {
+        for (String webPublicationDate : mWebPublicationDates) {
+            blackhole.consume(PublicationDates.parse(webPublicationDate));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.p6_newsappstage1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the {@link NewsStoryIndex} the search box filters with, adding the loaded
+ * stories to it again, and the type-ahead lookups, which have to fit well within a frame. The
+ * memory the index takes is the allocation per operation of {@link #build()} reported by the GC
+ * profiler, as the index keeps nearly everything it allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+
+    /** Number of stories indexed */
+    @Param({"1000", "10000"})
+    public int stories;
+
+    private List<NewsStory> mNewsStories;
+    private NewsStoryIndex mIndex;
+
+    /** A word typed in full, the first letters of one, and two words */
+    private String mWord;
+    private String mPrefix;
+    private String mTwoWords;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The recorded stories, repeated under other URLs to reach the number wanted
+        List<NewsStory> recorded = Payloads.loadStories(200);
+        mNewsStories = new ArrayList<>(stories);
+        for (int i = 0; i < stories; i++) {
+            mNewsStories.add(copy(recorded.get(i % recorded.size()), i));
+        }
+        mIndex = build();
+
+        List<String> terms = NewsStoryIndex.tokenize(recorded.get(0).getTitle());
+        mWord = longest(terms);
+        mPrefix = mWord.substring(0, Math.min(3, mWord.length()));
+        mTwoWords = terms.get(0) + " " + mPrefix;
+    }
+
+    /** Index every story from scratch. */
+    @Benchmark
+    public NewsStoryIndex build() {
+        NewsStoryIndex index = new NewsStoryIndex();
+        index.addAll(mNewsStories);
+        return index;
+    }
+
+    /**
+     * Add the stories already indexed again, as each refresh of the loaded pages does, which
+     * only looks up their URLs.
+     */
+    @Benchmark
+    public NewsStoryIndex addAgain() {
+        mIndex.addAll(mNewsStories);
+        return mIndex;
+    }
+
+    /** Look up a whole word, as typed. */
+    @Benchmark
+    public List<NewsStory> searchWord() {
+        return mIndex.search(mWord, Integer.MAX_VALUE);
+    }
+
+    /** Look up the first letters of a word, which match many terms. */
+    @Benchmark
+    public List<NewsStory> searchPrefix() {
+        return mIndex.search(mPrefix, Integer.MAX_VALUE);
+    }
+
+    /** Look up two words, which every match needs both of. */
+    @Benchmark
+    public List<NewsStory> searchTwoWords() {
+        return mIndex.search(mTwoWords, Integer.MAX_VALUE);
+    }
+
+    private static NewsStory copy(NewsStory newsStory, int i) {
+        return new NewsStory(newsStory.getTitle(), newsStory.getSectionName(),
+                newsStory.getPublicationTime(), newsStory.getUrl() + "?copy=" + i,
+                newsStory.getContributorName(), newsStory.getThumbnailUrl());
+    }
+
+    private static String longest(List<String> terms) {
+        String longest = "";
+        for (String term : terms) {
+            if (term.length() > longest.length()) {
+                longest = term;
+            }
+        }
+        return longest;
+    }
+}
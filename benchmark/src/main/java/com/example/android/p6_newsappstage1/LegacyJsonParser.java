@@ -0,0 +1,106 @@
+package com.example.android.p6_newsappstage1;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The way {@code QueryUtils} read responses before {@link NewsStoryParser}: the whole body into a
+ * String with {@code readFromStream}, then into a DOM with {@code extractFeatureFromJson}. It is
+ * kept here, as it was, as the baseline the streaming parser is measured against.
+ *
+ * The only change is that the stories are built with their publication time, which the
+ * {@link NewsStory} constructor takes now, parsed the way {@link NewsStoryParser} does.
+ */
+final class LegacyJsonParser {
+
+    private static final String RESPONSE = "response";
+    private static final String RESULTS = "results";
+    private static final String WEB_TITLE = "webTitle";
+    private static final String SECTION_NAME = "sectionName";
+    private static final String WEB_PUBLICATION_DATE = "webPublicationDate";
+    private static final String WEB_URL = "webUrl";
+
+    /**
+     * Create a private constructor because no one should ever create a {@link LegacyJsonParser}
+     * object.
+     */
+    private LegacyJsonParser() {
+    }
+
+    /**
+     * Convert the {@link InputStream} into a String which contains the
+     * whole JSON response from the server.
+     */
+    static String readFromStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        if (inputStream != null) {
+            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+            BufferedReader reader = new BufferedReader(inputStreamReader);
+            String line = reader.readLine();
+            while (line != null) {
+                output.append(line);
+                line = reader.readLine();
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Return a list of {@link NewsStory} objects that has been built up from
+     * parsing the given JSON response.
+     */
+    static List<NewsStory> extractFeatureFromJson(String newsStoryJSON) {
+
+        // If the JSON string is empty or null, then return early.
+        if (newsStoryJSON == null || newsStoryJSON.isEmpty()) {
+            return null;
+        }
+
+        // Create an empty ArrayList that we can start adding newsStories to
+        List<NewsStory> newsStories = new ArrayList<>();
+
+        try {
+
+            // Create a JSONObject from the JSON response string
+            JSONObject baseJsonResponse = new JSONObject(newsStoryJSON);
+
+            JSONObject newsStoryArray = baseJsonResponse.getJSONObject(RESPONSE);
+            JSONArray resultsArray = newsStoryArray.getJSONArray(RESULTS);
+
+            //For each news story in the newsStoryArray, create a {@link NewsStory} object
+            for(int i = 0; i < resultsArray.length(); i++){
+                JSONObject resultObj = resultsArray.getJSONObject(i);
+
+                String title = resultObj.getString(WEB_TITLE);
+                String sectionName = resultObj.getString(SECTION_NAME);
+                String webPublicationDate = resultObj.getString(WEB_PUBLICATION_DATE);
+                // Extract the value for the key called "webUrl"
+                String url = resultObj.getString(WEB_URL);
+
+                JSONArray tagsArray = resultObj.getJSONArray("tags");
+                JSONObject firstTagObj = tagsArray.getJSONObject(0);
+
+                String contributorName = firstTagObj.getString(WEB_TITLE);
+
+                NewsStory newsStory = new NewsStory(title, sectionName,
+                        PublicationDates.parse(webPublicationDate), url, contributorName);
+                newsStories.add(newsStory);
+            }
+
+        } catch (JSONException e) {
+            throw new IllegalStateException("Problem parsing the news story JSON results", e);
+        }
+
+        // Return the list of newsStories
+        return newsStories;
+    }
+}
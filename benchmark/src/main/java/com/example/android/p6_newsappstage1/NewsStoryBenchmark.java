@@ -0,0 +1,98 @@
+package com.example.android.p6_newsappstage1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the stories of a response, as objects and in a {@link NewsStoryStore}, and
+ * reading them back the way the adapter does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewsStoryBenchmark {
+
+    /** Number of stories built */
+    @Param({"10", "50", "200"})
+    public int results;
+
+    private String[] mTitles;
+    private String[] mSectionNames;
+    private long[] mPublicationTimes;
+    private String[] mUrls;
+    private String[] mContributorNames;
+
+    private NewsStoryStore mStore;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<NewsStory> newsStories = Payloads.loadStories(results);
+        mTitles = new String[results];
+        mSectionNames = new String[results];
+        mPublicationTimes = new long[results];
+        mUrls = new String[results];
+        mContributorNames = new String[results];
+        for (int i = 0; i < results; i++) {
+            NewsStory newsStory = newsStories.get(i);
+            // Copy the Strings, as the parser would read new ones from every response
+            mTitles[i] = new String(newsStory.getTitle());
+            mSectionNames[i] = new String(newsStory.getSectionName());
+            mPublicationTimes[i] = newsStory.getPublicationTime();
+            mUrls[i] = new String(newsStory.getUrl());
+            mContributorNames[i] = new String(newsStory.getContributorName());
+        }
+        mStore = newStore();
+    }
+
+    /** Build a {@link NewsStory} object per story, as the old parser did. */
+    @Benchmark
+    public List<NewsStory> construct() {
+        List<NewsStory> newsStories = new ArrayList<>(results);
+        for (int i = 0; i < results; i++) {
+            newsStories.add(new NewsStory(mTitles[i], mSectionNames[i], mPublicationTimes[i],
+                    mUrls[i], mContributorNames[i]));
+        }
+        return newsStories;
+    }
+
+    /** Add every story to a {@link NewsStoryStore}, as {@link NewsStoryParser} does. */
+    @Benchmark
+    public NewsStoryStore addToStore() {
+        return newStore();
+    }
+
+    /** Read every story back out of a {@link NewsStoryStore}, as the adapter does on bind. */
+    @Benchmark
+    public void getFromStore(Blackhole blackhole) {
+        for (int i = 0; i < results; i++) {
+            blackhole.consume(mStore.get(i));
+        }
+    }
+
+    private NewsStoryStore newStore() {
+        NewsStoryStore store = new NewsStoryStore(results);
+        for (int i = 0; i < results; i++) {
+            store.add(mTitles[i], mSectionNames[i], mPublicationTimes[i], mUrls[i],
+                    mContributorNames[i]);
+        }
+        return store;
+    }
+}
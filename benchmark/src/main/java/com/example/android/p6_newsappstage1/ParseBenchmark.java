@@ -0,0 +1,69 @@
+package com.example.android.p6_newsappstage1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a search response into stories, the work a loader does on every response
+ * besides waiting for the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    /** Number of results of the recorded response */
+    @Param({"10", "50", "200"})
+    public int results;
+
+    private byte[] mPayload;
+    private String mJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        mPayload = Payloads.load(results);
+        mJson = LegacyJsonParser.readFromStream(new ByteArrayInputStream(mPayload));
+    }
+
+    /** What the app does now: stream the response into a {@link NewsStoryStore}. */
+    @Benchmark
+    public List<NewsStory> streamingParse() throws IOException {
+        return NewsStoryParser.parse(new ByteArrayInputStream(mPayload), results);
+    }
+
+    /** The old first step: read the whole response into a String. */
+    @Benchmark
+    public String legacyReadFromStream() throws IOException {
+        return LegacyJsonParser.readFromStream(new ByteArrayInputStream(mPayload));
+    }
+
+    /** The old second step: build a DOM of the String and pick the stories out of it. */
+    @Benchmark
+    public List<NewsStory> legacyExtractFeatureFromJson() {
+        return LegacyJsonParser.extractFeatureFromJson(mJson);
+    }
+
+    /** Both old steps, comparable to {@link #streamingParse()}. */
+    @Benchmark
+    public List<NewsStory> legacyParse() throws IOException {
+        return LegacyJsonParser.extractFeatureFromJson(
+                LegacyJsonParser.readFromStream(new ByteArrayInputStream(mPayload)));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Recorded responses of the Guardian search API the benchmarks run against.
+ */
+final class Payloads {
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Payloads} object.
+     */
+    private Payloads() {
+    }
+
+    /**
+     * Return the bytes of the recorded response with the given number of results, 10, 50 or 200.
+     */
+    static byte[] load(int results) throws IOException {
+        String name = "/payloads/guardian_search_" + results + ".json";
+        InputStream inputStream = Payloads.class.getResourceAsStream(name);
+        if (inputStream == null) {
+            throw new IOException("No recorded response " + name);
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Return the stories of the recorded response with the given number of results.
+     */
+    static List<NewsStory> loadStories(int results) throws IOException {
+        List<NewsStory> newsStories = NewsStoryParser.parse(
+                new ByteArrayInputStream(load(results)), results);
+        if (newsStories.size() != results) {
+            throw new IOException("Expected " + results + " stories, parsed "
+                    + newsStories.size());
+        }
+        return newsStories;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets another thread cancel an HTTP request while it is being made and its response parsed.
+ *
+ * Cancelling disconnects the connection, so a read blocked on the network fails straight away
+ * instead of waiting for the read timeout, and every stream wrapped by {@link #wrap(InputStream)}
+ * fails on its next read, which stops the parser.
+ */
+public class CancellableRequest {
+
+    private volatile boolean mCancelled;
+
+    /** The connection of the request, or null if it hasn't been opened yet */
+    private HttpURLConnection mConnection;
+
+    /** Requests cancelled along with this one, or null if there are none */
+    private Set<CancellableRequest> mChildren;
+
+    /**
+     * Cancel the request, disconnecting its connection if it has one.
+     * This may be called from any thread, any number of times.
+     */
+    public void cancel() {
+        HttpURLConnection connection;
+        Set<CancellableRequest> children;
+        synchronized (this) {
+            mCancelled = true;
+            // Wake a pause between attempts
+            notifyAll();
+            connection = mConnection;
+            children = mChildren;
+            mChildren = null;
+        }
+        if (connection != null) {
+            connection.disconnect();
+        }
+        if (children != null) {
+            for (CancellableRequest child : children) {
+                child.cancel();
+            }
+        }
+    }
+
+    /**
+     * Return a new request that is cancelled when this one is, for one of several requests made
+     * on behalf of this one. It is cancelled right away if this one already is.
+     */
+    public CancellableRequest newChild() {
+        return addChild(new CancellableRequest());
+    }
+
+    /**
+     * Have the given request cancelled along with this one, and return it. It is cancelled right
+     * away if this one already is.
+     */
+    public <T extends CancellableRequest> T addChild(T child) {
+        synchronized (this) {
+            if (!mCancelled) {
+                if (mChildren == null) {
+                    mChildren = new HashSet<>();
+                }
+                mChildren.add(child);
+                return child;
+            }
+        }
+        child.cancel();
+        return child;
+    }
+
+    /**
+     * Stop cancelling the given request along with this one, once it is done. A request that
+     * lives on, such as the one of a whole query, would otherwise keep every request ever made
+     * on its behalf.
+     */
+    public void removeChild(CancellableRequest child) {
+        synchronized (this) {
+            if (mChildren != null) {
+                mChildren.remove(child);
+            }
+        }
+    }
+
+    /** Return the number of requests cancelled along with this one. */
+    synchronized int getChildCount() {
+        return mChildren == null ? 0 : mChildren.size();
+    }
+
+    /** Return true if {@link #cancel()} has been called. */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Set the connection to disconnect on cancellation. It is disconnected right away if the
+     * request has already been cancelled.
+     */
+    public void setConnection(HttpURLConnection connection) {
+        synchronized (this) {
+            mConnection = connection;
+            if (!mCancelled) {
+                return;
+            }
+        }
+        connection.disconnect();
+    }
+
+    /**
+     * Throw an {@link InterruptedIOException} if the request has been cancelled.
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (mCancelled) {
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    /**
+     * Wait the given time in milliseconds, such as between two attempts at the request, failing
+     * with an {@link InterruptedIOException} as soon as the request is cancelled.
+     */
+    public synchronized void pause(long millis) throws InterruptedIOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = millis;
+        while (!mCancelled && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Pause interrupted");
+            }
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+        throwIfCancelled();
+    }
+
+    /**
+     * Return a stream reading the given one until the request is cancelled, then failing with an
+     * {@link InterruptedIOException}.
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                throwIfCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                throwIfCancelled();
+                return super.read(buffer, offset, count);
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                throwIfCancelled();
+                return super.skip(count);
+            }
+        };
+    }
+}
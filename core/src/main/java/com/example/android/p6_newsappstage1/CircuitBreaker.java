@@ -0,0 +1,111 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.IOException;
+
+/**
+ * Stops requests to a server that keeps failing, so they fail straight away instead of each
+ * waiting out its timeouts, and the server isn't kept busy while it recovers.
+ *
+ * The breaker opens after a number of failures in a row. While it is open requests are refused,
+ * until the open time is up and a single trial request is let through: if it succeeds the breaker
+ * closes again, if it fails the breaker stays open for another open time.
+ */
+public class CircuitBreaker {
+
+    /** Requests are made as usual */
+    public static final int STATE_CLOSED = 0;
+
+    /** Requests are refused, the server is failing */
+    public static final int STATE_OPEN = 1;
+
+    /** A single trial request is let through, to find out if the server has recovered */
+    public static final int STATE_HALF_OPEN = 2;
+
+    private final int mFailureThreshold;
+    private final long mOpenDuration;
+
+    private int mState = STATE_CLOSED;
+    private int mFailures;
+    private long mOpenedAt;
+    private long mTrialStartedAt;
+
+    /**
+     * Create a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold is the number of failures in a row that open the breaker
+     * @param openDuration is the time in milliseconds requests are refused once it opens
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration) {
+        mFailureThreshold = failureThreshold;
+        mOpenDuration = openDuration;
+    }
+
+    /**
+     * Return true if a request may be made now. A request that is let through must report how it
+     * went with {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    public synchronized boolean allowRequest() {
+        long now = elapsedMillis();
+        if (mState == STATE_CLOSED) {
+            return true;
+        }
+        if (mState == STATE_OPEN) {
+            if (now - mOpenedAt < mOpenDuration) {
+                return false;
+            }
+            mState = STATE_HALF_OPEN;
+            mTrialStartedAt = now;
+            return true;
+        }
+        // Only one trial at a time, but a trial that never reported back, because it was
+        // cancelled, doesn't keep the breaker half open forever
+        if (now - mTrialStartedAt < mOpenDuration) {
+            return false;
+        }
+        mTrialStartedAt = now;
+        return true;
+    }
+
+    /** Count a request the server answered, closing the breaker. */
+    public synchronized void onSuccess() {
+        mState = STATE_CLOSED;
+        mFailures = 0;
+    }
+
+    /** Count a failed request, opening the breaker if it was the trial or one too many. */
+    public synchronized void onFailure() {
+        if (mState == STATE_OPEN) {
+            // A request let through before the breaker opened
+            return;
+        }
+        mFailures++;
+        if (mState == STATE_HALF_OPEN || mFailures >= mFailureThreshold) {
+            mState = STATE_OPEN;
+            mOpenedAt = elapsedMillis();
+        }
+    }
+
+    /** Return the state of the breaker, one of the STATE_ constants. */
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Return the current time in milliseconds on a clock that only moves forward, overridden by
+     * the tests.
+     */
+    protected long elapsedMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    public static class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException() {
+            super("Circuit breaker open, the server keeps failing");
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Makes the HTTP requests of the app so their connections are kept alive and reused, and their
+ * responses are compressed.
+ *
+ * A {@link Call} asks for a gzip body and decompresses it as it is read, so it can be parsed
+ * straight from the stream. Closing a call once its body has been read hands the connection back
+ * to the pool of the platform instead of disconnecting it, so the next request to the same host
+ * skips the TCP and TLS handshakes. Each call records how long it spent connecting, waiting for
+ * the server and transferring the body, and how much of the transfer was spent waiting for the
+ * network rather than reading what had arrived.
+ */
+public class HttpTransport {
+
+    private static final String GET_REQUEST_METHOD = "GET";
+    private static final String GZIP = "gzip";
+
+    /** Number of bytes of a body that are read to reuse its connection when closing it early */
+    private static final int MAX_DRAIN = 16 * 1024;
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    /**
+     * Create a new {@link HttpTransport}.
+     *
+     * @param connectTimeout is the default connect timeout of a call in milliseconds
+     * @param readTimeout is the default read timeout of a call in milliseconds
+     */
+    public HttpTransport(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * Return a new GET call to the given URL, with the default timeouts.
+     */
+    public Call newCall(URL url) throws IOException {
+        return newCall(url, mConnectTimeout, mReadTimeout);
+    }
+
+    /**
+     * Return a new GET call to the given URL, with the given timeouts in milliseconds.
+     */
+    public Call newCall(URL url, int connectTimeout, int readTimeout) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestMethod(GET_REQUEST_METHOD);
+        // Asking for gzip explicitly turns off the transparent decompression of Android's
+        // connection, so the body is decompressed here on every platform and its size on the
+        // wire can be counted
+        connection.setRequestProperty("Accept-Encoding", GZIP);
+        return new Call(connection);
+    }
+
+    /**
+     * A single request and its response.
+     */
+    public static class Call {
+        private final HttpURLConnection mConnection;
+        private final Timings mTimings = new Timings();
+
+        /** Body as received, counting the bytes read, or null until it has been opened */
+        private CountingInputStream mRawBody;
+        private InputStream mBody;
+        private int mResponseCode = -1;
+
+        private Call(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        /**
+         * Return the connection of the call, to add request headers before it is executed or read
+         * response headers after.
+         */
+        public HttpURLConnection getConnection() {
+            return mConnection;
+        }
+
+        /**
+         * Send the request and return the response code once the headers have been received.
+         */
+        public int execute() throws IOException {
+            long start = System.nanoTime();
+            mConnection.connect();
+            long connected = System.nanoTime();
+            mTimings.mConnectNanos = connected - start;
+
+            mResponseCode = mConnection.getResponseCode();
+            mTimings.mWaitNanos = System.nanoTime() - connected;
+            return mResponseCode;
+        }
+
+        /**
+         * Return the body of the response, decompressed. The transfer time runs from the first
+         * call until the body has been read to the end or closed.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                openRawBody();
+                mBody = GZIP.equalsIgnoreCase(mConnection.getContentEncoding())
+                        ? new GZIPInputStream(mRawBody)
+                        : mRawBody;
+            }
+            return mBody;
+        }
+
+        private void openRawBody() throws IOException {
+            if (mRawBody != null) {
+                return;
+            }
+            InputStream in = mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? mConnection.getErrorStream()
+                    : mConnection.getInputStream();
+            if (in == null) {
+                // Some error responses have no body
+                in = new ByteArrayInputStream(new byte[0]);
+            }
+            mRawBody = new CountingInputStream(in, mTimings);
+            mTimings.mTransferStart = System.nanoTime();
+        }
+
+        /** Return the times spent so far on the call. */
+        public Timings getTimings() {
+            return mTimings;
+        }
+
+        /**
+         * Finish the call, so its connection can be reused. What remains of a short body is read
+         * first, a connection is only handed back once its response has been read to the end.
+         */
+        public void close() {
+            try {
+                if (mResponseCode != -1) {
+                    openRawBody();
+                }
+                if (mRawBody != null) {
+                    mRawBody.drain(MAX_DRAIN);
+                    (mBody != null ? mBody : mRawBody).close();
+                }
+            } catch (IOException e) {
+                // Nothing more can be done with the connection
+                mConnection.disconnect();
+            }
+        }
+
+        /**
+         * Give up the call and its connection, so a read blocked on it fails.
+         */
+        public void disconnect() {
+            mConnection.disconnect();
+        }
+    }
+
+    /**
+     * Thrown when a request is answered with an error response code.
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int mResponseCode;
+
+        public StatusException(int responseCode) {
+            super("Error response code: " + responseCode);
+            mResponseCode = responseCode;
+        }
+
+        /** Return the response code the request was answered with. */
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+    }
+
+    /**
+     * How long a {@link Call} spent on each stage, and how many bytes it received.
+     */
+    public static class Timings {
+        private long mConnectNanos;
+        private long mWaitNanos;
+        private long mTransferStart;
+        private long mTransferNanos;
+        private long mReadNanos;
+        private long mBytesReceived;
+
+        /**
+         * Return the time spent connecting in nanoseconds, including the TLS handshake of an
+         * https URL. It is close to nothing when a kept-alive connection was reused.
+         */
+        public long getConnectNanos() {
+            return mConnectNanos;
+        }
+
+        /** Return the time in nanoseconds between sending the request and receiving the headers. */
+        public long getWaitNanos() {
+            return mWaitNanos;
+        }
+
+        /** Return the time in nanoseconds spent receiving the body. */
+        public long getTransferNanos() {
+            return mTransferNanos;
+        }
+
+        /**
+         * Return the time in nanoseconds spent blocked reading the body from the connection. The
+         * rest of the transfer time is spent by whoever reads the body, decompressing and parsing
+         * it.
+         */
+        public long getReadNanos() {
+            return mReadNanos;
+        }
+
+        /** Return the number of bytes of body received, as sent, so before decompressing. */
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return "connect " + mConnectNanos / 1000000 + " ms, wait " + mWaitNanos / 1000000
+                    + " ms, transfer " + mTransferNanos / 1000000 + " ms of which read "
+                    + mReadNanos / 1000000 + " ms, " + mBytesReceived
+                    + " bytes";
+        }
+    }
+
+    /**
+     * Counts the bytes read from the body and the time spent reading them, and stops the transfer
+     * time when it ends.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final Timings mTimings;
+        private boolean mFinished;
+
+        CountingInputStream(InputStream in, Timings timings) {
+            super(in);
+            mTimings = timings;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mTimings.mReadNanos += System.nanoTime() - start;
+            if (b == -1) {
+                finish();
+            } else {
+                mTimings.mBytesReceived++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mTimings.mReadNanos += System.nanoTime() - start;
+            if (read == -1) {
+                finish();
+            } else {
+                mTimings.mBytesReceived += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            super.close();
+        }
+
+        /**
+         * Read up to the given number of bytes that are left, so the connection can be reused.
+         */
+        void drain(int maxBytes) throws IOException {
+            if (mFinished) {
+                return;
+            }
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            while (drained < maxBytes) {
+                int read = read(buffer, 0, buffer.length);
+                if (read == -1) {
+                    return;
+                }
+                drained += read;
+            }
+        }
+
+        private void finish() {
+            if (!mFinished) {
+                mFinished = true;
+                mTimings.mTransferNanos = System.nanoTime() - mTimings.mTransferStart;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in microseconds in buckets whose width grows with the value, like an HDR
+ * histogram, so percentiles can be read with about 3% precision from one microsecond up to an
+ * hour while the histogram stays a fixed, small array.
+ *
+ * Values below {@link #SUB_BUCKET_COUNT} each have their own bucket. Above that, every range
+ * between two powers of two is split into {@link #SUB_BUCKET_COUNT} buckets of the same width.
+ * Recording is lock-free and doesn't allocate, so it can be done from any thread on every request.
+ */
+public class LatencyHistogram {
+
+    /** Number of bits of a value below its highest set bit that pick its bucket */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Number of buckets every power of two is split into */
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Largest value tracked in microseconds, an hour, larger values are counted as this */
+    static final long MAX_VALUE = 60L * 60 * 1000 * 1000;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Count the given latency in microseconds.
+     */
+    public void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        mCounts.incrementAndGet(bucketIndex(value));
+        mTotalCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Count the given latency in nanoseconds, as measured with {@link System#nanoTime()}.
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /** Return the number of latencies counted. */
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    /** Return the largest latency counted in microseconds, or 0 if there is none. */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /** Return the mean of the latencies counted in microseconds, or 0 if there is none. */
+    public double getMean() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * Return the latency in microseconds that the given percentage of the latencies counted are
+     * at or below, rounded up to the end of its bucket, or 0 if there is none.
+     *
+     * @param percentile is between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int index = 0; index < mCounts.length(); index++) {
+            seen += mCounts.get(index);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(index), getMax());
+            }
+        }
+        // Only reached while other threads are recording
+        return getMax();
+    }
+
+    /** Return the number of buckets, see {@link #highestValueOf(int)}. */
+    int getBucketCount() {
+        return mCounts.length();
+    }
+
+    /** Return the number of latencies counted in the bucket with the given index. */
+    long getCountAt(int index) {
+        return mCounts.get(index);
+    }
+
+    /**
+     * Forget every latency counted so far.
+     */
+    public void reset() {
+        for (int index = 0; index < mCounts.length(); index++) {
+            mCounts.set(index, 0);
+        }
+        mTotalCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Return the index of the bucket of the given value, which is at least 0.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Return the largest value that falls in the bucket with the given index.
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
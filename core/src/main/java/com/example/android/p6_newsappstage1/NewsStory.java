@@ -0,0 +1,128 @@
+package com.example.android.p6_newsappstage1;
+
+/**
+ * A {@link NewsStory} object contains information about a news story
+ */
+public class NewsStory {
+
+    /** Title of the news story */
+    private String mTitle;
+
+    /** Section name of the news story */
+    private String mSectionName;
+
+    /**
+     * Time when the news story was published, in milliseconds since the epoch,
+     * or {@link PublicationDates#UNKNOWN}
+     */
+    private long mPublicationTime;
+
+    /** Website URL of the news story */
+    private String mUrl;
+
+    /** Contributor's name of the news story */
+    private String mContributorName;
+
+    /** URL of the thumbnail image of the news story, or null if it has none */
+    private String mThumbnailUrl;
+
+    /**
+     * Create a new Info object.
+     *
+     * @param title is the title of the NewsStory
+     * @param sectionName is the sectionName of the NewsStory
+     * @param publicationTime is the time the NewsStory was published, in milliseconds since the
+     *                        epoch, or {@link PublicationDates#UNKNOWN}
+     * @param url is the website URL to find more details about the NewsStory
+     * @param contributorName is the contributor's name of the news story
+     */
+    public NewsStory(String title, String sectionName, long publicationTime, String url,
+                     String contributorName) {
+        this(title, sectionName, publicationTime, url, contributorName, null);
+    }
+
+    /**
+     * Create a new Info object.
+     *
+     * @param title is the title of the NewsStory
+     * @param sectionName is the sectionName of the NewsStory
+     * @param publicationTime is the time the NewsStory was published, in milliseconds since the
+     *                        epoch, or {@link PublicationDates#UNKNOWN}
+     * @param url is the website URL to find more details about the NewsStory
+     * @param contributorName is the contributor's name of the news story
+     * @param thumbnailUrl is the URL of the thumbnail image of the news story, or null
+     */
+    public NewsStory(String title, String sectionName, long publicationTime, String url,
+                     String contributorName, String thumbnailUrl) {
+        mTitle = title;
+        mSectionName = sectionName;
+        mPublicationTime = publicationTime;
+        mUrl = url;
+        mContributorName = contributorName;
+        mThumbnailUrl = thumbnailUrl;
+    }
+
+    /** Return the title of the news story */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /** Return the section of the news story */
+    public String getSectionName() {
+        return mSectionName;
+    }
+
+    /**
+     * Return the time the news story was published in milliseconds since the epoch,
+     * or {@link PublicationDates#UNKNOWN}
+     */
+    public long getPublicationTime() {
+        return mPublicationTime;
+    }
+
+    /** Returns the website URL where the news story can be found. */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /** Returns the contributor's name of the news story. */
+    public String getContributorName() {
+        return mContributorName;
+    }
+
+    /** Returns the URL of the thumbnail image of the news story, or null if it has none. */
+    public String getThumbnailUrl() {
+        return mThumbnailUrl;
+    }
+
+    /**
+     * Two {@link NewsStory}s are equal if all their fields are, so a refreshed list of stories can
+     * be compared with the one on screen.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NewsStory)) {
+            return false;
+        }
+        NewsStory other = (NewsStory) o;
+        return equal(mTitle, other.mTitle)
+                && equal(mSectionName, other.mSectionName)
+                && mPublicationTime == other.mPublicationTime
+                && equal(mUrl, other.mUrl)
+                && equal(mContributorName, other.mContributorName)
+                && equal(mThumbnailUrl, other.mThumbnailUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return mUrl == null ? 0 : mUrl.hashCode();
+    }
+
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An in-memory inverted index of the titles, sections and contributors of the stories loaded so
+ * far, to filter them as the user types without asking the server.
+ *
+ * Text is split into terms at anything but letters and digits, and case-folded. Every term keeps
+ * the sorted ids of the stories it occurs in, and the terms are kept sorted, so the terms that
+ * start with a typed word are found with one range lookup. A story matches when every word typed
+ * is the start of one of its terms.
+ *
+ * Stories are added incrementally, as pages arrive; a story added again under the same URL is
+ * only indexed again if it changed. The version it replaces stays in the postings until enough
+ * of them pile up, then the index is rebuilt from the latest versions. The index is thread-safe,
+ * the app adds stories on a background thread and searches them on the main thread.
+ */
+public class NewsStoryIndex {
+
+    /** Number of replaced stories the index keeps at least before it is rebuilt without them */
+    static final int MIN_REPLACED_TO_COMPACT = 64;
+
+    /** The stories, indexed by id */
+    private final List<NewsStory> mNewsStories = new ArrayList<>();
+
+    /** Ids of the stories replaced by a newer version of themselves */
+    private final BitSet mReplaced = new BitSet();
+    private int mReplacedCount;
+
+    /** Id of the latest version of every story, by URL */
+    private final Map<String, Integer> mIds = new HashMap<>();
+
+    /** The stories each term occurs in, by term */
+    private final TreeMap<String, Postings> mTerms = new TreeMap<>();
+
+    /**
+     * Add the given stories to the index, in order.
+     */
+    public synchronized void addAll(List<NewsStory> newsStories) {
+        for (int i = 0; i < newsStories.size(); i++) {
+            add(newsStories.get(i));
+        }
+    }
+
+    /**
+     * Add the given story to the index, unless it is there already. A changed story replaces the
+     * one with the same URL.
+     */
+    public synchronized void add(NewsStory newsStory) {
+        Integer previous = mIds.get(newsStory.getUrl());
+        if (previous != null) {
+            if (mNewsStories.get(previous).equals(newsStory)) {
+                return;
+            }
+            mReplaced.set(previous);
+            mReplacedCount++;
+        }
+
+        int id = mNewsStories.size();
+        mNewsStories.add(newsStory);
+        mIds.put(newsStory.getUrl(), id);
+        addTerms(newsStory.getTitle(), id);
+        addTerms(newsStory.getSectionName(), id);
+        addTerms(newsStory.getContributorName(), id);
+
+        // Rebuild once most of what is kept are versions nothing can match any more
+        if (mReplacedCount >= MIN_REPLACED_TO_COMPACT
+                && mReplacedCount > mNewsStories.size() / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Return the stories matching the given query, in the order they were added, at most the
+     * given number of them. Every word of the query has to be the start of a term of a story's
+     * title, section or contributor. A query without words matches every story.
+     */
+    public synchronized List<NewsStory> search(String query, int limit) {
+        List<String> words = tokenize(query);
+        BitSet matches = new BitSet(mNewsStories.size());
+        matches.set(0, mNewsStories.size());
+        matches.andNot(mReplaced);
+        for (int i = 0; i < words.size() && !matches.isEmpty(); i++) {
+            matches.and(storiesStartingWith(words.get(i)));
+        }
+
+        List<NewsStory> results = new ArrayList<>(Math.min(limit, matches.cardinality()));
+        for (int id = matches.nextSetBit(0); id >= 0 && results.size() < limit;
+             id = matches.nextSetBit(id + 1)) {
+            results.add(mNewsStories.get(id));
+        }
+        return results;
+    }
+
+    /** Return the number of stories in the index. */
+    public synchronized int size() {
+        return mIds.size();
+    }
+
+    /** Return the number of distinct terms in the index. */
+    public synchronized int getTermCount() {
+        return mTerms.size();
+    }
+
+    /** Remove every story from the index. */
+    public synchronized void clear() {
+        mNewsStories.clear();
+        mReplaced.clear();
+        mReplacedCount = 0;
+        mIds.clear();
+        mTerms.clear();
+    }
+
+    /**
+     * Index the latest version of every story again, in the order they were added, dropping the
+     * versions they replaced.
+     */
+    private void compact() {
+        List<NewsStory> latest = new ArrayList<>(mIds.size());
+        for (int id = mReplaced.nextClearBit(0); id < mNewsStories.size();
+             id = mReplaced.nextClearBit(id + 1)) {
+            latest.add(mNewsStories.get(id));
+        }
+        clear();
+        for (int i = 0; i < latest.size(); i++) {
+            add(latest.get(i));
+        }
+    }
+
+    /**
+     * Return the ids of the stories with a term that starts with the given word.
+     */
+    private BitSet storiesStartingWith(String word) {
+        BitSet stories = new BitSet(mNewsStories.size());
+        SortedMap<String, Postings> terms = mTerms.subMap(word, word + Character.MAX_VALUE);
+        for (Postings postings : terms.values()) {
+            for (int i = 0; i < postings.mSize; i++) {
+                stories.set(postings.mIds[i]);
+            }
+        }
+        return stories;
+    }
+
+    private void addTerms(String text, int id) {
+        if (text == null) {
+            return;
+        }
+        for (String term : tokenize(text)) {
+            Postings postings = mTerms.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                mTerms.put(term, postings);
+            }
+            postings.add(id);
+        }
+    }
+
+    /**
+     * Return the case-folded terms of the given text: its runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isLetterOrDigit(codePoint)) {
+                term.appendCodePoint(Character.toLowerCase(codePoint));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    /**
+     * The ids of the stories a term occurs in, in increasing order as ids only grow.
+     */
+    private static class Postings {
+        int[] mIds = new int[2];
+        int mSize;
+
+        void add(int id) {
+            // A term may occur several times in the same story
+            if (mSize > 0 && mIds[mSize - 1] == id) {
+                return;
+            }
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.android.p6_newsappstage1;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses the JSON responses of the Guardian search API into {@link NewsStory}s.
+ *
+ * It only depends on the JVM and Gson's streaming reader, which Android's JsonReader was taken
+ * from, so the app, the benchmarks and the command line tools all parse responses the same way.
+ */
+public final class NewsStoryParser {
+
+    private static final Logger sLogger = Logger.getLogger(NewsStoryParser.class.getName());
+
+    private static final String RESPONSE = "response";
+    private static final String RESULTS = "results";
+    private static final String TAGS = "tags";
+    private static final String WEB_TITLE = "webTitle";
+    private static final String SECTION_NAME = "sectionName";
+    private static final String WEB_PUBLICATION_DATE = "webPublicationDate";
+    private static final String WEB_URL = "webUrl";
+    private static final String FIELDS = "fields";
+    private static final String THUMBNAIL = "thumbnail";
+
+    /** Number of stories in the first batch, enough to fill the screen */
+    public static final int FIRST_BATCH_SIZE = 5;
+
+    /**
+     * Receives the stories parsed so far while a response is still being read.
+     */
+    public interface BatchListener {
+        /**
+         * Called on the parsing thread with a copy of the stories parsed so far, first once
+         * {@link #FIRST_BATCH_SIZE} of them have been, then every time their number has doubled.
+         * The stories of the whole response are returned by the parser, not passed here.
+         */
+        void onBatch(List<NewsStory> newsStories);
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link NewsStoryParser}
+     * object.
+     */
+    private NewsStoryParser() {
+    }
+
+    /**
+     * Return a list of {@link NewsStory} objects parsed from the JSON response in the given
+     * {@link InputStream}, expecting about the given number of them.
+     *
+     * The response is pulled token by token, so neither the whole body nor a JSON tree of it is
+     * ever held in memory: only "response.results[]" is descended into, every other value is
+     * skipped, and each story is stored as soon as its object has been read.
+     * If the JSON turns out to be malformed part way through, the stories read so far are kept.
+     * A response that ends part way through, such as a download cut off, is an error though:
+     * the stories read so far were only ever handed out as batches.
+     *
+     * The stories are kept in a compact {@link NewsStoryStore}, which only creates a
+     * {@link NewsStory} object when one is read from it.
+     */
+    public static List<NewsStory> parse(InputStream inputStream, int capacity) throws IOException {
+        return parse(inputStream, capacity, null);
+    }
+
+    /**
+     * Return a list of {@link NewsStory} objects parsed from the JSON response in the given
+     * {@link InputStream}, see {@link #parse(InputStream, int)}, handing the stories parsed so
+     * far to the given listener in growing batches while the rest are still arriving.
+     *
+     * @param listener receives the batches, may be null
+     * @throws EOFException if the response ends part way through, after the batches read so far
+     */
+    public static List<NewsStory> parse(InputStream inputStream, int capacity,
+                                        BatchListener listener) throws IOException {
+        return parse(inputStream, capacity, listener, false);
+    }
+
+    /**
+     * Return a list of {@link NewsStory} objects parsed from the JSON response in the given
+     * {@link InputStream}, see {@link #parse(InputStream, int)}, for a reader that has to tell a
+     * response with no stories from one that isn't a response at all.
+     *
+     * @throws MalformedJsonException if the JSON is malformed, or has no "response" object,
+     *                                rather than keeping the stories read so far
+     */
+    public static List<NewsStory> parseStrictly(InputStream inputStream, int capacity)
+            throws IOException {
+        return parse(inputStream, capacity, null, true);
+    }
+
+    private static List<NewsStory> parse(InputStream inputStream, int capacity,
+                                         BatchListener listener, boolean strict)
+            throws IOException {
+
+        // Create an empty store that we can start adding newsStories to
+        NewsStoryStore newsStories = new NewsStoryStore(capacity);
+        Batches batches = listener == null ? null : new Batches(listener);
+
+        EndTrackingReader input = new EndTrackingReader(new InputStreamReader(
+                new BufferedInputStream(inputStream), Charset.forName("UTF-8")));
+        JsonReader reader = new JsonReader(input);
+        boolean readResponse = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (RESPONSE.equals(reader.nextName())) {
+                    readResponse(reader, newsStories, batches);
+                    readResponse = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | MalformedJsonException e) {
+            if (input.hasEnded()) {
+                // The body ran out while a value was still being read, it was cut off
+                EOFException eof = new EOFException("The news story JSON results ended early");
+                eof.initCause(e);
+                throw eof;
+            }
+            if (strict) {
+                throw new MalformedJsonException("The news story JSON results are malformed", e);
+            }
+            // JsonReader reports unexpected tokens and broken syntax this way.
+            // Catch it so the app doesn't crash, keep what was parsed so far and log the problem.
+            sLogger.log(Level.SEVERE, "Problem parsing the news story JSON results", e);
+        }
+
+        if (strict && !readResponse) {
+            throw new MalformedJsonException("The news story JSON has no response");
+        }
+
+        // Return the list of newsStories, without room to spare
+        newsStories.trimToSize();
+        return newsStories;
+    }
+
+    /**
+     * Read the "response" object, adding a story for every entry of its "results" array.
+     */
+    private static void readResponse(JsonReader reader, NewsStoryStore newsStories,
+                                     Batches batches) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (RESULTS.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readNewsStory(reader, newsStories);
+                    if (batches != null) {
+                        batches.onNewsStoryAdded(newsStories);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read a single entry of the "results" array into the given store.
+     */
+    private static void readNewsStory(JsonReader reader, NewsStoryStore newsStories)
+            throws IOException {
+        String title = null;
+        String sectionName = null;
+        String webPublicationDate = null;
+        String url = null;
+        String contributorName = "";
+        String thumbnailUrl = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (WEB_TITLE.equals(name)) {
+                title = reader.nextString();
+            } else if (SECTION_NAME.equals(name)) {
+                sectionName = reader.nextString();
+            } else if (WEB_PUBLICATION_DATE.equals(name)) {
+                webPublicationDate = reader.nextString();
+            } else if (WEB_URL.equals(name)) {
+                // Extract the value for the key called "webUrl"
+                url = reader.nextString();
+            } else if (TAGS.equals(name)) {
+                contributorName = readContributorName(reader);
+            } else if (FIELDS.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                thumbnailUrl = readThumbnailUrl(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Parse the date once here, rather than every time the story is displayed
+        long publicationTime = PublicationDates.parse(webPublicationDate);
+        if (publicationTime == PublicationDates.UNKNOWN) {
+            sLogger.warning("Malformed publication date " + webPublicationDate + " of " + url);
+        }
+
+        // Store the title, sectionName, publicationTime, url, contributorName and thumbnail
+        // from the JSON response.
+        newsStories.add(title, sectionName, publicationTime, url, contributorName, thumbnailUrl);
+    }
+
+    /**
+     * Read the "fields" object and return its "thumbnail", which it has when the request asks
+     * for "show-fields=thumbnail". Returns null if there is none.
+     */
+    private static String readThumbnailUrl(JsonReader reader) throws IOException {
+        String thumbnailUrl = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (THUMBNAIL.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                thumbnailUrl = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return thumbnailUrl;
+    }
+
+    /**
+     * Read the "tags" array and return the "webTitle" of its first tag, which is the contributor
+     * since the request asks for "show-tags=contributor". Returns an empty String if there is none.
+     */
+    private static String readContributorName(JsonReader reader) throws IOException {
+        String contributorName = "";
+        boolean firstTag = true;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (!firstTag) {
+                reader.skipValue();
+                continue;
+            }
+            firstTag = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (WEB_TITLE.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                    contributorName = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return contributorName;
+    }
+
+    /**
+     * Tells whether the reader of the response asked for more than the response had, which it
+     * only does when the JSON ends part way through a value.
+     */
+    private static class EndTrackingReader extends FilterReader {
+        private boolean mEnded;
+
+        EndTrackingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            mEnded |= c < 0;
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            mEnded |= count < 0;
+            return count;
+        }
+
+        boolean hasEnded() {
+            return mEnded;
+        }
+    }
+
+    /**
+     * Hands the stories to a {@link BatchListener} each time a batch is complete.
+     */
+    private static class Batches {
+        private final BatchListener mListener;
+        private int mNextBatchSize = FIRST_BATCH_SIZE;
+
+        Batches(BatchListener listener) {
+            mListener = listener;
+        }
+
+        void onNewsStoryAdded(NewsStoryStore newsStories) {
+            if (newsStories.size() >= mNextBatchSize) {
+                mNextBatchSize = newsStories.size() * 2;
+                mListener.onBatch(newsStories.snapshot());
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link NewsStorySnapshot} is the feed last shown for a query, saved in a compact binary file
+ * so the next cold start can show it before the network has answered.
+ *
+ * The file starts with a header of a magic number, the format version, the length of the
+ * payload and its CRC-32. The payload holds the query key, the time it was saved, a table of the
+ * distinct section and contributor names, then every story as its length-prefixed title, URL and
+ * thumbnail URL, the indexes of its names in the table and its publication time. Strings are
+ * UTF-8 with an int length in front, which is -1 for a null string; all numbers are big-endian.
+ *
+ * Reading maps the file into memory, and a file that is truncated, corrupted or of another
+ * version is ignored rather than trusted.
+ */
+public final class NewsStorySnapshot {
+
+    private static final Logger sLogger = Logger.getLogger(NewsStorySnapshot.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** "NEWS" in ASCII, the first four bytes of every snapshot */
+    private static final int MAGIC = 0x4e455753;
+
+    /**
+     * Version of the format written, a snapshot of any other version is ignored. Version 2 added
+     * the thumbnail URLs, version 3 null strings.
+     */
+    static final int VERSION = 3;
+
+    /** Size of the header in bytes: magic, version, payload length and CRC-32 */
+    static final int HEADER_SIZE = 16;
+
+    /** Length written in front of a null string */
+    private static final int NULL_LENGTH = -1;
+
+    /** Size of a story in bytes, without the bytes of its title and URLs */
+    private static final int STORY_SIZE = 4 + 4 + 4 + 4 + 4 + 8;
+
+    private final String mQueryKey;
+    private final long mSavedAt;
+    private final List<NewsStory> mNewsStories;
+
+    private NewsStorySnapshot(String queryKey, long savedAt, List<NewsStory> newsStories) {
+        mQueryKey = queryKey;
+        mSavedAt = savedAt;
+        mNewsStories = newsStories;
+    }
+
+    /** Return the key of the query whose feed this is. */
+    public String getQueryKey() {
+        return mQueryKey;
+    }
+
+    /** Return the time the snapshot was saved, in milliseconds since the epoch. */
+    public long getSavedAt() {
+        return mSavedAt;
+    }
+
+    /** Return the stories of the feed, in the order they were shown. */
+    public List<NewsStory> getNewsStories() {
+        return mNewsStories;
+    }
+
+    /**
+     * Save the given stories of the given query to the given file. The snapshot is written to a
+     * temporary file which then replaces the old one, so a reader never sees half of it.
+     */
+    public static void write(File file, String queryKey, long savedAt,
+                             List<NewsStory> newsStories) throws IOException {
+        byte[] snapshot = encode(queryKey, savedAt, newsStories);
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            out.write(snapshot);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Return the snapshot saved in the given file, or null if there is none or it can't be
+     * trusted.
+     */
+    public static NewsStorySnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            sLogger.log(Level.WARNING, "Problem reading the snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Return the given stories of the given query as a snapshot, see {@link #decode(ByteBuffer)}.
+     */
+    static byte[] encode(String queryKey, long savedAt, List<NewsStory> newsStories) {
+        // Every distinct section and contributor name is written once, stories refer to them
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> nameIndexes = new HashMap<>();
+        int[] sectionNames = new int[newsStories.size()];
+        int[] contributorNames = new int[newsStories.size()];
+        for (int i = 0; i < newsStories.size(); i++) {
+            NewsStory newsStory = newsStories.get(i);
+            sectionNames[i] = indexOf(newsStory.getSectionName(), names, nameIndexes);
+            contributorNames[i] = indexOf(newsStory.getContributorName(), names, nameIndexes);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + newsStories.size() * 160);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        try {
+            writeString(payload, queryKey);
+            payload.writeLong(savedAt);
+            payload.writeInt(names.size());
+            for (String name : names) {
+                writeString(payload, name);
+            }
+            payload.writeInt(newsStories.size());
+            for (int i = 0; i < newsStories.size(); i++) {
+                NewsStory newsStory = newsStories.get(i);
+                writeString(payload, newsStory.getTitle());
+                writeString(payload, newsStory.getUrl());
+                writeString(payload, newsStory.getThumbnailUrl());
+                payload.writeInt(sectionNames[i]);
+                payload.writeInt(contributorNames[i]);
+                payload.writeLong(newsStory.getPublicationTime());
+            }
+            payload.flush();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+
+        byte[] payloadBytes = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+        ByteBuffer snapshot = ByteBuffer.allocate(HEADER_SIZE + payloadBytes.length);
+        snapshot.putInt(MAGIC);
+        snapshot.putInt(VERSION);
+        snapshot.putInt(payloadBytes.length);
+        snapshot.putInt((int) crc.getValue());
+        snapshot.put(payloadBytes);
+        return snapshot.array();
+    }
+
+    /**
+     * Return the snapshot in the given buffer, or null if it is not a complete snapshot of the
+     * current version whose checksum matches.
+     */
+    static NewsStorySnapshot decode(ByteBuffer buffer) {
+        try {
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                sLogger.warning("Not a snapshot");
+                return null;
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                sLogger.info("Ignoring a snapshot of version " + version);
+                return null;
+            }
+            int payloadLength = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (payloadLength != buffer.remaining()) {
+                sLogger.warning("Snapshot is " + buffer.remaining() + " bytes long instead of "
+                        + payloadLength);
+                return null;
+            }
+            if ((int) crc(buffer) != expectedCrc) {
+                sLogger.warning("Snapshot checksum doesn't match");
+                return null;
+            }
+            return readPayload(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // The checksum matched, so the snapshot was written wrong in the first place
+            sLogger.log(Level.WARNING, "Malformed snapshot", e);
+            return null;
+        }
+    }
+
+    private static NewsStorySnapshot readPayload(ByteBuffer buffer) {
+        String queryKey = readString(buffer);
+        long savedAt = buffer.getLong();
+
+        String[] names = new String[readCount(buffer, 4)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(buffer);
+        }
+
+        int count = readCount(buffer, STORY_SIZE);
+        NewsStoryStore newsStories = new NewsStoryStore(count);
+        for (int i = 0; i < count; i++) {
+            String title = readString(buffer);
+            String url = readString(buffer);
+            String thumbnailUrl = readString(buffer);
+            String sectionName = names[readIndex(buffer, names.length)];
+            String contributorName = names[readIndex(buffer, names.length)];
+            long publicationTime = buffer.getLong();
+            newsStories.add(title, sectionName, publicationTime, url, contributorName,
+                    thumbnailUrl);
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException(buffer.remaining() + " bytes left over");
+        }
+        return new NewsStorySnapshot(queryKey, savedAt, newsStories);
+    }
+
+    /** Return the CRC-32 of the bytes left in the given buffer, without moving its position. */
+    private static long crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer remaining = buffer.duplicate();
+        while (remaining.hasRemaining()) {
+            int length = Math.min(chunk.length, remaining.remaining());
+            remaining.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static int indexOf(String name, List<String> names, Map<String, Integer> indexes) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            index = names.size();
+            names.add(name);
+            indexes.put(name, index);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Length out of range: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Read a count of items of at least the given size each, which must fit in what is left of
+     * the buffer, so a corrupted count can't make the reader allocate more than the file holds.
+     */
+    private static int readCount(ByteBuffer buffer, int itemSize) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / itemSize) {
+            throw new IllegalArgumentException("Count out of range: " + count);
+        }
+        return count;
+    }
+
+    private static int readIndex(ByteBuffer buffer, int size) {
+        int index = buffer.getInt();
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("Index out of range: " + index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.android.p6_newsappstage1;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A {@link NewsStoryStore} holds news stories in compact, columnar form and is read as a
+ * {@link List} of {@link NewsStory}s.
+ *
+ * Titles, URLs and thumbnail URLs are kept as UTF-8 bytes in one shared buffer and are only
+ * decoded when a story is read with {@link #get(int)}, which happens when its row is bound.
+ * Section and contributor names repeat across results, so each distinct name is stored once in a
+ * pool shared by all stores and a story only keeps its index. Publication times are kept as
+ * primitives. A null field is recorded as such, so every story reads back equal to the one
+ * added.
+ *
+ * Stories can only be added, which is what the parser does; the list itself is read-only.
+ */
+public class NewsStoryStore extends AbstractList<NewsStory> implements RandomAccess {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Start of nearly every story URL, which is left out of the stored text */
+    private static final String URL_PREFIX = "https://www.theguardian.com/";
+
+    /** Section and contributor names of all stores, every distinct name stored once */
+    private static final StringPool sNames = new StringPool();
+
+    /** Flags of {@link #mNullFields}, set for each text field of a story that is null */
+    private static final int NULL_TITLE = 1;
+    private static final int NULL_URL = 1 << 1;
+    private static final int NULL_THUMBNAIL_URL = 1 << 2;
+
+    /** Index of a section or contributor name that is null */
+    private static final int NULL_NAME = -1;
+
+    /** UTF-8 bytes of every title followed by its URL and thumbnail URL, story after story */
+    private byte[] mText;
+    private int mTextLength;
+
+    /** Start of the title of each story in {@link #mText}; its URL follows right after */
+    private int[] mTitleStarts;
+    /**
+     * Start of the URL of each story in {@link #mText}; its thumbnail URL follows right after.
+     * The start is stored complemented, so negative, when {@link #URL_PREFIX} was left out.
+     */
+    private int[] mUrlStarts;
+
+    /**
+     * Start of the thumbnail URL of each story in {@link #mText}; it ends where the next title
+     * starts.
+     */
+    private int[] mThumbnailStarts;
+
+    /** Which text fields of each story are null, which are stored as empty text */
+    private byte[] mNullFields;
+
+    private int[] mSectionNames;
+    private int[] mContributorNames;
+    private long[] mPublicationTimes;
+
+    private int mSize;
+
+    /**
+     * Create a new, empty {@link NewsStoryStore}.
+     *
+     * @param capacity is the number of stories expected, the store grows beyond it if needed
+     */
+    public NewsStoryStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mText = new byte[capacity * 128];
+        mTitleStarts = new int[capacity];
+        mUrlStarts = new int[capacity];
+        mThumbnailStarts = new int[capacity];
+        mNullFields = new byte[capacity];
+        mSectionNames = new int[capacity];
+        mContributorNames = new int[capacity];
+        mPublicationTimes = new long[capacity];
+    }
+
+    /**
+     * Create a copy of the given store, which stories added to it afterwards don't change.
+     */
+    private NewsStoryStore(NewsStoryStore other) {
+        mText = Arrays.copyOf(other.mText, other.mTextLength);
+        mTextLength = other.mTextLength;
+        mTitleStarts = Arrays.copyOf(other.mTitleStarts, other.mSize);
+        mUrlStarts = Arrays.copyOf(other.mUrlStarts, other.mSize);
+        mThumbnailStarts = Arrays.copyOf(other.mThumbnailStarts, other.mSize);
+        mNullFields = Arrays.copyOf(other.mNullFields, other.mSize);
+        mSectionNames = Arrays.copyOf(other.mSectionNames, other.mSize);
+        mContributorNames = Arrays.copyOf(other.mContributorNames, other.mSize);
+        mPublicationTimes = Arrays.copyOf(other.mPublicationTimes, other.mSize);
+        mSize = other.mSize;
+    }
+
+    /**
+     * Return a copy of the stories added so far, which can be handed to another thread while
+     * more stories are added to this store.
+     */
+    public NewsStoryStore snapshot() {
+        return new NewsStoryStore(this);
+    }
+
+    /**
+     * Add a story without a thumbnail to the end of the store.
+     */
+    public void add(String title, String sectionName, long publicationTime, String url,
+                    String contributorName) {
+        add(title, sectionName, publicationTime, url, contributorName, null);
+    }
+
+    /**
+     * Add a story to the end of the store.
+     *
+     * @param thumbnailUrl is the URL of its thumbnail image, or null if it has none
+     */
+    public void add(String title, String sectionName, long publicationTime, String url,
+                    String contributorName, String thumbnailUrl) {
+        if (mSize == mTitleStarts.length) {
+            // A trimmed store may have no room at all
+            int capacity = Math.max(1, mSize * 2);
+            mTitleStarts = Arrays.copyOf(mTitleStarts, capacity);
+            mUrlStarts = Arrays.copyOf(mUrlStarts, capacity);
+            mThumbnailStarts = Arrays.copyOf(mThumbnailStarts, capacity);
+            mNullFields = Arrays.copyOf(mNullFields, capacity);
+            mSectionNames = Arrays.copyOf(mSectionNames, capacity);
+            mContributorNames = Arrays.copyOf(mContributorNames, capacity);
+            mPublicationTimes = Arrays.copyOf(mPublicationTimes, capacity);
+        }
+
+        mTitleStarts[mSize] = mTextLength;
+        appendText(title);
+        if (url != null && url.startsWith(URL_PREFIX)) {
+            mUrlStarts[mSize] = ~mTextLength;
+            appendText(url.substring(URL_PREFIX.length()));
+        } else {
+            mUrlStarts[mSize] = mTextLength;
+            appendText(url);
+        }
+        mThumbnailStarts[mSize] = mTextLength;
+        appendText(thumbnailUrl);
+        mNullFields[mSize] = (byte) ((title == null ? NULL_TITLE : 0)
+                | (url == null ? NULL_URL : 0)
+                | (thumbnailUrl == null ? NULL_THUMBNAIL_URL : 0));
+        mSectionNames[mSize] = sNames.intern(sectionName);
+        mContributorNames[mSize] = sNames.intern(contributorName);
+        mPublicationTimes[mSize] = publicationTime;
+        mSize++;
+        modCount++;
+    }
+
+    /**
+     * Add the given story to the end of the store.
+     */
+    @Override
+    public boolean add(NewsStory newsStory) {
+        add(newsStory.getTitle(), newsStory.getSectionName(), newsStory.getPublicationTime(),
+                newsStory.getUrl(), newsStory.getContributorName(), newsStory.getThumbnailUrl());
+        return true;
+    }
+
+    /**
+     * Return the story at the given position, decoding its title and URLs.
+     */
+    @Override
+    public NewsStory get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+        int urlStart = mUrlStarts[index];
+        int thumbnailStart = mThumbnailStarts[index];
+        int nullFields = mNullFields[index];
+        String url;
+        if ((nullFields & NULL_URL) != 0) {
+            url = null;
+        } else if (urlStart < 0) {
+            url = URL_PREFIX + decodeText(~urlStart, thumbnailStart);
+        } else {
+            url = decodeText(urlStart, thumbnailStart);
+        }
+        String title = (nullFields & NULL_TITLE) != 0
+                ? null : decodeText(mTitleStarts[index], urlStart < 0 ? ~urlStart : urlStart);
+        String thumbnailUrl = (nullFields & NULL_THUMBNAIL_URL) != 0
+                ? null : decodeText(thumbnailStart, textEnd(index));
+        return new NewsStory(title,
+                sNames.get(mSectionNames[index]),
+                mPublicationTimes[index],
+                url,
+                sNames.get(mContributorNames[index]),
+                thumbnailUrl);
+    }
+
+    /** Return the publication time of the story at the given position without decoding it. */
+    public long getPublicationTime(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+        return mPublicationTimes[index];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Return a rough estimate of the number of bytes this store takes up, not counting the shared
+     * section and contributor names.
+     */
+    public long estimateRetainedSize() {
+        return 64 + mText.length + mNullFields.length
+                + 4L * (mTitleStarts.length + mUrlStarts.length + mThumbnailStarts.length
+                        + mSectionNames.length + mContributorNames.length)
+                + 8L * mPublicationTimes.length;
+    }
+
+    /**
+     * Release the room reserved for stories that were never added.
+     */
+    public void trimToSize() {
+        mText = Arrays.copyOf(mText, mTextLength);
+        mTitleStarts = Arrays.copyOf(mTitleStarts, mSize);
+        mUrlStarts = Arrays.copyOf(mUrlStarts, mSize);
+        mThumbnailStarts = Arrays.copyOf(mThumbnailStarts, mSize);
+        mNullFields = Arrays.copyOf(mNullFields, mSize);
+        mSectionNames = Arrays.copyOf(mSectionNames, mSize);
+        mContributorNames = Arrays.copyOf(mContributorNames, mSize);
+        mPublicationTimes = Arrays.copyOf(mPublicationTimes, mSize);
+    }
+
+    /**
+     * Two stores are compared column by column, without decoding any story.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NewsStoryStore)) {
+            return super.equals(o);
+        }
+        NewsStoryStore other = (NewsStoryStore) o;
+        if (mSize != other.mSize || mTextLength != other.mTextLength) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (mTitleStarts[i] != other.mTitleStarts[i]
+                    || mUrlStarts[i] != other.mUrlStarts[i]
+                    || mThumbnailStarts[i] != other.mThumbnailStarts[i]
+                    || mNullFields[i] != other.mNullFields[i]
+                    || mSectionNames[i] != other.mSectionNames[i]
+                    || mContributorNames[i] != other.mContributorNames[i]
+                    || mPublicationTimes[i] != other.mPublicationTimes[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < mTextLength; i++) {
+            if (mText[i] != other.mText[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    private int textEnd(int index) {
+        return index + 1 < mSize ? mTitleStarts[index + 1] : mTextLength;
+    }
+
+    private void appendText(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        if (mTextLength + bytes.length > mText.length) {
+            mText = Arrays.copyOf(mText, Math.max(mText.length * 2, mTextLength + bytes.length));
+        }
+        System.arraycopy(bytes, 0, mText, mTextLength, bytes.length);
+        mTextLength += bytes.length;
+    }
+
+    private String decodeText(int start, int end) {
+        return new String(mText, start, end - start, UTF_8);
+    }
+
+    /**
+     * Distinct strings, each stored once and referred to by index, and null by
+     * {@link #NULL_NAME}. Entries are never removed, which is fine for section and contributor
+     * names as there are only so many of them.
+     */
+    private static class StringPool {
+        private final HashMap<String, Integer> mIndexes = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+
+        synchronized int intern(String value) {
+            if (value == null) {
+                return NULL_NAME;
+            }
+            Integer index = mIndexes.get(value);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(value);
+                mIndexes.put(value, index);
+            }
+            return index;
+        }
+
+        synchronized String get(int index) {
+            return index == NULL_NAME ? null : mStrings.get(index);
+        }
+    }
+}
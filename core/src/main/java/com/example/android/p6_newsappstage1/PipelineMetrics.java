@@ -0,0 +1,458 @@
+package com.example.android.p6_newsappstage1;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps how long every stage of loading the news stories takes, per type of query, so a slow feed
+ * can be traced to the network, the server, parsing or showing the stories.
+ *
+ * Every stage has a {@link LatencyHistogram}, every query type counters of requests and their
+ * outcomes. The histograms of a query type are created the first time it is measured, after
+ * that measuring doesn't allocate. Binding the list items is measured once for all query types,
+ * as the list doesn't know which query its stories came from.
+ */
+public class PipelineMetrics {
+
+    /** Connecting to the server, close to nothing when a kept-alive connection is reused */
+    public static final int STAGE_CONNECT = 0;
+
+    /** Waiting for the response headers once the request has been sent */
+    public static final int STAGE_FIRST_BYTE = 1;
+
+    /** Waiting for the body to arrive from the network */
+    public static final int STAGE_DOWNLOAD = 2;
+
+    /** Decompressing and parsing the body, less the time spent waiting for it */
+    public static final int STAGE_PARSE = 3;
+
+    /** From the start of a load until its first stories are shown, while the rest may be read */
+    public static final int STAGE_FIRST_STORY = 4;
+
+    /** The whole load in the background, from the request to the list of stories */
+    public static final int STAGE_LOAD = 5;
+
+    /** A single attempt at a request, from connecting until its body has been read */
+    public static final int STAGE_REQUEST = 6;
+
+    private static final String[] STAGE_NAMES =
+            {"connect", "first_byte", "download", "parse", "first_story", "load", "request"};
+
+    /** Number of stages measured */
+    public static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    /** Number of requests made */
+    public static final int COUNTER_REQUESTS = 0;
+
+    /** Number of requests that failed, on the network or with an error response */
+    public static final int COUNTER_FAILED = 1;
+
+    /** Number of requests cancelled before they finished */
+    public static final int COUNTER_CANCELLED = 2;
+
+    /** Number of requests answered with 304 Not Modified, served from the response cache */
+    public static final int COUNTER_NOT_MODIFIED = 3;
+
+    /** Number of bytes of body received, before decompressing */
+    public static final int COUNTER_BYTES_RECEIVED = 4;
+
+    /** Number of stories read from the responses */
+    public static final int COUNTER_STORIES = 5;
+
+    /** Number of requests made again after a failure */
+    public static final int COUNTER_RETRIED = 6;
+
+    /** Number of second requests sent because the first was taking too long */
+    public static final int COUNTER_HEDGED = 7;
+
+    /** Number of requests refused straight away because the server kept failing */
+    public static final int COUNTER_SHORT_CIRCUITED = 8;
+
+    /** Number of failed requests answered with the cached response instead */
+    public static final int COUNTER_SERVED_STALE = 9;
+
+    /** Number of requests that waited for the request budget to allow them */
+    public static final int COUNTER_THROTTLED = 10;
+
+    /** Number of requests that shared the response of the same request already being made */
+    public static final int COUNTER_COALESCED = 11;
+
+    /** Number of background requests held back until the app was idle */
+    public static final int COUNTER_DEFERRED = 12;
+
+    /** Number of requests answered with 429 Too Many Requests */
+    public static final int COUNTER_RATE_LIMITED = 13;
+
+    private static final String[] COUNTER_NAMES = {"requests", "failed", "cancelled",
+            "not_modified", "bytes_received", "stories", "retried", "hedged", "short_circuited",
+            "served_stale", "throttled", "coalesced", "deferred", "rate_limited"};
+
+    /** Number of counters kept */
+    public static final int COUNTER_COUNT = COUNTER_NAMES.length;
+
+    /** The latest stories of every section, without a search term */
+    public static final String QUERY_LATEST = "latest";
+
+    /** The stories matching a search term */
+    public static final String QUERY_SEARCH = "search";
+
+    /** Several followed topics loaded at once and merged */
+    public static final String QUERY_MULTI_TOPIC = "multi_topic";
+
+    /** The background sync of the stories published since the last one */
+    public static final String QUERY_SYNC = "sync";
+
+    /** The bodies of the top stories prefetched for offline reading */
+    public static final String QUERY_ARTICLES = "articles";
+
+    /** The thumbnails of stories first loaded without them, on a poor connection */
+    public static final String QUERY_THUMBNAILS = "thumbnails";
+
+    /** Stories searched in the local database */
+    public static final String QUERY_LOCAL = "local";
+
+    /** Number of tasks submitted to a lane of the {@link PriorityExecutor} */
+    public static final int LANE_COUNTER_SUBMITTED = 0;
+
+    /** Number of tasks refused because their lane was full */
+    public static final int LANE_COUNTER_REJECTED = 1;
+
+    /** Number of tasks cancelled while waiting in their lane */
+    public static final int LANE_COUNTER_CANCELLED = 2;
+
+    /** Number of tasks a worker took from the queue of another */
+    public static final int LANE_COUNTER_STOLEN = 3;
+
+    private static final String[] LANE_COUNTER_NAMES =
+            {"submitted", "rejected", "cancelled", "stolen"};
+
+    /** Number of counters kept per lane */
+    public static final int LANE_COUNTER_COUNT = LANE_COUNTER_NAMES.length;
+
+    /** Percentiles reported of every stage */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final PipelineMetrics sInstance = new PipelineMetrics();
+
+    private final ConcurrentMap<String, QueryMetrics> mQueries = new ConcurrentHashMap<>();
+    private final LatencyHistogram mBind = new LatencyHistogram();
+    private final LaneMetrics[] mLanes = new LaneMetrics[PriorityExecutor.LANE_COUNT];
+
+    /**
+     * Create a new {@link PipelineMetrics}, the app uses the one of {@link #getInstance()}.
+     */
+    PipelineMetrics() {
+        for (int lane = 0; lane < mLanes.length; lane++) {
+            mLanes[lane] = new LaneMetrics();
+        }
+    }
+
+    /**
+     * Return the metrics of the whole app.
+     */
+    public static PipelineMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Return the type of the query made with the given URL, or its query string: a sync if it
+     * pages through the stories from a date on, thumbnails if it asks for stories by id, a search
+     * if it has a search term, the latest stories otherwise.
+     */
+    public static String queryTypeOf(String url) {
+        if (url == null) {
+            return QUERY_LATEST;
+        }
+        // The later pages of a merged timeline ask for stories from a date on too, but no page
+        if (url.contains("from-date=") && hasParameter(url, "page")) {
+            return QUERY_SYNC;
+        }
+        if (hasParameter(url, "ids")) {
+            return QUERY_THUMBNAILS;
+        }
+        if (hasParameter(url, "q")) {
+            return QUERY_SEARCH;
+        }
+        return QUERY_LATEST;
+    }
+
+    /** Return true if the given URL, or query string, has the given query parameter. */
+    private static boolean hasParameter(String url, String name) {
+        return url.startsWith(name + "=") || url.contains("?" + name + "=")
+                || url.contains("&" + name + "=");
+    }
+
+    /** Return the name of the given stage, as used in the JSON dump. */
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /** Return the name of the given counter, as used in the JSON dump. */
+    public static String getCounterName(int counter) {
+        return COUNTER_NAMES[counter];
+    }
+
+    /**
+     * Return the metrics of the given query type, creating them the first time.
+     */
+    public QueryMetrics forQuery(String queryType) {
+        QueryMetrics metrics = mQueries.get(queryType);
+        if (metrics == null) {
+            QueryMetrics created = new QueryMetrics();
+            metrics = mQueries.putIfAbsent(queryType, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Return the types of the queries measured so far, sorted by name.
+     */
+    public List<String> getQueryTypes() {
+        List<String> queryTypes = new ArrayList<>(mQueries.keySet());
+        Collections.sort(queryTypes);
+        return queryTypes;
+    }
+
+    /**
+     * Return the metrics of the given lane of the {@link PriorityExecutor}.
+     */
+    public LaneMetrics forLane(int lane) {
+        return mLanes[lane];
+    }
+
+    /**
+     * Return the histogram of the time it takes to bind a list item to its story.
+     */
+    public LatencyHistogram getBindHistogram() {
+        return mBind;
+    }
+
+    /**
+     * Forget everything measured so far.
+     */
+    public void reset() {
+        for (QueryMetrics metrics : mQueries.values()) {
+            metrics.reset();
+        }
+        for (LaneMetrics metrics : mLanes) {
+            metrics.reset();
+        }
+        mBind.reset();
+    }
+
+    /**
+     * Return everything measured so far as JSON, see {@link #writeJson(Writer)}.
+     */
+    public String toJson() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeJson(writer);
+        } catch (IOException e) {
+            // A StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write everything measured so far as JSON to the given writer, for offline analysis. Every
+     * histogram is written with its percentiles and its non-empty buckets, as pairs of the
+     * largest value of the bucket and its count. Times are in microseconds.
+     */
+    public void writeJson(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        writer.beginObject();
+        writer.name("queries").beginObject();
+        for (String queryType : getQueryTypes()) {
+            QueryMetrics metrics = forQuery(queryType);
+            writer.name(queryType).beginObject();
+            writer.name("counters").beginObject();
+            for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                writer.name(COUNTER_NAMES[counter]).value(metrics.getCount(counter));
+            }
+            writer.endObject();
+            writer.name("stages").beginObject();
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                LatencyHistogram histogram = metrics.getStage(stage);
+                if (histogram.getCount() > 0) {
+                    writer.name(STAGE_NAMES[stage]);
+                    writeHistogram(writer, histogram);
+                }
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.name("lanes").beginObject();
+        for (int lane = 0; lane < mLanes.length; lane++) {
+            LaneMetrics metrics = mLanes[lane];
+            writer.name(PriorityExecutor.getLaneName(lane)).beginObject();
+            writer.name("queued").value(metrics.getQueued());
+            writer.name("max_queued").value(metrics.getMaxQueued());
+            for (int counter = 0; counter < LANE_COUNTER_COUNT; counter++) {
+                writer.name(LANE_COUNTER_NAMES[counter]).value(metrics.getCount(counter));
+            }
+            writer.name("wait");
+            writeHistogram(writer, metrics.getWait());
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.name("bind");
+        writeHistogram(writer, mBind);
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static void writeHistogram(JsonWriter writer, LatencyHistogram histogram)
+            throws IOException {
+        writer.beginObject();
+        writer.name("count").value(histogram.getCount());
+        writer.name("mean_us").value(Math.round(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            writer.name("p" + formatPercentile(percentile) + "_us")
+                    .value(histogram.getValueAtPercentile(percentile));
+        }
+        writer.name("max_us").value(histogram.getMax());
+        writer.name("buckets").beginArray();
+        for (int index = 0; index < histogram.getBucketCount(); index++) {
+            long count = histogram.getCountAt(index);
+            if (count > 0) {
+                writer.beginArray()
+                        .value(LatencyHistogram.highestValueOf(index))
+                        .value(count)
+                        .endArray();
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /** Return the given percentile without a trailing ".0", and "." replaced, as in "p99_9". */
+    private static String formatPercentile(double percentile) {
+        if (percentile == Math.rint(percentile)) {
+            return String.valueOf((long) percentile);
+        }
+        return String.valueOf(percentile).replace('.', '_');
+    }
+
+    /**
+     * The histograms and counters of a single query type.
+     */
+    public static class QueryMetrics {
+        private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+        private final AtomicLongArray mCounters = new AtomicLongArray(COUNTER_COUNT);
+
+        QueryMetrics() {
+            for (int stage = 0; stage < mStages.length; stage++) {
+                mStages[stage] = new LatencyHistogram();
+            }
+        }
+
+        /** Return the histogram of the given stage. */
+        public LatencyHistogram getStage(int stage) {
+            return mStages[stage];
+        }
+
+        /** Count the given time in nanoseconds spent on the given stage. */
+        public void recordNanos(int stage, long nanos) {
+            mStages[stage].recordNanos(nanos);
+        }
+
+        /** Add one to the given counter. */
+        public void increment(int counter) {
+            mCounters.incrementAndGet(counter);
+        }
+
+        /** Add the given amount to the given counter. */
+        public void add(int counter, long amount) {
+            mCounters.addAndGet(counter, amount);
+        }
+
+        /** Return the value of the given counter. */
+        public long getCount(int counter) {
+            return mCounters.get(counter);
+        }
+
+        void reset() {
+            for (LatencyHistogram histogram : mStages) {
+                histogram.reset();
+            }
+            for (int counter = 0; counter < mCounters.length(); counter++) {
+                mCounters.set(counter, 0);
+            }
+        }
+    }
+
+    /**
+     * The depth of a lane of the {@link PriorityExecutor}, how long its tasks waited to run, and
+     * counters of what became of them.
+     */
+    public static class LaneMetrics {
+        private final LatencyHistogram mWait = new LatencyHistogram();
+        private final AtomicLongArray mCounters = new AtomicLongArray(LANE_COUNTER_COUNT);
+        private volatile int mQueued;
+        private volatile int mMaxQueued;
+
+        LaneMetrics() {
+        }
+
+        /** Return the histogram of the time the tasks waited in the lane. */
+        public LatencyHistogram getWait() {
+            return mWait;
+        }
+
+        /** Count the given time in nanoseconds a task waited in the lane before it ran. */
+        public void recordWaitNanos(long nanos) {
+            mWait.recordNanos(nanos);
+        }
+
+        /** Add one to the given lane counter. */
+        public void increment(int counter) {
+            mCounters.incrementAndGet(counter);
+        }
+
+        /** Return the value of the given lane counter. */
+        public long getCount(int counter) {
+            return mCounters.get(counter);
+        }
+
+        /** Set the number of tasks waiting in the lane now, keeping the most there have been. */
+        public synchronized void setQueued(int queued) {
+            mQueued = queued;
+            if (queued > mMaxQueued) {
+                mMaxQueued = queued;
+            }
+        }
+
+        /** Return the number of tasks waiting in the lane. */
+        public int getQueued() {
+            return mQueued;
+        }
+
+        /** Return the most tasks that waited in the lane at once since the last reset. */
+        public int getMaxQueued() {
+            return mMaxQueued;
+        }
+
+        synchronized void reset() {
+            mWait.reset();
+            for (int counter = 0; counter < mCounters.length(); counter++) {
+                mCounters.set(counter, 0);
+            }
+            mMaxQueued = mQueued;
+        }
+    }
+}
@@ -0,0 +1,651 @@
+package com.example.android.p6_newsappstage1;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the background work of the whole app on one pool of workers, in lanes of priority, so
+ * what the user is waiting for is never held up behind work nobody is waiting for.
+ *
+ * A free worker takes the oldest task of the most urgent lane that has any: the page on screen,
+ * then decoding images, then prefetching, then the background sync. A running task isn't
+ * stopped for a more urgent one, so the tasks of the prefetch and background lanes, which mostly
+ * wait on the network, never take the last free worker: there is always one left for the next
+ * urgent task.
+ *
+ * A task submitted by a worker, such as one of several queries run on behalf of another, goes to
+ * that worker's own queue, which it takes the newest task of first. A worker with nothing to do
+ * steals the oldest task of another worker's queue, lane by lane like the shared queues.
+ *
+ * A task may be scheduled to run after a delay, such as the second attempt at a slow request. It
+ * joins its lane once the delay is over, no thread is kept waiting for it meanwhile: the workers
+ * wait for the earliest such task when they have nothing else to do.
+ *
+ * Every lane holds a bounded number of waiting tasks, submitting to a full lane is refused. A task
+ * runs with a {@link CancellableRequest}: cancelling it takes a waiting task out of its lane and
+ * stops a running one. How many tasks wait in every lane, and for how long, is counted in the
+ * {@link PipelineMetrics}.
+ */
+public class PriorityExecutor {
+
+    /** Loading the stories on screen, or about to be */
+    public static final int LANE_VISIBLE = 0;
+
+    /**
+     * Decoding the images loaded, bound by the CPU. Stories are parsed as their response streams
+     * in, on the worker of the request, so parsing has no lane of its own.
+     */
+    public static final int LANE_DECODE = 1;
+
+    /** Fetching what the user may look at next */
+    public static final int LANE_PREFETCH = 2;
+
+    /** Syncing while the app isn't used */
+    public static final int LANE_BACKGROUND = 3;
+
+    private static final String[] LANE_NAMES = {"visible", "decode", "prefetch", "background"};
+
+    /** Number of lanes */
+    public static final int LANE_COUNT = LANE_NAMES.length;
+
+    /** First lane whose tasks never take the last free worker */
+    private static final int FIRST_DEFERRED_LANE = LANE_PREFETCH;
+
+    /** Workers of the app's executor at least, most of its tasks wait on the network */
+    private static final int MIN_WORKERS = 4;
+
+    /** Tasks waiting in a lane of the app's executor at most */
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static PriorityExecutor sInstance;
+
+    /**
+     * A task run in a lane, which should stop when the given request is cancelled.
+     */
+    public interface Task<T> {
+        T run(CancellableRequest cancellation) throws Exception;
+    }
+
+    private final int mCapacity;
+    private final PipelineMetrics mMetrics;
+    private final Worker[] mWorkers;
+
+    /** Guards the queues and the counts below, and is waited on by the idle workers */
+    private final Object mLock = new Object();
+
+    /** Tasks submitted from outside the workers, per lane */
+    private final List<ArrayDeque<Job<?>>> mQueues = newQueues();
+
+    /** Tasks waiting in the shared and the workers' queues, per lane, cancelled ones left out */
+    private final int[] mQueued = new int[LANE_COUNT];
+
+    /** Tasks waiting for their delay to be over, the one due first at the head */
+    private final PriorityQueue<Job<?>> mDelayed = new PriorityQueue<>(LANE_COUNT,
+            new Comparator<Job<?>>() {
+                @Override
+                public int compare(Job<?> first, Job<?> second) {
+                    return Long.compare(first.mDueNanos, second.mDueNanos);
+                }
+            });
+
+    /** Workers running a task of a deferred lane */
+    private int mRunningDeferred;
+
+    private boolean mShutdown;
+
+    /**
+     * Return the executor of the app, starting it the first time.
+     */
+    public static synchronized PriorityExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new PriorityExecutor(
+                    Math.max(MIN_WORKERS, Runtime.getRuntime().availableProcessors()),
+                    QUEUE_CAPACITY, PipelineMetrics.getInstance());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Create a new {@link PriorityExecutor} and start its workers, the app uses the one of
+     * {@link #getInstance()}.
+     *
+     * @param workerCount is the number of workers, at least two
+     * @param capacity is the number of tasks that may wait in a lane
+     * @param metrics counts the waiting tasks
+     */
+    PriorityExecutor(int workerCount, int capacity, PipelineMetrics metrics) {
+        mCapacity = capacity;
+        mMetrics = metrics;
+        mWorkers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            mWorkers[i] = new Worker(i);
+        }
+        for (Worker worker : mWorkers) {
+            worker.start();
+        }
+    }
+
+    /** Return an empty queue of tasks for every lane. */
+    private static List<ArrayDeque<Job<?>>> newQueues() {
+        List<ArrayDeque<Job<?>>> queues = new ArrayList<>(LANE_COUNT);
+        for (int lane = 0; lane < LANE_COUNT; lane++) {
+            queues.add(new ArrayDeque<Job<?>>());
+        }
+        return queues;
+    }
+
+    /** Return the name of the given lane, as used in the JSON dump of the metrics. */
+    public static String getLaneName(int lane) {
+        return LANE_NAMES[lane];
+    }
+
+    /**
+     * Run the given task in the given lane, with the given request, which cancels it.
+     *
+     * @return the future of the task's result, cancelling it cancels the request
+     * @throws RejectedExecutionException if the lane is full or the executor shut down
+     */
+    public <T> Future<T> submit(int lane, Task<T> task, CancellableRequest cancellation) {
+        Job<T> job = new Job<>(lane, task, cancellation);
+        enqueue(job);
+        return job;
+    }
+
+    /**
+     * Run the given task in the given lane once the given delay is over, with the given request,
+     * which cancels it. The task is refused if its lane is full by then, its future then fails
+     * with a {@link RejectedExecutionException}.
+     *
+     * @return the future of the task's result, cancelling it cancels the request
+     * @throws RejectedExecutionException if the executor shut down
+     */
+    public <T> Future<T> schedule(int lane, Task<T> task, long delay, TimeUnit unit,
+                                  CancellableRequest cancellation) {
+        Job<T> job = new Job<>(lane, task, cancellation);
+        job.mDueNanos = System.nanoTime() + unit.toNanos(delay);
+        synchronized (mLock) {
+            if (mShutdown) {
+                mMetrics.forLane(lane).increment(PipelineMetrics.LANE_COUNTER_REJECTED);
+                job.forget();
+                throw new RejectedExecutionException("The executor is shut down");
+            }
+            if (!job.isCancelled()) {
+                mDelayed.add(job);
+                // The workers wait until the task due first, which may be this one now
+                mLock.notifyAll();
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Return the lane of the task the calling thread is running, or the given lane if it isn't a
+     * worker of this executor, for work done on behalf of that task.
+     */
+    public int getCurrentLane(int otherwise) {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker && ((Worker) thread).getExecutor() == this) {
+            Job<?> running = ((Worker) thread).mRunning;
+            if (running != null) {
+                return running.mLane;
+            }
+        }
+        return otherwise;
+    }
+
+    /**
+     * Run the given task in the given lane and wait for its result. A worker calling this runs
+     * the task itself, rather than wait for another worker, which may never be free.
+     *
+     * @return the result of the task, or null if it was cancelled through the given request, its
+     *         lane was full, or the wait was interrupted, which cancels it
+     * @throws RuntimeException the task threw, or wrapping the checked exception it threw
+     */
+    public <T> T invoke(int lane, Task<T> task, CancellableRequest cancellation) {
+        if (Thread.currentThread() instanceof Worker
+                && ((Worker) Thread.currentThread()).getExecutor() == this) {
+            Worker worker = (Worker) Thread.currentThread();
+            Job<T> job = new Job<>(lane, task, cancellation);
+            Job<?> running = worker.mRunning;
+            worker.mRunning = job;
+            try {
+                job.run();
+            } finally {
+                worker.mRunning = running;
+            }
+            return resultOf(job);
+        }
+
+        try {
+            return resultOf(submit(lane, task, cancellation));
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the result of the given future, cancelling it if the wait is interrupted.
+     */
+    private static <T> T resultOf(Future<T> future) {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Return an {@link ExecutorService} running its tasks in the given lane, for code written
+     * against one. Cancelling the future of one of its tasks cancels the task's request. Shutting
+     * it down does nothing, the executor is shared and lives as long as the app.
+     */
+    public ExecutorService forLane(final int lane) {
+        return new AbstractExecutorService() {
+            @Override
+            protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+                return new Job<>(lane, new Task<T>() {
+                    @Override
+                    public T run(CancellableRequest cancellation) throws Exception {
+                        return callable.call();
+                    }
+                }, new CancellableRequest());
+            }
+
+            @Override
+            protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+                return newTaskFor(Executors.callable(runnable, value));
+            }
+
+            @Override
+            public void execute(Runnable command) {
+                Job<?> job = command instanceof Job ? (Job<?>) command
+                        : (Job<?>) newTaskFor(command, null);
+                if (job.mLane != lane) {
+                    throw new IllegalArgumentException("Task of another lane");
+                }
+                // A task nobody holds the future of reports its failure like a thread does
+                job.mReportFailure = !(command instanceof Job);
+                enqueue(job);
+            }
+
+            @Override
+            public void shutdown() {
+                // The executor is shared
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                synchronized (mLock) {
+                    return mShutdown;
+                }
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return false;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Stop taking tasks, and stop the workers once the tasks waiting have run. Tasks still
+     * waiting for their delay to be over are cancelled.
+     */
+    public void shutdown() {
+        List<Job<?>> delayed;
+        synchronized (mLock) {
+            mShutdown = true;
+            delayed = new ArrayList<>(mDelayed);
+            mLock.notifyAll();
+        }
+        for (Job<?> job : delayed) {
+            job.cancel(false);
+        }
+    }
+
+    /** Return the number of tasks waiting in the given lane. */
+    public int getQueued(int lane) {
+        synchronized (mLock) {
+            return mQueued[lane];
+        }
+    }
+
+    /**
+     * Queue the given task in its lane, in the queue of the worker submitting it if one is.
+     */
+    private void enqueue(Job<?> job) {
+        int lane = job.mLane;
+        PipelineMetrics.LaneMetrics metrics = mMetrics.forLane(lane);
+        synchronized (mLock) {
+            if (mShutdown || mQueued[lane] >= mCapacity) {
+                metrics.increment(PipelineMetrics.LANE_COUNTER_REJECTED);
+                job.forget();
+                throw new RejectedExecutionException("The " + LANE_NAMES[lane] + " lane is "
+                        + (mShutdown ? "shut down" : "full"));
+            }
+            if (job.isCancelled()) {
+                // Cancelled through its request before it could be queued
+                return;
+            }
+            Thread thread = Thread.currentThread();
+            if (thread instanceof Worker && ((Worker) thread).getExecutor() == this) {
+                addToLane(job, ((Worker) thread).mQueues.get(lane));
+            } else {
+                addToLane(job, mQueues.get(lane));
+            }
+        }
+    }
+
+    /**
+     * Add the given task to the given queue of its lane, and count it in. This is called holding
+     * the lock.
+     */
+    private void addToLane(Job<?> job, ArrayDeque<Job<?>> queue) {
+        int lane = job.mLane;
+        queue.addLast(job);
+        job.mQueued = true;
+        job.mQueuedNanos = System.nanoTime();
+        mQueued[lane]++;
+        PipelineMetrics.LaneMetrics metrics = mMetrics.forLane(lane);
+        metrics.increment(PipelineMetrics.LANE_COUNTER_SUBMITTED);
+        metrics.setQueued(mQueued[lane]);
+        mLock.notifyAll();
+    }
+
+    /**
+     * Move the delayed tasks that are due to the shared queues of their lanes, and return the
+     * time in nanoseconds until the next one is due, or -1 if none is waiting. This is called
+     * holding the lock.
+     */
+    private long queueDueTasks() {
+        long now = System.nanoTime();
+        Job<?> job;
+        while ((job = mDelayed.peek()) != null && job.mDueNanos - now <= 0) {
+            mDelayed.poll();
+            int lane = job.mLane;
+            if (mQueued[lane] < mCapacity) {
+                addToLane(job, mQueues.get(lane));
+            } else {
+                mMetrics.forLane(lane).increment(PipelineMetrics.LANE_COUNTER_REJECTED);
+                job.reject(new RejectedExecutionException(
+                        "The " + LANE_NAMES[lane] + " lane is full"));
+            }
+        }
+        return job == null ? -1 : job.mDueNanos - now;
+    }
+
+    /**
+     * Take the task the given worker runs next, or null if there is none it may run now.
+     * This is called holding the lock.
+     */
+    private Job<?> take(Worker worker) {
+        queueDueTasks();
+        for (int lane = 0; lane < LANE_COUNT; lane++) {
+            if (lane >= FIRST_DEFERRED_LANE && mRunningDeferred >= mWorkers.length - 1) {
+                return null;
+            }
+            Job<?> job;
+            while ((job = poll(worker, lane)) != null) {
+                if (!job.mQueued) {
+                    // Cancelled while waiting, and counted out then
+                    continue;
+                }
+                job.mQueued = false;
+                mQueued[lane]--;
+                PipelineMetrics.LaneMetrics metrics = mMetrics.forLane(lane);
+                metrics.setQueued(mQueued[lane]);
+                metrics.recordWaitNanos(System.nanoTime() - job.mQueuedNanos);
+                if (lane >= FIRST_DEFERRED_LANE) {
+                    mRunningDeferred++;
+                }
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the next task of the given lane for the given worker: the newest of its own queue,
+     * the oldest of the shared queue, or else the oldest of another worker's queue.
+     */
+    private Job<?> poll(Worker worker, int lane) {
+        Job<?> job = worker.mQueues.get(lane).pollLast();
+        if (job != null) {
+            return job;
+        }
+        job = mQueues.get(lane).pollFirst();
+        if (job != null) {
+            return job;
+        }
+        for (int i = 1; i < mWorkers.length; i++) {
+            Worker victim = mWorkers[(worker.mIndex + i) % mWorkers.length];
+            job = victim.mQueues.get(lane).pollFirst();
+            if (job != null) {
+                if (job.mQueued) {
+                    mMetrics.forLane(lane).increment(PipelineMetrics.LANE_COUNTER_STOLEN);
+                }
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count out the given task, cancelled while waiting. It is dropped from its queue when it
+     * comes up.
+     */
+    private void onCancelled(Job<?> job) {
+        synchronized (mLock) {
+            if (mDelayed.remove(job)) {
+                mMetrics.forLane(job.mLane).increment(PipelineMetrics.LANE_COUNTER_CANCELLED);
+                return;
+            }
+            if (!job.mQueued) {
+                return;
+            }
+            job.mQueued = false;
+            mQueued[job.mLane]--;
+            PipelineMetrics.LaneMetrics metrics = mMetrics.forLane(job.mLane);
+            metrics.setQueued(mQueued[job.mLane]);
+            metrics.increment(PipelineMetrics.LANE_COUNTER_CANCELLED);
+        }
+    }
+
+    private void onFinished(Job<?> job) {
+        if (job.mLane < FIRST_DEFERRED_LANE) {
+            return;
+        }
+        synchronized (mLock) {
+            mRunningDeferred--;
+            // A worker may be waiting for another to finish a deferred task
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * A task in a lane, and the future of its result.
+     */
+    private final class Job<T> extends FutureTask<T> {
+        final int mLane;
+        final CancellableRequest mCancellation;
+
+        /** True while waiting in a queue, guarded by the lock */
+        boolean mQueued;
+        long mQueuedNanos;
+
+        /** Time the task joins its lane if it was scheduled with a delay, in nanoseconds */
+        long mDueNanos;
+
+        /** True to hand an exception of the task to the thread's handler, nobody else sees it */
+        boolean mReportFailure;
+
+        /** Cancels this job along with its request, until it is done */
+        private final CancellableRequest mCanceller;
+
+        Job(int lane, final Task<T> task, final CancellableRequest cancellation) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return task.run(cancellation);
+                }
+            });
+            mLane = lane;
+            mCancellation = cancellation;
+            // Cancelling the request cancels the job, see cancel(boolean)
+            mCanceller = cancellation.addChild(new CancellableRequest() {
+                @Override
+                public void cancel() {
+                    super.cancel();
+                    Job.this.cancel(false);
+                }
+            });
+        }
+
+        /**
+         * Stop cancelling this job along with its request, which may outlive it by far, such as
+         * the request of a whole query. This is done before the result is set, so whoever waits
+         * for it finds the request as it was.
+         */
+        void forget() {
+            mCancellation.removeChild(mCanceller);
+        }
+
+        @Override
+        protected void set(T result) {
+            forget();
+            super.set(result);
+        }
+
+        @Override
+        protected void setException(Throwable failure) {
+            forget();
+            super.setException(failure);
+        }
+
+        /** Fail the task with the given exception, without running it. */
+        void reject(RejectedExecutionException failure) {
+            setException(failure);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            forget();
+            if (!super.cancel(false)) {
+                return false;
+            }
+            // Stop the task if it is running, and count it out of its lane if it is waiting
+            mCancellation.cancel();
+            onCancelled(this);
+            return true;
+        }
+    }
+
+    /**
+     * A thread taking the tasks of the lanes, with its own queue of the tasks it submits.
+     */
+    private final class Worker extends Thread {
+        final int mIndex;
+        final List<ArrayDeque<Job<?>>> mQueues = newQueues();
+
+        /** The task this worker is running, or null, only touched by the worker */
+        Job<?> mRunning;
+
+        Worker(int index) {
+            super("priority-worker-" + index);
+            setDaemon(true);
+            mIndex = index;
+        }
+
+        PriorityExecutor getExecutor() {
+            return PriorityExecutor.this;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Job<?> job;
+                synchronized (mLock) {
+                    while ((job = take(this)) == null) {
+                        if (mShutdown && isIdle()) {
+                            return;
+                        }
+                        try {
+                            long untilDue = queueDueTasks();
+                            if (untilDue < 0) {
+                                mLock.wait();
+                            } else {
+                                TimeUnit.NANOSECONDS.timedWait(mLock, untilDue);
+                            }
+                        } catch (InterruptedException e) {
+                            // Only a shut down stops a worker
+                        }
+                    }
+                }
+                mRunning = job;
+                try {
+                    job.run();
+                } finally {
+                    mRunning = null;
+                    onFinished(job);
+                }
+                if (job.mReportFailure && !job.isCancelled()) {
+                    try {
+                        job.get();
+                    } catch (ExecutionException e) {
+                        getUncaughtExceptionHandler().uncaughtException(this, e.getCause());
+                    } catch (InterruptedException e) {
+                        // The job is done, get() doesn't wait
+                    }
+                }
+            }
+        }
+
+        /** Return true if no task waits in any lane. This is called holding the lock. */
+        private boolean isIdle() {
+            for (int queued : mQueued) {
+                if (queued > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.p6_newsappstage1;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Helper methods to parse the publication dates of news stories once, when they are read from the
+ * response, and to format them for display.
+ *
+ * {@link SimpleDateFormat} is not thread-safe, so every thread gets its own instances. Formatted
+ * dates are cached per minute, which is the precision they are displayed with, so binding a row
+ * whose minute was shown before doesn't format anything.
+ */
+public final class PublicationDates {
+
+    /** Publication time of a news story whose date is missing or malformed */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    /** Number of formatted minutes kept */
+    private static final int FORMATTED_CACHE_SIZE = 256;
+
+    /** Time zone of the dates in the response, which are also displayed as they are */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // Date formats used to read the date strings (original "2018-04-15T08:35:35Z") and to build
+    // the displayed ones ("2018-04-15  08:35").
+    private static final ThreadLocal<SimpleDateFormat> sInputDateFormat =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return newDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+                }
+            };
+    private static final ThreadLocal<SimpleDateFormat> sOutputDateFormat =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return newDateFormat("yyyy-MM-dd  HH:mm");
+                }
+            };
+
+    /** Formatted dates keyed by minute since the epoch, least recently used first */
+    private static final LinkedHashMap<Long, String> sFormattedMinutes =
+            new LinkedHashMap<Long, String>(FORMATTED_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                    return size() > FORMATTED_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Create a private constructor because no one should ever create a {@link PublicationDates}
+     * object.
+     */
+    private PublicationDates() {
+    }
+
+    /**
+     * Return the publication date in the format the Guardian API uses as milliseconds since the
+     * epoch, or {@link #UNKNOWN} if it is missing or malformed.
+     */
+    public static long parse(String webPublicationDate) {
+        if (webPublicationDate == null) {
+            return UNKNOWN;
+        }
+        try {
+            Date date = sInputDateFormat.get().parse(webPublicationDate);
+            return date.getTime();
+        } catch (ParseException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Return the given publication time formatted for display, or an empty String if it is
+     * {@link #UNKNOWN}.
+     */
+    public static String format(long publicationTime) {
+        if (publicationTime == UNKNOWN) {
+            return "";
+        }
+
+        Long minute = floorMinute(publicationTime);
+        synchronized (sFormattedMinutes) {
+            String formatted = sFormattedMinutes.get(minute);
+            if (formatted != null) {
+                return formatted;
+            }
+        }
+
+        String formatted = sOutputDateFormat.get().format(new Date(minute * MINUTE_IN_MILLIS));
+        synchronized (sFormattedMinutes) {
+            sFormattedMinutes.put(minute, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * Return the given time in the format the Guardian API uses, as in its "from-date" parameter.
+     */
+    public static String toApiDate(long time) {
+        return sInputDateFormat.get().format(new Date(time));
+    }
+
+    private static long floorMinute(long time) {
+        long minute = time / MINUTE_IN_MILLIS;
+        // Round down for times before the epoch as well
+        return time < 0 && time % MINUTE_IN_MILLIS != 0 ? minute - 1 : minute;
+    }
+
+    private static SimpleDateFormat newDateFormat(String pattern) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern, Locale.US);
+        dateFormat.setTimeZone(UTC);
+        return dateFormat;
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Schedules the requests of every part of the app to an API with a tight quota, so that between
+ * them they stay within it.
+ *
+ * Every request spends a token from a bucket that refills at the request rate, up to a burst of
+ * requests, and a request that finds the bucket empty waits for the next token. A request for a
+ * URL that is being fetched already doesn't go to the network, it waits for the response of the
+ * one in flight and shares it. Background requests, which nobody is waiting for, are held back
+ * while the user is loading stories and are let through together once the app has been idle for
+ * a while, so they don't take the budget from the user and wake the radio only once.
+ *
+ * A 429 Too Many Requests answer halves the request rate and stops all requests for as long as
+ * the server asks, or else until the next token. Every successful answer raises the rate a step
+ * back towards the maximum.
+ */
+public class RequestScheduler {
+
+    /** Priority of a request the user is waiting for */
+    public static final int PRIORITY_USER = 0;
+
+    /** Priority of a request made in the background, such as the sync or a prefetch */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    /** Share of the request rate kept after a 429 answer */
+    private static final double RATE_DECREASE = 0.5;
+
+    /** Share of the maximum rate the request rate is raised by after a successful answer */
+    private static final double RATE_INCREASE = 0.1;
+
+    /**
+     * A request made once for every caller asking for it at the same time.
+     */
+    public interface Request<T> {
+        /**
+         * Make the request and return its result, or throw if it failed. The request must stop
+         * when the given {@link CancellableRequest} is cancelled. This is on a background thread.
+         */
+        T run(CancellableRequest cancellation) throws IOException;
+    }
+
+    private final double mMaxRate;
+    private final double mMinRate;
+    private final int mBurst;
+    private final long mIdleDelay;
+
+    /** Requests let through per second, between the minimum and the maximum rate */
+    private double mRate;
+
+    /** Tokens in the bucket, a request spends one */
+    private double mTokens;
+
+    /** Time the bucket was last refilled, or -1 if it never was */
+    private long mRefillTime = -1;
+
+    /** Time until which no request is let through after a 429 answer */
+    private long mPausedUntil;
+
+    /** Time the latest request of the user was let through, or -1 if none was */
+    private long mLastUserRequestTime = -1;
+
+    /** Number of requests of the user waiting for a token */
+    private int mWaitingUserRequests;
+
+    /** The requests being made, by priority and key */
+    private final Map<String, Flight<?>> mFlights = new HashMap<>();
+
+    /**
+     * Create a new {@link RequestScheduler}.
+     *
+     * @param maxRate is the number of requests let through per second while the server accepts
+     *                them all
+     * @param minRate is the number of requests per second the rate is never lowered below
+     * @param burst is the number of requests let through at once after a quiet while
+     * @param idleDelay is the time in milliseconds after the latest request of the user from
+     *                  which background requests are let through
+     */
+    public RequestScheduler(double maxRate, double minRate, int burst, long idleDelay) {
+        mMaxRate = maxRate;
+        mMinRate = minRate;
+        mBurst = burst;
+        mIdleDelay = idleDelay;
+        mRate = maxRate;
+        mTokens = burst;
+    }
+
+    /**
+     * Make the given request and return its result, unless a request with the same key and
+     * priority is being made already, in which case wait for that one and return its result.
+     * The request is made with a {@link CancellableRequest} of its own, cancelled only once every
+     * caller waiting for it has cancelled. This is on a background thread.
+     *
+     * @param key identifies the request, such as its URL
+     * @param metrics counts the requests that shared the result of another
+     * @throws IOException the failure of the request, or the cancellation of the caller's wait
+     */
+    public <T> T execute(String key, int priority, Request<T> request,
+                         CancellableRequest cancellation, PipelineMetrics.QueryMetrics metrics)
+            throws IOException {
+        // A background request would hold up the user waiting for the same response
+        String flightKey = priority + " " + key;
+        Flight<T> flight;
+        boolean first;
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            Flight<T> inFlight = (Flight<T>) mFlights.get(flightKey);
+            first = inFlight == null;
+            if (first) {
+                inFlight = new Flight<>();
+                mFlights.put(flightKey, inFlight);
+            }
+            flight = inFlight;
+            flight.join();
+        }
+        Flight.Caller caller = cancellation.addChild(new Flight.Caller(flight));
+
+        if (!first) {
+            metrics.increment(PipelineMetrics.COUNTER_COALESCED);
+            try {
+                return flight.await(caller);
+            } finally {
+                cancellation.removeChild(caller);
+            }
+        }
+
+        T result = null;
+        IOException failure = null;
+        try {
+            result = request.run(flight.mCancellation);
+            return result;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = new IOException("Request failed", e);
+            throw e;
+        } finally {
+            // Requests made from now on are made again rather than given this result
+            synchronized (this) {
+                mFlights.remove(flightKey);
+            }
+            flight.finish(result, failure);
+            cancellation.removeChild(caller);
+        }
+    }
+
+    /**
+     * Wait until the budget allows a request of the given priority, and spend a token of it.
+     * This is on a background thread.
+     *
+     * @param metrics counts the requests that had to wait, and why
+     * @throws InterruptedIOException if the request is cancelled while it waits
+     */
+    public void acquire(int priority, CancellableRequest cancellation,
+                        PipelineMetrics.QueryMetrics metrics) throws InterruptedIOException {
+        boolean user = priority == PRIORITY_USER;
+        boolean throttled = false;
+        boolean deferred = false;
+        // Stop waiting as soon as the request is cancelled
+        Wakeup wakeup = cancellation.addChild(new Wakeup());
+        synchronized (this) {
+            if (user) {
+                mWaitingUserRequests++;
+            }
+            try {
+                while (true) {
+                    cancellation.throwIfCancelled();
+                    long now = elapsedMillis();
+                    refill(now);
+
+                    long delay;
+                    if (now < mPausedUntil) {
+                        delay = mPausedUntil - now;
+                        throttled = true;
+                    } else if (!user && mWaitingUserRequests > 0) {
+                        // Woken when the requests of the user are let through
+                        delay = 0;
+                        deferred = true;
+                    } else if (!user && mLastUserRequestTime >= 0
+                            && now - mLastUserRequestTime < mIdleDelay) {
+                        delay = mLastUserRequestTime + mIdleDelay - now;
+                        deferred = true;
+                    } else if (mTokens >= 1) {
+                        mTokens--;
+                        if (user) {
+                            mLastUserRequestTime = now;
+                        }
+                        break;
+                    } else {
+                        delay = (long) Math.ceil((1 - mTokens) * 1000 / mRate);
+                        throttled = true;
+                    }
+                    waitMillis(delay);
+                }
+            } finally {
+                cancellation.removeChild(wakeup);
+                if (user) {
+                    mWaitingUserRequests--;
+                    notifyAll();
+                }
+            }
+        }
+
+        if (throttled) {
+            metrics.increment(PipelineMetrics.COUNTER_THROTTLED);
+        }
+        if (deferred) {
+            metrics.increment(PipelineMetrics.COUNTER_DEFERRED);
+        }
+    }
+
+    /**
+     * Adapt the request rate to the answer to a request: lower it and stop all requests for a
+     * while after a 429 answer, raise it back a step after a successful one.
+     *
+     * @param responseCode is the response code of the answer
+     * @param retryAfter is the value of its Retry-After header, may be null
+     * @param metrics counts the 429 answers
+     */
+    public synchronized void onResponse(int responseCode, String retryAfter,
+                                        PipelineMetrics.QueryMetrics metrics) {
+        long now = elapsedMillis();
+        refill(now);
+        if (responseCode == RetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+            metrics.increment(PipelineMetrics.COUNTER_RATE_LIMITED);
+            // Requests refused together lower the rate only once
+            if (now >= mPausedUntil) {
+                mRate = Math.max(mMinRate, mRate * RATE_DECREASE);
+            }
+            mTokens = 0;
+            long pause = Math.max(parseRetryAfter(retryAfter), (long) Math.ceil(1000 / mRate));
+            mPausedUntil = Math.max(mPausedUntil, now + pause);
+        } else if (responseCode >= 200 && responseCode < 400) {
+            mRate = Math.min(mMaxRate, mRate + mMaxRate * RATE_INCREASE);
+        }
+    }
+
+    /** Return the number of requests currently let through per second. */
+    public synchronized double getRate() {
+        return mRate;
+    }
+
+    /**
+     * Return the time in milliseconds a Retry-After header of the given value in seconds asks
+     * for, or 0 if there is none or it is a date.
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Add the tokens earned since the last refill to the bucket, up to the burst.
+     */
+    private void refill(long now) {
+        if (mRefillTime >= 0) {
+            mTokens = Math.min(mBurst, mTokens + (now - mRefillTime) * mRate / 1000);
+        }
+        mRefillTime = now;
+    }
+
+    /**
+     * Wait the given time in milliseconds, or until notified if it is 0.
+     */
+    private void waitMillis(long millis) throws InterruptedIOException {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Wait for the request budget interrupted");
+        }
+    }
+
+    private static long elapsedMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Wakes the requests waiting for the budget when the one it is added to is cancelled.
+     */
+    private class Wakeup extends CancellableRequest {
+        @Override
+        public void cancel() {
+            super.cancel();
+            synchronized (RequestScheduler.this) {
+                RequestScheduler.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A request being made, with the number of callers waiting for its result.
+     */
+    private static class Flight<T> {
+        /** Cancels the request once every caller has cancelled */
+        final CancellableRequest mCancellation = new CancellableRequest();
+
+        private int mCallers;
+        private boolean mDone;
+        private T mResult;
+        private IOException mFailure;
+
+        synchronized void join() {
+            mCallers++;
+        }
+
+        void leave() {
+            synchronized (this) {
+                notifyAll();
+                if (--mCallers > 0 || mDone) {
+                    return;
+                }
+            }
+            mCancellation.cancel();
+        }
+
+        synchronized void finish(T result, IOException failure) {
+            mResult = result;
+            mFailure = failure;
+            mDone = true;
+            notifyAll();
+        }
+
+        /**
+         * Return the result of the request, once it is made, or throw its failure.
+         *
+         * @throws InterruptedIOException if the given caller is cancelled first
+         */
+        synchronized T await(Caller caller) throws IOException {
+            while (!mDone) {
+                caller.throwIfCancelled();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Wait for the request interrupted");
+                }
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            return mResult;
+        }
+
+        /**
+         * Leaves the flight when the caller it is added to is cancelled.
+         */
+        static class Caller extends CancellableRequest {
+            private final Flight<?> mFlight;
+            private boolean mLeft;
+
+            Caller(Flight<?> flight) {
+                mFlight = flight;
+            }
+
+            @Override
+            public void cancel() {
+                super.cancel();
+                synchronized (this) {
+                    if (mLeft) {
+                        return;
+                    }
+                    mLeft = true;
+                }
+                mFlight.leave();
+            }
+        }
+    }
+}
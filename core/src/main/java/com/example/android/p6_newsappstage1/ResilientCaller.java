@@ -0,0 +1,243 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes requests to a server that is sometimes slow or failing, so a bad request costs the user
+ * as little time as possible.
+ *
+ * A failed attempt is tried again after a backoff, as long as the {@link RetryPolicy} allows. An
+ * attempt that takes longer than a given delay, usually a high percentile of how long attempts
+ * take, gets a second attempt sent alongside it, and whichever finishes first is used while the
+ * other is cancelled. A {@link CircuitBreaker} counts the failures, and once the server keeps
+ * failing requests are refused straight away, so the caller can fall back on what it has cached.
+ */
+public class ResilientCaller {
+
+    /**
+     * One attempt at a request.
+     */
+    public interface Attempt<T> {
+        /**
+         * Make the request and return its result, or throw if it failed. The attempt must stop
+         * when the given {@link CancellableRequest} is cancelled. This is on a background thread,
+         * hedged attempts are made on another worker of the hedge executor.
+         */
+        T run(CancellableRequest cancellation) throws IOException;
+    }
+
+    private final RetryPolicy mRetryPolicy;
+    private final CircuitBreaker mCircuitBreaker;
+
+    /** Runs the hedged attempts, or null if requests aren't hedged */
+    private final PriorityExecutor mHedgeExecutor;
+
+    /**
+     * Create a new {@link ResilientCaller}.
+     *
+     * @param hedgeExecutor runs the second attempts of slow requests, in the lane of the request
+     *                      they hedge, may be null to never send any
+     */
+    public ResilientCaller(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker,
+                           PriorityExecutor hedgeExecutor) {
+        mRetryPolicy = retryPolicy;
+        mCircuitBreaker = circuitBreaker;
+        mHedgeExecutor = hedgeExecutor;
+    }
+
+    /** Return the circuit breaker of the server the requests are made to. */
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * Make the given request, retrying it when it fails and hedging it when it is slow, and
+     * return the result of the first attempt that succeeded.
+     *
+     * @param hedgeDelay is the time in milliseconds after which a slow attempt gets a second one
+     *                   sent alongside it, or 0 to never send one
+     * @param metrics counts the retries, hedges and refused requests
+     * @throws CircuitBreaker.OpenException if the server keeps failing, without trying it
+     * @throws IOException the failure of the last attempt, or the cancellation of the request
+     */
+    public <T> T call(Attempt<T> attempt, CancellableRequest cancellation, long hedgeDelay,
+                      PipelineMetrics.QueryMetrics metrics) throws IOException {
+        for (int retry = 0; ; retry++) {
+            if (retry > 0) {
+                metrics.increment(PipelineMetrics.COUNTER_RETRIED);
+                cancellation.pause(mRetryPolicy.backoff(retry));
+            }
+            if (!mCircuitBreaker.allowRequest()) {
+                metrics.increment(PipelineMetrics.COUNTER_SHORT_CIRCUITED);
+                throw new CircuitBreaker.OpenException();
+            }
+
+            try {
+                T result = hedgeDelay > 0 && mHedgeExecutor != null
+                        ? callHedged(attempt, cancellation, hedgeDelay, metrics)
+                        : callOnce(attempt, cancellation);
+                mCircuitBreaker.onSuccess();
+                return result;
+            } catch (IOException e) {
+                if (cancellation.isCancelled()) {
+                    // Nobody wants the result anymore, which says nothing about the server
+                    throw e;
+                }
+                if (!RetryPolicy.isRetryable(e)) {
+                    // The server answered, it just didn't like the request
+                    mCircuitBreaker.onSuccess();
+                    throw e;
+                }
+                mCircuitBreaker.onFailure();
+                if (retry + 1 >= mRetryPolicy.getMaxAttempts()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Make an attempt on the calling thread, with a request of its own.
+     */
+    private static <T> T callOnce(Attempt<T> attempt, CancellableRequest cancellation)
+            throws IOException {
+        CancellableRequest request = cancellation.newChild();
+        try {
+            return attempt.run(request);
+        } finally {
+            cancellation.removeChild(request);
+        }
+    }
+
+    /**
+     * Make an attempt on the calling thread, and a second one on the hedge executor if the first
+     * is still running after the given delay. The first to succeed wins and cancels the other.
+     * The second attempt runs in the lane of the task making the first, or the visible lane if
+     * the calling thread isn't a worker of the executor. No hedge is sent if that lane is full.
+     */
+    private <T> T callHedged(final Attempt<T> attempt, CancellableRequest cancellation,
+                             long hedgeDelay, final PipelineMetrics.QueryMetrics metrics)
+            throws IOException {
+        final CancellableRequest primary = cancellation.newChild();
+        final CancellableRequest hedge = cancellation.newChild();
+        final Race<T> race = new Race<>();
+        Future<Void> hedgeFuture = null;
+        try {
+            hedgeFuture = mHedgeExecutor.schedule(
+                    mHedgeExecutor.getCurrentLane(PriorityExecutor.LANE_VISIBLE),
+                    new PriorityExecutor.Task<Void>() {
+                        @Override
+                        public Void run(CancellableRequest request) {
+                            if (!race.startHedge()) {
+                                return null;
+                            }
+                            metrics.increment(PipelineMetrics.COUNTER_HEDGED);
+                            try {
+                                if (race.finishHedge(attempt.run(hedge))) {
+                                    primary.cancel();
+                                }
+                            } catch (IOException e) {
+                                // The primary goes on, and its own failure is thrown if it
+                                // fails too
+                            } finally {
+                                race.endHedge();
+                            }
+                            return null;
+                        }
+                    }, hedgeDelay, TimeUnit.MILLISECONDS, hedge.newChild());
+        } catch (RejectedExecutionException e) {
+            // The executor is shut down, the primary goes on alone
+        }
+
+        try {
+            T result = race.finishPrimary(attempt.run(primary));
+            hedge.cancel();
+            return result;
+        } catch (IOException e) {
+            // Either the primary failed, or the hedge won and cancelled it
+            return race.failPrimary(e);
+        } finally {
+            if (hedgeFuture != null) {
+                // Drops the hedge if it is still waiting, without cancelling one that won
+                hedgeFuture.cancel(false);
+            }
+            cancellation.removeChild(primary);
+            cancellation.removeChild(hedge);
+        }
+    }
+
+    /**
+     * The outcome of a primary attempt and the hedge sent alongside it.
+     */
+    private static class Race<T> {
+        private boolean mPrimaryDone;
+        private boolean mHedgeStarted;
+        private boolean mHedgeDone;
+        private boolean mWon;
+        private T mResult;
+
+        /** Return true if the hedge should be sent, because the primary is still running. */
+        synchronized boolean startHedge() {
+            if (mPrimaryDone) {
+                return false;
+            }
+            mHedgeStarted = true;
+            return true;
+        }
+
+        /** Return the result of the race once the primary succeeded with the given result. */
+        synchronized T finishPrimary(T result) {
+            mPrimaryDone = true;
+            if (!mWon) {
+                mWon = true;
+                mResult = result;
+            }
+            return mResult;
+        }
+
+        /**
+         * Return the result of the hedge once the primary failed with the given exception,
+         * waiting for the hedge to finish, or throw that exception if there is no hedge or it
+         * failed too.
+         */
+        synchronized T failPrimary(IOException failure) throws IOException {
+            mPrimaryDone = true;
+            if (!mHedgeStarted) {
+                throw failure;
+            }
+            while (!mWon && !mHedgeDone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Hedged request interrupted");
+                }
+            }
+            if (mWon) {
+                return mResult;
+            }
+            throw failure;
+        }
+
+        /** Return true if the hedge won the race with the given result. */
+        synchronized boolean finishHedge(T result) {
+            if (mWon) {
+                return false;
+            }
+            mWon = true;
+            mResult = result;
+            notifyAll();
+            return true;
+        }
+
+        /** Record that the hedge is over, whether it succeeded or not. */
+        synchronized void endHedge() {
+            mHedgeDone = true;
+            notifyAll();
+        }
+    }
+}
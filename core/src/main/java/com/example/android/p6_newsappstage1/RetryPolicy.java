@@ -0,0 +1,66 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * Decides whether a failed request is tried again, and how long to wait before it is.
+ *
+ * The wait doubles with every retry, up to a cap, so a struggling server gets room to recover.
+ * Half of every wait is random, so clients that failed at the same time don't all come back at
+ * the same time and fail again.
+ */
+public class RetryPolicy {
+
+    /** Response code of a request refused because too many were made, not in HttpURLConnection */
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom;
+
+    /**
+     * Create a new {@link RetryPolicy}.
+     *
+     * @param maxAttempts is the number of attempts at a request, including the first one
+     * @param baseDelay is the longest wait in milliseconds before the first retry
+     * @param maxDelay is the longest wait in milliseconds before any retry
+     * @param random draws the jitter of the waits
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mRandom = random;
+    }
+
+    /** Return the number of attempts at a request, including the first one. */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Return the time in milliseconds to wait before the given retry, counted from 1: between
+     * half and all of the base delay doubled for every earlier retry, at most the maximum delay.
+     */
+    public long backoff(int retry) {
+        long ceiling = Math.min(mMaxDelay, mBaseDelay << Math.min(retry - 1, 30));
+        return ceiling / 2 + Math.round(mRandom.nextDouble() * (ceiling - ceiling / 2));
+    }
+
+    /**
+     * Return true if a request that failed with the given exception may succeed when tried again:
+     * if it failed on the network, or the server was overloaded or failing. A request the server
+     * refused for what it asked would only be refused again.
+     */
+    public static boolean isRetryable(IOException e) {
+        if (e instanceof HttpTransport.StatusException) {
+            int responseCode = ((HttpTransport.StatusException) e).getResponseCode();
+            return responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || responseCode == HTTP_TOO_MANY_REQUESTS;
+        }
+        return !(e instanceof CircuitBreaker.OpenException);
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.p6_newsappstage1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CancellableRequest}, run against a stub HTTP server that sends its
+ * response slowly, the way a bad mobile connection does.
+ */
+public class CancellableRequestTest {
+
+    /**
+     * Time the stub server waits between bytes of a body, a hundred bytes a second. The JVM's
+     * connection only gives up a read blocked in the middle of a body once the next byte arrives,
+     * whereas Android's fails it as soon as it is disconnected.
+     */
+    private static final long BYTE_DELAY = 10;
+
+    /** Time the stub server waits before answering at all */
+    private static final long HEADERS_DELAY = 5000;
+
+    /** Time a cancelled request may take to stop */
+    private static final long ABORT_TIMEOUT = 100;
+
+    private HttpServer mServer;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/body", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Send the headers straight away, then trickle the body
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        out.write('{');
+                        out.flush();
+                        sleep(BYTE_DELAY);
+                    }
+                } catch (IOException e) {
+                    // The client disconnected
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.createContext("/headers", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                sleep(HEADERS_DELAY);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NO_CONTENT, -1);
+                exchange.close();
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void removedChild_isNotCancelledAlong() {
+        CancellableRequest parent = new CancellableRequest();
+        CancellableRequest done = parent.newChild();
+        CancellableRequest running = parent.newChild();
+
+        parent.removeChild(done);
+        parent.cancel();
+
+        assertFalse(done.isCancelled());
+        assertTrue(running.isCancelled());
+        assertEquals(0, parent.getChildCount());
+    }
+
+    @Test
+    public void cancel_abortsReadOfSlowBody() throws Exception {
+        final CancellableRequest request = new CancellableRequest();
+        final HttpURLConnection connection = open("/body");
+        request.setConnection(connection);
+        final InputStream in = request.wrap(connection.getInputStream());
+        assertEquals('{', in.read());
+
+        RequestThread thread = new RequestThread() {
+            @Override
+            void request() throws IOException {
+                //noinspection StatementWithEmptyBody
+                while (in.read() != -1) {
+                }
+            }
+        };
+        thread.start();
+        thread.mStarted.await();
+        Thread.sleep(50);
+
+        long start = System.nanoTime();
+        request.cancel();
+        thread.join(ABORT_TIMEOUT);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertFalse("read should stop within " + ABORT_TIMEOUT + " ms", thread.isAlive());
+        assertNotNull(thread.mFailure);
+        assertTrue(elapsed < ABORT_TIMEOUT);
+        assertTrue(request.isCancelled());
+    }
+
+    @Test
+    public void cancel_abortsWaitForSlowHeaders() throws Exception {
+        final CancellableRequest request = new CancellableRequest();
+        final HttpURLConnection connection = open("/headers");
+        request.setConnection(connection);
+
+        RequestThread thread = new RequestThread() {
+            @Override
+            void request() throws IOException {
+                connection.getResponseCode();
+            }
+        };
+        thread.start();
+        thread.mStarted.await();
+        Thread.sleep(50);
+
+        request.cancel();
+        thread.join(ABORT_TIMEOUT);
+
+        assertFalse("request should stop within " + ABORT_TIMEOUT + " ms", thread.isAlive());
+        assertNotNull(thread.mFailure);
+    }
+
+    @Test
+    public void cancelBeforeConnecting_disconnectsRightAway() throws Exception {
+        CancellableRequest request = new CancellableRequest();
+        request.cancel();
+
+        HttpURLConnection connection = open("/body");
+        request.setConnection(connection);
+        InputStream in = request.wrap(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        try {
+            in.read();
+            fail("a cancelled request should not be read");
+        } catch (InterruptedIOException expected) {
+            // Expected
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(30000);
+        return connection;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A thread making a blocking request and keeping whatever made it fail.
+     */
+    private abstract static class RequestThread extends Thread {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        volatile IOException mFailure;
+
+        abstract void request() throws IOException;
+
+        @Override
+        public void run() {
+            mStarted.countDown();
+            try {
+                request();
+            } catch (IOException e) {
+                mFailure = e;
+            }
+        }
+    }
+}
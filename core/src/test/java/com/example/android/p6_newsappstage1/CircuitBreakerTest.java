@@ -0,0 +1,100 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CircuitBreaker}, on a clock the tests move.
+ */
+public class CircuitBreakerTest {
+
+    private static final int THRESHOLD = 3;
+    private static final long OPEN_DURATION = 30000;
+
+    private long mNow = 1000;
+
+    @Test
+    public void opensAfterFailuresInARow() {
+        CircuitBreaker breaker = newBreaker();
+
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        CircuitBreaker breaker = newBreaker();
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void letsOneTrialThroughOnceOpenTimeIsUp() {
+        CircuitBreaker breaker = openBreaker();
+
+        mNow += OPEN_DURATION - 1;
+        assertFalse(breaker.allowRequest());
+        mNow += 1;
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrial_opensAgain() {
+        CircuitBreaker breaker = openBreaker();
+        mNow += OPEN_DURATION;
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        mNow += OPEN_DURATION - 1;
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void trialThatNeverReportsBack_isReplaced() {
+        CircuitBreaker breaker = openBreaker();
+        mNow += OPEN_DURATION;
+        assertTrue(breaker.allowRequest());
+
+        mNow += OPEN_DURATION;
+
+        assertTrue(breaker.allowRequest());
+    }
+
+    private CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = newBreaker();
+        for (int i = 0; i < THRESHOLD; i++) {
+            breaker.onFailure();
+        }
+        return breaker;
+    }
+
+    private CircuitBreaker newBreaker() {
+        return new CircuitBreaker(THRESHOLD, OPEN_DURATION) {
+            @Override
+            protected long elapsedMillis() {
+                return mNow;
+            }
+        };
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.p6_newsappstage1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HttpTransport}, run against a stub HTTP server that compresses its
+ * responses when asked to, the way the Guardian API does.
+ */
+public class HttpTransportTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int REQUESTS = 50;
+
+    private HttpServer mServer;
+    private byte[] mBody;
+
+    /** Remote ports of the connections requests arrived on, one per connection */
+    private final Set<Integer> mClientPorts = new HashSet<>();
+
+    @Before
+    public void startServer() throws IOException {
+        StringBuilder body = new StringBuilder("{\"response\":{\"results\":[");
+        for (int i = 0; i < 200; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"webTitle\":\"Story ").append(i)
+                    .append("\",\"sectionName\":\"World news\"}");
+        }
+        mBody = body.append("]}}").toString().getBytes(UTF_8);
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (mClientPorts) {
+                    mClientPorts.add(exchange.getRemoteAddress().getPort());
+                }
+                if (exchange.getRequestURI().getPath().equals("/slow")) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                byte[] body = mBody;
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                    gzip.write(body);
+                    gzip.close();
+                    body = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void call_decompressesGzipBody() throws IOException {
+        HttpTransport transport = new HttpTransport(1000, 1000);
+        HttpTransport.Call call = transport.newCall(url("/"));
+
+        assertEquals(HttpURLConnection.HTTP_OK, call.execute());
+        byte[] body = readFully(call.getBody());
+        call.close();
+
+        assertArrayEquals(mBody, body);
+        long received = call.getTimings().getBytesReceived();
+        assertTrue("gzip body should be much smaller, was " + received + " bytes",
+                received < mBody.length / 4);
+        // Waiting for the network is a part of the transfer, decompressing the rest
+        assertTrue(call.getTimings().getReadNanos() > 0);
+        assertTrue(call.getTimings().getReadNanos() <= call.getTimings().getTransferNanos());
+    }
+
+    @Test
+    public void closedCalls_reuseTheirConnection() throws IOException {
+        HttpTransport transport = new HttpTransport(1000, 1000);
+        for (int i = 0; i < REQUESTS; i++) {
+            HttpTransport.Call call = transport.newCall(url("/"));
+            call.execute();
+            readFully(call.getBody());
+            call.close();
+        }
+        int reusedConnections = connectionCount();
+
+        synchronized (mClientPorts) {
+            mClientPorts.clear();
+        }
+        for (int i = 0; i < REQUESTS; i++) {
+            HttpTransport.Call call = transport.newCall(url("/"));
+            call.execute();
+            readFully(call.getBody());
+            call.disconnect();
+        }
+        int newConnections = connectionCount();
+
+        assertEquals(1, reusedConnections);
+        assertEquals(REQUESTS, newConnections);
+    }
+
+    @Test
+    public void readTimeout_isSetPerCall() throws IOException {
+        HttpTransport transport = new HttpTransport(1000, 5000);
+        HttpTransport.Call call = transport.newCall(url("/slow"), 1000, 100);
+
+        long start = System.nanoTime();
+        try {
+            call.execute();
+            fail("the response takes longer than the read timeout");
+        } catch (SocketTimeoutException expected) {
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            assertTrue("timed out after " + elapsedMillis + " ms", elapsedMillis < 900);
+        } finally {
+            call.disconnect();
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + path);
+    }
+
+    private int connectionCount() {
+        synchronized (mClientPorts) {
+            return mClientPorts.size();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueOnce() {
+        int previousIndex = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            if (index != previousIndex) {
+                assertEquals(previousIndex + 1, index);
+                if (previousIndex >= 0) {
+                    assertEquals(value - 1, LatencyHistogram.highestValueOf(previousIndex));
+                }
+                previousIndex = index;
+            }
+        }
+    }
+
+    @Test
+    public void buckets_keepRelativeError() {
+        for (long value = 1; value < LatencyHistogram.MAX_VALUE; value = value * 3 + 1) {
+            long highest = LatencyHistogram.highestValueOf(LatencyHistogram.bucketIndex(value));
+            assertTrue(highest >= value);
+            assertTrue((double) (highest - value) / value
+                    <= 1.0 / LatencyHistogram.SUB_BUCKET_COUNT);
+        }
+    }
+
+    @Test
+    public void percentiles_matchRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+        assertWithinPrecision(500, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(990, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void percentiles_followSkewedDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(7);
+        // Mostly fast, with a slow tail, as latencies are
+        for (int i = 0; i < 9900; i++) {
+            histogram.record(2000 + random.nextInt(1000));
+        }
+        for (int i = 0; i < 100; i++) {
+            histogram.record(800000 + random.nextInt(200000));
+        }
+
+        assertTrue(histogram.getValueAtPercentile(50) < 3000 * 1.04);
+        assertTrue(histogram.getValueAtPercentile(99) < 3000 * 1.04);
+        assertTrue(histogram.getValueAtPercentile(99.9) >= 800000);
+    }
+
+    @Test
+    public void record_clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void recordNanos_countsMicroseconds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(25999);
+
+        assertEquals(25, histogram.getMax());
+    }
+
+    @Test
+    public void reset_forgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1234);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void record_isSafeFromSeveralThreads() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(offset * 10000 + i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(39999, histogram.getMax());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKET_COUNT + 1);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link NewsStoryIndex}.
+ */
+public class NewsStoryIndexTest {
+
+    private static final NewsStory ELECTION = new NewsStory("Élection results: a close race",
+            "World news", PublicationDates.UNKNOWN, "https://www.theguardian.com/world/1",
+            "Jane Doe");
+    private static final NewsStory FOOTBALL = new NewsStory("Football: late goal wins the race",
+            "Sport", PublicationDates.UNKNOWN, "https://www.theguardian.com/sport/2",
+            "John Smith");
+    private static final NewsStory MARKETS = new NewsStory("Markets close higher",
+            "Business", PublicationDates.UNKNOWN, "https://www.theguardian.com/business/3",
+            "Jane Roe");
+
+    @Test
+    public void tokenize_splitsAndCaseFolds() {
+        assertEquals(Arrays.asList("élection", "results", "a", "close", "race", "2018"),
+                NewsStoryIndex.tokenize("Élection RESULTS: a close-race (2018)!"));
+        assertEquals(Collections.emptyList(), NewsStoryIndex.tokenize(" -- "));
+    }
+
+    @Test
+    public void search_matchesPrefixesOfEveryField() {
+        NewsStoryIndex index = newIndex();
+
+        assertEquals(Arrays.asList(ELECTION, FOOTBALL), index.search("rac", 10));
+        assertEquals(Collections.singletonList(FOOTBALL), index.search("SPO", 10));
+        assertEquals(Arrays.asList(ELECTION, MARKETS), index.search("jane", 10));
+        assertEquals(Collections.singletonList(ELECTION), index.search("élec", 10));
+    }
+
+    @Test
+    public void search_needsEveryWord() {
+        NewsStoryIndex index = newIndex();
+
+        assertEquals(Collections.singletonList(MARKETS), index.search("close jane ro", 10));
+        assertEquals(Collections.emptyList(), index.search("close sport", 10));
+        assertEquals(Collections.emptyList(), index.search("nothing", 10));
+    }
+
+    @Test
+    public void search_withoutWords_matchesEverything() {
+        assertEquals(Arrays.asList(ELECTION, FOOTBALL, MARKETS), newIndex().search("  ", 10));
+    }
+
+    @Test
+    public void search_stopsAtLimit() {
+        assertEquals(Collections.singletonList(ELECTION), newIndex().search("close", 1));
+    }
+
+    @Test
+    public void add_ignoresSameStoryAndReplacesChangedOne() {
+        NewsStoryIndex index = newIndex();
+        NewsStory updated = new NewsStory("Markets fall", "Business", PublicationDates.UNKNOWN,
+                MARKETS.getUrl(), "Jane Roe");
+
+        index.add(ELECTION);
+        index.add(updated);
+
+        assertEquals(3, index.size());
+        assertEquals(Collections.singletonList(ELECTION), index.search("close", 10));
+        assertEquals(Collections.singletonList(updated), index.search("fall", 10));
+    }
+
+    @Test
+    public void add_dropsReplacedVersions_onceThereAreMany() {
+        NewsStoryIndex index = newIndex();
+        NewsStory updated = MARKETS;
+        for (int i = 0; i < 3 * NewsStoryIndex.MIN_REPLACED_TO_COMPACT; i++) {
+            updated = new NewsStory("Markets update " + i, "Business", PublicationDates.UNKNOWN,
+                    MARKETS.getUrl(), "Jane Roe");
+            index.add(updated);
+        }
+
+        assertEquals(3, index.size());
+        // Only the terms of the versions replaced since the index was last rebuilt are left
+        assertTrue(index.getTermCount() < 2 * NewsStoryIndex.MIN_REPLACED_TO_COMPACT);
+        assertEquals(Arrays.asList(ELECTION, FOOTBALL, updated), index.search("", 10));
+        assertEquals(Collections.singletonList(updated),
+                index.search(updated.getTitle(), 10));
+    }
+
+    @Test
+    public void clear_removesEverything() {
+        NewsStoryIndex index = newIndex();
+
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.getTermCount());
+        assertEquals(Collections.emptyList(), index.search("", 10));
+    }
+
+    private static NewsStoryIndex newIndex() {
+        NewsStoryIndex index = new NewsStoryIndex();
+        List<NewsStory> newsStories = Arrays.asList(ELECTION, FOOTBALL, MARKETS);
+        index.addAll(newsStories);
+        return index;
+    }
+}
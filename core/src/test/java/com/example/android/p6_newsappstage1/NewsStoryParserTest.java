@@ -0,0 +1,142 @@
+package com.example.android.p6_newsappstage1;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link NewsStoryParser}.
+ */
+public class NewsStoryParserTest {
+
+    private static final String FIRST_STORY = "{\"id\":\"world/1\","
+            + "\"sectionName\":\"World news\",\"webPublicationDate\":\"2018-04-15T12:00:00Z\","
+            + "\"webTitle\":\"First\",\"webUrl\":\"https://www.theguardian.com/world/1\","
+            + "\"tags\":[{\"webTitle\":\"Jane Doe\"},{\"webTitle\":\"John Doe\"}],"
+            + "\"fields\":{\"thumbnail\":\"https://media.guim.co.uk/1/500.jpg\"}}";
+    private static final String SECOND_STORY = "{\"sectionName\":\"Sport\","
+            + "\"webPublicationDate\":\"not a date\",\"webTitle\":\"Second\","
+            + "\"webUrl\":\"https://www.theguardian.com/sport/2\",\"tags\":[],\"fields\":null}";
+
+    @Test
+    public void parse_readsResultsAndSkipsEverythingElse() throws IOException {
+        List<NewsStory> newsStories = parse("{\"response\":{\"status\":\"ok\",\"pages\":3,"
+                + "\"results\":[" + FIRST_STORY + "," + SECOND_STORY + "]},\"extra\":[1,2]}");
+
+        assertEquals(2, newsStories.size());
+        NewsStory first = newsStories.get(0);
+        assertEquals("First", first.getTitle());
+        assertEquals("World news", first.getSectionName());
+        assertEquals(1523793600000L, first.getPublicationTime());
+        assertEquals("https://www.theguardian.com/world/1", first.getUrl());
+        assertEquals("Jane Doe", first.getContributorName());
+        assertEquals("https://media.guim.co.uk/1/500.jpg", first.getThumbnailUrl());
+
+        NewsStory second = newsStories.get(1);
+        assertEquals(PublicationDates.UNKNOWN, second.getPublicationTime());
+        assertEquals("", second.getContributorName());
+        assertNull(second.getThumbnailUrl());
+    }
+
+    @Test
+    public void parse_keepsStoriesBeforeMalformedJson() throws IOException {
+        List<NewsStory> newsStories = parse("{\"response\":{\"results\":[" + FIRST_STORY
+                + ",{\"webTitle\" \"Second\"}]}}");
+
+        assertEquals(1, newsStories.size());
+        assertEquals("First", newsStories.get(0).getTitle());
+    }
+
+    @Test
+    public void parse_throwsOnTruncation_afterHandingOutBatches() throws IOException {
+        StringBuilder response = new StringBuilder("{\"response\":{\"results\":[");
+        for (int i = 0; i < NewsStoryParser.FIRST_BATCH_SIZE + 1; i++) {
+            response.append(i == 0 ? "" : ",").append(FIRST_STORY);
+        }
+        final List<Integer> batchSizes = new ArrayList<>();
+        NewsStoryParser.BatchListener listener = new NewsStoryParser.BatchListener() {
+            @Override
+            public void onBatch(List<NewsStory> newsStories) {
+                batchSizes.add(newsStories.size());
+            }
+        };
+
+        // Cut off in the middle of a value, then at the end of one
+        for (int cut : new int[] {20, 1}) {
+            batchSizes.clear();
+            try {
+                NewsStoryParser.parse(stream(response.substring(0, response.length() - cut)),
+                        10, listener);
+                fail("Expected a truncated response to be an error");
+            } catch (EOFException expected) {
+                // The stories read so far were only handed out as a batch
+            }
+            assertEquals(Arrays.asList(NewsStoryParser.FIRST_BATCH_SIZE), batchSizes);
+        }
+    }
+
+    @Test
+    public void parse_returnsNothingForUnexpectedJson() throws IOException {
+        assertTrue(parse("[]").isEmpty());
+        assertTrue(parse("{\"response\":{\"results\":\"none\"}}").isEmpty());
+    }
+
+    @Test
+    public void parseStrictly_throwsOnMalformedJsonOrMissingResponse() throws IOException {
+        String[] notResponses = {"<html>Bad gateway</html>", "[]", "{\"message\":\"error\"}",
+                "{\"response\":{\"results\":[" + FIRST_STORY + ",{\"webTitle\" \"x\"}]}}"};
+        for (String json : notResponses) {
+            try {
+                NewsStoryParser.parseStrictly(stream(json), 10);
+                fail("Expected " + json + " to be an error");
+            } catch (MalformedJsonException expected) {
+                // Not a response the stories of could all be read
+            }
+        }
+        assertTrue(NewsStoryParser.parseStrictly(
+                stream("{\"response\":{\"results\":[]}}"), 10).isEmpty());
+        assertEquals(1, NewsStoryParser.parseStrictly(
+                stream("{\"response\":{\"results\":[" + FIRST_STORY + "]}}"), 10).size());
+    }
+
+    @Test
+    public void parse_handsOutGrowingBatches() throws IOException {
+        StringBuilder results = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            results.append(i == 0 ? "" : ",").append(FIRST_STORY);
+        }
+        final List<Integer> batchSizes = new ArrayList<>();
+        NewsStoryParser.BatchListener listener = new NewsStoryParser.BatchListener() {
+            @Override
+            public void onBatch(List<NewsStory> newsStories) {
+                batchSizes.add(newsStories.size());
+            }
+        };
+
+        List<NewsStory> newsStories = NewsStoryParser.parse(
+                stream("{\"response\":{\"results\":[" + results + "]}}"), 10, listener);
+
+        assertEquals(25, newsStories.size());
+        assertEquals(Arrays.asList(NewsStoryParser.FIRST_BATCH_SIZE, 10, 20), batchSizes);
+    }
+
+    private static List<NewsStory> parse(String json) throws IOException {
+        return NewsStoryParser.parse(stream(json), 10);
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8")));
+    }
+}
+
@@ -0,0 +1,109 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link NewsStorySnapshot}.
+ */
+public class NewsStorySnapshotTest {
+
+    private static final String KEY = "politics|newest";
+    private static final long SAVED_AT = 1523793600000L;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void write_thenRead_returnsSameFeed() throws IOException {
+        File file = mFolder.newFile();
+        List<NewsStory> newsStories = newsStories();
+
+        NewsStorySnapshot.write(file, KEY, SAVED_AT, newsStories);
+        NewsStorySnapshot snapshot = NewsStorySnapshot.read(file);
+
+        assertNotNull(snapshot);
+        assertEquals(KEY, snapshot.getQueryKey());
+        assertEquals(SAVED_AT, snapshot.getSavedAt());
+        assertEquals(newsStories, snapshot.getNewsStories());
+    }
+
+    @Test
+    public void repeatedNames_areWrittenOnce() {
+        List<NewsStory> newsStories = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            newsStories.add(new NewsStory("T" + i, "A rather long section name",
+                    SAVED_AT, "u" + i, "A rather long contributor name"));
+        }
+
+        int size = NewsStorySnapshot.encode(KEY, SAVED_AT, newsStories).length;
+
+        // Title and URL of a few bytes each, two name indexes and a time per story
+        assertTrue(size < 100 + 50 * 40);
+    }
+
+    @Test
+    public void read_ignoresMissingFile() {
+        assertNull(NewsStorySnapshot.read(new File(mFolder.getRoot(), "missing")));
+    }
+
+    @Test
+    public void decode_ignoresCorruptedByte() {
+        byte[] snapshot = NewsStorySnapshot.encode(KEY, SAVED_AT, newsStories());
+        for (int i = 0; i < snapshot.length; i++) {
+            byte[] corrupted = snapshot.clone();
+            corrupted[i] ^= 0x10;
+
+            assertNull("byte " + i, NewsStorySnapshot.decode(ByteBuffer.wrap(corrupted)));
+        }
+    }
+
+    @Test
+    public void decode_ignoresTruncatedSnapshot() {
+        byte[] snapshot = NewsStorySnapshot.encode(KEY, SAVED_AT, newsStories());
+        for (int length = 0; length < snapshot.length; length++) {
+            assertNull(NewsStorySnapshot.decode(ByteBuffer.wrap(snapshot, 0, length)));
+        }
+    }
+
+    @Test
+    public void decode_ignoresOtherVersion() {
+        byte[] snapshot = NewsStorySnapshot.encode(KEY, SAVED_AT, newsStories());
+        ByteBuffer.wrap(snapshot).putInt(4, NewsStorySnapshot.VERSION + 1);
+
+        assertNull(NewsStorySnapshot.decode(ByteBuffer.wrap(snapshot)));
+    }
+
+    @Test
+    public void read_ignoresGarbage() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("{\"response\":{}}".getBytes("UTF-8"));
+        out.close();
+
+        assertNull(NewsStorySnapshot.read(file));
+    }
+
+    private static List<NewsStory> newsStories() {
+        return Arrays.asList(
+                new NewsStory("First ünïcödé", "World news", SAVED_AT,
+                        "https://www.theguardian.com/world/1", "Jane Doe",
+                        "https://media.guim.co.uk/1/500.jpg"),
+                new NewsStory("Second", "Sport", PublicationDates.UNKNOWN,
+                        "https://www.theguardian.com/sport/2", ""),
+                new NewsStory("Third", "World news", SAVED_AT - 1000,
+                        "http://example.com/3", "Jane Doe"),
+                new NewsStory(null, null, PublicationDates.UNKNOWN, null, null));
+    }
+}
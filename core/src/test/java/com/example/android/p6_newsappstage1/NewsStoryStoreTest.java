@@ -0,0 +1,186 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link NewsStoryStore}, including its size compared with a list of
+ * {@link NewsStory} objects.
+ */
+public class NewsStoryStoreTest {
+
+    private static final int STORIES = 5000;
+
+    private static final String[] SECTIONS = {"Politics", "Sport", "World news", "Business",
+            "Culture", "Technology", "Environment", "Football"};
+    private static final String[] CONTRIBUTORS = {"Jessica Elgot", "Peter Walker",
+            "Andrew Sparrow", "Damian Carrington", "Alex Hern", "Barney Ronay", "Marina Hyde"};
+
+    @Test
+    public void get_returnsStoredFields() {
+        NewsStoryStore store = new NewsStoryStore(1);
+        store.add("Title ünïcödé", "Politics", 1523781335000L,
+                "https://www.theguardian.com/a", "Jessica Elgot");
+        store.add(null, null, PublicationDates.UNKNOWN, "http://example.com/b", null);
+
+        assertEquals(2, store.size());
+        NewsStory first = store.get(0);
+        assertEquals("Title ünïcödé", first.getTitle());
+        assertEquals("Politics", first.getSectionName());
+        assertEquals(1523781335000L, first.getPublicationTime());
+        assertEquals("https://www.theguardian.com/a", first.getUrl());
+        assertEquals("Jessica Elgot", first.getContributorName());
+        assertNull(store.get(1).getTitle());
+        assertEquals("http://example.com/b", store.get(1).getUrl());
+    }
+
+    @Test
+    public void nullAndEmptyFields_readBackAsAdded() {
+        NewsStory[] newsStories = {
+                new NewsStory(null, null, PublicationDates.UNKNOWN, null, null, null),
+                new NewsStory("", "", 0L, "", "", ""),
+                new NewsStory(null, "Sport", 1L, "https://www.theguardian.com/", null,
+                        "https://media.guim.co.uk/1/500.jpg"),
+                new NewsStory("Title", null, 2L, null, "Jessica Elgot", "")};
+        NewsStoryStore store = new NewsStoryStore(1);
+        for (NewsStory newsStory : newsStories) {
+            store.add(newsStory);
+        }
+
+        for (int i = 0; i < newsStories.length; i++) {
+            NewsStory newsStory = store.get(i);
+            assertEquals(newsStories[i], newsStory);
+            assertEquals(newsStories[i].getThumbnailUrl(), newsStory.getThumbnailUrl());
+        }
+        assertEquals(store, store.snapshot());
+    }
+
+    @Test
+    public void repeatedNames_areStoredOnce() {
+        NewsStoryStore first = newStore(10);
+        NewsStoryStore second = newStore(10);
+
+        assertSame(first.get(0).getSectionName(), second.get(0).getSectionName());
+        assertSame(first.get(1).getContributorName(), second.get(1).getContributorName());
+    }
+
+    @Test
+    public void equals_comparesContent() {
+        NewsStoryStore store = newStore(10);
+
+        assertEquals(newStore(10), store);
+        assertNotEquals(newStore(9), store);
+        assertEquals(new ArrayList<>(store), store);
+    }
+
+    @Test
+    public void snapshot_keepsStoriesAddedSoFar() {
+        NewsStoryStore store = newStore(3);
+        NewsStoryStore snapshot = store.snapshot();
+        store.add("Later", "Sport", PublicationDates.UNKNOWN, "https://www.theguardian.com/later",
+                null);
+
+        assertEquals(newStore(3), snapshot);
+        assertEquals(4, store.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void set_isNotSupported() {
+        newStore(1).set(0, null);
+    }
+
+    @Test
+    public void trimToSize_releasesRoomNeverUsed_andKeepsStories() {
+        NewsStoryStore store = newStore(3);
+        long untrimmedSize = store.estimateRetainedSize();
+
+        store.trimToSize();
+
+        assertTrue(store.estimateRetainedSize() < untrimmedSize);
+        assertEquals(newStore(3), store);
+    }
+
+    @Test
+    public void emptyStore_growsOnceTrimmedOrCopied() {
+        NewsStoryStore trimmed = new NewsStoryStore(16);
+        trimmed.trimToSize();
+        NewsStoryStore copied = new NewsStoryStore(16).snapshot();
+
+        for (NewsStoryStore store : new NewsStoryStore[] {trimmed, copied}) {
+            for (int i = 0; i < 3; i++) {
+                store.add(title(i), SECTIONS[i % SECTIONS.length], time(i), url(i),
+                        CONTRIBUTORS[i % CONTRIBUTORS.length]);
+            }
+            assertEquals(newStore(3), store);
+        }
+    }
+
+    @Test
+    public void retainedSize_isAFractionOfNewsStoryList() {
+        List<NewsStory> newsStories = new ArrayList<>();
+        for (int i = 0; i < STORIES; i++) {
+            newsStories.add(new NewsStory(title(i), SECTIONS[i % SECTIONS.length], time(i),
+                    url(i), CONTRIBUTORS[i % CONTRIBUTORS.length]));
+        }
+        NewsStoryStore store = newStore(STORIES);
+        store.trimToSize();
+
+        long listSize = estimateRetainedSize(newsStories);
+        long storeSize = store.estimateRetainedSize();
+        assertTrue("list " + listSize + " bytes, store " + storeSize + " bytes",
+                storeSize < listSize / 2);
+    }
+
+    /**
+     * Return the bytes a list of stories parsed from a response retains on a 32-bit or
+     * compressed-oops runtime, where every value is a String of its own with an array of UTF-16
+     * chars, as the parser creates a new one for every value it reads.
+     */
+    private static long estimateRetainedSize(List<NewsStory> newsStories) {
+        // The list and its array of references
+        long size = 24 + align(16 + 4L * newsStories.size());
+        for (NewsStory newsStory : newsStories) {
+            // Header, five references and the publication time
+            size += align(12 + 5 * 4 + 8)
+                    + estimateRetainedSize(newsStory.getTitle())
+                    + estimateRetainedSize(newsStory.getSectionName())
+                    + estimateRetainedSize(newsStory.getUrl())
+                    + estimateRetainedSize(newsStory.getContributorName())
+                    + estimateRetainedSize(newsStory.getThumbnailUrl());
+        }
+        return size;
+    }
+
+    private static long estimateRetainedSize(String value) {
+        return value == null ? 0 : 24 + align(16 + 2L * value.length());
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static NewsStoryStore newStore(int size) {
+        NewsStoryStore store = new NewsStoryStore(16);
+        for (int i = 0; i < size; i++) {
+            store.add(title(i), SECTIONS[i % SECTIONS.length], time(i), url(i),
+                    CONTRIBUTORS[i % CONTRIBUTORS.length]);
+        }
+        return store;
+    }
+
+    private static String title(int i) {
+        return "Ministers under pressure over plan number " + i + " as the vote draws near";
+    }
+
+    private static String url(int i) {
+        return "https://www.theguardian.com/politics/2018/apr/15/ministers-pressure-plan-" + i;
+    }
+
+    private static long time(int i) {
+        return 1523781335000L - i * 60000L;
+    }
+}
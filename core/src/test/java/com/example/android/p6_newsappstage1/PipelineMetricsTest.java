@@ -0,0 +1,103 @@
+package com.example.android.p6_newsappstage1;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PipelineMetrics}.
+ */
+public class PipelineMetricsTest {
+
+    @Test
+    public void queryTypeOf_tellsQueriesApart() {
+        assertEquals(PipelineMetrics.QUERY_LATEST, PipelineMetrics.queryTypeOf(
+                "http://content.guardianapis.com/search?order-by=newest&page-size=20"));
+        assertEquals(PipelineMetrics.QUERY_SEARCH, PipelineMetrics.queryTypeOf(
+                "http://content.guardianapis.com/search?order-by=newest&q=climate"));
+        assertEquals(PipelineMetrics.QUERY_SEARCH, PipelineMetrics.queryTypeOf("q=climate"));
+        assertEquals(PipelineMetrics.QUERY_SYNC, PipelineMetrics.queryTypeOf(
+                "order-by=newest&q=climate&from-date=2018-04-15T12:00:00Z&page=1"));
+        assertEquals(PipelineMetrics.QUERY_SYNC, PipelineMetrics.queryTypeOf(
+                "order-by=oldest&q=climate&from-date=2018-04-15T12:00:00Z&page=2"));
+        // A later page of a merged timeline sorted oldest first
+        assertEquals(PipelineMetrics.QUERY_SEARCH, PipelineMetrics.queryTypeOf(
+                "order-by=oldest&page-size=20&q=climate&from-date=2018-04-15T12:00:00Z"));
+        assertEquals(PipelineMetrics.QUERY_THUMBNAILS, PipelineMetrics.queryTypeOf(
+                "ids=world%2F2018%2Fapr%2F15%2Fstory&show-fields=thumbnail&page-size=1"));
+        assertEquals(PipelineMetrics.QUERY_LATEST, PipelineMetrics.queryTypeOf(null));
+        // Other parameters ending in "q" are not a search term
+        assertEquals(PipelineMetrics.QUERY_LATEST, PipelineMetrics.queryTypeOf("faq=1"));
+    }
+
+    @Test
+    public void forQuery_keepsMetricsPerQueryType() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.forQuery(PipelineMetrics.QUERY_SEARCH).increment(PipelineMetrics.COUNTER_REQUESTS);
+        metrics.forQuery(PipelineMetrics.QUERY_SEARCH).increment(PipelineMetrics.COUNTER_REQUESTS);
+        metrics.forQuery(PipelineMetrics.QUERY_SYNC).increment(PipelineMetrics.COUNTER_FAILED);
+
+        assertSame(metrics.forQuery(PipelineMetrics.QUERY_SEARCH),
+                metrics.forQuery(PipelineMetrics.QUERY_SEARCH));
+        assertEquals(2, metrics.forQuery(PipelineMetrics.QUERY_SEARCH)
+                .getCount(PipelineMetrics.COUNTER_REQUESTS));
+        assertEquals(0, metrics.forQuery(PipelineMetrics.QUERY_SYNC)
+                .getCount(PipelineMetrics.COUNTER_REQUESTS));
+        assertEquals(Arrays.asList(PipelineMetrics.QUERY_SEARCH, PipelineMetrics.QUERY_SYNC),
+                metrics.getQueryTypes());
+    }
+
+    @Test
+    public void toJson_dumpsCountersPercentilesAndBuckets() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        PipelineMetrics.QueryMetrics search = metrics.forQuery(PipelineMetrics.QUERY_SEARCH);
+        search.increment(PipelineMetrics.COUNTER_REQUESTS);
+        search.add(PipelineMetrics.COUNTER_BYTES_RECEIVED, 12345);
+        search.recordNanos(PipelineMetrics.STAGE_PARSE, 3000000);
+        search.recordNanos(PipelineMetrics.STAGE_PARSE, 5000000);
+        metrics.getBindHistogram().record(40);
+
+        JsonObject json = new JsonParser().parse(metrics.toJson()).getAsJsonObject();
+
+        JsonObject searchJson = json.getAsJsonObject("queries").getAsJsonObject("search");
+        JsonObject counters = searchJson.getAsJsonObject("counters");
+        assertEquals(1, counters.get("requests").getAsLong());
+        assertEquals(12345, counters.get("bytes_received").getAsLong());
+        assertEquals(0, counters.get("cancelled").getAsLong());
+
+        JsonObject stages = searchJson.getAsJsonObject("stages");
+        // Stages without measurements are left out
+        assertFalse(stages.has("connect"));
+        JsonObject parse = stages.getAsJsonObject("parse");
+        assertEquals(2, parse.get("count").getAsLong());
+        assertEquals(4000, parse.get("mean_us").getAsLong());
+        assertEquals(5000, parse.get("max_us").getAsLong());
+        assertTrue(parse.has("p99_9_us"));
+        JsonArray buckets = parse.getAsJsonArray("buckets");
+        assertEquals(2, buckets.size());
+        assertEquals(1, buckets.get(0).getAsJsonArray().get(1).getAsLong());
+
+        assertEquals(1, json.getAsJsonObject("bind").get("count").getAsLong());
+    }
+
+    @Test
+    public void reset_clearsEveryQueryType() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.forQuery(PipelineMetrics.QUERY_LATEST).recordNanos(PipelineMetrics.STAGE_LOAD, 1000);
+        metrics.forQuery(PipelineMetrics.QUERY_LATEST).increment(PipelineMetrics.COUNTER_STORIES);
+        metrics.getBindHistogram().record(1);
+
+        metrics.reset();
+
+        PipelineMetrics.QueryMetrics latest = metrics.forQuery(PipelineMetrics.QUERY_LATEST);
+        assertEquals(0, latest.getStage(PipelineMetrics.STAGE_LOAD).getCount());
+        assertEquals(0, latest.getCount(PipelineMetrics.COUNTER_STORIES));
+        assertEquals(0, metrics.getBindHistogram().getCount());
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PriorityExecutor}.
+ */
+public class PriorityExecutorTest {
+
+    private static final int WORKERS = 2;
+    private static final int CAPACITY = 4;
+
+    /** Time a test waits for a task at most */
+    private static final long TIMEOUT = 5;  /* seconds */
+
+    private PipelineMetrics mMetrics;
+    private PriorityExecutor mExecutor;
+
+    @Before
+    public void startExecutor() {
+        mMetrics = new PipelineMetrics();
+        mExecutor = new PriorityExecutor(WORKERS, CAPACITY, mMetrics);
+    }
+
+    @After
+    public void stopExecutor() {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void freeWorker_takesMostUrgentLaneFirst() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch releaseOther = new CountDownLatch(1);
+        Future<?> blocker = mExecutor.submit(PriorityExecutor.LANE_VISIBLE, blocking(release),
+                new CancellableRequest());
+        mExecutor.submit(PriorityExecutor.LANE_VISIBLE, blocking(releaseOther),
+                new CancellableRequest());
+        waitForQueued(PriorityExecutor.LANE_VISIBLE, 0);
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Future<?> decode = mExecutor.submit(PriorityExecutor.LANE_DECODE, recording(order, 2),
+                new CancellableRequest());
+        mExecutor.submit(PriorityExecutor.LANE_VISIBLE, recording(order, 0),
+                new CancellableRequest());
+        mExecutor.submit(PriorityExecutor.LANE_VISIBLE, recording(order, 1),
+                new CancellableRequest());
+        // Only one worker is freed, so it runs the waiting tasks one at a time
+        release.countDown();
+        blocker.get(TIMEOUT, TimeUnit.SECONDS);
+        decode.get(TIMEOUT, TimeUnit.SECONDS);
+        releaseOther.countDown();
+
+        assertEquals(Arrays.asList(0, 1, 2), order);
+        assertEquals(4, mMetrics.forLane(PriorityExecutor.LANE_VISIBLE)
+                .getCount(PipelineMetrics.LANE_COUNTER_SUBMITTED));
+        assertEquals(4, mMetrics.forLane(PriorityExecutor.LANE_VISIBLE).getWait().getCount());
+    }
+
+    @Test
+    public void deferredLanes_leaveWorkerForVisibleLane() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> prefetch = mExecutor.submit(PriorityExecutor.LANE_PREFETCH, blocking(release),
+                new CancellableRequest());
+        Future<?> background = mExecutor.submit(PriorityExecutor.LANE_BACKGROUND,
+                blocking(release), new CancellableRequest());
+        waitForQueued(PriorityExecutor.LANE_PREFETCH, 0);
+
+        // Only one of the two workers may run a deferred task, the other one is left free
+        Thread.sleep(100);
+        assertEquals(1, mExecutor.getQueued(PriorityExecutor.LANE_BACKGROUND));
+        String result = mExecutor.submit(PriorityExecutor.LANE_VISIBLE, returning("visible"),
+                new CancellableRequest()).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals("visible", result);
+
+        release.countDown();
+        prefetch.get(TIMEOUT, TimeUnit.SECONDS);
+        background.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void fullLane_rejectsTask() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        mExecutor.submit(PriorityExecutor.LANE_PREFETCH, blocking(release),
+                new CancellableRequest());
+        waitForQueued(PriorityExecutor.LANE_PREFETCH, 0);
+        for (int i = 0; i < CAPACITY; i++) {
+            mExecutor.submit(PriorityExecutor.LANE_BACKGROUND, blocking(release),
+                    new CancellableRequest());
+        }
+
+        try {
+            mExecutor.submit(PriorityExecutor.LANE_BACKGROUND, blocking(release),
+                    new CancellableRequest());
+            fail("Expected the full lane to reject the task");
+        } catch (RejectedExecutionException expected) {
+            // The lane is full
+        } finally {
+            release.countDown();
+        }
+        PipelineMetrics.LaneMetrics metrics = mMetrics.forLane(PriorityExecutor.LANE_BACKGROUND);
+        assertEquals(1, metrics.getCount(PipelineMetrics.LANE_COUNTER_REJECTED));
+        assertEquals(CAPACITY, metrics.getMaxQueued());
+        // Another lane still takes tasks
+        assertEquals("visible", mExecutor.invoke(PriorityExecutor.LANE_VISIBLE,
+                returning("visible"), new CancellableRequest()));
+    }
+
+    @Test
+    public void cancellingRequest_dropsWaitingTask() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> prefetch = mExecutor.submit(PriorityExecutor.LANE_PREFETCH, blocking(release),
+                new CancellableRequest());
+        waitForQueued(PriorityExecutor.LANE_PREFETCH, 0);
+        CancellableRequest query = new CancellableRequest();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Future<?> waiting = mExecutor.submit(PriorityExecutor.LANE_BACKGROUND,
+                recording(order, 0), query.newChild());
+        assertEquals(1, mExecutor.getQueued(PriorityExecutor.LANE_BACKGROUND));
+
+        query.cancel();
+
+        assertTrue(waiting.isCancelled());
+        assertEquals(0, mExecutor.getQueued(PriorityExecutor.LANE_BACKGROUND));
+        assertEquals(1, mMetrics.forLane(PriorityExecutor.LANE_BACKGROUND)
+                .getCount(PipelineMetrics.LANE_COUNTER_CANCELLED));
+        release.countDown();
+        prefetch.get(TIMEOUT, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertTrue(order.isEmpty());
+    }
+
+    @Test
+    public void invoke_returnsResult_orNullOnceCancelled() {
+        assertEquals("result", mExecutor.invoke(PriorityExecutor.LANE_VISIBLE,
+                returning("result"), new CancellableRequest()));
+
+        CancellableRequest cancelled = new CancellableRequest();
+        cancelled.cancel();
+        assertNull(mExecutor.invoke(PriorityExecutor.LANE_VISIBLE, returning("result"),
+                cancelled));
+        assertEquals(1, mMetrics.forLane(PriorityExecutor.LANE_VISIBLE)
+                .getWait().getCount());
+    }
+
+    @Test
+    public void finishedTasks_leaveNothingOnTheirRequest() throws Exception {
+        CancellableRequest query = new CancellableRequest();
+        for (int i = 0; i < CAPACITY; i++) {
+            mExecutor.submit(PriorityExecutor.LANE_VISIBLE, returning(i), query)
+                    .get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        mExecutor.invoke(PriorityExecutor.LANE_VISIBLE, returning(0), query);
+
+        assertEquals(0, query.getChildCount());
+        assertFalse(query.isCancelled());
+    }
+
+    @Test
+    public void shuttingDownLaneView_leavesExecutorRunning() throws Exception {
+        ExecutorService lane = mExecutor.forLane(PriorityExecutor.LANE_PREFETCH);
+
+        lane.shutdown();
+        assertTrue(lane.shutdownNow().isEmpty());
+
+        assertFalse(lane.isShutdown());
+        assertEquals("prefetch", lane.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "prefetch";
+            }
+        }).get(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void scheduledTask_runsOnceDue_unlessCancelled() throws Exception {
+        long start = System.nanoTime();
+        Future<String> due = mExecutor.schedule(PriorityExecutor.LANE_VISIBLE, returning("due"),
+                100, TimeUnit.MILLISECONDS, new CancellableRequest());
+        assertEquals("due", due.get(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        CancellableRequest query = new CancellableRequest();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Future<?> waiting = mExecutor.schedule(PriorityExecutor.LANE_VISIBLE,
+                recording(order, 0), 100, TimeUnit.MILLISECONDS, query);
+        query.cancel();
+        Thread.sleep(200);
+
+        assertTrue(waiting.isCancelled());
+        assertTrue(order.isEmpty());
+        assertEquals(1, mMetrics.forLane(PriorityExecutor.LANE_VISIBLE)
+                .getCount(PipelineMetrics.LANE_COUNTER_CANCELLED));
+    }
+
+    @Test
+    public void taskSubmittedByBusyWorker_isStolen() throws Exception {
+        final CountDownLatch stolen = new CountDownLatch(1);
+        Future<Boolean> parent = mExecutor.submit(PriorityExecutor.LANE_VISIBLE,
+                new PriorityExecutor.Task<Boolean>() {
+                    @Override
+                    public Boolean run(CancellableRequest cancellation) throws Exception {
+                        // Queued on this worker, which stays busy, so only the other one runs it
+                        mExecutor.submit(PriorityExecutor.LANE_DECODE,
+                                new PriorityExecutor.Task<Void>() {
+                                    @Override
+                                    public Void run(CancellableRequest cancellation) {
+                                        stolen.countDown();
+                                        return null;
+                                    }
+                                }, new CancellableRequest());
+                        return stolen.await(TIMEOUT, TimeUnit.SECONDS);
+                    }
+                }, new CancellableRequest());
+
+        assertTrue(parent.get(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(1, mMetrics.forLane(PriorityExecutor.LANE_DECODE)
+                .getCount(PipelineMetrics.LANE_COUNTER_STOLEN));
+    }
+
+    private void waitForQueued(int lane, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (mExecutor.getQueued(lane) != queued) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static PriorityExecutor.Task<Void> blocking(final CountDownLatch release) {
+        return new PriorityExecutor.Task<Void>() {
+            @Override
+            public Void run(CancellableRequest cancellation) throws InterruptedException {
+                release.await(TIMEOUT, TimeUnit.SECONDS);
+                return null;
+            }
+        };
+    }
+
+    private static PriorityExecutor.Task<Void> recording(final List<Integer> order,
+                                                         final int id) {
+        return new PriorityExecutor.Task<Void>() {
+            @Override
+            public Void run(CancellableRequest cancellation) {
+                order.add(id);
+                return null;
+            }
+        };
+    }
+
+    private static <T> PriorityExecutor.Task<T> returning(final T result) {
+        return new PriorityExecutor.Task<T>() {
+            @Override
+            public T run(CancellableRequest cancellation) {
+                return result;
+            }
+        };
+    }
+}
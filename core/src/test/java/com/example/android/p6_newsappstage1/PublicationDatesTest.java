@@ -0,0 +1,94 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PublicationDates}.
+ */
+public class PublicationDatesTest {
+
+    private static final int ROWS = 50;
+    private static final int BINDS = 20000;
+
+    @Test
+    public void parse_readsUtcDate() {
+        assertEquals(1523781335000L, PublicationDates.parse("2018-04-15T08:35:35Z"));
+    }
+
+    @Test
+    public void parse_returnsUnknownForMalformedDate() {
+        assertEquals(PublicationDates.UNKNOWN, PublicationDates.parse("15 April 2018"));
+        assertEquals(PublicationDates.UNKNOWN, PublicationDates.parse(null));
+    }
+
+    @Test
+    public void format_showsMinuteOfUtcDate() {
+        assertEquals("2018-04-15  08:35", PublicationDates.format(1523781335000L));
+        assertEquals("2018-04-15  08:35", PublicationDates.format(1523781300000L));
+        assertEquals("", PublicationDates.format(PublicationDates.UNKNOWN));
+    }
+
+    @Test
+    public void format_isThreadSafe() throws InterruptedException {
+        final long[] times = dates();
+        final String[] expected = new String[times.length];
+        for (int i = 0; i < times.length; i++) {
+            expected[i] = newFormat("yyyy-MM-dd  HH:mm").format(times[i]);
+        }
+
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < BINDS; i++) {
+                        int row = i % times.length;
+                        if (!expected[row].equals(PublicationDates.format(times[row]))) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed[0]);
+    }
+
+    @Test
+    public void format_showsWhatParsingAndFormattingTheDateShowed() throws ParseException {
+        SimpleDateFormat inputDateFormat = newFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        SimpleDateFormat outputDateFormat = newFormat("yyyy-MM-dd  HH:mm");
+        for (long time : dates()) {
+            // What a row bind did before the date was parsed once at ingest
+            String webPublicationDate = inputDateFormat.format(time);
+            assertEquals(outputDateFormat.format(inputDateFormat.parse(webPublicationDate)),
+                    PublicationDates.format(PublicationDates.parse(webPublicationDate)));
+        }
+    }
+
+    /** Publication times of a page of stories, a few minutes apart. */
+    private static long[] dates() {
+        long[] times = new long[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            times[i] = 1523781335000L - i * 7 * 60 * 1000L;
+        }
+        return times;
+    }
+
+    private static SimpleDateFormat newFormat(String pattern) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+}
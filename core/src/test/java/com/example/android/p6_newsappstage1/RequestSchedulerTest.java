@@ -0,0 +1,391 @@
+package com.example.android.p6_newsappstage1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RequestScheduler}, run against a stub server that enforces a quota
+ * the way the API does for its test key.
+ */
+public class RequestSchedulerTest {
+
+    /** Requests per second the stub server accepts, and how many it accepts at once */
+    private static final double QUOTA_RATE = 20;
+    private static final int QUOTA_BURST = 3;
+
+    /** Requests made against the server's quota */
+    private static final int REQUESTS = 20;
+
+    /** Time the slow path of the server takes to answer */
+    private static final long SLOW_DELAY = 300;
+
+    private static final String BODY = "{\"response\":{\"results\":[]}}";
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    private double mQuotaTokens = QUOTA_BURST;
+    private long mQuotaRefillNanos = System.nanoTime();
+    private int mRequestCount;
+    private int mRateLimitedCount;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/quota", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (takeQuota()) {
+                    respond(exchange, HttpURLConnection.HTTP_OK);
+                } else {
+                    respond(exchange, RetryPolicy.HTTP_TOO_MANY_REQUESTS);
+                }
+            }
+        });
+        mServer.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                takeQuota();
+                try {
+                    Thread.sleep(SLOW_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, HttpURLConnection.HTTP_OK);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+        mExecutor = Executors.newFixedThreadPool(REQUESTS);
+    }
+
+    @After
+    public void stopServer() {
+        mExecutor.shutdownNow();
+        mServer.stop(0);
+    }
+
+    @Test
+    public void budget_keepsRequestsWithinQuota() throws Exception {
+        runAtOnce(REQUESTS, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    return fetch(null, "/quota", new CancellableRequest(), null);
+                } catch (HttpTransport.StatusException e) {
+                    return null;
+                }
+            }
+        });
+        int unscheduledRateLimited = rateLimitedCount();
+
+        resetCounts();
+        final RequestScheduler scheduler = new RequestScheduler(QUOTA_RATE * 3 / 4, 1,
+                QUOTA_BURST, 0);
+        final PipelineMetrics.QueryMetrics scheduledMetrics = newMetrics();
+        List<String> bodies = runAtOnce(REQUESTS, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return fetch(scheduler, "/quota", new CancellableRequest(), scheduledMetrics);
+            }
+        });
+
+        assertTrue(unscheduledRateLimited > 0);
+        assertEquals(0, rateLimitedCount());
+        assertEquals(REQUESTS, bodies.size());
+        assertEquals(0, scheduledMetrics.getCount(PipelineMetrics.COUNTER_RATE_LIMITED));
+        assertTrue(scheduledMetrics.getCount(PipelineMetrics.COUNTER_THROTTLED) > 0);
+    }
+
+    @Test
+    public void identicalRequests_shareOneResponse() throws Exception {
+        final RequestScheduler scheduler = new RequestScheduler(100, 1, 10, 0);
+        final PipelineMetrics.QueryMetrics metrics = newMetrics();
+        List<String> bodies = runAtOnce(5, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return scheduler.execute("/slow", RequestScheduler.PRIORITY_USER,
+                        fetchRequest(scheduler, "/slow", metrics), new CancellableRequest(),
+                        metrics);
+            }
+        });
+
+        assertEquals(5, bodies.size());
+        for (String body : bodies) {
+            assertEquals(BODY, body);
+        }
+        assertEquals(1, requestCount());
+        assertEquals(4, metrics.getCount(PipelineMetrics.COUNTER_COALESCED));
+
+        // Once it is done, the same request is made again
+        scheduler.execute("/slow", RequestScheduler.PRIORITY_USER,
+                fetchRequest(scheduler, "/slow", metrics), new CancellableRequest(), metrics);
+        assertEquals(2, requestCount());
+    }
+
+    @Test
+    public void cancelledCaller_leavesSharedRequestToTheOthers() throws Exception {
+        final RequestScheduler scheduler = new RequestScheduler(100, 1, 10, 0);
+        final PipelineMetrics.QueryMetrics metrics = newMetrics();
+        Future<String> first = mExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return scheduler.execute("/slow", RequestScheduler.PRIORITY_USER,
+                        fetchRequest(scheduler, "/slow", metrics), new CancellableRequest(),
+                        metrics);
+            }
+        });
+        while (requestCount() == 0) {
+            Thread.sleep(5);
+        }
+        final CancellableRequest cancellation = new CancellableRequest();
+        Future<String> second = mExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return scheduler.execute("/slow", RequestScheduler.PRIORITY_USER,
+                        fetchRequest(scheduler, "/slow", metrics), cancellation, metrics);
+            }
+        });
+        Thread.sleep(50);
+
+        long start = System.nanoTime();
+        cancellation.cancel();
+        try {
+            second.get(1, TimeUnit.SECONDS);
+            fail("a cancelled caller should stop waiting");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof InterruptedIOException);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(SLOW_DELAY / 2));
+
+        assertEquals(BODY, first.get(1, TimeUnit.SECONDS));
+        assertEquals(1, requestCount());
+    }
+
+    @Test
+    public void tooManyRequests_lowersRateAndPauses() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(10, 4, 1, 0);
+        PipelineMetrics.QueryMetrics metrics = newMetrics();
+
+        scheduler.onResponse(RetryPolicy.HTTP_TOO_MANY_REQUESTS, "1", metrics);
+        assertEquals(5, scheduler.getRate(), 0);
+        // Refused together with the first, it doesn't lower the rate again
+        scheduler.onResponse(RetryPolicy.HTTP_TOO_MANY_REQUESTS, null, metrics);
+        assertEquals(5, scheduler.getRate(), 0);
+
+        long start = System.nanoTime();
+        scheduler.acquire(RequestScheduler.PRIORITY_USER, new CancellableRequest(), metrics);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(2, metrics.getCount(PipelineMetrics.COUNTER_RATE_LIMITED));
+        assertEquals(1, metrics.getCount(PipelineMetrics.COUNTER_THROTTLED));
+
+        // Never below the minimum rate, and back up a step with every success
+        scheduler.onResponse(RetryPolicy.HTTP_TOO_MANY_REQUESTS, null, metrics);
+        assertEquals(4, scheduler.getRate(), 0);
+        scheduler.onResponse(HttpURLConnection.HTTP_OK, null, metrics);
+        assertEquals(5, scheduler.getRate(), 0);
+        for (int i = 0; i < 10; i++) {
+            scheduler.onResponse(HttpURLConnection.HTTP_NOT_MODIFIED, null, metrics);
+        }
+        assertEquals(10, scheduler.getRate(), 0);
+    }
+
+    @Test
+    public void backgroundRequest_waitsForIdleWindow() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(100, 1, 10, 300);
+        PipelineMetrics.QueryMetrics metrics = newMetrics();
+
+        // Nothing to wait for before the user made a request
+        long start = System.nanoTime();
+        scheduler.acquire(RequestScheduler.PRIORITY_BACKGROUND, new CancellableRequest(), metrics);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+
+        scheduler.acquire(RequestScheduler.PRIORITY_USER, new CancellableRequest(), metrics);
+        start = System.nanoTime();
+        scheduler.acquire(RequestScheduler.PRIORITY_BACKGROUND, new CancellableRequest(), metrics);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(1, metrics.getCount(PipelineMetrics.COUNTER_DEFERRED));
+        assertEquals(0, metrics.getCount(PipelineMetrics.COUNTER_THROTTLED));
+    }
+
+    @Test
+    public void cancel_stopsWaitForBudget() throws Exception {
+        final RequestScheduler scheduler = new RequestScheduler(0.1, 0.1, 1, 0);
+        final PipelineMetrics.QueryMetrics metrics = newMetrics();
+        scheduler.acquire(RequestScheduler.PRIORITY_USER, new CancellableRequest(), metrics);
+
+        final CancellableRequest cancellation = new CancellableRequest();
+        Future<Void> waiting = mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                scheduler.acquire(RequestScheduler.PRIORITY_USER, cancellation, metrics);
+                return null;
+            }
+        });
+        Thread.sleep(50);
+
+        cancellation.cancel();
+        try {
+            waiting.get(1, TimeUnit.SECONDS);
+            fail("a cancelled request should stop waiting for the budget");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof InterruptedIOException);
+        }
+    }
+
+    @Test
+    public void parseRetryAfter_readsSecondsOnly() {
+        assertEquals(2000, RequestScheduler.parseRetryAfter("2"));
+        assertEquals(0, RequestScheduler.parseRetryAfter(null));
+        assertEquals(0, RequestScheduler.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    private static PipelineMetrics.QueryMetrics newMetrics() {
+        return new PipelineMetrics().forQuery(PipelineMetrics.QUERY_LATEST);
+    }
+
+    /**
+     * Run the given task the given number of times at once and return the results.
+     */
+    private List<String> runAtOnce(int count, final Callable<String> task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(mExecutor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        }
+        start.countDown();
+        List<String> results = new ArrayList<>(count);
+        for (Future<String> future : futures) {
+            String result = future.get(10, TimeUnit.SECONDS);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private RequestScheduler.Request<String> fetchRequest(final RequestScheduler scheduler,
+                                                          final String path,
+                                                          final PipelineMetrics.QueryMetrics
+                                                                  metrics) {
+        return new RequestScheduler.Request<String>() {
+            @Override
+            public String run(CancellableRequest cancellation) throws IOException {
+                return fetch(scheduler, path, cancellation, metrics);
+            }
+        };
+    }
+
+    /**
+     * Return the body of the given path on the stub server, or throw if it can't be fetched.
+     * The request waits for the budget of the given scheduler first, if there is one.
+     */
+    private String fetch(RequestScheduler scheduler, String path,
+                         CancellableRequest cancellation, PipelineMetrics.QueryMetrics metrics)
+            throws IOException {
+        if (scheduler != null) {
+            scheduler.acquire(RequestScheduler.PRIORITY_USER, cancellation, metrics);
+        }
+        HttpTransport.Call call = new HttpTransport(1000, 2000).newCall(
+                new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + path));
+        try {
+            cancellation.setConnection(call.getConnection());
+            int responseCode = call.execute();
+            if (scheduler != null) {
+                scheduler.onResponse(responseCode,
+                        call.getConnection().getHeaderField("Retry-After"), metrics);
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpTransport.StatusException(responseCode);
+            }
+            InputStream in = cancellation.wrap(call.getBody());
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toString("UTF-8");
+        } finally {
+            call.close();
+        }
+    }
+
+    /**
+     * Count a request and return true if the quota allows it, or else count it as refused.
+     */
+    private synchronized boolean takeQuota() {
+        mRequestCount++;
+        long now = System.nanoTime();
+        mQuotaTokens = Math.min(QUOTA_BURST,
+                mQuotaTokens + (now - mQuotaRefillNanos) * QUOTA_RATE / 1e9);
+        mQuotaRefillNanos = now;
+        if (mQuotaTokens >= 1) {
+            mQuotaTokens--;
+            return true;
+        }
+        mRateLimitedCount++;
+        return false;
+    }
+
+    private static void respond(HttpExchange exchange, int responseCode) throws IOException {
+        byte[] body = BODY.getBytes("UTF-8");
+        try {
+            if (responseCode == RetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            exchange.sendResponseHeaders(responseCode, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            // The client gave up on the request
+        }
+        exchange.close();
+    }
+
+    private synchronized int requestCount() {
+        return mRequestCount;
+    }
+
+    private synchronized int rateLimitedCount() {
+        return mRateLimitedCount;
+    }
+
+    /** Forget the requests counted so far and give the quota time to fill up again. */
+    private void resetCounts() throws InterruptedException {
+        Thread.sleep((long) (1000 * QUOTA_BURST / QUOTA_RATE) + 50);
+        synchronized (this) {
+            mRequestCount = 0;
+            mRateLimitedCount = 0;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.android.p6_newsappstage1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ResilientCaller}, run against a stub server that is slow to answer
+ * some requests and fails others, the way a loaded API does.
+ */
+public class ResilientCallerTest {
+
+    /** Requests made against the flaky server */
+    private static final int REQUESTS = 50;
+
+    /** Of every ten requests to the flaky server, the one that is slow and the one that fails */
+    private static final int SLOW_REQUEST = 3;
+    private static final int FAILED_REQUEST = 7;
+
+    /** Time the flaky server takes to answer a slow request */
+    private static final long SLOW_DELAY = 600;
+
+    /** Time after which a request is hedged, well above how long a fast one takes */
+    private static final long HEDGE_DELAY = 100;
+
+    private static final String BODY = "{\"response\":{\"results\":[]}}";
+
+    private HttpServer mServer;
+    private PriorityExecutor mHedgeExecutor;
+    private int mRequestCount;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/flaky", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int request = nextRequest() % 10;
+                if (request == SLOW_REQUEST) {
+                    sleep(SLOW_DELAY);
+                }
+                if (request == FAILED_REQUEST) {
+                    respond(exchange, HttpURLConnection.HTTP_UNAVAILABLE);
+                } else {
+                    respond(exchange, HttpURLConnection.HTTP_OK);
+                }
+            }
+        });
+        mServer.createContext("/down", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                nextRequest();
+                respond(exchange, HttpURLConnection.HTTP_UNAVAILABLE);
+            }
+        });
+        mServer.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                nextRequest();
+                respond(exchange, HttpURLConnection.HTTP_NOT_FOUND);
+            }
+        });
+        // Slow requests must not hold up the others
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+        mHedgeExecutor = new PriorityExecutor(2, 16, new PipelineMetrics());
+    }
+
+    @After
+    public void stopServer() {
+        mHedgeExecutor.shutdown();
+        mServer.stop(0);
+    }
+
+    @Test
+    public void retriesAndHedges_hideFailedAndSlowRequests() throws IOException {
+        int plainFailures = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            try {
+                fetch("/flaky", new CancellableRequest());
+            } catch (IOException e) {
+                plainFailures++;
+            }
+        }
+
+        resetRequestCount();
+        PipelineMetrics.QueryMetrics resilientMetrics = newMetrics();
+        ResilientCaller caller = newCaller(5);
+        for (int i = 0; i < REQUESTS; i++) {
+            long start = System.nanoTime();
+            assertEquals(BODY, caller.call(fetchAttempt("/flaky"), new CancellableRequest(),
+                    HEDGE_DELAY, resilientMetrics));
+            // A slow request is answered by its hedge rather than waited for
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(SLOW_DELAY));
+        }
+
+        assertEquals(REQUESTS / 10, plainFailures);
+        assertTrue(resilientMetrics.getCount(PipelineMetrics.COUNTER_RETRIED) > 0);
+        assertTrue(resilientMetrics.getCount(PipelineMetrics.COUNTER_HEDGED) > 0);
+    }
+
+    @Test
+    public void failingServer_opensBreakerAndFailsFast() throws IOException {
+        ResilientCaller caller = newCaller(3);
+        PipelineMetrics.QueryMetrics metrics = newMetrics();
+        try {
+            caller.call(fetchAttempt("/down"), new CancellableRequest(), 0, metrics);
+            fail("a server that is down should fail the request");
+        } catch (HttpTransport.StatusException expected) {
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, expected.getResponseCode());
+        }
+        assertEquals(3, requestCount());
+        assertEquals(CircuitBreaker.STATE_OPEN, caller.getCircuitBreaker().getState());
+
+        long start = System.nanoTime();
+        try {
+            caller.call(fetchAttempt("/down"), new CancellableRequest(), 0, metrics);
+            fail("an open breaker should refuse the request");
+        } catch (CircuitBreaker.OpenException expected) {
+            // Expected
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(3, requestCount());
+        assertEquals(1, metrics.getCount(PipelineMetrics.COUNTER_SHORT_CIRCUITED));
+    }
+
+    @Test
+    public void refusedRequest_isNotRetried() throws IOException {
+        ResilientCaller caller = newCaller(3);
+        try {
+            caller.call(fetchAttempt("/missing"), new CancellableRequest(), 0, newMetrics());
+            fail("a missing page should fail the request");
+        } catch (HttpTransport.StatusException expected) {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, expected.getResponseCode());
+        }
+        assertEquals(1, requestCount());
+        assertEquals(CircuitBreaker.STATE_CLOSED, caller.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void cancel_stopsBackoff() throws Exception {
+        final ResilientCaller caller = new ResilientCaller(
+                new RetryPolicy(3, 10000, 10000, new Random()), new CircuitBreaker(5, 30000),
+                mHedgeExecutor);
+        final CancellableRequest cancellation = new CancellableRequest();
+        final IOException[] failure = new IOException[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    caller.call(fetchAttempt("/down"), cancellation, 0, newMetrics());
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        thread.start();
+        while (requestCount() == 0) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+
+        cancellation.cancel();
+        thread.join(1000);
+
+        assertFalse(thread.isAlive());
+        assertNotNull(failure[0]);
+        assertEquals(1, requestCount());
+        assertEquals(CircuitBreaker.STATE_CLOSED, caller.getCircuitBreaker().getState());
+    }
+
+    private ResilientCaller newCaller(int failureThreshold) {
+        return new ResilientCaller(new RetryPolicy(3, 10, 40, new Random()),
+                new CircuitBreaker(failureThreshold, 30000), mHedgeExecutor);
+    }
+
+    private static PipelineMetrics.QueryMetrics newMetrics() {
+        return new PipelineMetrics().forQuery(PipelineMetrics.QUERY_LATEST);
+    }
+
+    private ResilientCaller.Attempt<String> fetchAttempt(final String path) {
+        return new ResilientCaller.Attempt<String>() {
+            @Override
+            public String run(CancellableRequest cancellation) throws IOException {
+                return fetch(path, cancellation);
+            }
+        };
+    }
+
+    /**
+     * Return the body of the given path on the stub server, or throw if it can't be fetched.
+     */
+    private String fetch(String path, CancellableRequest cancellation) throws IOException {
+        HttpTransport.Call call = new HttpTransport(1000, 2000).newCall(
+                new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + path));
+        try {
+            cancellation.setConnection(call.getConnection());
+            int responseCode = call.execute();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpTransport.StatusException(responseCode);
+            }
+            InputStream in = cancellation.wrap(call.getBody());
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toString("UTF-8");
+        } finally {
+            call.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int responseCode) throws IOException {
+        byte[] body = BODY.getBytes("UTF-8");
+        try {
+            exchange.sendResponseHeaders(responseCode, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            // The client gave up on the request
+        }
+        exchange.close();
+    }
+
+    private synchronized int nextRequest() {
+        return mRequestCount++;
+    }
+
+    private synchronized int requestCount() {
+        return mRequestCount;
+    }
+
+    private synchronized void resetRequestCount() {
+        mRequestCount = 0;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
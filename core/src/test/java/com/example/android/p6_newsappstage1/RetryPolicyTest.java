@@ -0,0 +1,63 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RetryPolicy}.
+ */
+public class RetryPolicyTest {
+
+    private static final long BASE_DELAY = 400;
+    private static final long MAX_DELAY = 3000;
+
+    @Test
+    public void backoff_doublesWithEveryRetry() {
+        RetryPolicy policy = policy(1.0);
+
+        assertEquals(400, policy.backoff(1));
+        assertEquals(800, policy.backoff(2));
+        assertEquals(1600, policy.backoff(3));
+        assertEquals(MAX_DELAY, policy.backoff(4));
+        assertEquals(MAX_DELAY, policy.backoff(40));
+    }
+
+    @Test
+    public void backoff_keepsAtLeastHalfOfTheWait() {
+        assertEquals(200, policy(0.0).backoff(1));
+        assertEquals(300, policy(0.5).backoff(1));
+        assertEquals(MAX_DELAY / 2, policy(0.0).backoff(10));
+    }
+
+    @Test
+    public void isRetryable_onlyForFailuresOfTheServerOrNetwork() {
+        assertTrue(RetryPolicy.isRetryable(new IOException("reset")));
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(
+                new HttpTransport.StatusException(HttpURLConnection.HTTP_UNAVAILABLE)));
+        assertTrue(RetryPolicy.isRetryable(
+                new HttpTransport.StatusException(RetryPolicy.HTTP_TOO_MANY_REQUESTS)));
+
+        assertFalse(RetryPolicy.isRetryable(
+                new HttpTransport.StatusException(HttpURLConnection.HTTP_BAD_REQUEST)));
+        assertFalse(RetryPolicy.isRetryable(
+                new HttpTransport.StatusException(HttpURLConnection.HTTP_UNAUTHORIZED)));
+        assertFalse(RetryPolicy.isRetryable(new CircuitBreaker.OpenException()));
+    }
+
+    /** Return a policy whose random draws always return the given value. */
+    private static RetryPolicy policy(final double random) {
+        return new RetryPolicy(3, BASE_DELAY, MAX_DELAY, new Random() {
+            @Override
+            public double nextDouble() {
+                return random;
+            }
+        });
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parses an archive of recorded Guardian API responses into one list of unique stories, on every
+ * core of a {@link ForkJoinPool}.
+ *
+ * The archive is a directory tree of response files, named "*.json", or "*.json.gz" when
+ * compressed. Each task of the pool splits its share of the files in halves until only a few are
+ * left, which it parses itself with the {@link NewsStoryParser}. The stories are deduplicated by
+ * URL as they are parsed, in a concurrent map shared by the tasks, so no task waits for another
+ * and there is nothing left to merge at the end.
+ *
+ * Of the versions of a story, the one published last is kept, or of those published at the same
+ * time, the one in the file that comes last in name order, which for recordings named by date is
+ * the most recent recording.
+ */
+public class ArchiveIngester {
+
+    private static final Logger sLogger = Logger.getLogger(ArchiveIngester.class.getName());
+
+    /** Number of files a task parses itself rather than splitting them between two others */
+    private static final int FILES_PER_TASK = 4;
+
+    /** Number of stories expected in a response, the page size of most of them */
+    private static final int STORIES_PER_RESPONSE = 50;
+
+    /** Orders stories from the newest to the oldest, then by URL */
+    private static final Comparator<NewsStory> NEWEST_FIRST = new Comparator<NewsStory>() {
+        @Override
+        public int compare(NewsStory a, NewsStory b) {
+            if (a.getPublicationTime() != b.getPublicationTime()) {
+                return a.getPublicationTime() > b.getPublicationTime() ? -1 : 1;
+            }
+            return a.getUrl().compareTo(b.getUrl());
+        }
+    };
+
+    private final ForkJoinPool mPool;
+
+    /**
+     * Create a new {@link ArchiveIngester} parsing on the given pool.
+     */
+    public ArchiveIngester(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Parse every response file below the given directory and return their unique stories, from
+     * the newest to the oldest.
+     *
+     * @throws IOException if the directory can't be listed
+     */
+    public Result ingest(File directory) throws IOException {
+        List<File> files = new ArrayList<>();
+        listResponseFiles(directory, files);
+
+        ConcurrentMap<String, Version> versions = new ConcurrentHashMap<>();
+        Result result = mPool.invoke(new ParseTask(files, 0, files.size(), versions));
+
+        List<NewsStory> newsStories = new ArrayList<>(versions.size());
+        for (Version version : versions.values()) {
+            newsStories.add(version.mNewsStory);
+        }
+        Collections.sort(newsStories, NEWEST_FIRST);
+        result.mNewsStories = newsStories;
+        return result;
+    }
+
+    /**
+     * Add the response files below the given directory to the given list, in name order, those
+     * of a subdirectory where its name comes.
+     */
+    private static void listResponseFiles(File directory, List<File> files) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            throw new IOException("Can't list " + directory);
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isHidden()) {
+                continue;
+            }
+            if (child.isDirectory()) {
+                listResponseFiles(child, files);
+            } else if (isResponseFile(child)) {
+                files.add(child);
+            }
+        }
+    }
+
+    private static boolean isResponseFile(File file) {
+        String name = file.getName();
+        return name.endsWith(".json") || name.endsWith(".json.gz");
+    }
+
+    /**
+     * Return the stories of the given response file.
+     */
+    private static List<NewsStory> parse(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            if (file.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in);
+            }
+            // A file that isn't a response, such as an error page, fails rather than has no stories
+            return NewsStoryParser.parseStrictly(in, STORIES_PER_RESPONSE);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A version of a story, with the index of the file it was read from.
+     */
+    private static class Version {
+        final NewsStory mNewsStory;
+        final int mFile;
+
+        Version(NewsStory newsStory, int file) {
+            mNewsStory = newsStory;
+            mFile = file;
+        }
+
+        /** Return true if this version replaces the given one. */
+        boolean isNewerThan(Version version) {
+            long time = mNewsStory.getPublicationTime();
+            long otherTime = version.mNewsStory.getPublicationTime();
+            return time > otherTime || (time == otherTime && mFile > version.mFile);
+        }
+    }
+
+    /**
+     * Parses the files in a range of the list of files, adding their stories to the shared map
+     * of versions, and returns what it counted.
+     */
+    private static class ParseTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> mFiles;
+        private final int mStart;
+        private final int mEnd;
+        private final ConcurrentMap<String, Version> mVersions;
+
+        ParseTask(List<File> files, int start, int end, ConcurrentMap<String, Version> versions) {
+            mFiles = files;
+            mStart = start;
+            mEnd = end;
+            mVersions = versions;
+        }
+
+        @Override
+        protected Result compute() {
+            if (mEnd - mStart > FILES_PER_TASK) {
+                int middle = (mStart + mEnd) >>> 1;
+                ParseTask first = new ParseTask(mFiles, mStart, middle, mVersions);
+                ParseTask second = new ParseTask(mFiles, middle, mEnd, mVersions);
+                first.fork();
+                Result result = second.compute();
+                result.add(first.join());
+                return result;
+            }
+
+            Result result = new Result();
+            for (int i = mStart; i < mEnd; i++) {
+                File file = mFiles.get(i);
+                result.mByteCount += file.length();
+                List<NewsStory> newsStories;
+                try {
+                    newsStories = parse(file);
+                } catch (IOException e) {
+                    sLogger.log(Level.WARNING, "Problem reading " + file, e);
+                    result.mFailedFileCount++;
+                    continue;
+                }
+                result.mFileCount++;
+                result.mStoryCount += newsStories.size();
+                for (int j = 0; j < newsStories.size(); j++) {
+                    if (!put(newsStories.get(j), i)) {
+                        result.mSkippedStoryCount++;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Keep the given story read from the file of the given index, unless a newer version of
+         * it is kept already.
+         *
+         * @return false if the story has no URL to tell it by, and was skipped
+         */
+        private boolean put(NewsStory newsStory, int file) {
+            String url = newsStory.getUrl();
+            if (url == null || url.isEmpty()) {
+                return false;
+            }
+            Version version = new Version(newsStory, file);
+            Version kept = mVersions.putIfAbsent(url, version);
+            while (kept != null && version.isNewerThan(kept)
+                    && !mVersions.replace(url, kept, version)) {
+                kept = mVersions.get(url);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The unique stories of an archive, and what was counted while parsing it.
+     */
+    public static class Result {
+        private List<NewsStory> mNewsStories = Collections.emptyList();
+        private int mFileCount;
+        private int mFailedFileCount;
+        private long mByteCount;
+        private long mStoryCount;
+        private long mSkippedStoryCount;
+
+        /** Return the unique stories, from the newest to the oldest. */
+        public List<NewsStory> getNewsStories() {
+            return mNewsStories;
+        }
+
+        /** Return the number of response files parsed. */
+        public int getFileCount() {
+            return mFileCount;
+        }
+
+        /** Return the number of response files that couldn't be read or weren't responses. */
+        public int getFailedFileCount() {
+            return mFailedFileCount;
+        }
+
+        /** Return the number of bytes of the response files, as stored. */
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        /** Return the number of stories read, duplicates and skipped ones included. */
+        public long getStoryCount() {
+            return mStoryCount;
+        }
+
+        /** Return the number of stories skipped because they have no URL. */
+        public long getSkippedStoryCount() {
+            return mSkippedStoryCount;
+        }
+
+        void add(Result result) {
+            mFileCount += result.mFileCount;
+            mFailedFileCount += result.mFailedFileCount;
+            mByteCount += result.mByteCount;
+            mStoryCount += result.mStoryCount;
+            mSkippedStoryCount += result.mSkippedStoryCount;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command line tool that parses an archive of recorded Guardian API responses into one snapshot
+ * of its unique stories, sorted from the newest to the oldest, see {@link ArchiveIngester}.
+ *
+ * The snapshot has the format of the one the app shows on a cold start, see
+ * {@link NewsStorySnapshot}, with the name of the archive directory as its query key.
+ */
+public final class Ingest {
+
+    private static final String USAGE =
+            "Usage: ingest [--threads <count>] <archive directory> <output file>";
+
+    private Ingest() {
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 0;
+        if (args.length > 1 && args[0].equals("--threads")) {
+            try {
+                threads = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                threads = 0;
+            }
+            first = 2;
+        }
+        if (args.length - first != 2 || threads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        File directory = new File(args[first]);
+        File output = new File(args[first + 1]);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            ArchiveIngester.Result result = new ArchiveIngester(pool).ingest(directory);
+            long parseNanos = System.nanoTime() - start;
+            NewsStorySnapshot.write(output, directory.getName(), System.currentTimeMillis(),
+                    result.getNewsStories());
+            long totalNanos = System.nanoTime() - start;
+
+            double seconds = parseNanos / 1e9;
+            System.out.println(String.format(Locale.US,
+                    "Parsed %d files, %.1f MB, in %.2f s on %d threads: %.1f MB/s, %.0f files/s",
+                    result.getFileCount(), result.getByteCount() / 1e6, seconds, threads,
+                    result.getByteCount() / 1e6 / seconds, result.getFileCount() / seconds));
+            System.out.println(String.format(Locale.US,
+                    "%d stories, %d unique, %d without a URL skipped, %d files unreadable",
+                    result.getStoryCount(), result.getNewsStories().size(),
+                    result.getSkippedStoryCount(), result.getFailedFileCount()));
+            System.out.println(String.format(Locale.US, "Wrote %s, %.1f MB, in %.2f s total",
+                    output, output.length() / 1e6, totalNanos / 1e9));
+        } catch (IOException e) {
+            System.err.println("Ingest failed: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ArchiveIngester}, on a small archive of responses.
+ */
+public class ArchiveIngesterTest {
+
+    private static final String WEB_URL = "https://www.theguardian.com/";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void ingest_keepsLatestVersionOfEveryStory_newestFirst() throws IOException {
+        File archive = newArchive();
+
+        ArchiveIngester.Result result = new ArchiveIngester(new ForkJoinPool(2)).ingest(archive);
+
+        assertEquals(Arrays.asList(
+                story("Third", "2018-04-17T09:00:00Z", "world/3"),
+                story("Second, updated", "2018-04-16T09:00:00Z", "world/2"),
+                story("First", "2018-04-15T09:00:00Z", "world/1")),
+                result.getNewsStories());
+        assertEquals(2, result.getFileCount());
+        assertEquals(1, result.getFailedFileCount());
+        assertEquals(5, result.getStoryCount());
+        assertEquals(1, result.getSkippedStoryCount());
+    }
+
+    @Test
+    public void ingest_givesSameResultOnAnyNumberOfThreads() throws IOException {
+        File archive = mFolder.newFolder();
+        for (int i = 0; i < 40; i++) {
+            write(new File(archive, String.format("%03d.json", i)),
+                    result("Story " + i % 7 + " in " + i, "2018-04-1" + i % 3 + "T09:00:00Z",
+                            "world/" + i % 7));
+        }
+
+        List<NewsStory> single = new ArchiveIngester(new ForkJoinPool(1)).ingest(archive)
+                .getNewsStories();
+        List<NewsStory> parallel = new ArchiveIngester(new ForkJoinPool(4)).ingest(archive)
+                .getNewsStories();
+
+        assertEquals(7, single.size());
+        assertEquals(single, parallel);
+    }
+
+    @Test(expected = IOException.class)
+    public void ingest_failsOnMissingDirectory() throws IOException {
+        new ArchiveIngester(new ForkJoinPool(1)).ingest(new File(mFolder.getRoot(), "missing"));
+    }
+
+    /**
+     * Return an archive of two recordings of the feed, the later one compressed, a response that
+     * isn't JSON, and a file that isn't a response.
+     */
+    private File newArchive() throws IOException {
+        File archive = mFolder.newFolder();
+        write(new File(archive, "2018-04-16.json"),
+                result("First", "2018-04-15T09:00:00Z", "world/1")
+                        + "," + result("Second", "2018-04-16T09:00:00Z", "world/2")
+                        + "," + result("No URL", "2018-04-16T09:00:00Z", null));
+        File later = new File(archive, "2018-04-17");
+        assertTrue(later.mkdir());
+        writeCompressed(new File(later, "feed.json.gz"),
+                result("Second, updated", "2018-04-16T09:00:00Z", "world/2")
+                        + "," + result("Third", "2018-04-17T09:00:00Z", "world/3"));
+        writeBytes(new File(archive, "broken.json"), "<html>Bad gateway</html>");
+        writeBytes(new File(archive, "notes.txt"), "not a response");
+        return archive;
+    }
+
+    private static NewsStory story(String title, String date, String path) {
+        return new NewsStory(title, "World news", PublicationDates.parse(date),
+                WEB_URL + path, "");
+    }
+
+    private static String result(String title, String date, String path) {
+        return "{\"webTitle\":\"" + title + "\",\"sectionName\":\"World news\","
+                + "\"webPublicationDate\":\"" + date + "\""
+                + (path == null ? "" : ",\"webUrl\":\"" + WEB_URL + path + "\"") + "}";
+    }
+
+    private static void write(File file, String results) throws IOException {
+        writeBytes(file, response(results));
+    }
+
+    private static void writeCompressed(File file, String results) throws IOException {
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            out.write(response(results).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String response(String results) {
+        return "{\"response\":{\"status\":\"ok\",\"results\":[" + results + "]}}";
+    }
+
+    private static void writeBytes(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
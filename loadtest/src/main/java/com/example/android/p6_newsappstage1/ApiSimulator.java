@@ -0,0 +1,496 @@
+package com.example.android.p6_newsappstage1;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the search endpoint of the Guardian API, replaying recorded results, to
+ * load the app's pipeline offline with slow, large or failing responses.
+ *
+ * The recorded results are served in pages of the requested "page-size", up to the maximum page
+ * size, and repeated under other URLs when more results are configured than were recorded. Every
+ * request waits for the latency, plus a random share of the jitter, before it is answered, and
+ * every so many requests one waits for the slow latency on top, making a tail of latency; a
+ * random share of the requests is answered 503 Service Unavailable or 429 Too Many Requests; and
+ * the body is sent no faster than the bandwidth, gzip compressed if the client asks for it. The
+ * settings can be changed while the server runs.
+ */
+public class ApiSimulator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String USAGE = "Usage: simulator [--port <port>] [--latency <ms>]"
+            + " [--jitter <ms>] [--slow-every <requests>] [--slow-latency <ms>]"
+            + " [--bandwidth <bytes per second>] [--error-rate <0..1>]"
+            + " [--rate-limited-rate <0..1>] [--results <count>] [--max-page-size <count>]"
+            + " [--gzip <true|false>] [<recorded response>...]";
+
+    /** The recorded response replayed when no other is given */
+    private static final String DEFAULT_PAYLOAD = "/payloads/guardian_search_200.json";
+
+    /** Page size of a request that doesn't ask for one, and the largest the API serves */
+    private static final int DEFAULT_PAGE_SIZE = 10;
+    private static final int DEFAULT_MAX_PAGE_SIZE = 200;
+
+    /** Bytes of the body sent at a time when the bandwidth is limited */
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    private final List<JsonObject> mRecordedResults;
+    private final Random mRandom;
+    private final Gson mGson = new Gson();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private volatile long mLatency;
+    private volatile long mJitter;
+    private volatile int mSlowEvery;
+    private volatile long mSlowLatency;
+    private volatile long mBandwidth;
+    private volatile double mErrorRate;
+    private volatile double mRateLimitedRate;
+    private volatile int mResultCount;
+    private volatile int mMaxPageSize = DEFAULT_MAX_PAGE_SIZE;
+    private volatile boolean mGzip = true;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    /**
+     * Create a new {@link ApiSimulator} serving the given recorded results, all of them unless
+     * told otherwise, drawing its random delays and errors from the given {@link Random}.
+     */
+    public ApiSimulator(List<JsonObject> recordedResults, Random random) {
+        if (recordedResults.isEmpty()) {
+            throw new IllegalArgumentException("No recorded results to serve");
+        }
+        mRecordedResults = recordedResults;
+        mRandom = random;
+        mResultCount = recordedResults.size();
+    }
+
+    /**
+     * Return the results of the recorded search response in the given stream.
+     */
+    public static List<JsonObject> readResults(InputStream in) throws IOException {
+        try {
+            JsonElement response = JsonParser.parseReader(new InputStreamReader(in, UTF_8))
+                    .getAsJsonObject().get("response");
+            JsonArray results = response.getAsJsonObject().getAsJsonArray("results");
+            List<JsonObject> recordedResults = new ArrayList<>(results.size());
+            for (JsonElement result : results) {
+                recordedResults.add(result.getAsJsonObject());
+            }
+            return recordedResults;
+        } catch (RuntimeException e) {
+            // Gson reports malformed JSON and unexpected types this way
+            throw new IOException("Not a recorded search response", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the results of the recorded search response the simulator replays by default.
+     */
+    public static List<JsonObject> readDefaultResults() throws IOException {
+        InputStream in = ApiSimulator.class.getResourceAsStream(DEFAULT_PAYLOAD);
+        if (in == null) {
+            throw new IOException("No recorded response " + DEFAULT_PAYLOAD);
+        }
+        return readResults(in);
+    }
+
+    /** Set the time in milliseconds every request waits before it is answered, at least. */
+    public void setLatency(long latency) {
+        mLatency = latency;
+    }
+
+    /** Set the most time in milliseconds a request waits on top of the latency, at random. */
+    public void setJitter(long jitter) {
+        mJitter = jitter;
+    }
+
+    /**
+     * Set every how many requests one is slow, waiting for the slow latency on top, or 0 for
+     * none to be.
+     */
+    public void setSlowEvery(int slowEvery) {
+        mSlowEvery = slowEvery;
+    }
+
+    /** Set the time in milliseconds a slow request waits on top of the others. */
+    public void setSlowLatency(long slowLatency) {
+        mSlowLatency = slowLatency;
+    }
+
+    /** Set the bytes per second bodies are sent at, at most, or 0 to send them at once. */
+    public void setBandwidth(long bandwidth) {
+        mBandwidth = bandwidth;
+    }
+
+    /** Set the share of requests answered 503 Service Unavailable. */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /** Set the share of requests answered 429 Too Many Requests. */
+    public void setRateLimitedRate(double rateLimitedRate) {
+        mRateLimitedRate = rateLimitedRate;
+    }
+
+    /** Set the number of results of the search, the recorded ones repeated as needed. */
+    public void setResultCount(int resultCount) {
+        mResultCount = resultCount;
+    }
+
+    /** Return the number of results of the search. */
+    public int getResultCount() {
+        return mResultCount;
+    }
+
+    /** Set the largest page size served, larger requested ones are cut down to it. */
+    public void setMaxPageSize(int maxPageSize) {
+        mMaxPageSize = maxPageSize;
+    }
+
+    /** Set whether bodies are gzip compressed for the clients that ask for it. */
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    /**
+     * Apply the setting of the given command line option, such as "--latency", to the given
+     * value.
+     *
+     * @return false if the option isn't a setting of the simulator
+     * @throws NumberFormatException if the value isn't a number
+     */
+    public boolean setOption(String option, String value) {
+        switch (option) {
+            case "--latency":
+                setLatency(Long.parseLong(value));
+                return true;
+            case "--jitter":
+                setJitter(Long.parseLong(value));
+                return true;
+            case "--slow-every":
+                setSlowEvery(Integer.parseInt(value));
+                return true;
+            case "--slow-latency":
+                setSlowLatency(Long.parseLong(value));
+                return true;
+            case "--bandwidth":
+                setBandwidth(Long.parseLong(value));
+                return true;
+            case "--error-rate":
+                setErrorRate(Double.parseDouble(value));
+                return true;
+            case "--rate-limited-rate":
+                setRateLimitedRate(Double.parseDouble(value));
+                return true;
+            case "--results":
+                setResultCount(Integer.parseInt(value));
+                return true;
+            case "--max-page-size":
+                setMaxPageSize(Integer.parseInt(value));
+                return true;
+            case "--gzip":
+                setGzip(Boolean.parseBoolean(value));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Start serving on the given port of the loopback address, or any free port if it is 0.
+     *
+     * @return the port served on
+     */
+    public synchronized int start(int port) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    answer(exchange);
+                } catch (IOException e) {
+                    // The client gave up on the request
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        // A slow answer must not hold up the others
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+        return mServer.getAddress().getPort();
+    }
+
+    /** Stop serving, dropping the requests being answered. */
+    public synchronized void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mServer = null;
+            mExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Return the URL of the search endpoint, with the API key, to which parameters can be added
+     * with "&amp;".
+     */
+    public synchronized String getSearchUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/search?api-key=test";
+    }
+
+    /** Return the number of requests received so far. */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        int request = mRequestCount.incrementAndGet();
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        long jitter = mJitter;
+        sleep(mLatency + (jitter > 0 ? (long) (mRandom.nextDouble() * jitter) : 0));
+        int slowEvery = mSlowEvery;
+        if (slowEvery > 0 && request % slowEvery == 0) {
+            sleep(mSlowLatency);
+        }
+
+        double roll = mRandom.nextDouble();
+        if (roll < mErrorRate) {
+            send(exchange, HTTP_UNAVAILABLE, error("The API is unavailable"));
+            return;
+        }
+        if (roll < mErrorRate + mRateLimitedRate) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, HTTP_TOO_MANY_REQUESTS, error("API rate limit exceeded"));
+            return;
+        }
+
+        int pageSize;
+        int page;
+        try {
+            pageSize = parameters.containsKey("page-size")
+                    ? Integer.parseInt(parameters.get("page-size")) : DEFAULT_PAGE_SIZE;
+            page = parameters.containsKey("page") ? Integer.parseInt(parameters.get("page")) : 1;
+        } catch (NumberFormatException e) {
+            send(exchange, HTTP_BAD_REQUEST, error("Invalid page or page size"));
+            return;
+        }
+        pageSize = Math.max(1, Math.min(pageSize, mMaxPageSize));
+        int total = mResultCount;
+        int pages = Math.max(1, (total + pageSize - 1) / pageSize);
+        if (page < 1 || page > pages) {
+            send(exchange, HTTP_BAD_REQUEST,
+                    error("requested page is beyond the number of available pages"));
+            return;
+        }
+        send(exchange, HTTP_OK, page(page, pageSize, pages, total));
+    }
+
+    /**
+     * Return the response of the given page of results.
+     */
+    private JsonObject page(int page, int pageSize, int pages, int total) {
+        int start = (page - 1) * pageSize;
+        int end = Math.min(total, start + pageSize);
+        JsonArray results = new JsonArray();
+        for (int i = start; i < end; i++) {
+            results.add(result(i));
+        }
+
+        JsonObject response = new JsonObject();
+        response.addProperty("status", "ok");
+        response.addProperty("userTier", "developer");
+        response.addProperty("total", total);
+        response.addProperty("startIndex", start + 1);
+        response.addProperty("pageSize", pageSize);
+        response.addProperty("currentPage", page);
+        response.addProperty("pages", pages);
+        response.addProperty("orderBy", "newest");
+        response.add("results", results);
+        return wrap(response);
+    }
+
+    /**
+     * Return the result of the given index, a recorded one, or a copy of one under another URL
+     * once they have all been used.
+     */
+    private JsonObject result(int index) {
+        JsonObject recorded = mRecordedResults.get(index % mRecordedResults.size());
+        int copy = index / mRecordedResults.size();
+        if (copy == 0) {
+            return recorded;
+        }
+        JsonObject result = recorded.deepCopy();
+        for (String name : new String[]{"id", "webUrl", "apiUrl"}) {
+            JsonElement value = result.get(name);
+            if (value != null && value.isJsonPrimitive()) {
+                result.addProperty(name, value.getAsString() + "-copy-" + copy);
+            }
+        }
+        return result;
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject response = new JsonObject();
+        response.addProperty("status", "error");
+        response.addProperty("message", message);
+        return wrap(response);
+    }
+
+    private static JsonObject wrap(JsonObject response) {
+        JsonObject body = new JsonObject();
+        body.add("response", response);
+        return body;
+    }
+
+    /**
+     * Send the given body with the given response code, compressed if the client asked for it,
+     * no faster than the bandwidth.
+     */
+    private void send(HttpExchange exchange, int responseCode, JsonObject json)
+            throws IOException {
+        byte[] body = mGson.toJson(json).getBytes(UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(body);
+            gzip.close();
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(responseCode, body.length);
+
+        OutputStream out = exchange.getResponseBody();
+        long bandwidth = mBandwidth;
+        if (bandwidth <= 0) {
+            out.write(body);
+            return;
+        }
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            // Wait until sending what was sent so far would have taken that long
+            long due = start + TimeUnit.SECONDS.toNanos(offset + count) / bandwidth;
+            sleep(TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime()));
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query)
+            throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run the simulator with the settings of the given command line options until the process is
+     * stopped.
+     */
+    public static void main(String[] args) {
+        int port = 8080;
+        List<File> payloads = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i], args[++i]);
+            } else if (args[i].startsWith("--")) {
+                exit(USAGE, 2);
+            } else {
+                payloads.add(new File(args[i]));
+            }
+        }
+
+        ApiSimulator simulator;
+        try {
+            List<JsonObject> results = new ArrayList<>();
+            for (File payload : payloads) {
+                results.addAll(readResults(new FileInputStream(payload)));
+            }
+            simulator = new ApiSimulator(payloads.isEmpty() ? readDefaultResults() : results,
+                    new Random());
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                if (option.getKey().equals("--port")) {
+                    port = Integer.parseInt(option.getValue());
+                } else if (!simulator.setOption(option.getKey(), option.getValue())) {
+                    exit(USAGE, 2);
+                }
+            }
+            simulator.start(port);
+        } catch (NumberFormatException e) {
+            exit(USAGE, 2);
+            return;
+        } catch (IOException e) {
+            exit("Simulator failed: " + e.getMessage(), 1);
+            return;
+        }
+        System.out.println("Serving " + simulator.getResultCount() + " results at "
+                + simulator.getSearchUrl());
+    }
+
+    private static void exit(String message, int status) {
+        System.err.println(message);
+        System.exit(status);
+    }
+}
@@ -0,0 +1,575 @@
+package com.example.android.p6_newsappstage1;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads pages of stories from a search endpoint, the local {@link ApiSimulator} or any other, on a
+ * number of threads at once, the way the app's loader does, and reports how long the loads took
+ * and how much they allocated.
+ *
+ * Each load goes through the pipeline of the app's requests: the {@link RequestScheduler} spends
+ * a token of the request rate and shares the response of a request for the same page in flight,
+ * the {@link ResilientCaller} retries failed attempts, hedges slow ones and refuses requests while
+ * the server keeps failing, and the {@link HttpTransport} asks for a gzip compressed page over a
+ * kept-alive connection. The body is streamed through the {@link NewsStoryParser}, timing the
+ * first batch of stories, which the app shows while the rest are still arriving, as well as the
+ * whole page. The counters of the pipeline, such as the retries and hedges, are reported along.
+ *
+ * Connections are kept alive between requests as the app keeps them, or closed after each one to
+ * compare the time it takes to connect afresh with that of taking a connection from the pool.
+ *
+ * Requests made to warm up, before the ones measured, time the requests of the pipeline first, so
+ * the measured ones are hedged from the start as the app's are once it has been used a while.
+ */
+public class LoadTest {
+
+    private static final String USAGE = "Usage: loadTest [--url <search url>]"
+            + " [--concurrency <threads>] [--requests <count>] [--page-size <count>]"
+            + " [--pages <count>] [--warm-up <requests>] [--attempts <count>]"
+            + " [--hedge <true|false>] [--keep-alive <true|false>]"
+            + " [--rate <requests per second>] [simulator options, without --url]";
+
+    /** Page size of the app's loader */
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
+    /** Timeouts of the app's requests */
+    private static final int CONNECT_TIMEOUT = 5000;  /* milliseconds */
+    private static final int READ_TIMEOUT = 10000;  /* milliseconds */
+
+    /** Attempts at a request and the backoff between them, as the app makes them */
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long RETRY_BASE_DELAY = 500;  /* milliseconds */
+    private static final long RETRY_MAX_DELAY = 4000;  /* milliseconds */
+
+    /** Failures in a row after which requests fail straight away, and for how long */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_DURATION = 30000;  /* milliseconds */
+
+    /** When a slow request gets a second one sent alongside it, as the app sends them */
+    private static final double HEDGE_PERCENTILE = 95;
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    private static final long HEDGE_MIN_DELAY = 100;  /* milliseconds */
+
+    /**
+     * Requests per second let through by default, far more than the API allows the app, so the
+     * load is limited by the server rather than the scheduler
+     */
+    private static final double DEFAULT_REQUEST_RATE = 1000;
+
+    /** Tasks waiting in a lane of the executor of the hedges at most */
+    private static final int HEDGE_CAPACITY = 64;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9", "max"};
+
+    private final String mSearchUrl;
+    private final int mConcurrency;
+    private final int mRequests;
+    private final int mPageSize;
+    private final int mPages;
+
+    private int mWarmUpRequests;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private boolean mHedging = true;
+    private boolean mKeepAlive = true;
+    private double mRequestRate = DEFAULT_REQUEST_RATE;
+
+    /** The pipeline of the run going on */
+    private HttpTransport mTransport;
+    private RequestScheduler mScheduler;
+    private ResilientCaller mCaller;
+    private PipelineMetrics.QueryMetrics mMetrics;
+
+    /**
+     * Create a new {@link LoadTest} making the given number of requests for pages of the given
+     * size to the given search URL, on the given number of threads, cycling through the given
+     * number of pages.
+     */
+    public LoadTest(String searchUrl, int concurrency, int requests, int pageSize, int pages) {
+        mSearchUrl = searchUrl;
+        mConcurrency = concurrency;
+        mRequests = requests;
+        mPageSize = pageSize;
+        mPages = pages;
+    }
+
+    /** Set the number of requests made before the ones measured, left out of the report. */
+    public void setWarmUpRequests(int warmUpRequests) {
+        mWarmUpRequests = warmUpRequests;
+    }
+
+    /** Set the number of attempts at a request, 1 to never retry one. */
+    public void setMaxAttempts(int maxAttempts) {
+        mMaxAttempts = maxAttempts;
+    }
+
+    /** Set whether a slow request gets a second one sent alongside it. */
+    public void setHedging(boolean hedging) {
+        mHedging = hedging;
+    }
+
+    /** Set whether a connection is handed back for the next request, or closed after one. */
+    public void setKeepAlive(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
+    /** Set the number of requests let through per second at most. */
+    public void setRequestRate(double requestRate) {
+        mRequestRate = requestRate;
+    }
+
+    /**
+     * Make all the requests and return the report of their loads, once they are done.
+     */
+    public Report run() throws InterruptedException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        mMetrics = metrics.forQuery(PipelineMetrics.QUERY_SEARCH);
+        mTransport = new HttpTransport(CONNECT_TIMEOUT, READ_TIMEOUT);
+        mScheduler = new RequestScheduler(mRequestRate, mRequestRate / 10, mConcurrency, 0);
+        // The load threads aren't workers of the executor, so the hedges run in its visible lane
+        PriorityExecutor hedgeExecutor = new PriorityExecutor(mConcurrency, HEDGE_CAPACITY,
+                metrics);
+        mCaller = new ResilientCaller(
+                new RetryPolicy(mMaxAttempts, RETRY_BASE_DELAY, RETRY_MAX_DELAY, new Random()),
+                new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_DURATION),
+                hedgeExecutor);
+        try {
+            if (mWarmUpRequests > 0) {
+                run(new Report(mWarmUpRequests, mMetrics), mWarmUpRequests);
+            }
+            return run(new Report(mRequests, mMetrics), mRequests);
+        } finally {
+            hedgeExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Make the given number of requests and return the given report of their loads, once they
+     * are done.
+     */
+    private Report run(final Report report, final int requests) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>(mConcurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < mConcurrency; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int request;
+                    while ((request = next.getAndIncrement()) < requests) {
+                        load(request, report);
+                    }
+                }
+            }, "load-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report.mDurationNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Make the request of the given index and add its load to the given report.
+     * This is on a load thread.
+     */
+    private void load(int request, Report report) {
+        final URL url;
+        try {
+            url = new URL(mSearchUrl + "&page-size=" + mPageSize
+                    + "&page=" + (request % mPages + 1));
+        } catch (IOException e) {
+            report.addFailure(-1);
+            return;
+        }
+        long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        final AtomicLong firstBatchNanos = new AtomicLong(-1);
+        final NewsStoryParser.BatchListener listener = new NewsStoryParser.BatchListener() {
+            @Override
+            public void onBatch(List<NewsStory> newsStories) {
+                // The first batch of any attempt, as the app shows that of the one it waits for
+                firstBatchNanos.compareAndSet(-1, System.nanoTime() - start);
+            }
+        };
+        try {
+            List<NewsStory> newsStories = mScheduler.execute(url.toString(),
+                    RequestScheduler.PRIORITY_USER,
+                    new RequestScheduler.Request<List<NewsStory>>() {
+                        @Override
+                        public List<NewsStory> run(CancellableRequest cancellation)
+                                throws IOException {
+                            return call(url, cancellation, listener, report);
+                        }
+                    }, new CancellableRequest(), mMetrics);
+            long loadNanos = System.nanoTime() - start;
+            // A page too small for a batch, or one shared with another load, is shown at once
+            report.addLoad(firstBatchNanos.get() < 0 ? loadNanos : firstBatchNanos.get(),
+                    loadNanos, getAllocatedBytes() - allocatedBefore, newsStories.size());
+        } catch (HttpTransport.StatusException e) {
+            report.addFailure(e.getResponseCode());
+        } catch (IOException e) {
+            report.addFailure(-1);
+        }
+    }
+
+    /**
+     * Make the request to the given URL, retrying and hedging it, and return its stories.
+     * Its attempts are timed in the given report.
+     */
+    private List<NewsStory> call(final URL url, CancellableRequest cancellation,
+                                 final NewsStoryParser.BatchListener listener,
+                                 final Report report) throws IOException {
+        return mCaller.call(new ResilientCaller.Attempt<List<NewsStory>>() {
+            @Override
+            public List<NewsStory> run(CancellableRequest attempt) throws IOException {
+                mScheduler.acquire(RequestScheduler.PRIORITY_USER, attempt, mMetrics);
+                return attempt(url, attempt, listener, report);
+            }
+        }, cancellation, hedgeDelay(), mMetrics);
+    }
+
+    /**
+     * Make a single attempt at the request to the given URL and return the stories parsed
+     * straight from the response stream, timing it in the given report. This is on a load
+     * thread, or a worker of the executor of the hedges.
+     *
+     * @throws HttpTransport.StatusException if the server answered with an error response code
+     */
+    private List<NewsStory> attempt(URL url, CancellableRequest cancellation,
+                                    NewsStoryParser.BatchListener listener, Report report)
+            throws IOException {
+        mMetrics.increment(PipelineMetrics.COUNTER_REQUESTS);
+        HttpTransport.Call call = mTransport.newCall(url);
+        List<NewsStory> newsStories = null;
+        try {
+            cancellation.setConnection(call.getConnection());
+            int responseCode = call.execute();
+            mScheduler.onResponse(responseCode,
+                    call.getConnection().getHeaderField("Retry-After"), mMetrics);
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpTransport.StatusException(responseCode);
+            }
+            newsStories = NewsStoryParser.parse(cancellation.wrap(call.getBody()), mPageSize,
+                    listener);
+            cancellation.throwIfCancelled();
+        } finally {
+            if (mKeepAlive) {
+                // Hand the connection back for the next request
+                call.close();
+            } else {
+                call.disconnect();
+            }
+            record(call.getTimings(), newsStories, cancellation.isCancelled(), report);
+        }
+        return newsStories;
+    }
+
+    /**
+     * Count a finished attempt, timing its stages if it completed, and its connection in the
+     * given report.
+     */
+    private void record(HttpTransport.Timings timings, List<NewsStory> newsStories,
+                        boolean cancelled, Report report) {
+        mMetrics.add(PipelineMetrics.COUNTER_BYTES_RECEIVED, timings.getBytesReceived());
+        if (cancelled) {
+            mMetrics.increment(PipelineMetrics.COUNTER_CANCELLED);
+        } else if (newsStories == null) {
+            mMetrics.increment(PipelineMetrics.COUNTER_FAILED);
+        } else {
+            mMetrics.add(PipelineMetrics.COUNTER_STORIES, newsStories.size());
+            mMetrics.recordNanos(PipelineMetrics.STAGE_CONNECT, timings.getConnectNanos());
+            report.mConnects.recordNanos(timings.getConnectNanos());
+            mMetrics.recordNanos(PipelineMetrics.STAGE_FIRST_BYTE, timings.getWaitNanos());
+            mMetrics.recordNanos(PipelineMetrics.STAGE_DOWNLOAD, timings.getReadNanos());
+            mMetrics.recordNanos(PipelineMetrics.STAGE_REQUEST, timings.getConnectNanos()
+                    + timings.getWaitNanos() + timings.getTransferNanos());
+        }
+    }
+
+    /**
+     * Return the time in milliseconds after which a request gets a second one sent alongside it,
+     * or 0 if it shouldn't, from the times of the requests so far, as the app decides it.
+     */
+    private long hedgeDelay() {
+        LatencyHistogram requests = mMetrics.getStage(PipelineMetrics.STAGE_REQUEST);
+        if (!mHedging || requests.getCount() < HEDGE_MIN_SAMPLES) {
+            return 0;
+        }
+        return Math.max(HEDGE_MIN_DELAY, requests.getValueAtPercentile(HEDGE_PERCENTILE) / 1000);
+    }
+
+    /**
+     * Return the number of bytes allocated by the current thread so far, or 0 if the JVM
+     * doesn't count them.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * The timings and allocations of the loads of a run, the failures, and the counters of the
+     * pipeline they went through.
+     */
+    public static class Report {
+        private final long[] mFirstBatchNanos;
+        private final long[] mLoadNanos;
+        private int mLoadCount;
+        private long mAllocatedBytes;
+        private long mStoryCount;
+        /** Number of failures by response code, -1 for those that got no response */
+        private final TreeMap<Integer, Integer> mFailures = new TreeMap<>();
+        private long mDurationNanos;
+        /** Times to connect of the attempts that completed, fresh or taken from the pool */
+        private final LatencyHistogram mConnects = new LatencyHistogram();
+        private final PipelineMetrics.QueryMetrics mMetrics;
+        /** Counters of the pipeline before the loads, which were counted by earlier ones */
+        private final long[] mStartCounts = new long[PipelineMetrics.COUNTER_COUNT];
+
+        Report(int requests, PipelineMetrics.QueryMetrics metrics) {
+            mFirstBatchNanos = new long[requests];
+            mLoadNanos = new long[requests];
+            mMetrics = metrics;
+            for (int counter = 0; counter < mStartCounts.length; counter++) {
+                mStartCounts[counter] = metrics.getCount(counter);
+            }
+        }
+
+        synchronized void addLoad(long firstBatchNanos, long loadNanos, long allocatedBytes,
+                                  int storyCount) {
+            mFirstBatchNanos[mLoadCount] = firstBatchNanos;
+            mLoadNanos[mLoadCount] = loadNanos;
+            mLoadCount++;
+            mAllocatedBytes += allocatedBytes;
+            mStoryCount += storyCount;
+        }
+
+        synchronized void addFailure(int responseCode) {
+            Integer count = mFailures.get(responseCode);
+            mFailures.put(responseCode, count == null ? 1 : count + 1);
+        }
+
+        /** Return the number of pages loaded. */
+        public synchronized int getLoadCount() {
+            return mLoadCount;
+        }
+
+        /** Return the number of requests that failed, for any reason. */
+        public synchronized int getFailureCount() {
+            int failures = 0;
+            for (int count : mFailures.values()) {
+                failures += count;
+            }
+            return failures;
+        }
+
+        /** Return the number of stories of all the pages loaded. */
+        public synchronized long getStoryCount() {
+            return mStoryCount;
+        }
+
+        /** Return the given percentile of the times in nanoseconds to the first batch. */
+        public synchronized long getFirstBatchPercentile(double percentile) {
+            return percentile(mFirstBatchNanos, percentile);
+        }
+
+        /** Return the given percentile of the times in nanoseconds to load a whole page. */
+        public synchronized long getLoadPercentile(double percentile) {
+            return percentile(mLoadNanos, percentile);
+        }
+
+        /**
+         * Return the given percentile of the times in nanoseconds the completed attempts took to
+         * connect, about 3% precise.
+         */
+        public long getConnectPercentile(double percentile) {
+            return mConnects.getValueAtPercentile(percentile) * 1000;
+        }
+
+        /**
+         * Return the given counter of the pipeline over the loads, one of the COUNTER constants
+         * of {@link PipelineMetrics}.
+         */
+        public long getCount(int counter) {
+            return mMetrics.getCount(counter) - mStartCounts[counter];
+        }
+
+        /**
+         * Return the mean number of bytes a load allocated on its load thread, or 0 if they
+         * weren't counted. The hedges are made on other threads and left out.
+         */
+        public synchronized long getAllocatedBytesPerLoad() {
+            return mLoadCount == 0 ? 0 : mAllocatedBytes / mLoadCount;
+        }
+
+        /**
+         * Return the given percentile, the nearest rank, of the first values of the given array
+         * that were set.
+         */
+        private long percentile(long[] nanos, double percentile) {
+            if (mLoadCount == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(nanos, mLoadCount);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+        }
+
+        @Override
+        public synchronized String toString() {
+            double seconds = mDurationNanos / 1e9;
+            StringBuilder report = new StringBuilder(String.format(Locale.US,
+                    "%d pages loaded, %d stories, %d failed %s, in %.2f s: %.1f pages/s%n",
+                    mLoadCount, mStoryCount, getFailureCount(), mFailures, seconds,
+                    mLoadCount / seconds));
+            report.append(String.format(Locale.US, "%-12s", "ms"));
+            for (String name : PERCENTILE_NAMES) {
+                report.append(String.format(Locale.US, "%10s", name));
+            }
+            appendRow(report, "first batch", mFirstBatchNanos);
+            appendRow(report, "whole page", mLoadNanos);
+            report.append(String.format(Locale.US, "%n%-12s", "connect"));
+            for (double percentile : PERCENTILES) {
+                report.append(String.format(Locale.US, "%10.3f",
+                        getConnectPercentile(percentile) / 1e6));
+            }
+            report.append(String.format(Locale.US, "%n%.1f KB allocated per load%n",
+                    getAllocatedBytesPerLoad() / 1024.0));
+            int[] counters = {PipelineMetrics.COUNTER_REQUESTS, PipelineMetrics.COUNTER_RETRIED,
+                    PipelineMetrics.COUNTER_HEDGED, PipelineMetrics.COUNTER_SHORT_CIRCUITED,
+                    PipelineMetrics.COUNTER_COALESCED, PipelineMetrics.COUNTER_THROTTLED,
+                    PipelineMetrics.COUNTER_RATE_LIMITED};
+            for (int i = 0; i < counters.length; i++) {
+                report.append(i == 0 ? "" : ", ")
+                        .append(PipelineMetrics.getCounterName(counters[i])).append(' ')
+                        .append(getCount(counters[i]));
+            }
+            return report.toString();
+        }
+
+        private void appendRow(StringBuilder report, String name, long[] nanos) {
+            report.append(String.format(Locale.US, "%n%-12s", name));
+            for (double percentile : PERCENTILES) {
+                report.append(String.format(Locale.US, "%10.1f",
+                        percentile(nanos, percentile) / 1e6));
+            }
+        }
+    }
+
+    /**
+     * Run a load test against the given search URL, or a simulator of the given settings started
+     * for it, and print its report.
+     */
+    public static void main(String[] args) {
+        String url = null;
+        int concurrency = 4;
+        int requests = 200;
+        int pageSize = DEFAULT_PAGE_SIZE;
+        int pages = 5;
+        int warmUp = 0;
+        int attempts = DEFAULT_MAX_ATTEMPTS;
+        boolean hedging = true;
+        boolean keepAlive = true;
+        double rate = DEFAULT_REQUEST_RATE;
+        ApiSimulator simulator = null;
+        try {
+            simulator = new ApiSimulator(ApiSimulator.readDefaultResults(), new Random());
+            if (args.length % 2 != 0) {
+                exit(USAGE, 2);
+            }
+            for (int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--url":
+                        url = value;
+                        break;
+                    case "--concurrency":
+                        concurrency = Integer.parseInt(value);
+                        break;
+                    case "--requests":
+                        requests = Integer.parseInt(value);
+                        break;
+                    case "--page-size":
+                        pageSize = Integer.parseInt(value);
+                        break;
+                    case "--pages":
+                        pages = Integer.parseInt(value);
+                        break;
+                    case "--warm-up":
+                        warmUp = Integer.parseInt(value);
+                        break;
+                    case "--attempts":
+                        attempts = Integer.parseInt(value);
+                        break;
+                    case "--hedge":
+                        hedging = Boolean.parseBoolean(value);
+                        break;
+                    case "--keep-alive":
+                        keepAlive = Boolean.parseBoolean(value);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    default:
+                        if (!simulator.setOption(args[i], value)) {
+                            exit(USAGE, 2);
+                        }
+                }
+            }
+            if (concurrency < 1 || requests < 1 || pageSize < 1 || pages < 1 || warmUp < 0
+                    || attempts < 1 || rate <= 0) {
+                exit(USAGE, 2);
+            }
+            if (url == null) {
+                simulator.setResultCount(Math.max(simulator.getResultCount(), pageSize * pages));
+                simulator.start(0);
+                url = simulator.getSearchUrl();
+            }
+            System.out.println(String.format(Locale.US,
+                    "Loading %d pages of %d stories from %s on %d threads", requests, pageSize,
+                    url, concurrency));
+            LoadTest loadTest = new LoadTest(url, concurrency, requests, pageSize, pages);
+            loadTest.setWarmUpRequests(warmUp);
+            loadTest.setMaxAttempts(attempts);
+            loadTest.setHedging(hedging);
+            loadTest.setKeepAlive(keepAlive);
+            loadTest.setRequestRate(rate);
+            System.out.println(loadTest.run());
+        } catch (NumberFormatException e) {
+            exit(USAGE, 2);
+        } catch (IOException e) {
+            exit("Load test failed: " + e.getMessage(), 1);
+        } catch (InterruptedException e) {
+            exit("Load test interrupted", 1);
+        } finally {
+            if (simulator != null) {
+                simulator.stop();
+            }
+        }
+    }
+
+    private static void exit(String message, int status) {
+        System.err.println(message);
+        System.exit(status);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ApiSimulator}, over HTTP on the loopback address.
+ */
+public class ApiSimulatorTest {
+
+    private ApiSimulator mSimulator;
+
+    @Before
+    public void setUp() throws IOException {
+        mSimulator = new ApiSimulator(ApiSimulator.readDefaultResults(), new Random(1));
+        mSimulator.start(0);
+    }
+
+    @After
+    public void tearDown() {
+        mSimulator.stop();
+    }
+
+    @Test
+    public void search_servesPagesOfRequestedSize_repeatingRecordedResults() throws IOException {
+        mSimulator.setResultCount(500);
+
+        List<NewsStory> first = load("&page-size=50&page=1");
+        List<NewsStory> last = load("&page-size=50&page=10");
+
+        assertEquals(50, first.size());
+        assertEquals(50, last.size());
+        Set<String> urls = new HashSet<>();
+        for (NewsStory newsStory : first) {
+            urls.add(newsStory.getUrl());
+        }
+        for (NewsStory newsStory : last) {
+            urls.add(newsStory.getUrl());
+        }
+        assertEquals(100, urls.size());
+    }
+
+    @Test
+    public void search_cutsPageSizeToMaximum() throws IOException {
+        mSimulator.setMaxPageSize(20);
+
+        assertEquals(20, load("&page-size=50").size());
+    }
+
+    @Test
+    public void search_refusesPageBeyondLast() throws IOException {
+        mSimulator.setResultCount(30);
+
+        assertEquals(400, responseCode("&page-size=10&page=4"));
+    }
+
+    @Test
+    public void search_failsAtErrorRates() throws IOException {
+        mSimulator.setErrorRate(1);
+        assertEquals(503, responseCode(""));
+
+        mSimulator.setErrorRate(0);
+        mSimulator.setRateLimitedRate(1);
+        assertEquals(429, responseCode(""));
+        assertEquals(2, mSimulator.getRequestCount());
+    }
+
+    @Test
+    public void search_waitsForLatencyAndBandwidth() throws IOException {
+        mSimulator.setLatency(100);
+        mSimulator.setGzip(false);
+        mSimulator.setBandwidth(100 * 1024);
+
+        long start = System.nanoTime();
+        List<NewsStory> newsStories = load("&page-size=50");
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        // 50 uncompressed results take about half a second at 100 KB/s
+        assertEquals(50, newsStories.size());
+        assertTrue("Took " + millis + " ms", millis >= 300);
+    }
+
+    private List<NewsStory> load(String parameters) throws IOException {
+        HttpURLConnection connection = open(parameters);
+        try {
+            assertEquals(200, connection.getResponseCode());
+            InputStream in = connection.getInputStream();
+            if ("gzip".equals(connection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            return NewsStoryParser.parse(in, 50);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private int responseCode(String parameters) throws IOException {
+        HttpURLConnection connection = open(parameters);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String parameters) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL(mSimulator.getSearchUrl() + parameters).openConnection();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        return connection;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.p6_newsappstage1;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LoadTest}, against an {@link ApiSimulator}.
+ */
+public class LoadTestTest {
+
+    /**
+     * Of every 25 requests the one that is slow, and how much slower, 4% of them, more than the
+     * 1% over the 99th percentile and less than the 5% the app hedges after
+     */
+    private static final int SLOW_EVERY = 25;
+    private static final long SLOW_LATENCY = 1000;  /* milliseconds */
+
+    /** Requests measured for the tail latency, each for a page of its own */
+    private static final int TAIL_REQUESTS = 300;
+    private static final int TAIL_PAGE_SIZE = 10;
+
+    private ApiSimulator mSimulator;
+
+    @Before
+    public void setUp() throws IOException {
+        mSimulator = new ApiSimulator(ApiSimulator.readDefaultResults(), new Random(1));
+        mSimulator.setResultCount(100);
+        mSimulator.start(0);
+    }
+
+    @After
+    public void tearDown() {
+        mSimulator.stop();
+    }
+
+    @Test
+    public void run_loadsEveryPage_reportsOrderedPercentiles() throws InterruptedException {
+        mSimulator.setLatency(20);
+
+        LoadTest.Report report = new LoadTest(mSimulator.getSearchUrl(), 4, 20, 20, 5).run();
+
+        assertEquals(20, report.getLoadCount());
+        assertEquals(0, report.getFailureCount());
+        assertEquals(400, report.getStoryCount());
+        // A load of a page that is being loaded already shares its response
+        assertEquals(20, report.getCount(PipelineMetrics.COUNTER_REQUESTS)
+                + report.getCount(PipelineMetrics.COUNTER_COALESCED));
+        assertEquals(report.getCount(PipelineMetrics.COUNTER_REQUESTS),
+                mSimulator.getRequestCount());
+        assertTrue(report.getLoadPercentile(50) >= 20000000);
+        assertTrue(report.getFirstBatchPercentile(50) <= report.getLoadPercentile(50));
+        assertTrue(report.getLoadPercentile(50) <= report.getLoadPercentile(99));
+        assertTrue(report.getLoadPercentile(99) <= report.getLoadPercentile(100));
+    }
+
+    @Test
+    public void run_retriesFailedRequests() throws InterruptedException {
+        mSimulator.setErrorRate(0.2);
+
+        LoadTest.Report report = new LoadTest(mSimulator.getSearchUrl(), 2, 20, 20, 5).run();
+
+        assertEquals(20, report.getLoadCount() + report.getFailureCount());
+        assertTrue(report.getCount(PipelineMetrics.COUNTER_RETRIED) > 0);
+        assertTrue(report.getLoadCount() > 20 * 0.8);
+    }
+
+    @Test
+    public void hedges_cutTailLatency() throws InterruptedException {
+        mSimulator.setResultCount(TAIL_REQUESTS * TAIL_PAGE_SIZE);
+        mSimulator.setLatency(5);
+        mSimulator.setSlowEvery(SLOW_EVERY);
+        mSimulator.setSlowLatency(SLOW_LATENCY);
+
+        LoadTest baseline = newTailLatencyTest();
+        baseline.setMaxAttempts(1);
+        baseline.setHedging(false);
+        LoadTest.Report single = baseline.run();
+        LoadTest.Report hedged = newTailLatencyTest().run();
+
+        // One in 25 requests is slow, so the slowest percent of single attempts all waited for
+        // it, while hedges answer those long before
+        assertTrue(single.getLoadPercentile(99) >= SLOW_LATENCY * 1000000);
+        assertEquals(0, hedged.getFailureCount());
+        assertTrue(hedged.getCount(PipelineMetrics.COUNTER_HEDGED) > 0);
+        assertTrue(hedged.getLoadPercentile(99) < SLOW_LATENCY * 1000000 / 2);
+    }
+
+    @Test
+    public void run_countsFailures_andStopsTryingFailingServer() throws InterruptedException {
+        mSimulator.setErrorRate(1);
+
+        LoadTest.Report report = new LoadTest(mSimulator.getSearchUrl(), 2, 10, 20, 5).run();
+
+        assertEquals(0, report.getLoadCount());
+        assertEquals(10, report.getFailureCount());
+        assertEquals(0, report.getLoadPercentile(50));
+        assertTrue(report.getCount(PipelineMetrics.COUNTER_SHORT_CIRCUITED) > 0);
+        assertTrue(mSimulator.getRequestCount() < 10 * 3);
+    }
+
+    @Test
+    public void keptAliveConnections_connectFasterThanFreshOnes() throws InterruptedException {
+        LoadTest fresh = new LoadTest(mSimulator.getSearchUrl(), 1, 50, 20, 5);
+        fresh.setKeepAlive(false);
+        LoadTest.Report freshReport = fresh.run();
+        LoadTest.Report reusedReport =
+                new LoadTest(mSimulator.getSearchUrl(), 1, 50, 20, 5).run();
+
+        assertEquals(0, freshReport.getFailureCount());
+        assertEquals(0, reusedReport.getFailureCount());
+        // Every fresh request opens a connection, a reused one is taken from the pool
+        assertTrue(reusedReport.getConnectPercentile(50) < freshReport.getConnectPercentile(50));
+    }
+
+    /**
+     * Return a load test of small pages, warmed up so the hedges are sent from the first request
+     * measured.
+     */
+    private LoadTest newTailLatencyTest() {
+        LoadTest loadTest = new LoadTest(mSimulator.getSearchUrl(), 4, TAIL_REQUESTS,
+                TAIL_PAGE_SIZE, TAIL_REQUESTS);
+        loadTest.setWarmUpRequests(50);
+        return loadTest;
+    }
+}